@@ -0,0 +1,136 @@
+package com.indexdata.reservoir.benchmark;
+
+import com.indexdata.reservoir.util.JsonToMarcXml;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.MarcXmlReader;
+
+/**
+ * Sample data for the benchmarks.
+ *
+ * <p>Records are the MARC-in-JSON files in js/test/records. The js directory is found
+ * relative to the current directory (top-level or benchmarks directory) unless given by
+ * system property {@code reservoir.js.dir}.
+ */
+public final class BenchmarkData {
+  private static final String COLLECTION_BEGIN =
+      "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n";
+  private static final String COLLECTION_END = "</collection>\n";
+
+  private BenchmarkData() {
+    throw new UnsupportedOperationException("BenchmarkData");
+  }
+
+  /**
+   * Get the js directory of the source tree.
+   * @return path of js directory
+   * @throws IllegalStateException if not found
+   */
+  public static Path jsDir() {
+    String dir = System.getProperty("reservoir.js.dir");
+    if (dir != null) {
+      return Path.of(dir);
+    }
+    for (String candidate : List.of("js", "../js")) {
+      Path path = Path.of(candidate);
+      if (Files.isDirectory(path.resolve("test").resolve("records"))) {
+        return path;
+      }
+    }
+    throw new IllegalStateException("js directory not found; set reservoir.js.dir");
+  }
+
+  /**
+   * Read file in js directory.
+   * @param name path relative to js directory
+   * @return file content
+   */
+  public static String readJsFile(String name) {
+    try {
+      return Files.readString(jsDir().resolve(name));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Load MARC-in-JSON sample records.
+   *
+   * <p>Files that are not valid JSON or have no fields are skipped.
+   * @return records in file name order
+   */
+  public static List<JsonObject> records() {
+    List<JsonObject> records = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(jsDir().resolve("test").resolve("records"))) {
+      for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().toList()) {
+        try {
+          JsonObject marc = new JsonObject(Files.readString(file));
+          if (marc.getValue("fields") instanceof JsonArray) {
+            records.add(marc);
+          }
+        } catch (DecodeException e) {
+          // invalid-1-broken-json.json
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return records;
+  }
+
+  /**
+   * Repeat sample records.
+   * @param size number of records to return
+   * @return deep copies of the sample records, cycling through them
+   */
+  public static List<JsonObject> records(int size) {
+    List<JsonObject> samples = records();
+    List<JsonObject> records = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      records.add(samples.get(i % samples.size()).copy());
+    }
+    return records;
+  }
+
+  /**
+   * MARCXML collection of records.
+   * @param records MARC-in-JSON records
+   * @return collection as UTF-8 buffer
+   */
+  public static Buffer marcXml(List<JsonObject> records) {
+    StringBuilder sb = new StringBuilder(COLLECTION_BEGIN);
+    records.forEach(marc -> sb.append(JsonToMarcXml.convert(marc)));
+    sb.append(COLLECTION_END);
+    return Buffer.buffer(sb.toString());
+  }
+
+  /**
+   * ISO2709 encoding of records.
+   * @param records MARC-in-JSON records
+   * @return concatenated ISO2709 records
+   */
+  public static Buffer iso2709(List<JsonObject> records) {
+    byte[] xml = marcXml(records).getBytes();
+    MarcXmlReader reader = new MarcXmlReader(new ByteArrayInputStream(xml));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MarcStreamWriter writer = new MarcStreamWriter(out, StandardCharsets.UTF_8.name());
+    while (reader.hasNext()) {
+      writer.write(reader.next());
+    }
+    writer.close();
+    return Buffer.buffer(out.toByteArray());
+  }
+}
@@ -0,0 +1,78 @@
+package com.indexdata.reservoir.benchmark;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Read stream that delivers a buffer in chunks on the calling thread.
+ *
+ * <p>This keeps the event loop out of the measurements. The chunk size is that of
+ * a file read stream.
+ */
+public class BufferReadStream implements ReadStream<Buffer> {
+  public static final int CHUNK_SIZE = 8192;
+
+  private final Buffer buffer;
+  private int offset;
+  private boolean paused;
+  private boolean ended;
+  private Handler<Buffer> handler;
+  private Handler<Void> endHandler;
+
+  public BufferReadStream(Buffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Deliver chunks until paused or all of buffer has been delivered.
+   */
+  public void run() {
+    while (!paused && offset < buffer.length()) {
+      int end = Math.min(offset + CHUNK_SIZE, buffer.length());
+      Buffer chunk = buffer.getBuffer(offset, end);
+      offset = end;
+      handler.handle(chunk);
+    }
+    if (!paused && !ended) {
+      ended = true;
+      if (endHandler != null) {
+        endHandler.handle(null);
+      }
+    }
+  }
+
+  @Override
+  public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+    return this;
+  }
+
+  @Override
+  public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+    this.handler = handler;
+    return this;
+  }
+
+  @Override
+  public ReadStream<Buffer> pause() {
+    paused = true;
+    return this;
+  }
+
+  @Override
+  public ReadStream<Buffer> resume() {
+    paused = false;
+    return this;
+  }
+
+  @Override
+  public ReadStream<Buffer> fetch(long amount) {
+    return resume();
+  }
+
+  @Override
+  public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+    this.endHandler = endHandler;
+    return this;
+  }
+}
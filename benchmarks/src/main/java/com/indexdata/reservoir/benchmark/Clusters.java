@@ -0,0 +1,42 @@
+package com.indexdata.reservoir.benchmark;
+
+import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cluster records for the benchmarks.
+ */
+public final class Clusters {
+  private Clusters() {
+    throw new UnsupportedOperationException("Clusters");
+  }
+
+  /**
+   * Global records of a cluster, in no particular order.
+   *
+   * <p>Each source contributes {@code versions} versions of the same record, so that
+   * {@link ClusterBuilder} has older versions to discard.
+   * @param sources number of sources
+   * @param versions number of versions of each source record
+   * @return array of records as encoded by ClusterBuilder.encodeRecord
+   */
+  public static JsonArray records(int sources, int versions) {
+    List<JsonObject> marc = BenchmarkData.records(sources);
+    JsonArray records = new JsonArray();
+    for (int v = versions; v > 0; v--) {
+      for (int s = sources; s > 0; s--) {
+        records.add(new JsonObject()
+            .put(ClusterBuilder.GLOBAL_ID_LABEL, UUID.randomUUID().toString())
+            .put(ClusterBuilder.LOCAL_ID_LABEL, "l" + s)
+            .put(ClusterBuilder.SOURCE_ID_LABEL, "source-" + s)
+            .put(ClusterBuilder.SOURCE_VERSION_LABEL, v)
+            .put(ClusterBuilder.PAYLOAD_LABEL,
+                new JsonObject().put("marc", marc.get(s - 1).copy())));
+      }
+    }
+    return records;
+  }
+}
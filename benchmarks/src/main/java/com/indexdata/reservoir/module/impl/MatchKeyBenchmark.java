@@ -0,0 +1,93 @@
+package com.indexdata.reservoir.module.impl;
+
+import com.indexdata.reservoir.benchmark.BenchmarkData;
+import com.indexdata.reservoir.module.Module;
+import com.indexdata.reservoir.server.entity.CodeModuleEntity;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Built-in Java match keys compared with the JavaScript modules in js/matchkeys.
+ *
+ * <p>Each invocation generates keys for all sample records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchKeyBenchmark {
+  private static final Map<String, String> SCRIPTS = Map.of(
+      "goldrush", "matchkeys/goldrush/goldrush.mjs",
+      "goldrush2024", "matchkeys/goldrush2024/goldrush.mjs",
+      "deepdish", "matchkeys/deepdish/deepdish.mjs");
+
+  @Param({"goldrush", "goldrush2024", "deepdish"})
+  String key;
+
+  @Param({"java", "javascript"})
+  String type;
+
+  Module module;
+  String function;
+  List<JsonObject> payloads;
+
+  /**
+   * Create module and payloads.
+   */
+  @Setup
+  public void setup() {
+    if ("java".equals(type)) {
+      module = new ModuleJava();
+      function = key;
+      module.initialize(new CodeModuleEntity(key, type, null, null, null));
+    } else {
+      String script = SCRIPTS.get(key);
+      module = new ModuleJavaScript();
+      function = "matchkey";
+      module.initialize(new CodeModuleEntity(key, type, script, null,
+          BenchmarkData.readJsFile(script)));
+    }
+    payloads = BenchmarkData.records().stream()
+        .map(marc -> new JsonObject().put("marc", marc))
+        .toList();
+  }
+
+  @TearDown
+  public void tearDown() {
+    module.terminate();
+  }
+
+  @Benchmark
+  public void matchkey(Blackhole blackhole) {
+    for (JsonObject payload : payloads) {
+      blackhole.consume(module.executeAsCollection(function, payload));
+    }
+  }
+
+  /**
+   * Concurrent use of the same module as with ingest on worker threads.
+   */
+  @Benchmark
+  @Threads(4)
+  public void matchkeyThreads(Blackhole blackhole) {
+    matchkey(blackhole);
+  }
+}
@@ -0,0 +1,76 @@
+package com.indexdata.reservoir.module.impl;
+
+import com.indexdata.reservoir.benchmark.BenchmarkData;
+import com.indexdata.reservoir.module.Module;
+import com.indexdata.reservoir.server.entity.CodeModuleEntity;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ISBN extraction with a jsonpath module and with the isxn JavaScript module.
+ *
+ * <p>The two do not normalize alike; this measures the cost of the module types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModuleBenchmark {
+  static final String ISXN_SCRIPT = "matchkeys/isxn/isxn.mjs";
+
+  static final String ISBN_PATH = "$.marc.fields[*]['020'].subfields[*].a";
+
+  @Param({"jsonpath", "javascript"})
+  String type;
+
+  Module module;
+  String function;
+  List<JsonObject> payloads;
+
+  /**
+   * Create module and payloads.
+   */
+  @Setup
+  public void setup() {
+    if ("jsonpath".equals(type)) {
+      module = new ModuleJsonPath();
+      module.initialize(new CodeModuleEntity("isbn", type, null, null, ISBN_PATH));
+    } else {
+      module = new ModuleJavaScript();
+      function = "matchkey";
+      module.initialize(new CodeModuleEntity("isxn", type, ISXN_SCRIPT, null,
+          BenchmarkData.readJsFile(ISXN_SCRIPT)));
+    }
+    payloads = BenchmarkData.records().stream()
+        .map(marc -> new JsonObject().put("marc", marc))
+        .toList();
+  }
+
+  @TearDown
+  public void tearDown() {
+    module.terminate();
+  }
+
+  @Benchmark
+  public void executeAsCollection(Blackhole blackhole) {
+    for (JsonObject payload : payloads) {
+      blackhole.consume(module.executeAsCollection(function, payload));
+    }
+  }
+}
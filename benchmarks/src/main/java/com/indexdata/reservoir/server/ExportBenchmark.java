@@ -0,0 +1,87 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.benchmark.BenchmarkData;
+import com.indexdata.reservoir.benchmark.Clusters;
+import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import com.indexdata.reservoir.util.JsonToMarcXml;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MARCXML generation as done for OAI-PMH and SRU responses.
+ *
+ * <p>getMetadataJava adds the 999 field to the first record of the cluster, so each
+ * invocation works on a copy; {@link #copyCluster()} gives the cost of that alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+  @Param({"1", "5", "20"})
+  int sources;
+
+  List<JsonObject> marc;
+  JsonObject cluster;
+
+  /**
+   * Prepare sample records and a cluster.
+   */
+  @Setup
+  public void setup() {
+    marc = BenchmarkData.records();
+    JsonArray records = Clusters.records(sources, 1);
+    cluster = new ClusterBuilder(UUID.randomUUID()).records(records).build()
+        .put(ClusterBuilder.MATCH_VALUES_LABEL, new JsonArray().add("a").add("b"));
+  }
+
+  /**
+   * Convert each of the sample records.
+   */
+  @Benchmark
+  public void jsonToMarcXml(Blackhole blackhole) {
+    for (JsonObject m : marc) {
+      blackhole.consume(JsonToMarcXml.convert(m));
+    }
+  }
+
+  /**
+   * Write each of the sample records to one buffer.
+   */
+  @Benchmark
+  public Buffer writeMarcXml() {
+    Buffer buffer = Buffer.buffer();
+    for (JsonObject m : marc) {
+      JsonToMarcXml.write(buffer, m);
+    }
+    return buffer;
+  }
+
+  @Benchmark
+  public JsonObject copyCluster() {
+    return cluster.copy();
+  }
+
+  @Benchmark
+  public Buffer getMetadataJava() {
+    return ClusterMarcXml.getMetadataJava(cluster.copy());
+  }
+}
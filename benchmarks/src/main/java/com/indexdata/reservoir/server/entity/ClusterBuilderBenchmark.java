@@ -0,0 +1,80 @@
+package com.indexdata.reservoir.server.entity;
+
+import com.indexdata.reservoir.benchmark.Clusters;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cluster assembly as done for each cluster on export.
+ *
+ * <p>latest and sort modify the array, so each invocation works on a shallow copy;
+ * {@link #copy()} gives the cost of that alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBuilderBenchmark {
+  @Param({"2", "10", "50"})
+  int sources;
+
+  @Param({"1", "3"})
+  int versions;
+
+  JsonArray records;
+
+  @Setup
+  public void setup() {
+    records = Clusters.records(sources, versions);
+  }
+
+  JsonArray shallowCopy() {
+    return new JsonArray(new ArrayList<>(records.getList()));
+  }
+
+  @Benchmark
+  public JsonArray copy() {
+    return shallowCopy();
+  }
+
+  /**
+   * Keep latest version of each source.
+   */
+  @Benchmark
+  public JsonArray latest() {
+    JsonArray a = shallowCopy();
+    ClusterBuilder.latest(a);
+    return a;
+  }
+
+  /**
+   * Sort by source, version and local identifier.
+   */
+  @Benchmark
+  public JsonArray sort() {
+    JsonArray a = shallowCopy();
+    ClusterBuilder.sort(a);
+    return a;
+  }
+
+  @Benchmark
+  public JsonObject build() {
+    return new ClusterBuilder(UUID.randomUUID()).records(shallowCopy()).build();
+  }
+}
@@ -0,0 +1,106 @@
+package com.indexdata.reservoir.util;
+
+import com.indexdata.reservoir.benchmark.BenchmarkData;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Payload storage formats: JSON text as sent for JSONB columns, and {@link PayloadCodec}.
+ *
+ * <p>Each invocation writes or reads the payloads of {@code records} records. The write
+ * benchmarks count the bytes written as secondary result {@code bytes}; bytes divided by
+ * operations is the total size of the payloads in that format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadCodecBenchmark {
+  @Param({"1000"})
+  int records;
+
+  @Param({"1", "6"})
+  int level;
+
+  List<JsonObject> payloads = new ArrayList<>();
+  List<Buffer> json = new ArrayList<>();
+  List<Buffer> compressed = new ArrayList<>();
+
+  /**
+   * Bytes written, reported per second like the operations.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Written {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  /**
+   * Prepare payloads in both formats.
+   */
+  @Setup
+  public void setup() {
+    for (JsonObject marc : BenchmarkData.records(records)) {
+      JsonObject payload = new JsonObject().put("marc", marc);
+      payloads.add(payload);
+      json.add(payload.toBuffer());
+      compressed.add(PayloadCodec.encode(payload, level));
+    }
+  }
+
+  @Benchmark
+  public void writeJson(Written written, Blackhole blackhole) {
+    for (JsonObject payload : payloads) {
+      Buffer buffer = payload.toBuffer();
+      written.bytes += buffer.length();
+      blackhole.consume(buffer);
+    }
+  }
+
+  @Benchmark
+  public void writeCompressed(Written written, Blackhole blackhole) {
+    for (JsonObject payload : payloads) {
+      Buffer buffer = PayloadCodec.encode(payload, level);
+      written.bytes += buffer.length();
+      blackhole.consume(buffer);
+    }
+  }
+
+  @Benchmark
+  public void readJson(Blackhole blackhole) {
+    for (Buffer buffer : json) {
+      blackhole.consume(new JsonObject(buffer));
+    }
+  }
+
+  @Benchmark
+  public void readCompressed(Blackhole blackhole) {
+    for (Buffer buffer : compressed) {
+      blackhole.consume(PayloadCodec.decode(buffer));
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.indexdata.reservoir.util.readstream;
+
+import com.indexdata.reservoir.benchmark.BenchmarkData;
+import com.indexdata.reservoir.benchmark.BufferReadStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.marc4j.marc.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of ingested record files: ISO2709 and MARCXML to MARC-in-JSON.
+ *
+ * <p>Each invocation parses a file of {@code records} records, the sample records
+ * repeated, delivered in chunks as the ingest would receive them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({"1000"})
+  int records;
+
+  Buffer iso2709;
+  Buffer marcXml;
+  List<Record> marc4jRecords = new ArrayList<>();
+
+  /**
+   * Prepare ISO2709 and MARCXML files.
+   */
+  @Setup
+  public void setup() {
+    List<JsonObject> samples = BenchmarkData.records(records);
+    iso2709 = BenchmarkData.iso2709(samples);
+    marcXml = BenchmarkData.marcXml(samples);
+    Marc4jMapper mapper = new Marc4jMapper();
+    mapper.push(iso2709);
+    mapper.end();
+    Record marcRecord;
+    while ((marcRecord = mapper.poll()) != null) {
+      marc4jRecords.add(marcRecord);
+    }
+  }
+
+  static <T> void drain(Mapper<Buffer, T> mapper, Buffer buffer, Blackhole blackhole) {
+    for (int i = 0; i < buffer.length(); i += BufferReadStream.CHUNK_SIZE) {
+      mapper.push(buffer.getBuffer(i, Math.min(i + BufferReadStream.CHUNK_SIZE,
+          buffer.length())));
+      T t;
+      while ((t = mapper.poll()) != null) {
+        blackhole.consume(t);
+      }
+    }
+    mapper.end();
+    T t;
+    while ((t = mapper.poll()) != null) {
+      blackhole.consume(t);
+    }
+  }
+
+  @Benchmark
+  public void marc4jMapper(Blackhole blackhole) {
+    drain(new Marc4jMapper(), iso2709, blackhole);
+  }
+
+  /**
+   * ISO2709 decoded directly to MARC-in-JSON.
+   */
+  @Benchmark
+  public void iso2709Mapper(Blackhole blackhole) {
+    drain(new Iso2709Mapper(), iso2709, blackhole);
+  }
+
+  /**
+   * ISO2709 to MARC-in-JSON.
+   */
+  @Benchmark
+  public void marcToJsonParser(Blackhole blackhole) {
+    BufferReadStream stream = new BufferReadStream(iso2709);
+    new MarcToJsonParser(stream).handler(blackhole::consume);
+    stream.run();
+  }
+
+  /**
+   * Conversion of parsed ISO2709 records to MARC-in-JSON.
+   */
+  @Benchmark
+  public void marcToJsonObjectMapper(Blackhole blackhole) {
+    Mapper<Record, JsonObject> mapper = new MarcToJsonObjectMapper();
+    for (Record marcRecord : marc4jRecords) {
+      mapper.push(marcRecord);
+      blackhole.consume(mapper.poll());
+    }
+  }
+
+  @Benchmark
+  public void xmlMapper(Blackhole blackhole) {
+    drain(new XmlMapper(), marcXml, blackhole);
+  }
+
+  /**
+   * MARCXML to MARC-in-JSON.
+   */
+  @Benchmark
+  public void marcXmlParserToJson(Blackhole blackhole) {
+    BufferReadStream stream = new BufferReadStream(marcXml);
+    new MarcXmlParserToJson(XmlParser.newParser(stream)).handler(blackhole::consume);
+    stream.run();
+  }
+
+  @Benchmark
+  public void xmlFixerMapper(Blackhole blackhole) {
+    drain(new XmlFixerMapper(), marcXml, blackhole);
+  }
+
+  /**
+   * MARCXML through XmlFixer to MARC-in-JSON as done for ingest with xmlFixing.
+   */
+  @Benchmark
+  public void xmlFixerToJson(Blackhole blackhole) {
+    BufferReadStream stream = new BufferReadStream(marcXml);
+    new MarcXmlParserToJson(XmlParser.newParser(new XmlFixer(stream)))
+        .handler(blackhole::consume);
+    stream.run();
+  }
+}
@@ -0,0 +1,60 @@
+package com.indexdata.reservoir.matchkey;
+
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Deepdish match keys.
+ *
+ * <p>Port of js/matchkeys/deepdish: the GoldRush 2024 key followed by one key for each
+ * distinct standard number (ISBN, ISSN, other standard identifier).
+ */
+public final class DeepDish {
+  private static final String[] NUM_FIELDS = {"020", "022", "024"};
+  private static final Pattern NON_WORD = Pattern.compile("\\W");
+  private static final Pattern ISBN_PREFIX = Pattern.compile("^97.");
+
+  private DeepDish() {
+    throw new UnsupportedOperationException("DeepDish");
+  }
+
+  static String doStandardNum(String tag, String num) {
+    num = KeyText.removeAll(num, NON_WORD);
+    // ISBN-10 and ISBN-13 without check digit
+    if ("020".equals(tag)) {
+      if (!num.isEmpty()) {
+        num = num.substring(0, num.length() - 1);
+      }
+      num = ISBN_PREFIX.matcher(num).replaceFirst("");
+    }
+    return tag + "_" + num;
+  }
+
+  /**
+   * Generate deepdish match keys.
+   * @param payload MARC-in-JSON record wrapped in {marc: ...} object
+   * @return GoldRush 2024 key followed by standard number keys
+   * @throws IllegalArgumentException if MARC fields are missing
+   */
+  public static List<String> matchkeys(JsonObject payload) {
+    MarcJson marc = new MarcJson(payload);
+    List<String> out = new ArrayList<>();
+    out.add(GoldRush.matchkey2024(marc));
+    for (String tag : NUM_FIELDS) {
+      List<String> nums = marc.getMultiSubfields(tag, "a");
+      Collections.sort(nums);
+      String prevKey = "";
+      for (String num : nums) {
+        String key = doStandardNum(tag, num);
+        if (!key.equals(prevKey)) {
+          out.add(KeyText.lower(key));
+          prevKey = key;
+        }
+      }
+    }
+    return out;
+  }
+}
@@ -0,0 +1,339 @@
+package com.indexdata.reservoir.matchkey;
+
+import static com.indexdata.reservoir.matchkey.KeyText.lower;
+import static com.indexdata.reservoir.matchkey.KeyText.normalizeAndUnaccent;
+import static com.indexdata.reservoir.matchkey.KeyText.padContent;
+import static com.indexdata.reservoir.matchkey.KeyText.removeAll;
+import static com.indexdata.reservoir.matchkey.KeyText.stripPunctuation;
+import static com.indexdata.reservoir.matchkey.KeyText.substring;
+import static com.indexdata.reservoir.matchkey.KeyText.trim;
+
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GoldRush match key.
+ *
+ * <p>Port of js/matchkeys/goldrush (specification September 2021) and
+ * js/matchkeys/goldrush2024 (specification December2024_0). Both produce the same keys
+ * as the JavaScript versions for the records in js/test.
+ */
+public final class GoldRush {
+  private static final Pattern NON_ALNUM = Pattern.compile("[^a-zA-Z0-9]");
+  private static final Pattern NON_DIGIT = Pattern.compile("[^0-9]");
+  private static final Pattern YEAR_2021 = Pattern.compile("[0-9]{4}");
+  private static final Pattern YEAR_2024 = Pattern.compile("[1-9][0-9]{3}");
+  private static final Pattern[] EDITION_NUM_2021 = {
+      Pattern.compile("([0-9]{3})"), Pattern.compile("([0-9]{2})"), Pattern.compile("([0-9])")
+  };
+  private static final Pattern[] EDITION_NUM_2024 = {
+      Pattern.compile("^([0-9]{3})"), Pattern.compile("^([0-9]{2})"), Pattern.compile("^([0-9])")
+  };
+  private static final Pattern EDITION_WORD_2024 = Pattern.compile("^([a-zA-Z]{3})");
+  private static final Pattern ELECTRONIC_RESOURCE =
+      Pattern.compile("\\belectronic resource\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ELECTRONIC_REPRODUCTION =
+      Pattern.compile("\\belectronic reproduction\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ONLINE_RESOURCE =
+      Pattern.compile("\\bonline resource\\b", Pattern.CASE_INSENSITIVE);
+  private static final String SUBFIELD_A = "a";
+  private static final String SUBFIELD_B = "b";
+  private static final String SUBFIELD_P = "p";
+  private static final String TITLE = "245";
+
+  private GoldRush() {
+    throw new UnsupportedOperationException("GoldRush");
+  }
+
+  /**
+   * Generate GoldRush match key, September 2021 specification.
+   * @param payload MARC-in-JSON record wrapped in {marc: ...} object
+   * @return the match key
+   * @throws IllegalArgumentException if MARC fields are missing
+   */
+  public static String matchkey2021(JsonObject payload) {
+    MarcJson marc = new MarcJson(payload);
+    StringBuilder key = new StringBuilder();
+    key.append(doTitle(false, marc.getField(TITLE, SUBFIELD_A),
+        marc.getField(TITLE, SUBFIELD_B), marc.getField(TITLE, SUBFIELD_P)));
+    key.append(doGmd(marc.getField(TITLE, "h")));
+    key.append(doPublicationYear2021(marc.getField("008"), marc.getField("264", "c"),
+        marc.getField("260", "c")));
+    key.append(doPagination(marc.getField("300", SUBFIELD_A)));
+    key.append(doEditionStatement2021(marc.getField("250", SUBFIELD_A)));
+    key.append(doPublisherName(marc.getField("264", SUBFIELD_B),
+        marc.getField("260", SUBFIELD_B)));
+    appendCommon(key, marc, false);
+    key.append(doAuthor2021(marc.getField("100", SUBFIELD_A), marc.getField("110", SUBFIELD_A),
+        marc.getField("111", SUBFIELD_A)));
+    key.append(doInclusiveDates(marc.getField(TITLE, "f")));
+    key.append(doGdcn(marc.getField("086", SUBFIELD_A)));
+    key.append(doElectronicIndicator(marc, false));
+    return lower(key.toString());
+  }
+
+  /**
+   * Generate GoldRush match key, December 2024 specification.
+   * @param payload MARC-in-JSON record wrapped in {marc: ...} object
+   * @return the match key
+   * @throws IllegalArgumentException if MARC fields are missing
+   */
+  public static String matchkey2024(JsonObject payload) {
+    return matchkey2024(new MarcJson(payload));
+  }
+
+  static String matchkey2024(MarcJson marc) {
+    StringBuilder key = new StringBuilder();
+    key.append(doTitle(true, marc.getRelevantSubField(TITLE, SUBFIELD_A),
+        marc.getRelevantSubField(TITLE, SUBFIELD_B), marc.getRelevantSubField(TITLE, SUBFIELD_P)));
+    key.append(doPublicationYear2024(marc.getField("008"), marc.getRelevantSubField("264", "c"),
+        marc.getRelevantSubField("260", "c")));
+    key.append(doPagination(marc.getRelevantSubField("300", SUBFIELD_A)));
+    key.append(doEditionStatement2024(marc.getRelevantSubField("250", SUBFIELD_A)));
+    key.append(doPublisherName(marc.getRelevantSubField("264", SUBFIELD_B),
+        marc.getRelevantSubField("260", SUBFIELD_B)));
+    appendCommon(key, marc, true);
+    key.append(doAuthor2024(marc.getField("100", SUBFIELD_A), marc.getField("110", SUBFIELD_A),
+        marc.getField("111", SUBFIELD_A), marc.getField("130", SUBFIELD_A)));
+    key.append(doInclusiveDates(marc.getRelevantSubField(TITLE, "f")));
+    key.append(doGdcn(marc.getRelevantSubField("086", SUBFIELD_A)));
+    key.append(doElectronicIndicator(marc, true));
+    return lower(key.toString());
+  }
+
+  private static void appendCommon(StringBuilder key, MarcJson marc, boolean relevant) {
+    key.append(doTypeOfRecord(marc.getLeader()));
+    key.append(doTitlePart(marc.getMultiSubfields(TITLE, SUBFIELD_P)));
+    key.append(doTitleNumber(relevant ? marc.getRelevantSubField(TITLE, "n")
+        : marc.getField(TITLE, "n")));
+  }
+
+  static String doTitle(boolean noSpaces, String... fieldData) {
+    StringBuilder sb = new StringBuilder();
+    for (String s : fieldData) {
+      if (s != null) {
+        sb.append(trim(stripPunctuation(s, " ")));
+      }
+    }
+    String fieldStr = sb.toString();
+    if (noSpaces) {
+      fieldStr = fieldStr.replace(" ", "");
+    }
+    return padContent(normalizeAndUnaccent(fieldStr), 70);
+  }
+
+  static String doGmd(String fieldData) {
+    String fieldStr = "";
+    if (fieldData != null) {
+      fieldStr = removeAll(normalizeAndUnaccent(fieldData), NON_ALNUM);
+    }
+    return padContent(fieldStr, 5);
+  }
+
+  private static String year(String dataStr, Pattern pattern) {
+    if (pattern.matcher(dataStr).find() && !"9999".equals(dataStr)) {
+      return dataStr;
+    }
+    return null;
+  }
+
+  static String doPublicationYear2021(String f008, String f264c, String f260c) {
+    String fieldStr = null;
+    if (f008 != null) {
+      // Try for date2 from field 008, then for date1
+      fieldStr = year(removeAll(substring(f008, 11, 15), NON_DIGIT), YEAR_2021);
+      if (fieldStr == null) {
+        fieldStr = year(removeAll(substring(f008, 7, 11), NON_DIGIT), YEAR_2021);
+      }
+    }
+    if (fieldStr == null && f264c != null) {
+      fieldStr = year(removeAll(f264c, NON_DIGIT), YEAR_2021);
+    }
+    if (fieldStr == null && f260c != null) {
+      fieldStr = year(removeAll(f260c, NON_DIGIT), YEAR_2021);
+    }
+    return padContent(fieldStr == null || fieldStr.isEmpty() ? "0000" : fieldStr, 4);
+  }
+
+  static String doPublicationYear2024(String f008, String f264c, String f260c) {
+    String fieldStr = null;
+    if (f008 != null) {
+      // date1 for reissue, date2 otherwise
+      if ("r".equals(substring(f008, 6, 7))) {
+        fieldStr = year(removeAll(substring(f008, 7, 11), NON_DIGIT), YEAR_2024);
+      } else {
+        fieldStr = year(removeAll(substring(f008, 11, 15), NON_DIGIT), YEAR_2024);
+      }
+    }
+    if (fieldStr == null && f264c != null) {
+      fieldStr = year(removeAll(f264c, NON_DIGIT), YEAR_2024);
+    }
+    if (fieldStr == null && f260c != null) {
+      fieldStr = year(removeAll(f260c, NON_DIGIT), YEAR_2024);
+    }
+    return padContent(fieldStr == null || fieldStr.isEmpty() ? "0000" : fieldStr, 4);
+  }
+
+  static String doPagination(String fieldData) {
+    String fieldStr = "";
+    if (fieldData != null) {
+      // first four contiguous digits
+      Matcher m = YEAR_2021.matcher(fieldData);
+      if (m.find()) {
+        fieldStr = m.group();
+      }
+    }
+    return padContent(fieldStr, 4);
+  }
+
+  private static String editionWord(String word, String defaultValue) {
+    switch (word) {
+      case "fir": return "1";
+      case "sec": return "2";
+      case "thi": return "3";
+      case "fou": return "4";
+      case "fif": return "5";
+      case "six": return "6";
+      case "sev": return "7";
+      case "eig": return "8";
+      case "nin": return "9";
+      case "ten": return "10";
+      default: return defaultValue;
+    }
+  }
+
+  private static String firstGroup(Pattern[] patterns, String s) {
+    for (Pattern pattern : patterns) {
+      Matcher m = pattern.matcher(s);
+      if (m.find()) {
+        return m.group(1);
+      }
+    }
+    return null;
+  }
+
+  static String doEditionStatement2021(String fieldData) {
+    String fieldStr = "";
+    if (fieldData != null) {
+      String dataStr = normalizeAndUnaccent(fieldData);
+      fieldStr = firstGroup(EDITION_NUM_2021, dataStr);
+      if (fieldStr == null) {
+        fieldStr = editionWord(lower(substring(dataStr, 0, 3)), "");
+      }
+    }
+    return padContent(fieldStr, 3);
+  }
+
+  static String doEditionStatement2024(String fieldData) {
+    String fieldStr = null;
+    if (fieldData != null) {
+      String dataStr = trim(normalizeAndUnaccent(fieldData));
+      fieldStr = firstGroup(EDITION_NUM_2024, dataStr);
+      if (fieldStr == null) {
+        Matcher m = EDITION_WORD_2024.matcher(dataStr);
+        if (m.find()) {
+          fieldStr = editionWord(lower(m.group(1)), "1");
+        }
+      }
+    }
+    return padContent(fieldStr == null ? "1" : fieldStr, 3);
+  }
+
+  static String doPublisherName(String f264b, String f260b) {
+    String fieldStr = "";
+    if (f264b != null) {
+      fieldStr = lower(normalizeAndUnaccent(f264b));
+    } else if (f260b != null) {
+      fieldStr = lower(normalizeAndUnaccent(f260b));
+    }
+    fieldStr = stripPunctuation(fieldStr, " ").replace(" ", "");
+    return padContent(fieldStr, 5);
+  }
+
+  static String doTypeOfRecord(String leader) {
+    return leader.length() > 10 ? leader.substring(6, 7) : "";
+  }
+
+  static String doTitlePart(List<String> fieldData) {
+    // all p subfields, apart from the first
+    StringBuilder sb = new StringBuilder();
+    for (int n = 1; n < fieldData.size(); n++) {
+      String dataStr = normalizeAndUnaccent(fieldData.get(n));
+      sb.append(substring(stripPunctuation(trim(dataStr), "_"), 0, 10));
+    }
+    return padContent(sb.toString(), 30);
+  }
+
+  static String doTitleNumber(String fieldData) {
+    return padContent(fieldData == null ? "" : stripPunctuation(fieldData, "_"), 10);
+  }
+
+  static String doAuthor2021(String... fieldData) {
+    StringBuilder sb = new StringBuilder();
+    for (String s : fieldData) {
+      if (s != null) {
+        sb.append(normalizeAndUnaccent(stripPunctuation(s, "_")));
+      }
+    }
+    return padContent(sb.toString(), 20);
+  }
+
+  static String doAuthor2024(String... fieldData) {
+    StringBuilder sb = new StringBuilder();
+    for (String s : fieldData) {
+      if (s != null) {
+        sb.append(normalizeAndUnaccent(stripPunctuation(s, "")));
+      }
+    }
+    return padContent(removeAll(sb.toString(), NON_ALNUM), 5);
+  }
+
+  static String doInclusiveDates(String fieldData) {
+    String fieldStr = "";
+    if (fieldData != null) {
+      fieldStr = stripPunctuation(fieldData.replace(" ", ""), "_");
+    }
+    return padContent(fieldStr, 15);
+  }
+
+  static String doGdcn(String fieldData) {
+    // Government Document Classification Number
+    if (fieldData == null) {
+      return "";
+    }
+    return substring(normalizeAndUnaccent(stripPunctuation(fieldData, "_")), 0, 32000);
+  }
+
+  private static boolean matches(String field, Pattern pattern) {
+    return field != null && pattern.matcher(normalizeAndUnaccent(field)).find();
+  }
+
+  static String doElectronicIndicator(MarcJson marc, boolean relevant) {
+    if (matches(relevant ? marc.getRelevantSubField(TITLE, "h")
+        : marc.getField(TITLE, "h"), ELECTRONIC_RESOURCE)
+        || matches(relevant ? marc.getRelevantSubField("590", SUBFIELD_A)
+        : marc.getField("590", SUBFIELD_A), ELECTRONIC_REPRODUCTION)
+        || matches(relevant ? marc.getRelevantSubField("533", SUBFIELD_A)
+        : marc.getField("533", SUBFIELD_A), ELECTRONIC_REPRODUCTION)
+        || matches(relevant ? marc.getRelevantSubField("300", SUBFIELD_A)
+        : marc.getField("300", SUBFIELD_A), ONLINE_RESOURCE)) {
+      return "e";
+    }
+    String field = marc.getField("007");
+    if (field != null && field.startsWith("c")) {
+      return "e";
+    }
+    // RDA
+    field = marc.getField("337", SUBFIELD_A);
+    if (field != null && field.startsWith("c")) {
+      return "e";
+    }
+    // other electronic document
+    if (marc.hasField("086") && marc.hasField("856")) {
+      return "e";
+    }
+    return "p";
+  }
+}
@@ -0,0 +1,111 @@
+package com.indexdata.reservoir.matchkey;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * String operations shared by the match key algorithms.
+ *
+ * <p>These follow the JavaScript implementations in js/matchkeys, including the JavaScript
+ * definitions of trim and of lower case.
+ */
+final class KeyText {
+  private static final Pattern LEADING_A = Pattern.compile("^ *[aA] +");
+  private static final Pattern LEADING_AN = Pattern.compile("^ *[aA]n +");
+  private static final Pattern LEADING_THE = Pattern.compile("^ *[tT]he +");
+  private static final Pattern QUOTES = Pattern.compile("['{}]");
+  private static final Pattern PUNCTUATION =
+      Pattern.compile("[ !\"#$()*+,\\-./:;<=>?@\\[\\\\\\]^_`|~\u00A9]");
+  private static final Pattern SPACES = Pattern.compile(" +");
+
+  private KeyText() {
+    throw new UnsupportedOperationException("KeyText");
+  }
+
+  static String stripPunctuation(String keyPart, String replaceChar) {
+    String trimmed = keyPart.replace("%22", "_").replace("%", "_");
+    trimmed = LEADING_A.matcher(trimmed).replaceFirst("");
+    trimmed = LEADING_AN.matcher(trimmed).replaceFirst("");
+    trimmed = LEADING_THE.matcher(trimmed).replaceFirst("");
+    trimmed = QUOTES.matcher(trimmed).replaceAll("");
+    trimmed = trimmed.replace("&", "and");
+    return PUNCTUATION.matcher(trimmed).replaceAll(Matcher.quoteReplacement(replaceChar));
+  }
+
+  /**
+   * Whether character is a diacritic.
+   *
+   * <p>Java regular expressions have no \p{Diacritic}. This covers the combining marks and
+   * the spacing accents that make up the property for the scripts found in MARC records.
+   */
+  static boolean isDiacritic(int cp) {
+    switch (cp) {
+      case '^', '`', 0xA8, 0xAF, 0xB4, 0xB7, 0xB8:
+        return true;
+      default:
+        break;
+    }
+    int type = Character.getType(cp);
+    if (type == Character.NON_SPACING_MARK) {
+      return cp != 0x034F; // combining grapheme joiner
+    }
+    return (type == Character.MODIFIER_SYMBOL || type == Character.MODIFIER_LETTER)
+        && cp >= 0x02B0 && cp <= 0x02FF;
+  }
+
+  static String normalizeAndUnaccent(String fieldData) {
+    if (fieldData == null) {
+      return null;
+    }
+    String nfd = Normalizer.normalize(fieldData, Normalizer.Form.NFD);
+    StringBuilder sb = new StringBuilder(nfd.length());
+    nfd.codePoints().filter(cp -> !isDiacritic(cp)).forEach(sb::appendCodePoint);
+    return sb.toString();
+  }
+
+  static String padContent(String keyPart, int length) {
+    String padded = SPACES.matcher(keyPart).replaceAll(" ").replace(' ', '_');
+    if (padded.length() >= length) {
+      return padded.substring(0, length);
+    }
+    return padded + "_".repeat(length - padded.length());
+  }
+
+  static String substring(String s, int start, int end) {
+    int len = s.length();
+    int b = Math.min(start, len);
+    return s.substring(b, Math.max(b, Math.min(end, len)));
+  }
+
+  static boolean isJsWhiteSpace(char c) {
+    switch (c) {
+      case '\t', '\n', 0x0B, '\f', '\r', ' ', 0xA0, 0x1680, 0x2028, 0x2029, 0x202F, 0x205F,
+          0x3000, 0xFEFF:
+        return true;
+      default:
+        return c >= 0x2000 && c <= 0x200A;
+    }
+  }
+
+  static String trim(String s) {
+    int b = 0;
+    int e = s.length();
+    while (b < e && isJsWhiteSpace(s.charAt(b))) {
+      b++;
+    }
+    while (e > b && isJsWhiteSpace(s.charAt(e - 1))) {
+      e--;
+    }
+    return s.substring(b, e);
+  }
+
+  static String lower(String s) {
+    return s.toLowerCase(Locale.ROOT);
+  }
+
+  static String removeAll(String s, Pattern pattern) {
+    return pattern.matcher(s).replaceAll("");
+  }
+}
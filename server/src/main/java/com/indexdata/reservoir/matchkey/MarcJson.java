@@ -0,0 +1,145 @@
+package com.indexdata.reservoir.matchkey;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Field access for a MARC-in-JSON record, with the semantics of the JavaScript match keys.
+ *
+ * <p>As in JavaScript, empty strings count as missing values.
+ */
+final class MarcJson {
+  static final String DEFAULT_LEADER = "00000nam a22000000a 4500";
+
+  private final JsonArray fields;
+  private final String leader;
+
+  /**
+   * Wrap payload with MARC record.
+   * @param payload object with "marc" property
+   * @throws IllegalArgumentException if the MARC record or its fields are missing
+   */
+  MarcJson(JsonObject payload) {
+    Object marc = payload.getValue("marc");
+    if (!(marc instanceof JsonObject marcObj)) {
+      throw new IllegalArgumentException("MARC record is missing.");
+    }
+    Object f = marcObj.getValue("fields");
+    if (f == null) {
+      throw new IllegalArgumentException("MARC fields array is missing.");
+    }
+    if (!(f instanceof JsonArray array)) {
+      throw new IllegalArgumentException("MARC fields is not an array.");
+    }
+    fields = array;
+    String l = marcObj.getValue("leader") instanceof String s ? s : null;
+    leader = l == null || l.isEmpty() ? DEFAULT_LEADER : l;
+  }
+
+  String getLeader() {
+    return leader;
+  }
+
+  private static boolean present(Object o) {
+    return o != null && !"".equals(o) && !Boolean.FALSE.equals(o);
+  }
+
+  private Object fieldValue(int i, String tag) {
+    return fields.getValue(i) instanceof JsonObject f ? f.getValue(tag) : null;
+  }
+
+  private static String subfield(JsonObject field, String sf) {
+    if (!(field.getValue("subfields") instanceof JsonArray subfields)) {
+      return null;
+    }
+    for (int i = 0; i < subfields.size(); i++) {
+      if (subfields.getValue(i) instanceof JsonObject s
+          && s.getValue(sf) instanceof String v && !v.isEmpty()) {
+        return v;
+      }
+    }
+    return null;
+  }
+
+  boolean hasField(String tag) {
+    for (int i = 0; i < fields.size(); i++) {
+      if (present(fieldValue(i, tag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get control field.
+   * @param tag field tag
+   * @return value of first field with tag; null if not found or not a control field
+   */
+  String getField(String tag) {
+    for (int i = 0; i < fields.size(); i++) {
+      Object v = fieldValue(i, tag);
+      if (present(v)) {
+        return v instanceof String s ? s : null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get subfield of first field with tag.
+   * @param tag field tag
+   * @param sf subfield code
+   * @return first subfield value of the first field; null if not found
+   */
+  String getField(String tag, String sf) {
+    for (int i = 0; i < fields.size(); i++) {
+      Object v = fieldValue(i, tag);
+      if (present(v)) {
+        return v instanceof JsonObject f ? subfield(f, sf) : null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get subfield of first field with tag that has the subfield.
+   * @param tag field tag
+   * @param sf subfield code
+   * @return first subfield value; null if not found
+   */
+  String getRelevantSubField(String tag, String sf) {
+    for (int i = 0; i < fields.size(); i++) {
+      if (fieldValue(i, tag) instanceof JsonObject f) {
+        String v = subfield(f, sf);
+        if (v != null) {
+          return v;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get subfields of all fields with tag.
+   * @param tag field tag
+   * @param sf subfield code
+   * @return subfield values in record order
+   */
+  List<String> getMultiSubfields(String tag, String sf) {
+    List<String> data = new ArrayList<>();
+    for (int i = 0; i < fields.size(); i++) {
+      if (fieldValue(i, tag) instanceof JsonObject f
+          && f.getValue("subfields") instanceof JsonArray subfields) {
+        for (int j = 0; j < subfields.size(); j++) {
+          if (subfields.getValue(j) instanceof JsonObject s
+              && s.getValue(sf) instanceof String v && !v.isEmpty()) {
+            data.add(v);
+          }
+        }
+      }
+    }
+    return data;
+  }
+}
@@ -24,12 +24,14 @@ public class ModuleExecutable {
 
   /**
    * Execute this module with the given input, returning a future that completes with the result.
+   *
+   * <p>Executions are not ordered, so that they may run in parallel on worker threads.
    * @param input the input JSON object
    * @return a future that completes with the output JSON object
    */
   public Future<JsonObject> execute(JsonObject input) {
     return vertx.executeBlocking(() ->
-      module.execute(invocation.getFunctionName(), input)
+      module.execute(invocation.getFunctionName(), input), false
     );
   }
 
@@ -44,7 +46,7 @@ public class ModuleExecutable {
    */
   public Future<Collection<String>> executeAsCollection(JsonObject input) {
     return vertx.executeBlocking(() ->
-      module.executeAsCollection(invocation.getFunctionName(), input)
+      module.executeAsCollection(invocation.getFunctionName(), input), false
     );
   }
 }
@@ -37,6 +37,7 @@ public class ModuleCacheImpl implements ModuleCache {
     }
     switch (type) {
       case "jsonpath": return new ModuleJsonPath();
+      case "java": return new ModuleJava();
       case "javascript": return new ModuleJavaScript();
       case "": return new ModuleJavaScript();
       default: throw new IllegalArgumentException("Unknown module type '" + type + "'");
@@ -0,0 +1,73 @@
+package com.indexdata.reservoir.module.impl;
+
+import com.indexdata.reservoir.matchkey.DeepDish;
+import com.indexdata.reservoir.matchkey.GoldRush;
+import com.indexdata.reservoir.module.Module;
+import com.indexdata.reservoir.server.entity.CodeModuleEntity;
+import io.vertx.core.json.JsonObject;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Built-in match keys implemented in Java.
+ *
+ * <p>The function selects the algorithm: goldrush, goldrush2024 or deepdish. These give the
+ * same keys as the JavaScript modules in js/matchkeys but work on the record object
+ * directly.
+ */
+@SuppressWarnings({ "squid:S5738", "squid:S1123" })
+public class ModuleJava implements Module {
+  private static final Map<String, Function<JsonObject, Collection<String>>> FUNCTIONS = Map.of(
+      "goldrush", input -> List.of(GoldRush.matchkey2021(input)),
+      "goldrush2024", input -> List.of(GoldRush.matchkey2024(input)),
+      "deepdish", DeepDish::matchkeys);
+
+  private String id;
+  @Deprecated(forRemoval = true, since = "1.0")
+  private String defaultFunctionName;
+
+  @Override
+  public void initialize(CodeModuleEntity entity) {
+    id = entity.getId();
+    if (id == null || id.isEmpty()) {
+      throw new IllegalArgumentException("Module config must include 'id'");
+    }
+    defaultFunctionName = entity.getFunction();
+    if (defaultFunctionName != null) {
+      getFunction(defaultFunctionName);
+    }
+  }
+
+  private Function<JsonObject, Collection<String>> getFunction(String functionName) {
+    if (functionName == null) {
+      if (defaultFunctionName == null) {
+        throw new IllegalArgumentException(
+            "Java modules require 'function' defined in config or by caller");
+      }
+      functionName = defaultFunctionName;
+    }
+    Function<JsonObject, Collection<String>> function = FUNCTIONS.get(functionName);
+    if (function == null) {
+      throw new IllegalArgumentException(
+          "Module " + id + " does not include function " + functionName);
+    }
+    return function;
+  }
+
+  @Override
+  public JsonObject execute(String functionName, JsonObject input) {
+    throw new UnsupportedOperationException("only executeAsCollection supported for type=java");
+  }
+
+  @Override
+  public Collection<String> executeAsCollection(String functionName, JsonObject input) {
+    return getFunction(functionName).apply(input);
+  }
+
+  @Override
+  public void terminate() {
+    // nothing to release
+  }
+}
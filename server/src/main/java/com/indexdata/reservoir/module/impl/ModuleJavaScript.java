@@ -2,21 +2,68 @@ package com.indexdata.reservoir.module.impl;
 
 import com.indexdata.reservoir.module.Module;
 import com.indexdata.reservoir.server.entity.CodeModuleEntity;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.json.JsonObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
+/**
+ * JavaScript module.
+ *
+ * <p>A GraalJS context may only be used by one thread at a time, so each module keeps a pool
+ * of contexts, created on demand up to the pool size, in which the script is evaluated.
+ * All contexts share one engine, so the script is parsed and compiled once.
+ */
 @SuppressWarnings({ "squid:S5738", "squid:S1123" })
 public class ModuleJavaScript implements Module {
+  private static volatile int poolSize = VertxOptions.DEFAULT_WORKER_POOL_SIZE;
+  private static Engine engine;
+
   private String id;
   @Deprecated(forRemoval = true, since = "1.0")
   private String defaultFunctionName;
-  private Value module;
-  private Value function;
-  private Context context;
+  private Source source;
+  private boolean isModule;
+  private final Deque<Instance> idle = new ArrayDeque<>();
+  private final List<Instance> instances = new ArrayList<>();
+  private int reserved;
+  private boolean terminated;
+
+  private static class Instance {
+    final Context context;
+    final Value module;
+    final Value function;
+
+    Instance(Context context, Value module, Value function) {
+      this.context = context;
+      this.module = module;
+      this.function = function;
+    }
+  }
+
+  /**
+   * Set maximum number of contexts for each module.
+   * @param size number of contexts; should match the worker pool size
+   */
+  public static void setPoolSize(int size) {
+    poolSize = Math.max(1, size);
+  }
+
+  private static synchronized Engine getEngine() {
+    if (engine == null) {
+      engine = Engine.create("js");
+    }
+    return engine;
+  }
 
   @Override
   public void initialize(CodeModuleEntity entity) {
@@ -32,25 +79,92 @@ public class ModuleJavaScript implements Module {
     if (url != null && !url.isEmpty()) {
       // url always points to an ES module
       defaultFunctionName = entity.getFunction();
-      final boolean isModule = url.endsWith("mjs");
+      isModule = url.endsWith("mjs");
       if (!isModule) {
         throw new IllegalArgumentException(
             "url must end with .mjs to designate ES module");
       }
-      Context.Builder cb = Context.newBuilder("js")
-          .allowExperimentalOptions(true)
-          .option("js.esm-eval-returns-exports", "true");
-      context = cb.build();
       String moduleName = url.substring(url.lastIndexOf("/") + 1);
-      module = context.eval(Source.newBuilder("js", script, moduleName).buildLiteral());
+      source = Source.newBuilder("js", script, moduleName).buildLiteral();
     } else {
-      context = Context.create("js");
-      function = context.eval("js", script);
+      source = Source.create("js", script);
+    }
+    // evaluate once here so that errors in the script are reported by initialize
+    Instance instance = createInstance();
+    synchronized (this) {
+      instances.add(instance);
+      reserved++;
+      idle.push(instance);
+    }
+  }
+
+  private Instance createInstance() {
+    Context.Builder cb = Context.newBuilder("js").engine(getEngine());
+    if (isModule) {
+      cb.allowExperimentalOptions(true)
+          .option("js.esm-eval-returns-exports", "true");
+    }
+    Context context = cb.build();
+    try {
+      Value value = context.eval(source);
+      return isModule ? new Instance(context, value, null) : new Instance(context, null, value);
+    } catch (RuntimeException e) {
+      context.close();
+      throw e;
+    }
+  }
+
+  private Instance checkout() {
+    synchronized (this) {
+      while (true) {
+        if (terminated || reserved == 0) {
+          throw new IllegalStateException("uninitialized");
+        }
+        Instance instance = idle.poll();
+        if (instance != null) {
+          return instance;
+        }
+        if (reserved < poolSize) {
+          reserved++;
+          break;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    // evaluate outside the lock; other threads may check out meanwhile
+    try {
+      Instance instance = createInstance();
+      synchronized (this) {
+        if (terminated) {
+          instance.context.close(true);
+          throw new IllegalStateException("uninitialized");
+        }
+        instances.add(instance);
+      }
+      return instance;
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        reserved--;
+        notifyAll();
+      }
+      throw e;
+    }
+  }
+
+  private synchronized void checkin(Instance instance) {
+    if (!terminated) {
+      idle.push(instance);
+      notifyAll();
     }
   }
 
-  private Value getFunction(String functionName) {
-    if (module != null) {
+  private Value getFunction(Instance instance, String functionName) {
+    if (instance.module != null) {
       if (functionName == null) {
         if (defaultFunctionName == null) {
           throw new IllegalArgumentException(
@@ -58,47 +172,54 @@ public class ModuleJavaScript implements Module {
         }
         functionName = defaultFunctionName;
       }
-      Value v = module.getMember(functionName);
+      Value v = instance.module.getMember(functionName);
       if (v == null || !v.canExecute()) {
         throw new IllegalArgumentException(
             "Module " + id + " does not include function " + functionName);
       }
       return v;
-    } else if (function != null) {
-      return function;
-    } else {
-      throw new IllegalStateException("uninitialized");
     }
+    return instance.function;
   }
 
-  private Value execJavaScript(String functionName, JsonObject input) {
-    return getFunction(functionName).execute(input.encode());
+  // output values belong to the context, so they are converted before it is returned
+  private <T> T execJavaScript(String functionName, JsonObject input,
+      Function<Value, T> converter) {
+    Instance instance = checkout();
+    try {
+      Value function = getFunction(instance, functionName);
+      return converter.apply(function.execute(input.encode()));
+    } finally {
+      checkin(instance);
+    }
   }
 
   @Override
   public JsonObject execute(String functionName, JsonObject input) {
-    var output = execJavaScript(functionName, input);
-    // only support string encoded JSON objects for now
-    if (!output.isString()) {
-      throw new IllegalArgumentException(
-          "Function " + functionName + " of module " + id + " must return JSON string");
-    }
-    return new JsonObject(output.asString());
+    return execJavaScript(functionName, input, output -> {
+      // only support string encoded JSON objects for now
+      if (!output.isString()) {
+        throw new IllegalArgumentException(
+            "Function " + functionName + " of module " + id + " must return JSON string");
+      }
+      return new JsonObject(output.asString());
+    });
   }
 
   @Override
   public Collection<String> executeAsCollection(String functionName, JsonObject input) {
-    var output = execJavaScript(functionName, input);
-    Collection<String> keys = new HashSet<>();
-    if (output.hasArrayElements()) {
-      for (int i = 0; i < output.getArraySize(); i++) {
-        Value memberValue = output.getArrayElement(i);
-        addValue(keys, memberValue);
+    return execJavaScript(functionName, input, output -> {
+      Collection<String> keys = new HashSet<>();
+      if (output.hasArrayElements()) {
+        for (int i = 0; i < output.getArraySize(); i++) {
+          Value memberValue = output.getArrayElement(i);
+          addValue(keys, memberValue);
+        }
+      } else {
+        addValue(keys, output);
       }
-    } else {
-      addValue(keys, output);
-    }
-    return keys;
+      return keys;
+    });
   }
 
   private void addValue(Collection<String> keys, Value value) {
@@ -109,14 +230,20 @@ public class ModuleJavaScript implements Module {
     }
   }
 
+  /**
+   * Close all contexts of the module, including those in use, which are cancelled.
+   */
   @Override
   public void terminate() {
-    if (context != null) {
-      context.close(true);
-      context = null;
-      module = null;
-      function = null;
+    List<Instance> closing;
+    synchronized (this) {
+      terminated = true;
+      closing = new ArrayList<>(instances);
+      instances.clear();
+      idle.clear();
+      notifyAll();
     }
+    closing.forEach(instance -> instance.context.close(true));
   }
 
 }
@@ -0,0 +1,373 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.server.Storage.BatchRecord;
+import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bulk load for a source version without records.
+ *
+ * <p>Records are inserted in large chunks on one dedicated connection, with each column
+ * bound as an array to unnest(). Match values are staged in a temporary table, and
+ * clusters are built from that table in one pass when all records are loaded.
+ *
+ * <p>The connection holds the advisory lock of the source version for the whole load, so
+ * regular ingest of the source version waits until the load is done, see
+ * {@link Storage#sourceVersionLockKey}. Records are committed before they are clustered.
+ * If storing or clustering fails, all records of the source version are deleted again, so
+ * that the upload can be repeated as a bulk load.
+ */
+class BulkIngest extends IngestBatch {
+  static final int CHUNK_SIZE = 1000;
+  private static final Logger log = LogManager.getLogger(BulkIngest.class);
+  private static final String STAGE_TABLE = "pg_temp.bulk_match_values";
+  private static final int CLUSTER_RETRIES = 3;
+  private final SqlConnection conn;
+  private final String lockKey;
+  private final IngestStats stats;
+  private final String summary;
+  private List<JsonObject> records = new ArrayList<>();
+  private List<Promise<IngestResult>> promises = new ArrayList<>();
+  private Future<Void> tail = Future.succeededFuture();
+
+  private BulkIngest(Vertx vertx, Storage storage, IngestParams params,
+      List<IngestMatcher> ingestMatchers, SqlConnection conn, IngestStats stats) {
+    super(vertx, storage, params.sourceId, params.sourceVersion, ingestMatchers,
+        params.ingestMetrics, CHUNK_SIZE);
+    this.conn = conn;
+    this.lockKey = storage.sourceVersionLockKey(sourceId, sourceVersion);
+    this.stats = stats;
+    this.summary = params.getSummary(stats.getFileName());
+  }
+
+  /**
+   * Create bulk ingest if the source version has no records.
+   *
+   * <p>Falls back to regular batches if there are records already, or if the source
+   * version is being written by others.
+   * @param vertx Vert.x handle
+   * @param storage storage
+   * @param params ingest parameters
+   * @param ingestMatchers match key configurations in use
+   * @param stats statistics to update
+   * @param batchSize size of regular batches if falling back
+   * @return async result with bulk ingest or regular batch
+   */
+  static Future<IngestBatch> create(Vertx vertx, Storage storage, IngestParams params,
+      List<IngestMatcher> ingestMatchers, IngestStats stats, int batchSize) {
+    String lockKey = storage.sourceVersionLockKey(params.sourceId, params.sourceVersion);
+    return storage.getPool().getConnection().compose(conn ->
+        conn.preparedQuery("SELECT pg_try_advisory_lock(hashtext($1))")
+            .execute(Tuple.of(lockKey))
+            .<IngestBatch>compose(lockSet -> {
+              if (!lockSet.iterator().next().getBoolean(0)) {
+                log.info("{} source version is being written; no bulk load",
+                    params.getSummary(null));
+                return conn.close().map(x -> new IngestBatch(vertx, storage, params.sourceId,
+                    params.sourceVersion, ingestMatchers, params.ingestMetrics, batchSize));
+              }
+              return conn.preparedQuery("SELECT 1 FROM " + storage.getGlobalRecordTable()
+                      + " WHERE source_id = $1 AND source_version = $2 LIMIT 1")
+                  .execute(Tuple.of(params.sourceId.toString(), params.sourceVersion))
+                  .<IngestBatch>compose(rowSet -> {
+                    if (rowSet.size() > 0) {
+                      log.info("{} source has records; no bulk load", params.getSummary(null));
+                      return unlock(conn, lockKey).eventually(conn::close)
+                          .map(x -> new IngestBatch(vertx, storage, params.sourceId,
+                              params.sourceVersion, ingestMatchers, params.ingestMetrics,
+                              batchSize));
+                    }
+                    return conn.query("CREATE TEMP TABLE IF NOT EXISTS bulk_match_values"
+                            + " (record_id uuid NOT NULL,"
+                            + " match_key_config_id VARCHAR NOT NULL,"
+                            + " match_value VARCHAR NOT NULL)")
+                        .execute()
+                        .compose(x -> conn.query("TRUNCATE " + STAGE_TABLE).execute())
+                        .<IngestBatch>compose(x -> {
+                          stats.setBulk(true);
+                          BulkIngest bulkIngest = new BulkIngest(vertx, storage, params,
+                              ingestMatchers, conn, stats);
+                          return bulkIngest.prepare().map(bulkIngest);
+                        });
+                  })
+                  .recover(e -> unlock(conn, lockKey)
+                      .transform(x -> Future.<IngestBatch>failedFuture(e)));
+            })
+            .onFailure(e -> conn.close()));
+  }
+
+  /**
+   * Release session lock, which would otherwise stay with the pooled connection.
+   * @param conn connection holding the lock
+   * @param lockKey lock key
+   * @return async result
+   */
+  private static Future<Void> unlock(SqlConnection conn, String lockKey) {
+    return conn.preparedQuery("SELECT pg_advisory_unlock(hashtext($1))")
+        .execute(Tuple.of(lockKey))
+        .mapEmpty();
+  }
+
+  @Override
+  Future<IngestResult> add(JsonObject globalRecord) {
+    Promise<IngestResult> promise = Promise.promise();
+    records.add(globalRecord);
+    promises.add(promise);
+    if (records.size() >= CHUNK_SIZE) {
+      flush();
+    }
+    return promise.future();
+  }
+
+  @Override
+  void flush() {
+    if (records.isEmpty()) {
+      return;
+    }
+    List<JsonObject> chunkRecords = records;
+    List<Promise<IngestResult>> chunkPromises = promises;
+    records = new ArrayList<>();
+    promises = new ArrayList<>();
+    // chunks are stored one after the other on the dedicated connection
+    tail = tail
+        .compose(x -> {
+          long startTime = System.nanoTime();
+          return storeChunk(chunkRecords)
+              .onComplete(y -> {
+                long perRecord = (System.nanoTime() - startTime) / chunkRecords.size();
+                for (int i = 0; i < chunkRecords.size(); i++) {
+                  ingestMetrics.recordStoring(perRecord, TimeUnit.NANOSECONDS);
+                }
+              });
+        })
+        .<Void>transform(ar -> {
+          for (int i = 0; i < chunkPromises.size(); i++) {
+            if (ar.succeeded()) {
+              chunkPromises.get(i).complete(ar.result().get(i));
+            } else {
+              chunkPromises.get(i).fail(ar.cause());
+            }
+          }
+          return ar.succeeded() ? Future.succeededFuture() : Future.<Void>failedFuture(ar.cause());
+        });
+  }
+
+  @Override
+  Future<Void> close() {
+    flush();
+    return tail
+        .compose(x -> {
+          log.info("{} bulk load of records done; clustering", summary);
+          // the clustering scan is by (record_id, match_key_config_id) ranges
+          return conn.query("CREATE INDEX IF NOT EXISTS bulk_match_values_idx ON "
+                  + STAGE_TABLE + " (record_id, match_key_config_id)").execute()
+              .compose(y -> conn.query("ANALYZE " + STAGE_TABLE).execute())
+              .compose(y -> cluster(new UUID(0L, 0L), ""));
+        })
+        // stored records carry their payload hash, so they must not stay unclustered
+        .recover(this::undoLoad)
+        .onSuccess(x -> log.info("{} bulk clustering done: {}", summary, stats.clustered()))
+        .eventually(() -> conn.query("DROP TABLE IF EXISTS " + STAGE_TABLE).execute()
+            .eventually(() -> unlock(conn, lockKey))
+            .eventually(conn::close));
+  }
+
+  /**
+   * Delete records of the load after storing or clustering failed.
+   *
+   * <p>The source version had no records before the load, and the lock of the source
+   * version keeps others from writing it, so all its records are deleted. This is done on
+   * a connection of its own, as the dedicated connection may be broken.
+   * @param e cause of failure
+   * @return async result; always failed
+   */
+  private Future<Void> undoLoad(Throwable e) {
+    log.error("{} bulk load failed; deleting records of load: {}", summary,
+        e.getMessage(), e);
+    return storage.deleteGlobalRecords("source_id = '" + sourceId + "'"
+            + " AND source_version=" + sourceVersion)
+        .transform(ar -> {
+          if (ar.failed()) {
+            log.error("{} records of failed bulk load not deleted: {}", summary,
+                ar.cause().getMessage(), ar.cause());
+          }
+          return Future.failedFuture("Bulk load failed; records of source version "
+              + sourceVersion + " deleted, upload must be repeated: " + e.getMessage());
+        });
+  }
+
+  private Future<List<IngestResult>> storeChunk(List<JsonObject> chunkRecords) {
+    List<Future<List<MatcherResult>>> futures = new ArrayList<>(chunkRecords.size());
+    for (JsonObject globalRecord : chunkRecords) {
+      if (Boolean.TRUE.equals(globalRecord.getBoolean("delete"))) {
+        futures.add(Future.succeededFuture(Collections.emptyList()));
+        continue;
+      }
+      if (globalRecord.getJsonObject(ClusterBuilder.PAYLOAD_LABEL) == null) {
+        ingestMetrics.incrementRecordsIgnored();
+        return Future.failedFuture("payload required");
+      }
+      futures.add(storage.runMatchers(ingestMatchers, ingestMetrics, globalRecord));
+    }
+    return Future.all(futures).compose(cf -> {
+      List<BatchRecord> batchRecords = new ArrayList<>(chunkRecords.size());
+      for (int i = 0; i < chunkRecords.size(); i++) {
+        JsonObject globalRecord = chunkRecords.get(i);
+        JsonObject payload = Boolean.TRUE.equals(globalRecord.getBoolean("delete"))
+            ? null : globalRecord.getJsonObject(ClusterBuilder.PAYLOAD_LABEL);
+        batchRecords.add(new BatchRecord(globalRecord.getString(ClusterBuilder.LOCAL_ID_LABEL),
+            payload, payload == null ? null : Storage.payloadHash(payload, ingestMatchers),
+            cf.resultAt(i)));
+      }
+      Future<Void> future = Future.succeededFuture();
+      for (List<BatchRecord> segment : Storage.segments(batchRecords)) {
+        future = future.compose(x -> storeSegment(segment));
+      }
+      return future.map(x -> {
+        List<IngestResult> results = new ArrayList<>(batchRecords.size());
+        for (BatchRecord batchRecord : batchRecords) {
+          if (batchRecord.payload == null) {
+            ingestMetrics.incrementRecordsDeleted();
+            results.add(IngestResult.DELETED);
+          } else if (batchRecord.inserted) {
+            ingestMetrics.incrementRecordsInserted();
+            results.add(IngestResult.INSERTED);
+          } else {
+            ingestMetrics.incrementRecordsUpdated();
+            results.add(IngestResult.UPDATED);
+          }
+        }
+        return results;
+      });
+    });
+  }
+
+  private Future<Void> storeSegment(List<BatchRecord> segment) {
+    List<String> deletes = new ArrayList<>();
+    List<BatchRecord> upserts = new ArrayList<>();
+    for (BatchRecord batchRecord : segment) {
+      if (batchRecord.payload == null) {
+        deletes.add(batchRecord.localId);
+      } else {
+        upserts.add(batchRecord);
+      }
+    }
+    return storage.deleteGlobalRecordsByLocalIds(conn, deletes, sourceId, sourceVersion)
+        .compose(x -> insertRecords(upserts))
+        .compose(x -> stageMatchValues(upserts));
+  }
+
+  private Future<Void> insertRecords(List<BatchRecord> upserts) {
+    return storage.insertGlobalRecords(conn, upserts, sourceId, sourceVersion)
+        .compose(x -> {
+          List<UUID> updated = new ArrayList<>();
+          upserts.forEach(batchRecord -> {
+            if (!batchRecord.inserted) {
+              updated.add(batchRecord.globalId);
+            }
+          });
+          if (updated.isEmpty()) {
+            return Future.succeededFuture();
+          }
+          // record seen earlier in this load: drop its old match values
+          return conn.preparedQuery("DELETE FROM " + STAGE_TABLE + " WHERE record_id = ANY($1)")
+              .execute(Tuple.of(updated.toArray(new UUID[0])))
+              .mapEmpty();
+        });
+  }
+
+  private Future<Void> stageMatchValues(List<BatchRecord> upserts) {
+    List<UUID> recordIds = new ArrayList<>();
+    List<String> matchKeyIds = new ArrayList<>();
+    List<String> values = new ArrayList<>();
+    for (BatchRecord batchRecord : upserts) {
+      for (MatcherResult matcherResult : batchRecord.matcherResults) {
+        for (String key : matcherResult.keys) {
+          recordIds.add(batchRecord.globalId);
+          matchKeyIds.add(matcherResult.matchKeyId);
+          values.add(key);
+        }
+      }
+    }
+    if (recordIds.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return conn.preparedQuery("INSERT INTO " + STAGE_TABLE
+            + " (record_id, match_key_config_id, match_value)"
+            + " SELECT * FROM unnest($1::uuid[], $2::varchar[], $3::varchar[])")
+        .execute(Tuple.of(recordIds.toArray(new UUID[0]), matchKeyIds.toArray(new String[0]),
+            values.toArray(new String[0])))
+        .mapEmpty();
+  }
+
+  private Future<Void> cluster(UUID afterRecordId, String afterMatchKeyId) {
+    return conn.preparedQuery("SELECT s.record_id, s.match_key_config_id,"
+            + " array_agg(s.match_value) AS match_values"
+            + " FROM " + STAGE_TABLE + " AS s"
+            + " WHERE (s.record_id, s.match_key_config_id) > ($1, $2)"
+            + " AND EXISTS (SELECT 1 FROM " + storage.getGlobalRecordTable() + " AS g"
+            + " WHERE g.id = s.record_id)"
+            + " GROUP BY s.record_id, s.match_key_config_id"
+            + " ORDER BY s.record_id, s.match_key_config_id"
+            + " LIMIT $3")
+        .execute(Tuple.of(afterRecordId, afterMatchKeyId, CHUNK_SIZE))
+        .compose(rowSet -> {
+          if (rowSet.size() == 0) {
+            return Future.succeededFuture();
+          }
+          List<UUID> recordIds = new ArrayList<>(rowSet.size());
+          List<MatcherResult> matcherResults = new ArrayList<>(rowSet.size());
+          Row last = null;
+          for (Row row : rowSet) {
+            MatcherResult matcherResult = new MatcherResult();
+            matcherResult.matchKeyId = row.getString("match_key_config_id");
+            String[] values = row.getArrayOfStrings("match_values");
+            matcherResult.keys = new HashSet<>(Arrays.asList(values));
+            recordIds.add(row.getUUID("record_id"));
+            matcherResults.add(matcherResult);
+            last = row;
+          }
+          UUID lastRecordId = last.getUUID("record_id");
+          String lastMatchKeyId = last.getString("match_key_config_id");
+          return clusterChunk(recordIds, matcherResults, CLUSTER_RETRIES)
+              .compose(x -> {
+                int clustered = stats.addClustered(recordIds.size());
+                log.info("{} bulk clustering: {}", summary, clustered);
+                return cluster(lastRecordId, lastMatchKeyId);
+              });
+        });
+  }
+
+  private Future<Void> clusterChunk(List<UUID> recordIds, List<MatcherResult> matcherResults,
+      int retries) {
+    return conn.begin().compose(tx -> {
+      MatchValueCache.Updates cacheUpdates = new MatchValueCache.Updates();
+      ClusterBatchUpdater updater = new ClusterBatchUpdater(storage, conn, cacheUpdates);
+      for (int i = 0; i < recordIds.size(); i++) {
+        updater.add(recordIds.get(i), matcherResults.get(i));
+      }
+      return updater.execute()
+          .compose(x -> tx.commit())
+          .onSuccess(x -> storage.applyMatchValues(cacheUpdates))
+          // regular ingest of other sources may add the same match values
+          .recover(e -> tx.rollback().compose(x -> retries == 0
+              ? Future.<Void>failedFuture(e)
+              : clusterChunk(recordIds, matcherResults, retries - 1)));
+    });
+  }
+}
@@ -0,0 +1,297 @@
+package com.indexdata.reservoir.server;
+
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Cluster maintenance for many records in one transaction.
+ *
+ * <p>Match values of all records are looked up with one query per match key. Clusters
+ * are then resolved in memory in the order the records were added, so records of the
+ * same batch that share match values end up in the same cluster. Finally the changes
+ * are written with a few batched statements. Results with the same match values as stored
+ * for the record are skipped, see {@link MatchValueDiff}.
+ */
+class ClusterBatchUpdater {
+  private final Storage storage;
+  private final SqlConnection conn;
+  private final MatchValueCache.Updates cacheUpdates;
+  private List<UUID> recordIds = new ArrayList<>();
+  private List<MatcherResult> matcherResults = new ArrayList<>();
+  // match key id -> (match value -> cluster id)
+  private final Map<String, Map<String, UUID>> valueClusters = new HashMap<>();
+  // clusters created by this batch: cluster id -> match key id
+  private final Map<UUID, String> newClusters = new LinkedHashMap<>();
+  private final Set<UUID> touchedClusters = new LinkedHashSet<>();
+  private final List<Tuple> merges = new ArrayList<>();
+  private final List<ClusterValue> newValues = new ArrayList<>();
+  private final List<ClusterRecord> clusterRecords = new ArrayList<>();
+  private final List<ClusterRecord> removedRecords = new ArrayList<>();
+
+  static class ClusterValue {
+    UUID clusterId;
+    final String matchKeyId;
+    final String value;
+
+    ClusterValue(UUID clusterId, String matchKeyId, String value) {
+      this.clusterId = clusterId;
+      this.matchKeyId = matchKeyId;
+      this.value = value;
+    }
+  }
+
+  static class ClusterRecord {
+    final UUID recordId;
+    final String matchKeyId;
+    UUID clusterId;
+    final String[] matchValues;
+
+    ClusterRecord(UUID recordId, String matchKeyId, UUID clusterId, String[] matchValues) {
+      this.recordId = recordId;
+      this.matchKeyId = matchKeyId;
+      this.clusterId = clusterId;
+      this.matchValues = matchValues;
+    }
+  }
+
+  ClusterBatchUpdater(Storage storage, SqlConnection conn, MatchValueCache.Updates cacheUpdates) {
+    this.storage = storage;
+    this.conn = conn;
+    this.cacheUpdates = cacheUpdates;
+  }
+
+  /**
+   * Add matcher result for a record.
+   * @param recordId global record identifier
+   * @param matcherResult match values for one match key
+   */
+  void add(UUID recordId, MatcherResult matcherResult) {
+    recordIds.add(recordId);
+    matcherResults.add(matcherResult);
+  }
+
+  /**
+   * Update clusters for all records added.
+   * @return async result
+   */
+  Future<Void> execute() {
+    return MatchValueDiff.load(storage, conn, recordIds).compose(diff -> {
+      List<UUID> changedIds = new ArrayList<>();
+      List<MatcherResult> changedResults = new ArrayList<>();
+      for (int i = 0; i < recordIds.size(); i++) {
+        if (diff.changed(recordIds.get(i), matcherResults.get(i))) {
+          changedIds.add(recordIds.get(i));
+          changedResults.add(matcherResults.get(i));
+        }
+      }
+      recordIds = changedIds;
+      matcherResults = changedResults;
+      return update().compose(x -> diff.execute(conn, cacheUpdates));
+    });
+  }
+
+  private Future<Void> update() {
+    Map<String, Set<String>> lookupValues = new HashMap<>();
+    for (MatcherResult matcherResult : matcherResults) {
+      if (matcherResult.keys.isEmpty() || matcherResult.keys.contains("")) {
+        continue;
+      }
+      Map<String, UUID> clusters = getValueClusters(matcherResult.matchKeyId);
+      for (String key : matcherResult.keys) {
+        if (clusters.containsKey(key)) {
+          continue;
+        }
+        UUID cached = storage.matchValueCache.lookup(matcherResult.matchKeyId, key);
+        if (cached != null) {
+          clusters.put(key, cached);
+        } else {
+          lookupValues.computeIfAbsent(matcherResult.matchKeyId, k -> new HashSet<>()).add(key);
+        }
+      }
+    }
+    Future<Void> future = Future.succeededFuture();
+    for (Map.Entry<String, Set<String>> entry : lookupValues.entrySet()) {
+      future = future.compose(x -> lookup(entry.getKey(), entry.getValue()));
+    }
+    return future.compose(x -> {
+      for (int i = 0; i < recordIds.size(); i++) {
+        resolve(recordIds.get(i), matcherResults.get(i));
+      }
+      return write();
+    });
+  }
+
+  private Future<Void> lookup(String matchKeyId, Set<String> values) {
+    return conn.preparedQuery("SELECT cluster_id, match_value FROM "
+            + storage.getClusterValuesTable()
+            + " WHERE match_key_config_id = $1 AND " + Storage.matchValueIn("match_value", "$2"))
+        .execute(Tuple.of(matchKeyId, values.toArray(new String[0])))
+        .map(rowSet -> {
+          Map<String, UUID> clusters = getValueClusters(matchKeyId);
+          rowSet.forEach(row ->
+              clusters.put(row.getString("match_value"), row.getUUID("cluster_id")));
+          return null;
+        });
+  }
+
+  private Map<String, UUID> getValueClusters(String matchKeyId) {
+    return valueClusters.computeIfAbsent(matchKeyId, k -> new HashMap<>());
+  }
+
+  private UUID newCluster(String matchKeyId) {
+    UUID clusterId = UUID.randomUUID();
+    newClusters.put(clusterId, matchKeyId);
+    return clusterId;
+  }
+
+  private void resolve(UUID recordId, MatcherResult matcherResult) {
+    String matchKeyId = matcherResult.matchKeyId;
+    if (matcherResult.keys.isEmpty()) {
+      removedRecords.add(new ClusterRecord(recordId, matchKeyId, null, null));
+      return;
+    }
+    UUID clusterId;
+    if (matcherResult.keys.contains("")) {
+      // same as the one-record path: a cluster of its own without values
+      clusterId = newCluster(matchKeyId);
+    } else {
+      Map<String, UUID> clusters = getValueClusters(matchKeyId);
+      Set<UUID> clustersFound = new LinkedHashSet<>();
+      for (String key : matcherResult.keys) {
+        UUID found = clusters.get(key);
+        if (found != null) {
+          clustersFound.add(found);
+        }
+      }
+      Iterator<UUID> iterator = clustersFound.iterator();
+      if (!iterator.hasNext()) {
+        clusterId = newCluster(matchKeyId);
+      } else {
+        clusterId = iterator.next();
+        for (UUID found : clustersFound) {
+          if (!newClusters.containsKey(found)) {
+            touchedClusters.add(found);
+          }
+        }
+        clustersFound.remove(clusterId);
+        if (!clustersFound.isEmpty()) {
+          merge(clusters, clusterId, clustersFound);
+        }
+      }
+      for (String key : matcherResult.keys) {
+        if (clusters.putIfAbsent(key, clusterId) == null) {
+          newValues.add(new ClusterValue(clusterId, matchKeyId, key));
+        }
+      }
+    }
+    clusterRecords.add(new ClusterRecord(recordId, matchKeyId, clusterId,
+        matcherResult.keys.toArray(new String[0])));
+  }
+
+  private void merge(Map<String, UUID> clusters, UUID clusterId, Set<UUID> others) {
+    merges.add(Tuple.of(clusterId, others.toArray(new UUID[0])));
+    clusters.replaceAll((value, id) -> others.contains(id) ? clusterId : id);
+    for (ClusterValue clusterValue : newValues) {
+      if (others.contains(clusterValue.clusterId)) {
+        clusterValue.clusterId = clusterId;
+      }
+    }
+    for (ClusterRecord clusterRecord : clusterRecords) {
+      if (others.contains(clusterRecord.clusterId)) {
+        clusterRecord.clusterId = clusterId;
+      }
+    }
+    others.forEach(newClusters::remove);
+    cacheUpdates.removeClusters(others);
+  }
+
+  private Future<Void> executeBatch(String sql, List<Tuple> tuples) {
+    if (tuples.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return conn.preparedQuery(sql).executeBatch(tuples).mapEmpty();
+  }
+
+  private Future<Void> write() {
+    valueClusters.forEach((matchKeyId, clusters) ->
+        clusters.forEach((value, clusterId) -> cacheUpdates.put(matchKeyId, value, clusterId)));
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    Future<Void> future = Future.succeededFuture();
+    for (Tuple merge : merges) {
+      future = future
+          .compose(x -> conn.preparedQuery("UPDATE " + storage.getClusterValuesTable()
+                  + " SET cluster_id = $1 WHERE cluster_id = ANY($2)")
+              .execute(merge))
+          .compose(x -> conn.preparedQuery("UPDATE " + storage.getClusterRecordTable()
+                  + " SET cluster_id = $1 WHERE cluster_id = ANY($2)")
+              .execute(merge))
+          .mapEmpty();
+    }
+    List<Tuple> metaTuples = new ArrayList<>(newClusters.size());
+    Map<String, Long> clusterCounts = new HashMap<>();
+    newClusters.forEach((clusterId, matchKeyId) -> {
+      metaTuples.add(Tuple.of(clusterId, now, matchKeyId));
+      clusterCounts.merge(matchKeyId, 1L, Long::sum);
+    });
+    List<Tuple> countTuples = new ArrayList<>(clusterCounts.size());
+    clusterCounts.forEach((matchKeyId, count) -> countTuples.add(Tuple.of(matchKeyId, count)));
+    List<Tuple> valueTuples = new ArrayList<>(newValues.size());
+    newValues.forEach(v -> valueTuples.add(Tuple.of(v.clusterId, v.matchKeyId, v.value)));
+    List<Tuple> touchRemovedTuples = new ArrayList<>(removedRecords.size());
+    List<Tuple> removedTuples = new ArrayList<>(removedRecords.size());
+    removedRecords.forEach(r -> {
+      touchRemovedTuples.add(Tuple.of(now, r.matchKeyId, r.recordId));
+      removedTuples.add(Tuple.of(r.recordId, r.matchKeyId));
+    });
+    List<Tuple> recordTuples = new ArrayList<>(clusterRecords.size());
+    clusterRecords.forEach(r ->
+        recordTuples.add(Tuple.of(r.recordId, r.matchKeyId, r.clusterId, r.matchValues)));
+    return future
+        .compose(x -> executeBatch("INSERT INTO " + storage.getClusterMetaTable()
+            + " (cluster_id, datestamp, match_key_config_id) VALUES ($1, $2, $3)", metaTuples))
+        .compose(x -> executeBatch("INSERT INTO " + storage.getClusterCountTable()
+            + " (match_key_config_id, clusters) VALUES ($1, $2)", countTuples)
+            .onSuccess(y -> {
+              if (!countTuples.isEmpty()) {
+                storage.clusterCountsAdded();
+              }
+            }))
+        .compose(x -> executeBatch("INSERT INTO " + storage.getClusterValuesTable()
+            + " (cluster_id, match_key_config_id, match_value) VALUES ($1, $2, $3)", valueTuples))
+        .compose(x -> {
+          if (touchedClusters.isEmpty()) {
+            return Future.succeededFuture();
+          }
+          return conn.preparedQuery("UPDATE " + storage.getClusterMetaTable()
+                  + " SET datestamp = $1 WHERE cluster_id = ANY($2)")
+              .execute(Tuple.of(now, touchedClusters.toArray(new UUID[0])))
+              .mapEmpty();
+        })
+        .compose(x -> executeBatch("UPDATE " + storage.getClusterMetaTable()
+            + " SET datestamp = $1"
+            + " FROM " + storage.getClusterRecordTable()
+            + " WHERE cluster_meta.cluster_id = cluster_records.cluster_id"
+            + " AND cluster_records.match_key_config_id = $2"
+            + " AND cluster_records.record_id = $3", touchRemovedTuples))
+        .compose(x -> executeBatch("DELETE FROM " + storage.getClusterRecordTable()
+            + " WHERE record_id = $1 AND match_key_config_id = $2", removedTuples))
+        .compose(x -> executeBatch("INSERT INTO " + storage.getClusterRecordTable()
+            + " (record_id, match_key_config_id, cluster_id, match_values)"
+            + " VALUES ($1, $2, $3, $4)"
+            + " ON CONFLICT (record_id, match_key_config_id)"
+            + " DO UPDATE SET cluster_id = $3, match_values = $4", recordTuples));
+  }
+}
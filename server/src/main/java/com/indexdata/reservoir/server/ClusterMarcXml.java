@@ -6,6 +6,7 @@ import com.indexdata.reservoir.util.JsonToMarcXml;
 import com.indexdata.reservoir.util.MarcInJsonUtil;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -13,7 +14,7 @@ public class ClusterMarcXml {
   private ClusterMarcXml() {}
 
   /**
-   * Construct metadata record XML string.
+   * Construct metadata record XML.
    *
    * <p>999 ind1=1 ind2=0 has identifiers for the record. $i cluster UUID; multiple $m for each
    * match value; Multiple $l, $s pairs for local identifier and source identifiers.
@@ -21,9 +22,9 @@ public class ClusterMarcXml {
    * <p>999 ind1=0 ind2=0 has holding information. Not complete yet.
    *
    * @param clusterJson ClusterBuilder.build output
-   * @return metadata record string; null if it's deleted record
+   * @return metadata record; null if it's deleted record
    */
-  static String getMetadataJava(JsonObject clusterJson) {
+  static Buffer getMetadataJava(JsonObject clusterJson) {
     JsonArray identifiersField = new JsonArray();
     identifiersField.add(new JsonObject()
         .put("i", clusterJson.getString(ClusterBuilder.CLUSTER_ID_LABEL)));
@@ -61,7 +62,7 @@ public class ClusterMarcXml {
       return null; // a deleted record
     }
     MarcInJsonUtil.createMarcDataField(combinedMarc, "999", "1", "0").addAll(identifiersField);
-    return JsonToMarcXml.convert(combinedMarc);
+    return JsonToMarcXml.write(Buffer.buffer(), combinedMarc);
   }
 
   /**
@@ -70,9 +71,9 @@ public class ClusterMarcXml {
    * @param cb ClusterBuilder
    * @param transformer ModuleExecutable
    * @param vertx Vertx
-   * @return Future with MARC XML string
+   * @return Future with MARC XML; null for deleted record
    */
-  public static Future<String> getClusterMarcXml(ClusterBuilder cb, ModuleExecutable transformer,
+  public static Future<Buffer> getClusterMarcXml(ClusterBuilder cb, ModuleExecutable transformer,
       Vertx vertx) {
 
     if (cb == null) {
@@ -80,6 +81,6 @@ public class ClusterMarcXml {
     } else if (transformer == null) {
       return Future.succeededFuture(getMetadataJava(cb.build()));
     }
-    return transformer.execute(cb.build()).map(JsonToMarcXml::convert);
+    return transformer.execute(cb.build()).map(marc -> JsonToMarcXml.write(Buffer.buffer(), marc));
   }
 }
@@ -2,11 +2,18 @@ package com.indexdata.reservoir.server;
 
 import com.indexdata.reservoir.server.entity.ClusterBuilder;
 import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
 import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
 import io.vertx.sqlclient.SqlConnection;
 import io.vertx.sqlclient.Tuple;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
 
 public class ClusterRecordItem {
 
@@ -22,29 +29,67 @@ public class ClusterRecordItem {
 
   Future<ClusterBuilder> populateCluster(Storage storage, SqlConnection connection,
       boolean withMetadata) {
+    return populateClusters(storage, connection, List.of(this), withMetadata)
+        .map(clusters -> clusters.get(0));
+  }
+
+  /**
+   * Fetch records, and optionally match values, for clusters.
+   *
+   * <p>Two queries at most regardless of the number of clusters.
+   * @param storage storage
+   * @param connection connection to use
+   * @param items clusters
+   * @param withMetadata whether to get match values
+   * @return cluster for each item in same order; null for a deleted record
+   */
+  static Future<List<ClusterBuilder>> populateClusters(Storage storage,
+      SqlConnection connection, List<ClusterRecordItem> items, boolean withMetadata) {
 
+    if (items.isEmpty()) {
+      return Future.succeededFuture(List.of());
+    }
+    UUID[] clusterIds = items.stream().map(cr -> cr.clusterId).toArray(UUID[]::new);
     String q = "SELECT * FROM " + storage.getGlobalRecordTable()
         + " LEFT JOIN " + storage.getClusterRecordTable() + " ON record_id = id "
-        + " WHERE cluster_id = $1";
+        + " WHERE cluster_id = ANY($1)";
     return connection.preparedQuery(q)
-        .execute(Tuple.of(clusterId))
-        .compose(rowSet -> {
-          if (rowSet.size() == 0) {
-            return Future.succeededFuture(null); // deleted record
-          }
-          ClusterBuilder cb = new ClusterBuilder(clusterId).records(rowSet);
-          if (!withMetadata) {
-            return Future.succeededFuture(cb);
+        .execute(Tuple.of(clusterIds))
+        .compose(recordRows -> {
+          Map<UUID, JsonArray> records = group(recordRows, ClusterBuilder::encodeRecord);
+          if (!withMetadata || records.isEmpty()) {
+            return Future.succeededFuture(build(items, records, null));
           }
-          return getClusterValues(storage, connection, clusterId, cb);
+          return connection.preparedQuery("SELECT cluster_id, match_value FROM "
+                  + storage.getClusterValuesTable() + " WHERE cluster_id = ANY($1)")
+              .execute(Tuple.of(clusterIds))
+              .map(valueRows -> build(items, records,
+                  group(valueRows, row -> row.getString("match_value"))));
         });
   }
 
-  private Future<ClusterBuilder> getClusterValues(Storage storage, SqlConnection conn,
-      UUID clusterId, ClusterBuilder cb) {
-    return conn.preparedQuery("SELECT match_value FROM " + storage.getClusterValuesTable()
-          + " WHERE cluster_id = $1")
-      .execute(Tuple.of(clusterId))
-      .map(cb::matchValues);
+  private static Map<UUID, JsonArray> group(RowSet<Row> rows, Function<Row, Object> value) {
+    Map<UUID, JsonArray> groups = new HashMap<>();
+    rows.forEach(row -> groups.computeIfAbsent(row.getUUID("cluster_id"), k -> new JsonArray())
+        .add(value.apply(row)));
+    return groups;
+  }
+
+  private static List<ClusterBuilder> build(List<ClusterRecordItem> items,
+      Map<UUID, JsonArray> records, Map<UUID, JsonArray> matchValues) {
+    List<ClusterBuilder> clusters = new ArrayList<>(items.size());
+    for (ClusterRecordItem cr : items) {
+      JsonArray clusterRecords = records.get(cr.clusterId);
+      if (clusterRecords == null) {
+        clusters.add(null); // deleted record
+        continue;
+      }
+      ClusterBuilder cb = new ClusterBuilder(cr.clusterId).records(clusterRecords);
+      if (matchValues != null) {
+        cb.matchValues(matchValues.getOrDefault(cr.clusterId, new JsonArray()));
+      }
+      clusters.add(cb);
+    }
+    return clusters;
   }
 }
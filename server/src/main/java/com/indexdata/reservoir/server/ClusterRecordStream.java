@@ -1,5 +1,6 @@
 package com.indexdata.reservoir.server;
 
+import com.indexdata.reservoir.server.metrics.PipelineMetrics;
 import com.indexdata.reservoir.util.EncodeXmlText;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -8,18 +9,31 @@ import io.vertx.core.buffer.Buffer;
 import io.vertx.core.streams.WriteStream;
 import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.SqlConnection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class ClusterRecordStream implements WriteStream<Row> {
+/**
+ * Writes pages of cluster rows as records to the response.
+ *
+ * <p>Pages are produced concurrently, up to the write queue size, but written to the
+ * response in the order they were given, so that the response follows the order of
+ * the cursor. The queue is also full while the response is.
+ */
+public class ClusterRecordStream implements WriteStream<List<Row>> {
 
   private static final Logger log = LogManager.getLogger(ClusterRecordStream.class);
+
+  private static volatile int defaultDepth = 4;
+
   boolean ended;
 
-  Set<Row> work = new HashSet<>();
+  final Deque<Pending> pending = new ArrayDeque<>();
+
+  boolean drainRequested;
 
   Handler<Void> drainHandler;
 
@@ -31,65 +45,117 @@ public class ClusterRecordStream implements WriteStream<Row> {
 
   SqlConnection connection;
 
-  int writeQueueMaxSize = 5;
+  int writeQueueMaxSize = defaultDepth;
 
-  final Function<Row, Future<Buffer>> recordProcessor;
+  final Function<List<Row>, Future<Buffer>> recordProcessor;
+
+  final PipelineMetrics metrics;
+
+  private record Pending(int records, Future<Buffer> result, Promise<Void> written) {
+  }
 
   ClusterRecordStream(
       SqlConnection connection, WriteStream<Buffer> response,
-      Function<Row, Future<Buffer>> recordProcessor) {
+      Function<List<Row>, Future<Buffer>> recordProcessor, PipelineMetrics metrics) {
     this.response = response;
     this.connection = connection;
     this.recordProcessor = recordProcessor;
+    this.metrics = metrics;
     this.endHandler = Promise.promise();
   }
 
+  /**
+   * Set number of pages produced concurrently by new streams.
+   * @param depth number of pages
+   */
+  public static void setDepth(int depth) {
+    defaultDepth = Math.max(1, depth);
+  }
+
   @Override
-  public WriteStream<Row> exceptionHandler(Handler<Throwable> handler) {
+  public WriteStream<List<Row>> exceptionHandler(Handler<Throwable> handler) {
     this.exceptionHandler = handler;
     return this;
   }
 
-  Future<Void> perform(Row row) {
-    return recordProcessor.apply(row)
-    .compose(buf -> response.write(buf))
+  /**
+   * Comment to write in place of a record that could not be produced.
+   * @param row cluster row
+   * @param e cause
+   * @return XML comment
+   */
+  static Buffer failedRecord(Row row, Throwable e) {
+    log.warn("Failed to produce record {} cause: {}", row.deepToString(), e.getMessage());
+    log.debug(e);
+    return Buffer.buffer("<!-- Failed to produce record "
+        + EncodeXmlText.encodeXmlText(row.deepToString()) + " cause: "
+        + EncodeXmlText.encodeXmlText(e.getMessage()) + " -->\n");
+  }
+
+  Future<Buffer> perform(List<Row> rows) {
+    return Future.<Void>succeededFuture()
+    .compose(x -> recordProcessor.apply(rows))
     .recover(e -> {
-      log.warn("Failed to produce record {} cause: {}", row.deepToString(), e.getMessage());
-      log.debug(e);
-      return response.write(Buffer.buffer("<!-- Failed to produce record "
-          + EncodeXmlText.encodeXmlText(row.deepToString()) + " cause: "
-          + EncodeXmlText.encodeXmlText(e.getMessage()) + " -->\n")).mapEmpty();
+      Buffer buffer = Buffer.buffer();
+      rows.forEach(row -> buffer.appendBuffer(failedRecord(row, e)));
+      return Future.succeededFuture(buffer);
     });
   }
 
   @Override
-  public Future<Void> write(Row row) {
-    work.add(row);
-    return perform(row).onComplete(x -> {
-      work.remove(row);
-      if (work.size() == writeQueueMaxSize - 1 && !ended) {
-        drainHandler.handle(null);
-      }
-      if (work.isEmpty() && ended) {
-        endHandler.complete();
-      }
-    });
+  public Future<Void> write(List<Row> rows) {
+    Pending p = new Pending(rows.size(), perform(rows), Promise.promise());
+    metrics.addInFlight(p.records());
+    pending.add(p);
+    p.result().onComplete(x -> flush());
+    return p.written().future();
+  }
+
+  private void flush() {
+    while (!pending.isEmpty() && pending.peek().result().isComplete()) {
+      Pending p = pending.poll();
+      metrics.addInFlight(-p.records());
+      response.write(p.result().result()).onComplete(p.written());
+    }
+    checkDrain();
+    if (pending.isEmpty() && ended) {
+      endHandler.tryComplete();
+    }
+  }
+
+  private void checkDrain() {
+    if (drainRequested && !ended && drainHandler != null && !writeQueueFull()) {
+      drainRequested = false;
+      drainHandler.handle(null);
+    }
   }
 
   @Override
-  public WriteStream<Row> setWriteQueueMaxSize(int i) {
+  public WriteStream<List<Row>> setWriteQueueMaxSize(int i) {
     writeQueueMaxSize = i;
     return this;
   }
 
   @Override
   public boolean writeQueueFull() {
-    return work.size() >= writeQueueMaxSize;
+    boolean full = pending.size() >= writeQueueMaxSize || response.writeQueueFull();
+    // caller pauses, so resume it when no longer full
+    drainRequested |= full;
+    return full;
   }
 
+  /**
+   * Set handler called when the queue is no longer full.
+   *
+   * <p>The drain handler of the response is set too, as the queue is full while the
+   * response is; the response should not have a drain handler of its own.
+   * @param handler drain handler; null for none
+   * @return this stream
+   */
   @Override
-  public WriteStream<Row> drainHandler(Handler<Void> handler) {
+  public WriteStream<List<Row>> drainHandler(Handler<Void> handler) {
     this.drainHandler = handler;
+    response.drainHandler(handler == null ? null : v -> checkDrain());
     return this;
   }
 
@@ -99,7 +165,7 @@ public class ClusterRecordStream implements WriteStream<Row> {
       throw new IllegalStateException("already ended");
     }
     ended = true;
-    if (work.isEmpty()) {
+    if (pending.isEmpty()) {
       endHandler.complete();
     }
     return endHandler.future();
@@ -0,0 +1,174 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.module.ModuleCache;
+import com.indexdata.reservoir.module.ModuleExecutable;
+import com.indexdata.reservoir.module.ModuleInvocation;
+import com.indexdata.reservoir.server.entity.CodeModuleEntity;
+import com.indexdata.reservoir.server.entity.MatchKeyConfig;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.tlib.postgres.TenantPgPool;
+
+/**
+ * Immutable snapshot of the configuration of a tenant: match keys, code modules and OAI config.
+ *
+ * <p>Snapshots are kept per tenant until a configuration write invalidates them. Writes made
+ * by this instance invalidate directly; writes made by other instances are seen through
+ * a notification on the {@link #CHANNEL} channel with the tenant as payload. While this
+ * instance is not listening for notifications, snapshots are loaded for each use and
+ * not kept. The same connection listens on {@link MatchValueCache#CHANNEL}, and match value
+ * caches are only used while it does.
+ */
+public class ConfigSnapshot {
+  static final String CHANNEL = "reservoir_config";
+
+  private static final Logger log = LogManager.getLogger(ConfigSnapshot.class);
+  private static final Map<String, Future<ConfigSnapshot>> snapshots = new HashMap<>();
+  private static Future<Void> listener;
+
+  private final String tenant;
+  private final List<MatchKeyConfig> matchKeyConfigs;
+  private final Map<String, CodeModuleEntity> modules;
+  private final JsonObject oaiConfig;
+  private final Map<String, Future<ModuleExecutable>> executables = new HashMap<>();
+  private Future<List<IngestMatcher>> ingestMatchers;
+
+  ConfigSnapshot(String tenant, List<MatchKeyConfig> matchKeyConfigs,
+      Map<String, CodeModuleEntity> modules, JsonObject oaiConfig) {
+    this.tenant = tenant;
+    this.matchKeyConfigs = List.copyOf(matchKeyConfigs);
+    this.modules = Map.copyOf(modules);
+    this.oaiConfig = oaiConfig;
+  }
+
+  /**
+   * Get configuration snapshot for tenant.
+   * @param vertx Vert.x handle
+   * @param tenant tenant
+   * @param loader reads configuration from storage
+   * @return async result with snapshot
+   */
+  static Future<ConfigSnapshot> get(Vertx vertx, String tenant,
+      Supplier<Future<ConfigSnapshot>> loader) {
+    return listen(vertx, tenant).compose(x -> cached(tenant, loader), e -> loader.get());
+  }
+
+  static Future<ConfigSnapshot> cached(String tenant, Supplier<Future<ConfigSnapshot>> loader) {
+    synchronized (snapshots) {
+      Future<ConfigSnapshot> future = snapshots.get(tenant);
+      if (future == null || future.failed()) {
+        future = loader.get();
+        snapshots.put(tenant, future);
+      }
+      return future;
+    }
+  }
+
+  /**
+   * Drop snapshot of tenant, so that the next use reads configuration from storage.
+   * @param tenant tenant
+   */
+  static void invalidate(String tenant) {
+    synchronized (snapshots) {
+      snapshots.remove(tenant);
+    }
+  }
+
+  static void invalidateAll() {
+    synchronized (snapshots) {
+      snapshots.clear();
+    }
+  }
+
+  private static synchronized Future<Void> listen(Vertx vertx, String tenant) {
+    if (listener != null) {
+      return listener;
+    }
+    // LISTEN is not possible on a read replica, so use the write pool
+    Future<Void> future = TenantPgPool.pool(vertx, tenant, "write").getConnection()
+        .compose(conn -> {
+          PgConnection pgConnection = PgConnection.cast(conn);
+          pgConnection.notificationHandler(notification -> {
+            if (CHANNEL.equals(notification.getChannel())) {
+              invalidate(notification.getPayload());
+            } else if (MatchValueCache.CHANNEL.equals(notification.getChannel())) {
+              MatchValueCache.notified(notification.getPayload());
+            }
+          });
+          pgConnection.closeHandler(x -> stopListening());
+          return conn.query("LISTEN " + CHANNEL).execute()
+              .compose(x -> conn.query("LISTEN " + MatchValueCache.CHANNEL).execute())
+              .onFailure(e -> conn.close())
+              .<Void>mapEmpty();
+        });
+    listener = future;
+    future.onSuccess(x -> MatchValueCache.suspend(false));
+    future.onFailure(e -> {
+      log.warn("Not listening for configuration changes: {}", e.getMessage());
+      stopListening();
+    });
+    return future;
+  }
+
+  private static synchronized void stopListening() {
+    // changes may have been missed
+    listener = null;
+    invalidateAll();
+    MatchValueCache.suspend(true);
+  }
+
+  List<MatchKeyConfig> getMatchKeyConfigs() {
+    return matchKeyConfigs;
+  }
+
+  JsonObject getOaiConfig() {
+    return oaiConfig;
+  }
+
+  CodeModuleEntity getModule(String name) {
+    return modules.get(name);
+  }
+
+  /**
+   * Get executable for module invocation.
+   * @param vertx Vert.x handle
+   * @param invocation module invocation
+   * @return async result with executable; null if module does not exist
+   */
+  synchronized Future<ModuleExecutable> getExecutable(Vertx vertx, ModuleInvocation invocation) {
+    String key = invocation.toString();
+    Future<ModuleExecutable> future = executables.get(key);
+    if (future == null || future.failed()) {
+      CodeModuleEntity entity = modules.get(invocation.getModuleName());
+      if (entity == null) {
+        return Future.succeededFuture(null);
+      }
+      future = ModuleCache.getInstance().lookup(tenant, entity)
+          .map(module -> new ModuleExecutable(module, invocation, vertx));
+      executables.put(key, future);
+    }
+    return future;
+  }
+
+  /**
+   * Get ingest matchers of match keys.
+   * @param creator creates ingest matchers for match key configurations
+   * @return async result with ingest matchers
+   */
+  synchronized Future<List<IngestMatcher>> getIngestMatchers(
+      Function<List<MatchKeyConfig>, Future<List<IngestMatcher>>> creator) {
+    if (ingestMatchers == null || ingestMatchers.failed()) {
+      ingestMatchers = creator.apply(matchKeyConfigs);
+    }
+    return ingestMatchers;
+  }
+}
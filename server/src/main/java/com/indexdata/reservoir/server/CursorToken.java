@@ -0,0 +1,58 @@
+package com.indexdata.reservoir.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Cursor for keyset paging of streamed results.
+ *
+ * <p>The token holds the key column and the last key value of the previous page.
+ * Clients must treat it as opaque.
+ */
+public class CursorToken {
+  private final String column;
+  private final String key;
+
+  /**
+   * Create token for key value.
+   * @param column key column name
+   * @param key last key value returned
+   */
+  public CursorToken(String column, String key) {
+    this.column = column;
+    this.key = key;
+  }
+
+  /**
+   * Create token from coded string.
+   * @param coded coded string
+   * @throws IllegalArgumentException if token can not be decoded
+   */
+  public CursorToken(String coded) {
+    String s = new String(Base64.getUrlDecoder().decode(coded), StandardCharsets.UTF_8);
+    int i = s.indexOf(' ');
+    if (i <= 0) {
+      throw new IllegalArgumentException("Bad cursor");
+    }
+    column = s.substring(0, i);
+    key = s.substring(i + 1);
+  }
+
+  /**
+   * Return encoded token value.
+   * @return encoded token string
+   */
+  public String encode() {
+    String s = column + " " + key;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public String getColumn() {
+    return column;
+  }
+
+  public String getKey() {
+    return key;
+  }
+}
@@ -0,0 +1,107 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.server.metrics.IngestMetrics;
+import com.indexdata.reservoir.util.SourceId;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects global records so that up to batchSize records are stored in one transaction.
+ *
+ * <p>Each record still gets its own result. With a batch size of 1 records are
+ * stored one by one as before.
+ */
+class IngestBatch {
+  final Vertx vertx;
+  final Storage storage;
+  final SourceId sourceId;
+  final int sourceVersion;
+  final List<IngestMatcher> ingestMatchers;
+  final IngestMetrics ingestMetrics;
+  final int batchSize;
+  private List<JsonObject> records = new ArrayList<>();
+  private List<Promise<IngestResult>> promises = new ArrayList<>();
+  private Future<Void> prepared;
+
+  IngestBatch(Vertx vertx, Storage storage, SourceId sourceId, int sourceVersion,
+      List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics, int batchSize) {
+    this.vertx = vertx;
+    this.storage = storage;
+    this.sourceId = sourceId;
+    this.sourceVersion = sourceVersion;
+    this.ingestMatchers = ingestMatchers;
+    this.ingestMetrics = ingestMetrics;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Add record to batch. The batch is stored when full.
+   * @param globalRecord global record JSON object
+   * @return async result with outcome
+   */
+  Future<IngestResult> add(JsonObject globalRecord) {
+    if (batchSize <= 1) {
+      return prepare().compose(x -> storage.ingestGlobalRecord(vertx, sourceId, sourceVersion,
+          globalRecord, ingestMatchers, ingestMetrics));
+    }
+    Promise<IngestResult> promise = Promise.promise();
+    records.add(globalRecord);
+    promises.add(promise);
+    if (records.size() >= batchSize) {
+      flush();
+    }
+    return promise.future();
+  }
+
+  /**
+   * Store records collected so far.
+   */
+  void flush() {
+    if (records.isEmpty()) {
+      return;
+    }
+    List<JsonObject> batchRecords = records;
+    List<Promise<IngestResult>> batchPromises = promises;
+    records = new ArrayList<>();
+    promises = new ArrayList<>();
+    prepare()
+        .compose(x -> storage.ingestGlobalRecords(sourceId, sourceVersion, batchRecords,
+            ingestMatchers, ingestMetrics))
+        .onComplete(ar -> {
+          for (int i = 0; i < batchPromises.size(); i++) {
+            if (ar.succeeded()) {
+              batchPromises.get(i).complete(ar.result().get(i));
+            } else {
+              batchPromises.get(i).fail(ar.cause());
+            }
+          }
+        });
+  }
+
+  /**
+   * Prepare storage for the source version once, before the first records are stored.
+   * @return async result
+   */
+  Future<Void> prepare() {
+    if (prepared == null) {
+      prepared = new SourcePartitions(storage).prepareVersion(sourceId, sourceVersion);
+    }
+    return prepared;
+  }
+
+  /**
+   * Finish ingest after all records have been stored.
+   * @return async result
+   */
+  Future<Void> close() {
+    return Future.succeededFuture();
+  }
+
+  int getBatchSize() {
+    return batchSize;
+  }
+}
@@ -0,0 +1,53 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.server.metrics.LimitMetrics;
+import com.indexdata.reservoir.util.AdaptiveLimit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adaptive limits of records in flight for ingest, one for each pipeline, tenant, source and
+ * batch size.
+ *
+ * <p>Limits are kept while the server runs, so that an ingest starts where earlier ingests
+ * of the same source left off. The bounds of a limit depend on the batch size, so ingests
+ * with another batch size get a limit of their own.
+ */
+final class IngestLimits {
+  private static final Map<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+
+  private IngestLimits() {
+    throw new UnsupportedOperationException("IngestLimits");
+  }
+
+  /**
+   * Get limit for source.
+   *
+   * <p>The limit is kept at two batches or more, so that a partial batch can always be
+   * completed. The highest limit gives each connection of the pool four batches, but at
+   * least 5 records each.
+   * @param storage storage of tenant
+   * @param pipeline pipeline name
+   * @param source source identifier
+   * @param initial initial limit
+   * @param batchSize number of records stored in one transaction
+   * @return limit
+   */
+  static AdaptiveLimit get(Storage storage, String pipeline, String source, int initial,
+      int batchSize) {
+    return get(pipeline, storage.getTenant(), source,
+        storage.getPool().getPoolOptions().getMaxSize(), initial, batchSize);
+  }
+
+  static AdaptiveLimit get(String pipeline, String tenant, String source, int poolSize,
+      int initial, int batchSize) {
+    String key = String.join("\u0000", pipeline, tenant, source, Integer.toString(batchSize));
+    return limits.computeIfAbsent(key, k -> {
+      int minLimit = 2 * batchSize;
+      int maxLimit = Math.max(initial, poolSize * 4 * Math.max(5, batchSize));
+      AdaptiveLimit limit = new AdaptiveLimit(initial, minLimit, maxLimit);
+      LimitMetrics.register(pipeline, tenant, source, batchSize, limit);
+      return limit;
+    });
+  }
+}
@@ -6,4 +6,5 @@ public class IngestMatcher {
   boolean onlyPayload;
   String matchKeyId;
   ModuleExecutable moduleExecutable;
+  String fingerprint; // match key and module configuration
 }
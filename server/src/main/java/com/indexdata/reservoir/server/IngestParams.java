@@ -15,6 +15,8 @@ public class IngestParams {
   final boolean ingest;
   final boolean raw;
   final boolean xmlFixing;
+  final int batchSize;
+  final boolean bulk;
   final IngestMetrics ingestMetrics;
 
   /**
@@ -23,7 +25,7 @@ public class IngestParams {
    */
   public IngestParams(HttpServerRequest request) {
     this.sourceId = new SourceId(validateSourceId(request));
-    sourceVersion = Integer.parseInt(request.getParam("sourceVersion", "1"));
+    sourceVersion = getIntParam(request, "sourceVersion", "1");
     contentType = request.getHeader("Content-Type");
     try {
       jsonPath = request.getParam("localIdPath") == null
@@ -35,9 +37,31 @@ public class IngestParams {
     xmlFixing = request.getParam("xmlFixing", "false").equals("true");
     raw = request.getParam("raw", "false").equals("true");
     fileName = request.getParam("fileName", "<noname>");
+    batchSize = getIntParam(request, "batchSize", "1");
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be at least 1");
+    }
+    bulk = request.getParam("bulk", "false").equals("true");
     ingestMetrics = IngestMetrics.create().withSource(sourceId);
   }
 
+  static int getIntParam(HttpServerRequest request, String name, String defaultValue) {
+    String value = request.getParam(name, defaultValue);
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("malformed '" + name + "': " + value);
+    }
+  }
+
+  /**
+   * Return number of records to store together.
+   * @return batchSize, at least the bulk chunk size for bulk load
+   */
+  public int getBatchSize() {
+    return bulk ? Math.max(batchSize, BulkIngest.CHUNK_SIZE) : batchSize;
+  }
+
   /**
    * Validate non null sourceId in the request.
    * @param request request
@@ -69,6 +93,12 @@ public class IngestParams {
       details.append(" raw: ").append(raw);
     } else {
       details.append(" ingest: ").append(ingest).append(" xmlFixing: ").append(xmlFixing);
+      if (batchSize > 1) {
+        details.append(" batchSize: ").append(batchSize);
+      }
+      if (bulk) {
+        details.append(" bulk: ").append(bulk);
+      }
     }
     return details.toString();
   }
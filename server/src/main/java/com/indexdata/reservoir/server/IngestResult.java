@@ -0,0 +1,15 @@
+package com.indexdata.reservoir.server;
+
+/**
+ * Outcome of ingesting one global record.
+ */
+public enum IngestResult {
+  /** New record stored. */
+  INSERTED,
+  /** Existing record stored with new payload. */
+  UPDATED,
+  /** Existing record with same payload; nothing stored. */
+  UNCHANGED,
+  /** Record deleted. */
+  DELETED
+}
@@ -9,7 +9,10 @@ public class IngestStats {
   private final AtomicInteger ignored = new AtomicInteger();
   private final AtomicInteger inserted = new AtomicInteger();
   private final AtomicInteger updated = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
   private final AtomicInteger deleted = new AtomicInteger();
+  private final AtomicInteger clustered = new AtomicInteger();
+  private volatile boolean bulk;
 
   public String getFileName() {
     return fileName;
@@ -42,10 +45,22 @@ public class IngestStats {
     return updated.incrementAndGet();
   }
 
+  public int incrementUnchanged() {
+    return unchanged.incrementAndGet();
+  }
+
   public int incrementDeleted() {
     return deleted.incrementAndGet();
   }
 
+  public int addClustered(int delta) {
+    return clustered.addAndGet(delta);
+  }
+
+  public void setBulk(boolean bulk) {
+    this.bulk = bulk;
+  }
+
   public int processed() {
     return processed.get();
   }
@@ -62,10 +77,22 @@ public class IngestStats {
     return updated.get();
   }
 
+  public int unchanged() {
+    return unchanged.get();
+  }
+
   public int deleted() {
     return deleted.get();
   }
 
+  public int clustered() {
+    return clustered.get();
+  }
+
+  public boolean bulk() {
+    return bulk;
+  }
+
   /**
    * Return JSON representation.
    * @return json representation
@@ -76,7 +103,12 @@ public class IngestStats {
     stats.put("ignored", ignored());
     stats.put("inserted", inserted());
     stats.put("updated", updated());
+    stats.put("unchanged", unchanged());
     stats.put("deleted", deleted());
+    if (bulk) {
+      stats.put("bulk", true);
+      stats.put("clustered", clustered());
+    }
     return stats;
   }
 
@@ -86,7 +118,9 @@ public class IngestStats {
         + " ignored: " + ignored()
         + " inserted: " + inserted()
         + " updated: " + updated()
-        + " deleted: " + deleted();
+        + " unchanged: " + unchanged()
+        + " deleted: " + deleted()
+        + (bulk ? " clustered: " + clustered() : "");
   }
 
 }
@@ -2,6 +2,7 @@ package com.indexdata.reservoir.server;
 
 import com.indexdata.reservoir.module.impl.ModuleJsonPath;
 import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import com.indexdata.reservoir.util.AdaptiveLimit;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
@@ -10,7 +11,7 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.core.streams.WriteStream;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,9 +27,10 @@ public class IngestWriteStream implements WriteStream<JsonObject> {
   Promise<Void> endHandler;
   boolean ended;
   Handler<Void> drainHandler;
-  List<IngestMatcher> ingestMatchers;
+  Future<IngestBatch> ingestBatch;
   AtomicInteger ops = new AtomicInteger();
-  int queueSize = 40;
+  AtomicBoolean full = new AtomicBoolean();
+  AdaptiveLimit limit = AdaptiveLimit.fixed(40);
   boolean ingest;
   Throwable failure;
   private static final Logger log = LogManager.getLogger(IngestWriteStream.class);
@@ -54,6 +56,7 @@ public class IngestWriteStream implements WriteStream<JsonObject> {
   @Override
   public Future<Void> write(JsonObject globalRecord) {
     ops.incrementAndGet();
+    long started = System.nanoTime();
     return lookupId(globalRecord)
         .compose(rec -> {
           log(rec);
@@ -62,23 +65,15 @@ public class IngestWriteStream implements WriteStream<JsonObject> {
           if (ingest && localId != null) {
             rec.put(ClusterBuilder.SOURCE_ID_LABEL, params.sourceId.toString());
             rec.put(ClusterBuilder.SOURCE_VERSION_LABEL, params.sourceVersion);
-            if (ingestMatchers == null) {
-              future = storage.availableIngestMatchers(vertx)
-                .map(x -> {
-                  ingestMatchers = x;
-                  return null;
-                });
-            }
-            future = future
-                .compose(x -> storage
-                  .ingestGlobalRecord(
-                      vertx, params.sourceId, params.sourceVersion, rec, ingestMatchers,
-                      params.ingestMetrics)
+            future = getIngestBatch()
+                .compose(batch -> batch.add(rec)
                   .onSuccess(r -> {
-                    if (r == null) {
+                    if (r == IngestResult.DELETED) {
                       stats.incrementDeleted();
-                    } else if (r.booleanValue()) {
+                    } else if (r == IngestResult.INSERTED) {
                       stats.incrementInserted();
+                    } else if (r == IngestResult.UNCHANGED) {
+                      stats.incrementUnchanged();
                     } else {
                       stats.incrementUpdated();
                     }
@@ -97,41 +92,80 @@ public class IngestWriteStream implements WriteStream<JsonObject> {
           ingest = false; // we report only error, so no need to ingest further
         })
         .onComplete(x -> {
-          if (ops.decrementAndGet() == queueSize / 2 && drainHandler != null) {
+          limit.record(System.nanoTime() - started, ops.getAndDecrement());
+          if (ops.get() <= limit.getLimit() / 2 && full.compareAndSet(true, false)
+              && drainHandler != null) {
             drainHandler.handle(null);
           }
           if (ops.get() == 0 && ended) {
-            log.info("{} {}", params.getSummary(fileName), stats);
-            if (endHandler != null) {
-              if (failure != null) {
-                endHandler.fail(failure);
-              } else {
-                endHandler.complete();
-              }
-            }
+            endIngest(failure);
           }
         });
   }
 
+  private void endIngest(Throwable cause) {
+    Future<Void> future = ingestBatch == null
+        ? Future.succeededFuture() : ingestBatch.compose(IngestBatch::close);
+    future.onComplete(x -> {
+      log.info("{} {}", params.getSummary(fileName), stats);
+      if (cause != null) {
+        endHandler.fail(cause);
+      } else if (x.failed()) {
+        endHandler.fail(x.cause());
+      } else {
+        endHandler.complete();
+      }
+    });
+  }
+
+  private Future<IngestBatch> getIngestBatch() {
+    if (ingestBatch == null) {
+      // half the queue so that a partial batch can not hold back the drain
+      int batchSize = Math.max(1, Math.min(params.getBatchSize(), limit.getMinLimit() / 2));
+      ingestBatch = storage.availableIngestMatchers(vertx)
+          .<IngestBatch>compose(ingestMatchers -> params.bulk
+              ? BulkIngest.create(vertx, storage, params, ingestMatchers, stats,
+                  batchSize)
+              : Future.succeededFuture(new IngestBatch(vertx, storage, params.sourceId,
+                  params.sourceVersion, ingestMatchers, params.ingestMetrics, batchSize)));
+    }
+    return ingestBatch;
+  }
+
   @Override
   public Future<Void> end() {
     ended = true;
+    if (ingestBatch != null) {
+      ingestBatch.onSuccess(IngestBatch::flush);
+    }
     if (ops.get() == 0) {
-      log.info("{} {}", params.getSummary(fileName), stats);
-      endHandler.complete();
+      endIngest(null);
     }
     return endHandler.future();
   }
 
   @Override
   public WriteStream<JsonObject> setWriteQueueMaxSize(int i) {
-    queueSize = i;
+    limit = AdaptiveLimit.fixed(i);
+    return this;
+  }
+
+  /**
+   * Set limit of records in flight, in place of a fixed write queue size.
+   * @param limit limit of records in flight
+   * @return this stream
+   */
+  public IngestWriteStream setLimit(AdaptiveLimit limit) {
+    this.limit = limit;
     return this;
   }
 
   @Override
   public boolean writeQueueFull() {
-    return ops.get() >= queueSize;
+    if (ops.get() >= limit.getLimit()) {
+      full.set(true);
+    }
+    return full.get();
   }
 
   @Override
@@ -15,6 +15,7 @@ import org.folio.tlib.postgres.TenantPgPool;
 
 public class MainVerticle extends VerticleBase {
   final Logger log = LogManager.getLogger(MainVerticle.class);
+  private ReservoirService reservoirService;
 
   @Override
   public Future<?> start() {
@@ -33,7 +34,45 @@ public class MainVerticle extends VerticleBase {
     if (tenantDefault != null) {
       log.info("Tenant default: {}", tenantDefault);
     }
-    ReservoirService reservoirService = new ReservoirService(m, tenantDefault);
+    int matchValueCacheSize = ReservoirLauncher.getSysConfOrEnvInteger(
+        "match.value.cache.size", 0, config());
+    log.info("Match value cache size: {}", matchValueCacheSize);
+    MatchValueCache.setMaxSize(matchValueCacheSize);
+    int oaiPipelineDepth = ReservoirLauncher.getSysConfOrEnvInteger(
+        "oai.pipeline.depth", 4, config());
+    log.info("OAI pipeline depth: {}", oaiPipelineDepth);
+    ClusterRecordStream.setDepth(oaiPipelineDepth);
+    int countCap = ReservoirLauncher.getSysConfOrEnvInteger("count.cap", 10000, config());
+    log.info("Count cap: {}", countCap);
+    ResultCount.setCap(countCap);
+    int harvestLease = ReservoirLauncher.getSysConfOrEnvInteger("harvest.lease", 60, config());
+    log.info("Harvest lease: {}", harvestLease);
+    OaiPmhClientService.setLeaseSeconds(harvestLease);
+    int harvestMaxJobs = ReservoirLauncher.getSysConfOrEnvInteger(
+        "harvest.max.jobs", 10, config());
+    log.info("Harvest max jobs: {}", harvestMaxJobs);
+    OaiPmhClientService.setMaxJobs(harvestMaxJobs);
+    int uploadParseThreads = ReservoirLauncher.getSysConfOrEnvInteger(
+        "upload.parse.threads", Runtime.getRuntime().availableProcessors(), config());
+    log.info("Upload parse threads: {}", uploadParseThreads);
+    UploadService.setParseThreads(uploadParseThreads);
+    int payloadCompression = ReservoirLauncher.getSysConfOrEnvInteger(
+        "payload.compression", 0, config());
+    log.info("Payload compression: {}", payloadCompression);
+    Storage.setPayloadCompression(payloadCompression);
+    boolean matchValueHash = ReservoirLauncher.getSysConfOrEnvBoolean(
+        "match.value.hash", false, config());
+    log.info("Match value hash: {}", matchValueHash);
+    Storage.setMatchValueHash(matchValueHash);
+    int sourcePartitions = ReservoirLauncher.getSysConfOrEnvInteger(
+        "source.partitions", 0, config());
+    log.info("Source partitions: {}", sourcePartitions);
+    Storage.setSourcePartitions(sourcePartitions);
+    int recordJobChunkSize = ReservoirLauncher.getSysConfOrEnvInteger(
+        "record.job.chunk.size", 1000, config());
+    log.info("Record job chunk size: {}", recordJobChunkSize);
+    RecordJob.setChunkSize(recordJobChunkSize);
+    reservoirService = new ReservoirService(m, tenantDefault);
 
     RouterCreator[] routerCreators = {
         reservoirService,
@@ -70,6 +109,9 @@ public class MainVerticle extends VerticleBase {
 
   @Override
   public Future<?> stop() {
+    if (reservoirService != null) {
+      reservoirService.stop();
+    }
     return TenantPgPool.closeAll();
   }
 }
@@ -0,0 +1,303 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import com.indexdata.reservoir.server.metrics.IngestMetrics;
+import com.indexdata.reservoir.server.metrics.IngestMetricsNop;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgException;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Populates clusters of a match key for all global records.
+ *
+ * <p>The global record identifiers are split into ranges (partitions) that are processed
+ * concurrently. Records of a partition are read in chunks in identifier order; the matcher
+ * runs for all records of a chunk at once and the clusters of the chunk are written in one
+ * transaction, together with the position reached. An interrupted job can therefore be
+ * resumed from the last chunk written.
+ *
+ * <p>The job is stored in table match_key_init as a JSON object with status, start and end
+ * time, error and the partitions, each with range (from, to], last identifier written,
+ * number of records processed and whether it is done.
+ *
+ * <p>Only one initialization of a match key runs at a time: a run holds a session advisory
+ * lock for the match key on a connection of its own until it completes, so the lock is
+ * also released if the server goes away. A second run fails while the lock is held.
+ *
+ * <p>Partitions may meet in the same clusters. A chunk that fails because another
+ * partition committed the same match value first is written again, as often as needed; the
+ * new transaction then finds the cluster of the value.
+ */
+class MatchKeyInitializer {
+  private static final Logger log = LogManager.getLogger(MatchKeyInitializer.class);
+  static final String STATUS_RUNNING = "running";
+  static final String STATUS_DONE = "done";
+  static final String STATUS_ERROR = "error";
+  static final String STATUS_IDLE = "idle";
+  static final int CHUNK_SIZE = 100;
+  private static final int RETRY_COUNT = 3;
+  // unique_violation and deadlock_detected: another partition got there first
+  private static final Set<String> CONFLICT_STATES = Set.of("23505", "40P01");
+  private static final UUID MIN_UUID = new UUID(0L, 0L);
+  private static final UUID MAX_UUID = new UUID(-1L, -1L);
+
+  private final Storage storage;
+  private final IngestMatcher ingestMatcher;
+  private final int partitions;
+  private final IngestMetrics ingestMetrics = new IngestMetricsNop();
+
+  MatchKeyInitializer(Storage storage, IngestMatcher ingestMatcher, int partitions) {
+    this.storage = storage;
+    this.ingestMatcher = ingestMatcher;
+    this.partitions = Math.max(1, partitions);
+  }
+
+  static String now() {
+    return OffsetDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_DATE_TIME);
+  }
+
+  /**
+   * Split identifier space in ranges of equal size.
+   * @param count number of ranges
+   * @return partitions with from (exclusive) and to (inclusive)
+   */
+  static JsonArray createPartitions(int count) {
+    long step = Long.divideUnsigned(-1L, count);
+    JsonArray result = new JsonArray();
+    for (int i = 0; i < count; i++) {
+      UUID from = i == 0 ? MIN_UUID : new UUID(step * i, 0L);
+      UUID to = i == count - 1 ? MAX_UUID : new UUID(step * (i + 1), 0L);
+      result.add(new JsonObject()
+          .put("from", from.toString())
+          .put("to", to.toString())
+          .put("last", from.toString())
+          .put("processed", 0L)
+          .put("done", false));
+    }
+    return result;
+  }
+
+  /**
+   * Compute total records processed by job.
+   * @param job job as stored
+   * @return sum of records processed in all partitions
+   */
+  static long totalRecords(JsonObject job) {
+    long total = 0;
+    JsonArray parts = job.getJsonArray("partitions", new JsonArray());
+    for (int i = 0; i < parts.size(); i++) {
+      total += parts.getJsonObject(i).getLong("processed", 0L);
+    }
+    return total;
+  }
+
+  /**
+   * Get job status for match key.
+   * @param storage storage
+   * @param matchKeyId match key identifier
+   * @return job with totalRecords added; status idle if never initialized
+   */
+  static Future<JsonObject> getStatus(Storage storage, String matchKeyId) {
+    return selectJob(storage, matchKeyId).map(job -> {
+      if (job == null) {
+        return new JsonObject().put("status", STATUS_IDLE).put("totalRecords", 0L);
+      }
+      return job.put("totalRecords", totalRecords(job));
+    });
+  }
+
+  private static Future<JsonObject> selectJob(Storage storage, String matchKeyId) {
+    return storage.pool.preparedQuery("SELECT job FROM " + storage.getMatchKeyInitTable()
+            + " WHERE id = $1")
+        .execute(Tuple.of(matchKeyId))
+        .map(rowSet -> {
+          if (rowSet.size() == 0) {
+            return null;
+          }
+          return rowSet.iterator().next().getJsonObject("job");
+        });
+  }
+
+  private Future<Void> saveJob(JsonObject job) {
+    return storage.pool.preparedQuery("INSERT INTO " + storage.getMatchKeyInitTable()
+            + " (id, job) VALUES ($1, $2) ON CONFLICT (id) DO UPDATE SET job = $2")
+        .execute(Tuple.of(ingestMatcher.matchKeyId, job))
+        .mapEmpty();
+  }
+
+  private Future<Void> saveStatus(String status, String error) {
+    JsonObject patch = new JsonObject().put("status", status).put("finished", now());
+    if (error != null) {
+      patch.put("error", error);
+    }
+    return storage.pool.preparedQuery("UPDATE " + storage.getMatchKeyInitTable()
+            + " SET job = job || $2 WHERE id = $1")
+        .execute(Tuple.of(ingestMatcher.matchKeyId, patch))
+        .mapEmpty();
+  }
+
+  /**
+   * Run initialization.
+   * @param resume whether to continue from the partitions of the previous job
+   * @return job with totalRecords
+   */
+  Future<JsonObject> run(boolean resume) {
+    String key = lockKey(storage, ingestMatcher.matchKeyId);
+    return storage.pool.getConnection().compose(conn -> conn.preparedQuery(
+            "SELECT pg_try_advisory_lock(hashtext($1))")
+        .execute(Tuple.of(key))
+        .compose(rowSet -> {
+          if (!rowSet.iterator().next().getBoolean(0)) {
+            return Future.failedFuture("Initialization of match key '"
+                + ingestMatcher.matchKeyId + "' already running");
+          }
+          // a pooled connection keeps session locks when returned
+          return runLocked(resume)
+              .eventually(() -> conn.preparedQuery("SELECT pg_advisory_unlock(hashtext($1))")
+                  .execute(Tuple.of(key)));
+        })
+        .eventually(conn::close));
+  }
+
+  /**
+   * Key of advisory lock held while initializing match key.
+   * @param storage storage
+   * @param matchKeyId match key identifier
+   * @return key for hashtext
+   */
+  static String lockKey(Storage storage, String matchKeyId) {
+    return storage.getMatchKeyInitTable() + "/" + matchKeyId;
+  }
+
+  private Future<JsonObject> runLocked(boolean resume) {
+    return selectJob(storage, ingestMatcher.matchKeyId).compose(prev -> {
+      JsonObject job = new JsonObject()
+          .put("status", STATUS_RUNNING)
+          .put("started", now());
+      if (resume && prev != null && prev.containsKey("partitions")) {
+        job.put("partitions", prev.getJsonArray("partitions"));
+      } else {
+        job.put("partitions", createPartitions(partitions));
+      }
+      return saveJob(job).compose(x -> runPartitions(job.getJsonArray("partitions")))
+          .compose(x -> saveStatus(STATUS_DONE, null)
+              .map(y -> job.put("status", STATUS_DONE)))
+          .recover(e -> {
+            log.error(e.getMessage(), e);
+            return saveStatus(STATUS_ERROR, e.getMessage())
+                .<JsonObject>transform(y -> Future.failedFuture(e));
+          })
+          .map(y -> new JsonObject().put("totalRecords", totalRecords(job)));
+    });
+  }
+
+  private Future<Void> runPartitions(JsonArray parts) {
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < parts.size(); i++) {
+      JsonObject part = parts.getJsonObject(i);
+      if (!part.getBoolean("done", false)) {
+        futures.add(runPartition(i, part));
+      }
+    }
+    return Future.all(futures).mapEmpty();
+  }
+
+  private Future<Void> runPartition(int no, JsonObject part) {
+    return storage.pool.preparedQuery("SELECT * FROM " + storage.getGlobalRecordTable()
+            + " WHERE id > $1 AND id <= $2 ORDER BY id LIMIT $3")
+        .execute(Tuple.of(UUID.fromString(part.getString("last")),
+            UUID.fromString(part.getString("to")), CHUNK_SIZE))
+        .compose(rowSet -> runMatchers(rowSet).compose(results -> {
+          if (rowSet.size() < CHUNK_SIZE) {
+            part.put("done", true);
+          }
+          return writeChunk(RETRY_COUNT, no, part, results);
+        }))
+        .compose(x -> part.getBoolean("done") ? Future.<Void>succeededFuture()
+            : runPartition(no, part));
+  }
+
+  private Future<List<RecordResult>> runMatchers(RowSet<Row> rowSet) {
+    List<Future<RecordResult>> futures = new ArrayList<>(rowSet.size());
+    rowSet.forEach(row -> {
+      UUID globalId = row.getUUID("id");
+      futures.add(storage.runMatcher(ingestMatcher, ingestMetrics,
+              ClusterBuilder.encodeRecord(row))
+          .map(matcherResult -> new RecordResult(globalId, matcherResult))
+          .recover(e -> {
+            // same as before: a failing record is logged and skipped
+            log.error(e.getMessage(), e);
+            return Future.succeededFuture(new RecordResult(globalId, null));
+          }));
+    });
+    return Future.all(futures).map(cf -> cf.list());
+  }
+
+  private Future<Void> writeChunk(int retry, int no, JsonObject part,
+      List<RecordResult> results) {
+    long processed = part.getLong("processed", 0L) + results.size();
+    JsonObject checkpoint = part.copy().put("processed", processed);
+    if (!results.isEmpty()) {
+      checkpoint.put("last", results.get(results.size() - 1).globalId.toString());
+    }
+    return storage.pool.withTransaction(conn -> {
+      ClusterBatchUpdater updater = new ClusterBatchUpdater(storage, conn,
+          new MatchValueCache.Updates());
+      for (RecordResult result : results) {
+        if (result.matcherResult != null) {
+          updater.add(result.globalId, result.matcherResult);
+        }
+      }
+      return updater.execute()
+          .compose(x -> conn.preparedQuery("UPDATE " + storage.getMatchKeyInitTable()
+                  + " SET job = jsonb_set(job, $2::text[], $3::jsonb) WHERE id = $1")
+              .execute(Tuple.of(ingestMatcher.matchKeyId,
+                  new String[] {"partitions", Integer.toString(no)}, checkpoint)))
+          .<Void>mapEmpty();
+    })
+        .onSuccess(x -> {
+          part.put("processed", processed);
+          part.put("last", checkpoint.getString("last"));
+        })
+        .recover(e -> {
+          if (isConflict(e)) {
+            log.info("Conflict in match key initialization chunk; retrying: {}",
+                e.getMessage());
+            return writeChunk(retry, no, part, results);
+          }
+          if (retry <= 1) {
+            return Future.failedFuture(e);
+          }
+          log.warn("Retrying match key initialization chunk: {}", e.getMessage());
+          return writeChunk(retry - 1, no, part, results);
+        });
+  }
+
+  static boolean isConflict(Throwable e) {
+    return e instanceof PgException pgException
+        && CONFLICT_STATES.contains(pgException.getSqlState());
+  }
+
+  private static class RecordResult {
+    final UUID globalId;
+    final MatcherResult matcherResult;
+
+    RecordResult(UUID globalId, MatcherResult matcherResult) {
+      this.globalId = globalId;
+      this.matcherResult = matcherResult;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.server.metrics.CacheMetrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tenant cache of match value to cluster identifier.
+ *
+ * <p>Saves the cluster_values lookup for match values seen before. Entries are only added
+ * after the transaction that created them has committed, and are removed when their
+ * cluster is merged into another, when the value is removed from its cluster, or when the
+ * match key is deleted or initialized.
+ * Least recently used entries are evicted when the cache is full. A size of 0, the default,
+ * disables the cache.
+ *
+ * <p>An instance that removes clusters or values, or deletes or initializes a match key,
+ * notifies the other instances on {@link #CHANNEL}, and they clear their cache of the
+ * tenant. Caches are suspended while this instance is not listening for the notifications,
+ * see {@link ConfigSnapshot}. As within an instance, a lookup made after another
+ * transaction has committed, but before the cache is updated for it, may still return
+ * the cluster that the transaction merged away.
+ */
+public class MatchValueCache {
+  static final String CHANNEL = "reservoir_match_values";
+
+  private static final Map<String, MatchValueCache> caches = new ConcurrentHashMap<>();
+  // identifies notifications sent by this instance, which has applied its changes already
+  private static final String INSTANCE = UUID.randomUUID().toString();
+  private static int maxSize;
+  private static volatile boolean suspended;
+
+  private final int size;
+  private final CacheMetrics cacheMetrics;
+  private final LinkedHashMap<String, UUID> map;
+
+  /**
+   * Changes made in a transaction, to be applied when the transaction has committed.
+   */
+  static class Updates {
+    private final List<String> keys = new ArrayList<>();
+    private final List<UUID> clusterIds = new ArrayList<>();
+    private final Set<UUID> removedClusters = new HashSet<>();
+    private final Set<String> removedKeys = new HashSet<>();
+
+    void put(String matchKeyId, String value, UUID clusterId) {
+      keys.add(key(matchKeyId, value));
+      clusterIds.add(clusterId);
+    }
+
+    void removeClusters(Collection<UUID> clusters) {
+      removedClusters.addAll(clusters);
+    }
+
+    void removeValues(String matchKeyId, Collection<String> values) {
+      values.forEach(value -> removedKeys.add(key(matchKeyId, value)));
+    }
+
+    boolean hasRemovals() {
+      return !removedClusters.isEmpty() || !removedKeys.isEmpty();
+    }
+  }
+
+  MatchValueCache(String tenant, int size) {
+    this.size = size;
+    this.cacheMetrics = size > 0 ? CacheMetrics.create("match_value", tenant) : null;
+    this.map = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, UUID> eldest) {
+        if (size() > MatchValueCache.this.size) {
+          cacheMetrics.incrementEvictions();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Set maximum number of entries for each tenant cache.
+   * @param size number of entries; 0 disables the cache
+   */
+  public static void setMaxSize(int size) {
+    maxSize = size;
+    caches.clear();
+  }
+
+  /**
+   * Get cache for tenant.
+   * @param tenant tenant
+   * @return cache, which may be disabled
+   */
+  public static MatchValueCache get(String tenant) {
+    return caches.computeIfAbsent(tenant, t -> new MatchValueCache(t, maxSize));
+  }
+
+  static String key(String matchKeyId, String value) {
+    return matchKeyId + "\u0000" + value;
+  }
+
+  /**
+   * Get payload of notification that the cache of a tenant is stale.
+   * @param tenant tenant
+   * @return payload for {@link #CHANNEL}
+   */
+  static String notification(String tenant) {
+    return INSTANCE + " " + tenant;
+  }
+
+  /**
+   * Clear cache of tenant in notification sent by another instance.
+   * @param payload notification payload, see {@link #notification(String)}
+   */
+  static void notified(String payload) {
+    int sep = payload.indexOf(' ');
+    if (sep == -1 || payload.substring(0, sep).equals(INSTANCE)) {
+      return;
+    }
+    MatchValueCache cache = caches.get(payload.substring(sep + 1));
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Suspend or resume caches of all tenants.
+   *
+   * <p>Caches are cleared when suspended, as changes made by other instances may be missed.
+   * @param suspend true to suspend; false to resume
+   */
+  static void suspend(boolean suspend) {
+    suspended = suspend;
+    if (suspend) {
+      caches.values().forEach(MatchValueCache::clear);
+    }
+  }
+
+  boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * Lookup cluster for match value.
+   * @param matchKeyId match key identifier
+   * @param value match value
+   * @return cluster identifier; null if not in cache
+   */
+  synchronized UUID lookup(String matchKeyId, String value) {
+    if (size == 0 || suspended) {
+      return null;
+    }
+    UUID clusterId = map.get(key(matchKeyId, value));
+    if (clusterId == null) {
+      cacheMetrics.incrementMisses();
+    } else {
+      cacheMetrics.incrementHits();
+    }
+    return clusterId;
+  }
+
+  /**
+   * Apply changes of a committed transaction.
+   * @param updates changes
+   */
+  synchronized void apply(Updates updates) {
+    if (size == 0 || suspended) {
+      return;
+    }
+    if (!updates.removedClusters.isEmpty()) {
+      map.values().removeIf(updates.removedClusters::contains);
+    }
+    for (int i = 0; i < updates.keys.size(); i++) {
+      UUID clusterId = updates.clusterIds.get(i);
+      if (!updates.removedClusters.contains(clusterId)) {
+        map.put(updates.keys.get(i), clusterId);
+      }
+    }
+    map.keySet().removeAll(updates.removedKeys);
+  }
+
+  /**
+   * Remove all entries for match key.
+   * @param matchKeyId match key identifier
+   */
+  synchronized void invalidateMatchKey(String matchKeyId) {
+    String prefix = key(matchKeyId, "");
+    map.keySet().removeIf(k -> k.startsWith(prefix));
+  }
+
+  synchronized void clear() {
+    map.clear();
+  }
+
+  synchronized int size() {
+    return map.size();
+  }
+}
@@ -0,0 +1,168 @@
+package com.indexdata.reservoir.server;
+
+import io.vertx.core.Future;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Compares new matcher results with the match values stored for the records.
+ *
+ * <p>cluster_records keeps the match values a record was clustered with. A matcher result
+ * with the same values does not change clusters, so only the datestamp of the cluster is
+ * updated for it. For a changed result, values that the record no longer has are removed
+ * from its old cluster, unless another record of that cluster still has them. Rows
+ * written by earlier versions have no stored values; such results are always treated as
+ * changed, and their clusters keep all values.
+ */
+class MatchValueDiff {
+  private final Storage storage;
+  // record id and match key id -> stored cluster and values
+  private final Map<String, Stored> stored = new HashMap<>();
+  private final Set<UUID> touchedClusters = new LinkedHashSet<>();
+  // match key id -> values no longer produced by a record
+  private final Map<String, Set<String>> staleValues = new HashMap<>();
+
+  private static class Stored {
+    // null if the cluster was written after loading
+    final UUID clusterId;
+    // null if not known
+    final Set<String> values;
+
+    Stored(UUID clusterId, Set<String> values) {
+      this.clusterId = clusterId;
+      this.values = values;
+    }
+  }
+
+  private MatchValueDiff(Storage storage) {
+    this.storage = storage;
+  }
+
+  private static String key(UUID recordId, String matchKeyId) {
+    return recordId + "\u0000" + matchKeyId;
+  }
+
+  /**
+   * Create diff with nothing stored; for records that are new.
+   * @param storage storage
+   * @return diff
+   */
+  static MatchValueDiff empty(Storage storage) {
+    return new MatchValueDiff(storage);
+  }
+
+  /**
+   * Load stored match values of records.
+   * @param storage storage
+   * @param conn connection
+   * @param recordIds global record identifiers
+   * @return async result with diff
+   */
+  static Future<MatchValueDiff> load(Storage storage, SqlConnection conn,
+      Collection<UUID> recordIds) {
+    MatchValueDiff diff = new MatchValueDiff(storage);
+    if (recordIds.isEmpty()) {
+      return Future.succeededFuture(diff);
+    }
+    return conn.preparedQuery("SELECT record_id, match_key_config_id, cluster_id, match_values"
+            + " FROM " + storage.getClusterRecordTable() + " WHERE record_id = ANY($1)")
+        .execute(Tuple.of(new HashSet<>(recordIds).toArray(new UUID[0])))
+        .map(rowSet -> {
+          for (Row row : rowSet) {
+            String[] values = row.getArrayOfStrings("match_values");
+            diff.stored.put(key(row.getUUID("record_id"), row.getString("match_key_config_id")),
+                new Stored(row.getUUID("cluster_id"),
+                    values == null ? null : new HashSet<>(Arrays.asList(values))));
+          }
+          return diff;
+        });
+  }
+
+  /**
+   * Check whether matcher result changes clusters.
+   *
+   * <p>For an unchanged result, the cluster of the record is touched when
+   * {@link #execute} is called.
+   * @param recordId global record identifier
+   * @param matcherResult new match values for one match key
+   * @return true if clusters must be updated for this result
+   */
+  boolean changed(UUID recordId, MatcherResult matcherResult) {
+    String key = key(recordId, matcherResult.matchKeyId);
+    Stored old = stored.get(key);
+    Set<String> values = new HashSet<>(matcherResult.keys);
+    // a record may occur more than once; compare later ones with what is written before
+    if (values.isEmpty()) {
+      stored.remove(key);
+    } else {
+      stored.put(key, new Stored(null, values));
+    }
+    if (old == null) {
+      return !values.isEmpty();
+    }
+    if (old.values == null) {
+      return true;
+    }
+    if (old.values.equals(values)) {
+      if (old.clusterId != null) {
+        touchedClusters.add(old.clusterId);
+      }
+      stored.put(key, old);
+      return false;
+    }
+    Set<String> removed = new HashSet<>(old.values);
+    removed.removeAll(values);
+    removed.remove("");
+    if (!removed.isEmpty()) {
+      staleValues.computeIfAbsent(matcherResult.matchKeyId, k -> new HashSet<>())
+          .addAll(removed);
+    }
+    return true;
+  }
+
+  /**
+   * Touch clusters of unchanged results and remove values no longer in use.
+   *
+   * <p>Must be called after the changed results are written.
+   * @param conn connection
+   * @param cacheUpdates removed values are dropped from the cache
+   * @return async result
+   */
+  Future<Void> execute(SqlConnection conn, MatchValueCache.Updates cacheUpdates) {
+    Future<Void> future = Future.succeededFuture();
+    if (!touchedClusters.isEmpty()) {
+      future = conn.preparedQuery("UPDATE " + storage.getClusterMetaTable()
+              + " SET datestamp = $1 WHERE cluster_id = ANY($2)")
+          .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC),
+              touchedClusters.toArray(new UUID[0])))
+          .mapEmpty();
+    }
+    for (Map.Entry<String, Set<String>> entry : staleValues.entrySet()) {
+      String matchKeyId = entry.getKey();
+      Set<String> values = entry.getValue();
+      cacheUpdates.removeValues(matchKeyId, values);
+      future = future.compose(x -> conn.preparedQuery("DELETE FROM "
+              + storage.getClusterValuesTable() + " AS v"
+              + " WHERE v.match_key_config_id = $1"
+              + " AND " + Storage.matchValueIn("v.match_value", "$2")
+              + " AND NOT EXISTS (SELECT 1 FROM " + storage.getClusterRecordTable() + " AS r"
+              + " WHERE r.cluster_id = v.cluster_id"
+              + " AND r.match_key_config_id = v.match_key_config_id"
+              + " AND (r.match_values IS NULL OR v.match_value = ANY(r.match_values)))")
+          .execute(Tuple.of(matchKeyId, values.toArray(new String[0])))
+          .mapEmpty());
+    }
+    return future;
+  }
+}
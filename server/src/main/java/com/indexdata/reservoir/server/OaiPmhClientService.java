@@ -3,6 +3,7 @@ package com.indexdata.reservoir.server;
 import com.indexdata.reservoir.server.entity.ClusterBuilder;
 import com.indexdata.reservoir.server.entity.OaiPmhStatus;
 import com.indexdata.reservoir.server.metrics.IngestMetrics;
+import com.indexdata.reservoir.util.AdaptiveLimit;
 import com.indexdata.reservoir.util.SourceId;
 import com.indexdata.reservoir.util.XmlMetadataParserMarcInJson;
 import com.indexdata.reservoir.util.XmlMetadataStreamParser;
@@ -17,6 +18,7 @@ import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxException;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientRequest;
@@ -25,6 +27,7 @@ import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.RequestOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.openapi.router.RouterBuilder;
 import io.vertx.openapi.validation.ValidatedRequest;
@@ -40,12 +43,17 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.HttpResponse;
+import org.folio.tlib.postgres.TenantPgPool;
 
 public class OaiPmhClientService {
 
@@ -65,6 +73,15 @@ public class OaiPmhClientService {
 
   private static final Logger log = LogManager.getLogger(OaiPmhClientService.class);
 
+  private static int leaseSeconds = 60;
+
+  private static int maxJobs = 10;
+
+  // owners of the jobs running in this instance, with their tenant
+  final Map<UUID, String> running = new ConcurrentHashMap<>();
+
+  private Long scheduleTimer;
+
   /**
    * Create OAI-PMH client service.
    *
@@ -78,6 +95,25 @@ public class OaiPmhClientService {
     this.httpClient = vertx.createHttpClient(opts);
   }
 
+  /**
+   * Set lease time of claimed harvest jobs.
+   * @param seconds lease in seconds; renewed every third of that
+   */
+  public static void setLeaseSeconds(int seconds) {
+    if (seconds < 3) {
+      throw new IllegalArgumentException("harvest lease must be at least 3 seconds");
+    }
+    leaseSeconds = seconds;
+  }
+
+  /**
+   * Set maximum number of harvest jobs running in this instance.
+   * @param jobs number of jobs
+   */
+  public static void setMaxJobs(int jobs) {
+    maxJobs = jobs;
+  }
+
   /**
    * Create OAI-PMH client.
    *
@@ -167,6 +203,9 @@ public class OaiPmhClientService {
     if (oaiPmhStatus.getTotalUpdated() == null) {
       oaiPmhStatus.setTotalUpdated(0L);
     }
+    if (oaiPmhStatus.getTotalUnchanged() == null) {
+      oaiPmhStatus.setTotalUnchanged(0L);
+    }
     JsonObject config = row.getJsonObject(CONFIG_LITERAL);
     config.put("id", id);
     oaiPmhStatus.setConfig(config);
@@ -327,6 +366,21 @@ public class OaiPmhClientService {
         .map(rowSet -> rowSet.rowCount() > 0);
   }
 
+  /**
+   * Save config and status of a job run unless the run lost its claim to the job.
+   * @param storage storage
+   * @param id OAI-PMH client identifier
+   * @param job job status with config
+   * @param owner owner of the job run
+   * @return async result with true if saved; false if the job has another owner
+   */
+  static Future<Boolean> saveRun(Storage storage, String id, OaiPmhStatus job, UUID owner) {
+    return storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+            + " SET config = $2, job = $3" + B_WHERE_ID1_LITERAL + " AND owner = $4")
+        .execute(Tuple.of(id, job.getConfig(), JsonObject.mapFrom(job), owner))
+        .map(rowSet -> rowSet.rowCount() > 0);
+  }
+
   /**
    * Start OAI PMH client job.
    *
@@ -339,12 +393,12 @@ public class OaiPmhClientService {
     Future<Boolean> future;
     if (CLIENT_ID_ALL.equals(id)) {
       future = getOaiPmhClients(storage)
-          .map(rowSet -> {
+          .compose(rowSet -> {
             List<Future<Void>> futures = new LinkedList<>();
             rowSet.forEach(x -> {
               String id2 = x.getString("id");
               OaiPmhStatus job = getJob(x, id2);
-              futures.add(startJob(ctx.vertx(), storage, id2, job));
+              futures.add(startJob(storage, id2, job));
             });
             return Future.all(futures);
           })
@@ -355,10 +409,16 @@ public class OaiPmhClientService {
             if (job == null) {
               return Future.succeededFuture(false);
             }
-            return startJob(ctx.vertx(), storage, id, job).map(true);
+            return startJob(storage, id, job).map(true);
           });
     }
     return future
+        .compose(x -> claimJobs(storage)
+            .recover(e -> {
+              log.warn("claim tenant={} error={}", storage.getTenant(), e.getMessage());
+              return Future.succeededFuture();
+            })
+            .map(x))
         .onSuccess(x -> {
           if (Boolean.TRUE.equals(x)) {
             ctx.response().setStatusCode(204).end();
@@ -368,18 +428,150 @@ public class OaiPmhClientService {
         }).mapEmpty();
   }
 
-  Future<Void> startJob(Vertx vertx, Storage storage, String id, OaiPmhStatus job) {
+  /**
+   * Mark job as runnable so that it is claimed by a server instance.
+   *
+   * <p>The new owner makes a run of the job that may still be active stop; the owner of
+   * the new run is assigned when the job is claimed.
+   * @param storage storage
+   * @param id OAI-PMH client identifier
+   * @param job job status
+   * @return async result
+   */
+  static Future<Void> startJob(Storage storage, String id, OaiPmhStatus job) {
     job.setStatusRunning();
     job.setError(null);
     job.setLastTotalRecords(0L);
     job.setLastRecsPerSec(null);
     job.setLastStartedTimestampRaw(LocalDateTime.now(ZoneOffset.UTC));
-    UUID owner = UUID.randomUUID();
-    return updateJob(storage, id, null, job, Boolean.FALSE, owner)
-        .onSuccess(x -> oaiHarvestLoop(vertx, storage, id, job, owner, 0))
+    return storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+            + " SET job = $2, stop = FALSE, owner = $3, lease = NULL" + B_WHERE_ID1_LITERAL)
+        .execute(Tuple.of(id, JsonObject.mapFrom(job), UUID.randomUUID()))
         .mapEmpty();
   }
 
+  /**
+   * Renew leases and claim jobs for all tenants every third of the lease time.
+   *
+   * <p>Claiming includes taking over jobs whose lease has expired in other instances, so
+   * this runs until {@link #cancelSchedule()} is called.
+   * @return timer identifier
+   */
+  public long scheduleJobs() {
+    cancelSchedule();
+    scheduleTimer = vertx.setPeriodic(leaseSeconds * 1000L / 3, x ->
+        scheduleJobs(TenantPgPool.pool(vertx, "x", "write"))
+            .onFailure(e -> log.warn("harvest schedule error={}", e.getMessage(), e)));
+    return scheduleTimer;
+  }
+
+  Future<Void> scheduleJobs(TenantPgPool pool) {
+    // schema of any tenant is tenant followed by the same suffix
+    String suffix = pool.getSchema().substring(1);
+    return pool.preparedQuery("SELECT nspname FROM pg_namespace WHERE nspname LIKE $1"
+            + " AND to_regclass(quote_ident(nspname) || '." + Storage.OAI_PMH_CLIENTS_TABLE
+            + "') IS NOT NULL")
+        .execute(Tuple.of("%" + suffix.replace("_", "\\_")))
+        .compose(rowSet -> {
+          Future<Void> future = Future.succeededFuture();
+          for (Row row : rowSet) {
+            String schema = row.getString("nspname");
+            String tenant = schema.substring(0, schema.length() - suffix.length());
+            Storage storage = new Storage(vertx, tenant, HttpMethod.POST);
+            future = future.compose(x -> renewLeases(storage)
+                .compose(y -> claimJobs(storage))
+                .<Void>mapEmpty()
+                .recover(e -> {
+                  log.warn("harvest schedule tenant={} error={}", tenant, e.getMessage());
+                  return Future.succeededFuture();
+                }));
+          }
+          return future;
+        });
+  }
+
+  /**
+   * Stop renewing leases and claiming jobs.
+   *
+   * <p>Leases of jobs running in this instance then expire, and the jobs are taken over
+   * by other instances.
+   */
+  public void cancelSchedule() {
+    if (scheduleTimer != null) {
+      vertx.cancelTimer(scheduleTimer);
+      scheduleTimer = null;
+    }
+  }
+
+  /**
+   * Extend lease of jobs running in this instance.
+   *
+   * <p>Jobs that are no longer running or that have been claimed by another instance are
+   * forgotten; their harvest loop stops when it sees the owner.
+   * @param storage storage of tenant
+   * @return async result
+   */
+  Future<Void> renewLeases(Storage storage) {
+    String tenant = storage.getTenant();
+    List<UUID> owners = new LinkedList<>();
+    running.forEach((owner, t) -> {
+      if (t.equals(tenant)) {
+        owners.add(owner);
+      }
+    });
+    if (owners.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+            + " SET lease = " + leaseExpiry()
+            + " WHERE owner = ANY($1) AND job->>'status' = 'running' RETURNING owner")
+        .execute(Tuple.of(owners.toArray(new UUID[0])))
+        .map(rowSet -> {
+          rowSet.forEach(row -> owners.remove(row.getUUID("owner")));
+          owners.forEach(running::remove);
+          return null;
+        });
+  }
+
+  /**
+   * Claim runnable jobs, up to the maximum number of jobs for this instance, and run them.
+   *
+   * <p>A job is runnable if it is running without a lease or with an expired lease.
+   * Locked rows are skipped, so that instances claiming at the same time get
+   * different jobs.
+   * @param storage storage of tenant
+   * @return async result with number of jobs claimed
+   */
+  Future<Integer> claimJobs(Storage storage) {
+    int available = maxJobs - running.size();
+    if (available <= 0) {
+      return Future.succeededFuture(0);
+    }
+    String table = storage.getOaiPmhClientTable();
+    return storage.getPool().preparedQuery("UPDATE " + table + " AS c"
+            + " SET owner = gen_random_uuid(), lease = " + leaseExpiry()
+            + " FROM (SELECT id FROM " + table
+            + " WHERE job->>'status' = 'running' AND (lease IS NULL OR lease < now())"
+            + " ORDER BY lease NULLS FIRST LIMIT $1 FOR UPDATE SKIP LOCKED) AS r"
+            + " WHERE c.id = r.id RETURNING c.*")
+        .execute(Tuple.of(available))
+        .map(rowSet -> {
+          rowSet.forEach(row -> {
+            String id = row.getString("id");
+            OaiPmhStatus job = getJob(row, id);
+            UUID owner = row.getUUID("owner");
+            running.put(owner, storage.getTenant());
+            log.info("harvest claim id={} owner={} tenant={}", id, owner, storage.getTenant());
+            oaiHarvestLoop(vertx, storage, id, job, owner, 0, null);
+          });
+          return rowSet.rowCount();
+        });
+  }
+
+  private static String leaseExpiry() {
+    return "now() + interval '" + leaseSeconds + " seconds'";
+  }
+
   Future<Row> getStopOwner(Storage storage, String id) {
     return storage.getPool().preparedQuery("SELECT stop, owner FROM "
             + storage.getOaiPmhClientTable() + B_WHERE_ID1_LITERAL).execute(Tuple.of(id))
@@ -509,10 +701,8 @@ public class OaiPmhClientService {
     }
   }
 
-  Future<Boolean> ingestRecord(
-      Storage storage, OaiRecord<JsonObject> oaiRecord,
-      SourceId sourceId, int sourceVersion, List<IngestMatcher> ingestMatches,
-      IngestMetrics ingestMetrics) {
+  Future<IngestResult> ingestRecord(IngestBatch ingestBatch, OaiRecord<JsonObject> oaiRecord,
+      SourceId sourceId, int sourceVersion) {
     try {
       JsonObject globalRecord = new JsonObject();
       globalRecord.put(ClusterBuilder.LOCAL_ID_LABEL, oaiRecord.getIdentifier());
@@ -524,8 +714,7 @@ public class OaiPmhClientService {
         JsonObject payload = new JsonObject().put("marc", oaiRecord.getMetadata());
         globalRecord.put(ClusterBuilder.PAYLOAD_LABEL, payload);
       }
-      return storage.ingestGlobalRecord(vertx, sourceId, sourceVersion,
-          globalRecord, ingestMatches, ingestMetrics);
+      return ingestBatch.add(globalRecord);
     } catch (Exception e) {
       log.error("{}", e.getMessage(), e);
       return Future.failedFuture(e);
@@ -641,15 +830,132 @@ public class OaiPmhClientService {
     return promise.future();
   }
 
-  private Future<Void> listRecordsResponse(Storage storage, OaiPmhStatus job,
-      List<IngestMatcher> ingestMatches, HttpClientResponse res) {
-    job.incrementTotalRequests();
+  /**
+   * ListRecords response spooled to a temporary file.
+   */
+  static class Page {
+    String file;
+    String resumptionToken;
+    String error;
+    Throwable failure;
+  }
+
+  /**
+   * Perform ListRecords request and spool the response.
+   *
+   * <p>The resumption token and error of the response are scanned once spooled, so that
+   * the next request can be made while this page is being ingested.
+   * @param config job config with the request parameters
+   * @return async result with page, which holds failure if the response is not usable;
+   *     failed future if no response was received
+   */
+  Future<Page> fetchPage(JsonObject config) {
+    Page page = new Page();
+    return listRecordsRequest(config)
+        .compose(res -> spoolPage(page, config, res)
+            .otherwise(e -> {
+              page.failure = e;
+              return null;
+            })
+            .map(page));
+  }
+
+  private Future<Void> spoolPage(Page page, JsonObject config, HttpClientResponse res) {
     if (res.statusCode() != 200) {
       return handleStatusError(res);
     }
+    res.pause(); // until piped to the spool file
+    return vertx.fileSystem().createTempFile("reservoir-oai", ".xml")
+        .compose(file -> {
+          page.file = file;
+          return vertx.fileSystem().open(file, new OpenOptions().setWrite(true));
+        })
+        .compose(res::pipeTo)
+        .compose(x -> vertx.fileSystem().open(page.file, new OpenOptions().setRead(true)))
+        .compose(file -> scanPage(page, config, file)
+            .onComplete(x -> file.close()));
+  }
+
+  static Future<Void> scanPage(Page page, JsonObject config, ReadStream<Buffer> body) {
+    boolean xmlFixing = config.getBoolean("xmlFixing", false);
+    XmlParser xmlParser = XmlParser.newParser(xmlFixing ? new XmlFixer(body) : body);
+    OaiParserStream<Void> oaiParserStream = new OaiParserStream<>(xmlParser,
+        new XmlMetadataStreamParser<>() {
+          @Override
+          public void init() {
+            // metadata is skipped
+          }
+
+          @Override
+          public void handle(XMLStreamReader stream) {
+            // metadata is skipped
+          }
+
+          @Override
+          public Void result() {
+            return null;
+          }
+        });
+    Promise<Void> promise = Promise.promise();
+    oaiParserStream.exceptionHandler(promise::tryFail);
+    xmlParser.endHandler(end -> {
+      page.resumptionToken = oaiParserStream.getResumptionToken();
+      page.error = oaiParserStream.getError();
+      promise.tryComplete();
+    });
+    oaiParserStream.parse(oaiRecord -> { });
+    return promise.future();
+  }
+
+  /**
+   * Start request for the page that follows.
+   * @param config job config
+   * @param page page that is about to be ingested
+   * @return async result with next page; null if there is no next page
+   */
+  Future<Page> prefetchPage(JsonObject config, Page page) {
+    String resumptionToken = page.resumptionToken;
+    if (page.failure != null || page.error != null || resumptionToken == null
+        || resumptionToken.equals(getRt(config))) {
+      return null;
+    }
+    return fetchPage(config.copy().put(RESUMPTION_TOKEN_LITERAL, resumptionToken));
+  }
+
+  void deletePage(Page page) {
+    String file = page.file;
+    if (file == null) {
+      return;
+    }
+    page.file = null;
+    vertx.fileSystem().delete(file)
+        .onFailure(e -> log.warn("Failed to delete {}: {}", file, e.getMessage()));
+  }
+
+  void discardPage(Future<Page> page) {
+    if (page != null) {
+      page.onSuccess(this::deletePage);
+    }
+  }
+
+  Future<Void> ingestPage(Storage storage, OaiPmhStatus job,
+      List<IngestMatcher> ingestMatches, Page page) {
+    job.incrementTotalRequests();
+    if (page.failure != null) {
+      deletePage(page);
+      return Future.failedFuture(page.failure);
+    }
+    return vertx.fileSystem().open(page.file, new OpenOptions().setRead(true))
+        .compose(file -> listRecordsResponse(storage, job, ingestMatches, file)
+            .onComplete(x -> file.close()))
+        .onComplete(x -> deletePage(page));
+  }
+
+  private Future<Void> listRecordsResponse(Storage storage, OaiPmhStatus job,
+      List<IngestMatcher> ingestMatches, ReadStream<Buffer> body) {
     JsonObject config = job.getConfig();
     boolean xmlFixing = config.getBoolean("xmlFixing", false);
-    XmlParser xmlParser = XmlParser.newParser(xmlFixing ? new XmlFixer(res) : res);
+    XmlParser xmlParser = XmlParser.newParser(xmlFixing ? new XmlFixer(body) : body);
     XmlMetadataStreamParser<JsonObject> metadataParser
         = new XmlMetadataParserMarcInJson();
     SourceId sourceId = new SourceId(config.getString("sourceId"));
@@ -658,6 +964,11 @@ public class OaiPmhClientService {
     AtomicInteger queue = new AtomicInteger();
     AtomicBoolean ended = new AtomicBoolean();
     int sourceVersion = config.getInteger("sourceVersion", 1);
+    int batchSize = config.getInteger("batchSize", 1);
+    IngestBatch ingestBatch = new IngestBatch(vertx, storage, sourceId, sourceVersion,
+        ingestMatches, ingestMetrics, batchSize);
+    AdaptiveLimit limit = IngestLimits.get(storage, "oai", sourceId.toString(),
+        4 * batchSize, batchSize);
     OaiParserStream<JsonObject> oaiParserStream = new OaiParserStream<>(xmlParser, metadataParser);
     oaiParserStream.parse(
         oaiRecord -> {
@@ -668,19 +979,20 @@ public class OaiPmhClientService {
             config.put("from", datestamp);
           }
           queue.incrementAndGet();
-          // is queue full: 4 because that's the Postgres client pool size
-          if (Boolean.FALSE.equals(ended.get()) && queue.get() >= 4) {
+          if (Boolean.FALSE.equals(ended.get()) && queue.get() >= limit.getLimit()) {
             xmlParser.pause();
           }
-          ingestRecord(storage, oaiRecord, sourceId, sourceVersion,
-              ingestMatches, ingestMetrics)
+          long started = System.nanoTime();
+          ingestRecord(ingestBatch, oaiRecord, sourceId, sourceVersion)
               .map(upd -> {
                 job.setTotalRecords(job.getTotalRecords() + 1);
                 job.setLastTotalRecords(job.getLastTotalRecords() + 1);
-                if (upd == null) {
+                if (upd == IngestResult.DELETED) {
                   job.setTotalDeleted(job.getTotalDeleted() + 1);
-                } else if (Boolean.TRUE.equals(upd)) {
+                } else if (upd == IngestResult.INSERTED) {
                   job.setTotalInserted(job.getTotalInserted() + 1);
+                } else if (upd == IngestResult.UNCHANGED) {
+                  job.setTotalUnchanged(job.getTotalUnchanged() + 1);
                 } else {
                   job.setTotalUpdated(job.getTotalUpdated() + 1);
                 }
@@ -695,9 +1007,9 @@ public class OaiPmhClientService {
                     + oaiRecord.getIdentifier());
               })
               .onComplete(x -> {
-                queue.decrementAndGet();
+                limit.record(System.nanoTime() - started, queue.getAndDecrement());
                 // drain ?
-                if (queue.get() < 2) {
+                if (queue.get() < limit.getLimit() / 2) {
                   xmlParser.resume();
                 }
                 if (Boolean.TRUE.equals(ended.get()) && queue.get() == 0) {
@@ -708,6 +1020,7 @@ public class OaiPmhClientService {
     oaiParserStream.exceptionHandler(promise::tryFail);
     xmlParser.endHandler(end -> {
       ended.set(true);
+      ingestBatch.flush();
       if (queue.get() == 0) {
         promise.tryComplete();
       }
@@ -738,8 +1051,22 @@ public class OaiPmhClientService {
     return null;
   }
 
+  /**
+   * Harvest one page and continue with the next.
+   *
+   * <p>The request for the next page is made while the current page is ingested. The job,
+   * with the resumption token of the ingested page, is saved before continuing, so that a
+   * restarted job requests the prefetched page again.
+   * @param vertx Vert.x handle
+   * @param storage storage
+   * @param id OAI-PMH client identifier
+   * @param job job status with config
+   * @param owner owner of this job run
+   * @param retries number of retries made for the current page
+   * @param prefetched the current page if already requested; null if not
+   */
   void oaiHarvestLoop(Vertx vertx, Storage storage, String id, OaiPmhStatus job, UUID owner,
-      int retries) {
+      int retries, Future<Page> prefetched) {
     job.setError(null);
     job.setLastActiveTimestampRaw(LocalDateTime.now(ZoneOffset.UTC));
     JsonObject config = job.getConfig();
@@ -749,20 +1076,28 @@ public class OaiPmhClientService {
         .compose(row -> {
           if (!row.getUUID("owner").equals(owner)) {
             log.info("harvest loop id={} owner={} not owner", id, owner);
-            return Future.succeededFuture();
+            running.remove(owner);
+            discardPage(prefetched);
+            return Future.<Void>succeededFuture();
           }
           if (Boolean.TRUE.equals(row.getBoolean("stop"))) {
             log.info("harvest loop id={} owner={} stopping", id, owner);
+            running.remove(owner);
+            discardPage(prefetched);
             job.setStatusIdle();
-            return updateJob(storage, id, config, job, null, null);
+            return saveRun(storage, id, job, owner).<Void>mapEmpty();
           }
+          Future<Page> page = prefetched != null ? prefetched : fetchPage(config);
+          AtomicReference<Future<Page>> next = new AtomicReference<>();
           return storage.availableIngestMatchers(vertx)
-              .compose(ingestMatches ->
-                  listRecordsRequest(config)
-                      .compose(res ->
-                          listRecordsResponse(storage, job, ingestMatches, res)))
+              .compose(ingestMatches -> page.compose(p -> {
+                next.set(prefetchPage(config, p));
+                return ingestPage(storage, job, ingestMatches, p);
+              }))
               .map(0)
               .recover(e -> {
+                discardPage(page);
+                discardPage(next.getAndSet(null));
                 Long waitMs = checkRetryWait(e, config);
                 if (waitMs != null && retries < config.getInteger("numberRetries", 3)) {
                   log.info("harvest loop id={} owner={} rt={} error={}, will retry in {} ms",
@@ -777,12 +1112,25 @@ public class OaiPmhClientService {
               })
               .compose(newRetries ->
                   // continue harvesting
-                  updateJob(storage, id, config, job, null, null)
+                  saveRun(storage, id, job, owner)
                       // only continue if we can also save job
-                      .onSuccess(x1 -> oaiHarvestLoop(vertx, storage, id, job, owner, newRetries))
+                      .onSuccess(saved -> {
+                        if (Boolean.TRUE.equals(saved)) {
+                          oaiHarvestLoop(vertx, storage, id, job, owner, newRetries, next.get());
+                          return;
+                        }
+                        // another run owns the job now; leave its state alone
+                        log.info("harvest loop id={} owner={} lost claim", id, owner);
+                        running.remove(owner);
+                        discardPage(next.get());
+                      })
+                      .onFailure(x1 -> discardPage(next.get()))
+                      .<Void>mapEmpty()
               );
         })
         .recover(e -> {
+          running.remove(owner);
+          discardPage(prefetched);
           // error or all harvested. let's save it.
           job.setStatusIdle();
           if (OAI_ERROR_NORECORDSMATCH.equals(e.getMessage())) {
@@ -792,8 +1140,14 @@ public class OaiPmhClientService {
                 id, owner, getRt(config), e.getMessage(), e);
             job.setError(e.getMessage());
           }
-          // hopefully updateJob works so that error can be saved.
-          return updateJob(storage, id, config, job, null, null);
+          // hopefully saving works so that error can be saved.
+          return saveRun(storage, id, job, owner)
+              .onSuccess(saved -> {
+                if (!Boolean.TRUE.equals(saved)) {
+                  log.info("harvest loop id={} owner={} lost claim", id, owner);
+                }
+              })
+              .<Void>mapEmpty();
         })
         .onFailure(e ->
             // if we make it here even saving didn't work!!!
@@ -1,8 +1,11 @@
 package com.indexdata.reservoir.server;
 
+import static com.indexdata.reservoir.util.EncodeXmlText.appendXmlText;
 import static com.indexdata.reservoir.util.EncodeXmlText.encodeXmlText;
 
 import com.indexdata.reservoir.module.ModuleExecutable;
+import com.indexdata.reservoir.server.entity.ClusterBuilder;
+import com.indexdata.reservoir.server.metrics.PipelineMetrics;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
@@ -28,6 +31,9 @@ public final class OaiService {
 
   private OaiService() { }
 
+  // rows fetched at a time and clusters hydrated together
+  static final int PAGE_SIZE = 100;
+
   static final String OAI_HEADER = """
       <?xml version="1.0" encoding="UTF-8"?>
       <OAI-PMH xmlns="http://www.openarchives.org/OAI/2.0/"
@@ -208,33 +214,81 @@ public final class OaiService {
     response.write("</resumptionToken>\n");
   }
 
+  static Buffer clusterRecord(ClusterRecordItem cr, boolean deleted, Buffer metadata,
+      boolean withMetadata) {
+    Buffer buffer = Buffer.buffer(metadata == null ? 256 : metadata.length() + 256);
+    if (withMetadata) {
+      buffer.appendString("    <record>\n");
+    }
+    buffer.appendString(deleted ? "      <header status=\"deleted\">\n" : "      <header>\n");
+    appendXmlText(buffer.appendString("        <identifier>"),
+        encodeOaiIdentifier(cr.clusterId)).appendString("</identifier>\n");
+    appendXmlText(buffer.appendString("        <datestamp>"),
+        Util.formatOaiDateTime(cr.datestamp)).appendString("</datestamp>\n");
+    appendXmlText(buffer.appendString("        <setSpec>"), cr.oaiSet)
+        .appendString("</setSpec>\n");
+    buffer.appendString("      </header>\n");
+    if (withMetadata) {
+      if (metadata != null) {
+        buffer.appendString("    <metadata>\n")
+            .appendBuffer(metadata)
+            .appendString("\n    </metadata>\n");
+      }
+      buffer.appendString("    </record>\n");
+    }
+    return buffer;
+  }
+
+  static Future<Buffer> clusterRecord(ClusterRecordItem cr, ClusterBuilder cb,
+      ModuleExecutable transformer, boolean withMetadata, Vertx vertx) {
+    if (!withMetadata) {
+      // header only; a cluster without records is deleted
+      return Future.succeededFuture(clusterRecord(cr, cb == null, null, false));
+    }
+    return ClusterMarcXml.getClusterMarcXml(cb, transformer, vertx)
+        .map(metadata -> clusterRecord(cr, metadata == null, metadata, true));
+  }
+
   static Future<Buffer> getClusterRecordMetadata(Row row, ModuleExecutable transformer,
       Storage storage, SqlConnection connection, boolean withMetadata, Vertx vertx) {
 
     ClusterRecordItem cr = new ClusterRecordItem(row);
     return cr.populateCluster(storage, connection, withMetadata)
-      .compose(cb -> ClusterMarcXml.getClusterMarcXml(cb, transformer, vertx)
-        .map(metadata -> {
-          String begin = withMetadata ? "    <record>\n" : "";
-          String end = withMetadata ? "    </record>\n" : "";
-          return Buffer.buffer(
-              begin
-                  + "      <header" + (metadata == null
-                  ? " status=\"deleted\"" : "") + ">\n"
-                  + "        <identifier>"
-                  + encodeXmlText(encodeOaiIdentifier(cr.clusterId)) + "</identifier>\n"
-                  + "        <datestamp>"
-                  + encodeXmlText(Util.formatOaiDateTime(cr.datestamp))
-                  + "</datestamp>\n"
-                  + "        <setSpec>" + encodeXmlText(cr.oaiSet) + "</setSpec>\n"
-                  + "      </header>\n"
-                  + (withMetadata && metadata != null
-                  ? "    <metadata>\n" + metadata + "\n"
-                  + "    </metadata>\n"
-                  : "")
-                  + end);
-        })
-    );
+      .compose(cb -> clusterRecord(cr, cb, transformer, withMetadata, vertx));
+  }
+
+  /**
+   * Produce records for a page of cluster rows.
+   *
+   * <p>Records and match values for all clusters of the page are fetched at once. A record
+   * that fails is replaced by a comment.
+   */
+  static Future<Buffer> getClusterRecordsMetadata(List<Row> rows, ModuleExecutable transformer,
+      Storage storage, SqlConnection connection, boolean withMetadata, Vertx vertx) {
+
+    List<ClusterRecordItem> items = rows.stream().map(ClusterRecordItem::new).toList();
+    return ClusterRecordItem.populateClusters(storage, connection, items, withMetadata)
+        .compose(clusters -> {
+          List<Future<Buffer>> futures = new ArrayList<>(rows.size());
+          for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            futures.add(clusterRecord(items.get(i), clusters.get(i), transformer,
+                withMetadata, vertx)
+                .recover(e -> Future.succeededFuture(ClusterRecordStream.failedRecord(row, e))));
+          }
+          return Future.all(futures).map(x -> {
+            Buffer buffer = Buffer.buffer();
+            futures.forEach(f -> buffer.appendBuffer(f.result()));
+            return buffer;
+          });
+        });
+  }
+
+  static void writePage(ClusterRecordStream clusterRecordStream, List<Row> page) {
+    if (!page.isEmpty()) {
+      clusterRecordStream.write(new ArrayList<>(page));
+      page.clear();
+    }
   }
 
   @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
@@ -247,12 +301,14 @@ public final class OaiService {
         conn.begin().compose(tx -> {
           HttpServerResponse response = ctx.response();
           ClusterRecordStream clusterRecordStream = new ClusterRecordStream(
-              conn, response, row ->
-                getClusterRecordMetadata(row, transformer, storage, conn,
-                withMetadata, ctx.vertx())
+              conn, response, rows ->
+                getClusterRecordsMetadata(rows, transformer, storage, conn,
+                withMetadata, ctx.vertx()),
+              PipelineMetrics.create("oai", storage.getTenant())
           );
-          RowStream<Row> stream = pq.createStream(100, tuple);
+          RowStream<Row> stream = pq.createStream(PAGE_SIZE, tuple);
           AtomicInteger cnt = new AtomicInteger();
+          List<Row> page = new ArrayList<>(PAGE_SIZE);
           clusterRecordStream.drainHandler(x -> stream.resume());
           stream.handler(row -> {
             if (cnt.get() == 0) {
@@ -263,6 +319,7 @@ public final class OaiService {
               token.setFrom(row.getLocalDateTime("datestamp"));
               token.setId(row.getUUID("cluster_id"));
               stream.pause();
+              writePage(clusterRecordStream, page);
               clusterRecordStream.end().onComplete(y -> {
                 writeResumptionToken(ctx, token);
                 endListResponse(ctx, conn, tx, elem);
@@ -270,15 +327,19 @@ public final class OaiService {
               return;
             }
             cnt.incrementAndGet();
-            clusterRecordStream.write(row);
-            if (clusterRecordStream.writeQueueFull()) {
-              stream.pause();
+            page.add(row);
+            if (page.size() >= PAGE_SIZE) {
+              writePage(clusterRecordStream, page);
+              if (clusterRecordStream.writeQueueFull()) {
+                stream.pause();
+              }
             }
           });
-          stream.endHandler(end ->
-              clusterRecordStream.end()
-                  .onComplete(y -> endListResponse(ctx, conn, tx, elem))
-          );
+          stream.endHandler(end -> {
+            writePage(clusterRecordStream, page);
+            clusterRecordStream.end()
+                .onComplete(y -> endListResponse(ctx, conn, tx, elem));
+          });
           stream.exceptionHandler(e -> {
             log.error("stream error", e);
             endListResponse(ctx, conn, tx, elem);
@@ -0,0 +1,339 @@
+package com.indexdata.reservoir.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Deletes global records or touches clusters in the background.
+ *
+ * <p>The selected global records are processed in chunks in identifier order, each chunk in a
+ * transaction of its own that also saves the last identifier reached. The job row is locked
+ * by that transaction, so a job that is stopped or deleted does not write another chunk. A
+ * stopped or failed job, or one whose server went away, is resumed from the last chunk
+ * written. A job whose server went away still has status running; it is resumed by start,
+ * and may be stopped or deleted like a job that is running.
+ *
+ * <p>Jobs are stored in table record_jobs with the SQL WHERE clause of the selection, the
+ * stop flag and the owner, which is the run of the job allowed to write chunks. The job
+ * itself is a JSON object with type, CQL query, status, start and end time, error, last
+ * identifier written, number of records processed and number of clusters touched.
+ */
+class RecordJob {
+  private static final Logger log = LogManager.getLogger(RecordJob.class);
+  static final String TYPE_DELETE_RECORDS = "deleteRecords";
+  static final String TYPE_TOUCH_CLUSTERS = "touchClusters";
+  static final String STATUS_RUNNING = "running";
+  static final String STATUS_STOPPED = "stopped";
+  static final String STATUS_DONE = "done";
+  static final String STATUS_ERROR = "error";
+  private static final UUID MIN_UUID = new UUID(0L, 0L);
+  private static int chunkSize = 1000;
+
+  private final Storage storage;
+  private final UUID id;
+  private final UUID owner;
+  private final String type;
+  private final String sqlWhere;
+  private final SourcePartitions.Selection selection;
+
+  private RecordJob(Storage storage, UUID id, UUID owner, String type, String sqlWhere) {
+    this.storage = storage;
+    this.id = id;
+    this.owner = owner;
+    this.type = type;
+    this.sqlWhere = sqlWhere;
+    this.selection = TYPE_DELETE_RECORDS.equals(type) ? SourcePartitions.selection(sqlWhere)
+        : null;
+  }
+
+  /**
+   * Set number of records processed in each transaction.
+   * @param size number of records
+   */
+  static void setChunkSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("record job chunk size must be at least 1");
+    }
+    chunkSize = size;
+  }
+
+  /**
+   * Create job and start it.
+   * @param storage storage
+   * @param type {@link #TYPE_DELETE_RECORDS} or {@link #TYPE_TOUCH_CLUSTERS}
+   * @param query CQL query, for reference
+   * @param sqlWhere SQL WHERE clause of the query
+   * @return async result with job as stored
+   */
+  static Future<JsonObject> create(Storage storage, String type, String query,
+      String sqlWhere) {
+    UUID id = UUID.randomUUID();
+    UUID owner = UUID.randomUUID();
+    JsonObject job = new JsonObject()
+        .put("id", id.toString())
+        .put("type", type)
+        .put("status", STATUS_RUNNING)
+        .put("started", MatchKeyInitializer.now())
+        .put("last", MIN_UUID.toString())
+        .put("processed", 0L)
+        .put("clusters", 0L);
+    if (query != null) {
+      job.put("query", query);
+    }
+    return storage.pool.preparedQuery("INSERT INTO " + storage.getRecordJobTable()
+            + " (id, job, sql_where, stop, owner) VALUES ($1, $2, $3, FALSE, $4)")
+        .execute(Tuple.of(id, job, sqlWhere, owner))
+        .map(x -> {
+          new RecordJob(storage, id, owner, type, sqlWhere).run();
+          return job;
+        });
+  }
+
+  /**
+   * Get job.
+   * @param storage storage
+   * @param id job identifier
+   * @return async result with job; null if not found
+   */
+  static Future<JsonObject> get(Storage storage, UUID id) {
+    return storage.pool.preparedQuery("SELECT job FROM " + storage.getRecordJobTable()
+            + " WHERE id = $1")
+        .execute(Tuple.of(id))
+        .map(rowSet -> {
+          if (rowSet.size() == 0) {
+            return null;
+          }
+          return rowSet.iterator().next().getJsonObject("job");
+        });
+  }
+
+  /**
+   * Get all jobs, most recently started first.
+   * @param storage storage
+   * @return async result with jobs
+   */
+  static Future<JsonArray> getAll(Storage storage) {
+    return storage.pool.query("SELECT job FROM " + storage.getRecordJobTable()
+            + " ORDER BY job->>'started' DESC")
+        .execute()
+        .map(rowSet -> {
+          JsonArray items = new JsonArray();
+          rowSet.forEach(row -> items.add(row.getJsonObject("job")));
+          return items;
+        });
+  }
+
+  /**
+   * Stop job.
+   *
+   * <p>The job is marked stopped right away; a chunk being written completes first.
+   * Does nothing if the job is not running.
+   * @param storage storage
+   * @param id job identifier
+   * @return async result with false if not found
+   */
+  static Future<Boolean> stop(Storage storage, UUID id) {
+    JsonObject patch = new JsonObject()
+        .put("status", STATUS_STOPPED)
+        .put("finished", MatchKeyInitializer.now());
+    return storage.pool.preparedQuery("UPDATE " + storage.getRecordJobTable()
+            + " SET stop = TRUE, job = CASE WHEN job->>'status' = '" + STATUS_RUNNING + "'"
+            + " THEN job || $2 ELSE job END WHERE id = $1")
+        .execute(Tuple.of(id, patch))
+        .map(rowSet -> rowSet.rowCount() > 0);
+  }
+
+  /**
+   * Resume job from the last chunk written.
+   *
+   * <p>A run of the job that may still be active stops, as it is no longer the owner.
+   * @param storage storage
+   * @param id job identifier
+   * @return async result with false if not found; failed if the job is done
+   */
+  static Future<Boolean> start(Storage storage, UUID id) {
+    UUID owner = UUID.randomUUID();
+    JsonObject patch = new JsonObject().put("status", STATUS_RUNNING);
+    return storage.pool.preparedQuery("UPDATE " + storage.getRecordJobTable()
+            + " SET stop = FALSE, owner = $2, job = (job - 'finished' - 'error') || $3"
+            + " WHERE id = $1 AND job->>'status' <> '" + STATUS_DONE + "'"
+            + " RETURNING job->>'type' AS type, sql_where")
+        .execute(Tuple.of(id, owner, patch))
+        .compose(rowSet -> {
+          if (rowSet.size() > 0) {
+            Row row = rowSet.iterator().next();
+            new RecordJob(storage, id, owner, row.getString("type"), row.getString("sql_where"))
+                .run();
+            return Future.succeededFuture(true);
+          }
+          return get(storage, id).compose(job -> job == null ? Future.succeededFuture(false)
+              : Future.<Boolean>failedFuture("Job " + id + " is done"));
+        });
+  }
+
+  /**
+   * Delete job.
+   *
+   * <p>A job still running stops, as a run stops when the job is gone; a chunk being
+   * written completes first. A job marked running whose server went away is deleted
+   * the same way.
+   * @param storage storage
+   * @param id job identifier
+   * @return async result with false if not found
+   */
+  static Future<Boolean> delete(Storage storage, UUID id) {
+    return storage.pool.preparedQuery("DELETE FROM " + storage.getRecordJobTable()
+            + " WHERE id = $1")
+        .execute(Tuple.of(id))
+        .map(rowSet -> rowSet.rowCount() > 0);
+  }
+
+  private void run() {
+    Future<String> partition = selection == null ? Future.succeededFuture()
+        : new SourcePartitions(storage).partitionOf(selection);
+    partition.compose(this::runChunks)
+        .onSuccess(x -> log.info("record job id={} owner={} ended", id, owner))
+        .onFailure(e -> {
+          log.error("record job id={} owner={} failed: {}", id, owner, e.getMessage(), e);
+          JsonObject patch = new JsonObject()
+              .put("status", STATUS_ERROR)
+              .put("finished", MatchKeyInitializer.now())
+              .put("error", e.getMessage());
+          storage.pool.preparedQuery("UPDATE " + storage.getRecordJobTable()
+                  + " SET job = job || $3 WHERE id = $1 AND owner = $2 AND NOT stop")
+              .execute(Tuple.of(id, owner, patch))
+              .onFailure(e1 -> log.error(e1.getMessage(), e1));
+        });
+  }
+
+  private Future<Void> runChunks(String partition) {
+    return storage.pool.withTransaction(conn -> runChunk(conn, partition))
+        .compose(more -> more ? runChunks(partition) : Future.<Void>succeededFuture());
+  }
+
+  /**
+   * Process next chunk of job.
+   * @param conn connection in transaction
+   * @param partition table with exactly the records to delete; null if none
+   * @return async result with whether there are more chunks
+   */
+  private Future<Boolean> runChunk(SqlConnection conn, String partition) {
+    return conn.preparedQuery("SELECT job, stop, owner FROM " + storage.getRecordJobTable()
+            + " WHERE id = $1 FOR UPDATE")
+        .execute(Tuple.of(id))
+        .compose(rowSet -> {
+          Row row = rowSet.size() == 0 ? null : rowSet.iterator().next();
+          if (row == null || Boolean.TRUE.equals(row.getBoolean("stop"))
+              || !owner.equals(row.getUUID("owner"))) {
+            log.info("record job id={} owner={} stopping", id, owner);
+            return Future.succeededFuture(false);
+          }
+          JsonObject job = row.getJsonObject("job");
+          UUID from = UUID.fromString(job.getString("last"));
+          return conn.preparedQuery(selectChunk())
+              .execute(Tuple.of(from, chunkSize))
+              .compose(ids -> {
+                if (ids.size() == 0) {
+                  return finish(conn, job, partition).map(false);
+                }
+                UUID to = null;
+                for (Row r : ids) {
+                  to = r.getUUID(0);
+                }
+                JsonObject patch = new JsonObject()
+                    .put("last", to.toString())
+                    .put("processed", job.getLong("processed", 0L) + ids.size());
+                boolean more = ids.size() == chunkSize;
+                return processChunk(conn, from, to, partition, job, patch)
+                    .compose(x -> more ? saveJob(conn, patch) : finish(conn, job.mergeIn(patch),
+                        partition))
+                    .map(x -> more);
+              });
+        });
+  }
+
+  private String selectChunk() {
+    if (TYPE_DELETE_RECORDS.equals(type)) {
+      return "SELECT id FROM " + storage.getGlobalRecordTable()
+          + " WHERE id > $1" + (sqlWhere == null ? "" : " AND (" + sqlWhere + ")")
+          + " ORDER BY id LIMIT $2";
+    }
+    // a record is in a cluster of each match key selected
+    return "SELECT DISTINCT global_records.id FROM " + storage.getGlobalRecordTable() + ", "
+        + storage.getClusterRecordTable() + ", " + storage.getClusterMetaTable()
+        + " WHERE cluster_meta.cluster_id = cluster_records.cluster_id"
+        + " AND cluster_records.record_id = global_records.id"
+        + " AND global_records.id > $1 AND " + sqlWhere
+        + " ORDER BY global_records.id LIMIT $2";
+  }
+
+  private Future<Void> processChunk(SqlConnection conn, UUID from, UUID to, String partition,
+      JsonObject job, JsonObject patch) {
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    if (TYPE_TOUCH_CLUSTERS.equals(type)) {
+      return conn.preparedQuery(storage.touchClustersSql(sqlWhere)
+              + " AND global_records.id > $2 AND global_records.id <= $3")
+          .execute(Tuple.of(now, from, to))
+          .map(rowSet -> {
+            patch.put("clusters", job.getLong("clusters", 0L) + rowSet.rowCount());
+            return null;
+          });
+    }
+    String where = (sqlWhere == null ? "" : "(" + sqlWhere + ") AND ") + "id > $1 AND id <= $2";
+    return conn.preparedQuery(storage.touchClustersOfRecords(sqlWhere,
+            "id > $2 AND id <= $3"))
+        .execute(Tuple.of(now, from, to))
+        .compose(rowSet -> {
+          patch.put("clusters", job.getLong("clusters", 0L) + rowSet.rowCount());
+          if (partition == null) {
+            return conn.preparedQuery(storage.deleteRecords(where)).execute(Tuple.of(from, to));
+          }
+          // records are left for the partition to be truncated or dropped when done
+          return conn.preparedQuery("DELETE FROM " + storage.getClusterRecordTable()
+                  + " WHERE record_id IN (SELECT id FROM " + storage.getGlobalRecordTable()
+                  + " WHERE " + where + ")")
+              .execute(Tuple.of(from, to));
+        })
+        .mapEmpty();
+  }
+
+  private Future<Void> finish(SqlConnection conn, JsonObject job, String partition) {
+    JsonObject patch = new JsonObject()
+        .put("last", job.getString("last"))
+        .put("processed", job.getLong("processed"))
+        .put("clusters", job.getLong("clusters"))
+        .put("status", STATUS_DONE)
+        .put("finished", MatchKeyInitializer.now());
+    if (partition == null) {
+      return saveJob(conn, patch);
+    }
+    // records ingested after their chunk was processed are still in clusters
+    return conn.preparedQuery(storage.touchClustersOfRecords(sqlWhere, null))
+        .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC)))
+        .compose(rowSet -> {
+          patch.put("clusters", job.getLong("clusters", 0L) + rowSet.rowCount());
+          return conn.query("DELETE FROM " + storage.getClusterRecordTable()
+              + " WHERE record_id IN (SELECT id FROM " + partition + ")").execute();
+        })
+        .compose(x -> conn.query((selection.sourceVersion() == null ? "TRUNCATE " : "DROP TABLE ")
+            + partition).execute())
+        .onSuccess(x -> log.info("Records deleted with partition {}", partition))
+        .compose(x -> saveJob(conn, patch));
+  }
+
+  private Future<Void> saveJob(SqlConnection conn, JsonObject patch) {
+    return conn.preparedQuery("UPDATE " + storage.getRecordJobTable()
+            + " SET job = job || $2 WHERE id = $1")
+        .execute(Tuple.of(id, patch))
+        .mapEmpty();
+  }
+}
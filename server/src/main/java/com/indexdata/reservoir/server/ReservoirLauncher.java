@@ -1,5 +1,6 @@
 package com.indexdata.reservoir.server;
 
+import com.indexdata.reservoir.module.impl.ModuleJavaScript;
 import io.vertx.core.Deployable;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.http.HttpServerOptions;
@@ -70,6 +71,7 @@ public class ReservoirLauncher extends VertxApplication {
         }
         metricsOpts.setEnabled(enabled);
         options.setMetricsOptions(metricsOpts);
+        ModuleJavaScript.setPoolSize(options.getWorkerPoolSize());
       }
 
       @Override
@@ -4,6 +4,7 @@ import com.indexdata.reservoir.module.ModuleCache;
 import com.indexdata.reservoir.module.ModuleInvocation;
 import com.indexdata.reservoir.server.entity.CodeModuleEntity;
 import com.indexdata.reservoir.server.entity.MatchKeyConfig;
+import com.indexdata.reservoir.util.SourceId;
 import com.indexdata.reservoir.util.readstream.LargeJsonReadStream;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
@@ -38,10 +39,14 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
 
   private static final String ENTITY_ID_NOT_FOUND_PATTERN = "%s %s not found";
   private static final String MODULE_LABEL = "Module";
+  private static final int PAYLOAD_CONVERT_BATCH = 1000;
   private static final Logger log = LogManager.getLogger(ReservoirService.class);
 
   private final ModuleVersionReporter moduleVersionReporter;
   private final String defaultTenant;
+  private OaiPmhClientService oaiPmhClient;
+  private Vertx vertx;
+  private Long compactTimer;
 
   public ReservoirService(ModuleVersionReporter moduleVersionReporter, String defaultTenant) {
     this.moduleVersionReporter = moduleVersionReporter;
@@ -151,10 +156,18 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
     }
     PgCqlQuery pgCqlQuery = definition.parse(query);
     Storage storage = new Storage(ctx);
+    if (isAsync(ctx)) {
+      return storage.deleteGlobalRecordsJob(query, pgCqlQuery.getWhereClause())
+          .compose(job -> HttpResponse.responseJson(ctx, 202).end(job.encode()));
+    }
     return storage.deleteGlobalRecords(pgCqlQuery.getWhereClause())
         .compose(x -> ctx.response().setStatusCode(204).end());
   }
 
+  static boolean isAsync(RoutingContext ctx) {
+    return Boolean.parseBoolean(Util.getQueryParameter(ctx, "async", "false"));
+  }
+
   Future<Void> getGlobalRecords(RoutingContext ctx) {
     PgCqlDefinition definition = createDefinitionGlobalRecords();
     PgCqlQuery pgCqlQuery = definition.parse(Util.getQueryParameterQuery(ctx));
@@ -184,7 +197,8 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
   Future<Void> getClusters(RoutingContext ctx) {
     PgCqlDefinition definition = createDefinitionBase();
     definition.addField(CqlFields.MATCH_VALUE.getCqlName(),
-        new PgCqlFieldText().withExact().withColumn(CqlFields.MATCH_VALUE.getQualifiedSqlName()));
+        new CqlFieldTermMapper(new PgCqlFieldText().withExact(), term -> term,
+            Storage::matchValueSql).withColumn(CqlFields.MATCH_VALUE.getQualifiedSqlName()));
     definition.addField(CqlFields.CLUSTER_ID.getCqlName(),
         new PgCqlFieldUuid().withColumn(CqlFields.CLUSTER_ID.getQualifiedSqlName()));
     definition.addField(CqlFields.GLOBAL_ID.getCqlName(),
@@ -223,8 +237,13 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
     definition.addField(CqlFields.SOURCE_VERSION.getCqlName(),
         new PgCqlFieldNumber().withColumn(CqlFields.SOURCE_VERSION.getQualifiedSqlName()));
 
-    PgCqlQuery pgCqlQuery = definition.parse(Util.getQueryParameterQuery(ctx));
+    String query = Util.getQueryParameterQuery(ctx);
+    PgCqlQuery pgCqlQuery = definition.parse(query);
     Storage storage = new Storage(ctx);
+    if (isAsync(ctx)) {
+      return storage.touchClustersJob(query, pgCqlQuery)
+          .compose(job -> HttpResponse.responseJson(ctx, 202).end(job.encode()));
+    }
     return storage.touchClusters(pgCqlQuery)
         .map(count -> new JsonObject().put("count", count))
         .compose(res -> {
@@ -233,6 +252,54 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
         });
   }
 
+  Future<Void> recordJobNotFound(RoutingContext ctx, String id) {
+    HttpResponse.responseError(ctx, 404, "Job " + id + " not found");
+    return Future.succeededFuture();
+  }
+
+  Future<Void> getRecordJobs(RoutingContext ctx) {
+    Storage storage = new Storage(ctx);
+    return RecordJob.getAll(storage)
+        .compose(items -> HttpResponse.responseJson(ctx, 200)
+            .end(new JsonObject().put("items", items).encode()));
+  }
+
+  Future<Void> getRecordJob(RoutingContext ctx) {
+    String id = Util.getPathParameter(ctx, "id");
+    Storage storage = new Storage(ctx);
+    return RecordJob.get(storage, UUID.fromString(id))
+        .compose(job -> {
+          if (job == null) {
+            return recordJobNotFound(ctx, id);
+          }
+          return HttpResponse.responseJson(ctx, 200).end(job.encode());
+        });
+  }
+
+  Future<Void> deleteRecordJob(RoutingContext ctx) {
+    String id = Util.getPathParameter(ctx, "id");
+    Storage storage = new Storage(ctx);
+    return RecordJob.delete(storage, UUID.fromString(id))
+        .compose(found -> found ? ctx.response().setStatusCode(204).end()
+            : recordJobNotFound(ctx, id));
+  }
+
+  Future<Void> startRecordJob(RoutingContext ctx) {
+    String id = Util.getPathParameter(ctx, "id");
+    Storage storage = new Storage(ctx);
+    return RecordJob.start(storage, UUID.fromString(id))
+        .compose(found -> found ? ctx.response().setStatusCode(204).end()
+            : recordJobNotFound(ctx, id));
+  }
+
+  Future<Void> stopRecordJob(RoutingContext ctx) {
+    String id = Util.getPathParameter(ctx, "id");
+    Storage storage = new Storage(ctx);
+    return RecordJob.stop(storage, UUID.fromString(id))
+        .compose(found -> found ? ctx.response().setStatusCode(204).end()
+            : recordJobNotFound(ctx, id));
+  }
+
   Future<Void> getCluster(RoutingContext ctx) {
     ValidatedRequest validatedRequest = ctx.get(RouterBuilder.KEY_META_DATA_VALIDATED_REQUEST);
     RequestParameter requestParameter = validatedRequest.getPathParameters().get("clusterId");
@@ -341,7 +408,20 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
   Future<Void> initializeMatchKey(RoutingContext ctx) {
     String id = Util.getPathParameter(ctx, "id");
     Storage storage = new Storage(ctx);
-    return storage.initializeMatchKey(ctx.vertx(), id)
+    boolean resume = Boolean.parseBoolean(Util.getQueryParameter(ctx, "resume", "false"));
+    return storage.initializeMatchKey(ctx.vertx(), id, resume)
+        .compose(res -> {
+          if (res == null) {
+            return matchKeyNotFound(ctx, id);
+          }
+          return HttpResponse.responseJson(ctx, 200).end(res.encode());
+        });
+  }
+
+  Future<Void> getInitializeMatchKeyStatus(RoutingContext ctx) {
+    String id = Util.getPathParameter(ctx, "id");
+    Storage storage = new Storage(ctx);
+    return storage.getInitializeMatchKeyStatus(id)
         .compose(res -> {
           if (res == null) {
             return matchKeyNotFound(ctx, id);
@@ -527,9 +607,26 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
         .addFailureHandler(ReservoirService::failHandler);
   }
 
+  /**
+   * Stop background work of the service.
+   */
+  public void stop() {
+    if (oaiPmhClient != null) {
+      oaiPmhClient.cancelSchedule();
+    }
+    if (compactTimer != null) {
+      vertx.cancelTimer(compactTimer);
+      compactTimer = null;
+    }
+  }
+
   @Override
   public Future<Router> createRouter(Vertx vertx) {
-    OaiPmhClientService oaiPmhClient = new OaiPmhClientService(vertx);
+    oaiPmhClient = new OaiPmhClientService(vertx);
+    oaiPmhClient.scheduleJobs();
+    this.vertx = vertx;
+    compactTimer = vertx.setPeriodic(Storage.CLUSTER_COUNTS_COMPACT_MS, x ->
+        Storage.compactClusterCounts(vertx));
     UploadService uploadService = new UploadService();
     return OpenAPIContract.from(vertx, "openapi/reservoir.yaml")
         .map(contract -> {
@@ -546,10 +643,16 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
           add(routerBuilder, "deleteConfigMatchKey", this::deleteConfigMatchKey);
           add(routerBuilder, "getConfigMatchKeys", this::getConfigMatchKeys);
           add(routerBuilder, "initializeMatchKey", this::initializeMatchKey);
+          add(routerBuilder, "getInitializeMatchKeyStatus", this::getInitializeMatchKeyStatus);
           add(routerBuilder, "statsMatchKey", this::statsMatchKey);
           add(routerBuilder, "getClusters", this::getClusters, false);
           add(routerBuilder, "touchClusters", this::touchClusters, false);
           add(routerBuilder, "getCluster", this::getCluster);
+          add(routerBuilder, "getRecordJobs", this::getRecordJobs);
+          add(routerBuilder, "getRecordJob", this::getRecordJob);
+          add(routerBuilder, "deleteRecordJob", this::deleteRecordJob);
+          add(routerBuilder, "startRecordJob", this::startRecordJob);
+          add(routerBuilder, "stopRecordJob", this::stopRecordJob);
           add(routerBuilder, "postCodeModule", this::postCodeModule);
           add(routerBuilder, "getCodeModule", this::getCodeModule);
           add(routerBuilder, "putCodeModule", this::putCodeModule);
@@ -602,6 +705,23 @@ public class ReservoirService implements RouterCreator, TenantInitHooks {
       return Future.succeededFuture(); // doing nothing for disable
     }
     Storage storage = new Storage(vertx, tenant, HttpMethod.POST);
-    return storage.init();
+    Future<Void> future = storage.init();
+    JsonArray parameters = tenantAttributes.getJsonArray("parameters", new JsonArray());
+    for (int i = 0; i < parameters.size(); i++) {
+      JsonObject parameter = parameters.getJsonObject(i);
+      if ("convertPayloads".equals(parameter.getString("key"))
+          && "true".equals(parameter.getString("value"))) {
+        future = future
+            .compose(x -> storage.convertPayloads(PAYLOAD_CONVERT_BATCH))
+            .onSuccess(count -> log.info("Payloads converted for tenant {}: {}", tenant, count))
+            .mapEmpty();
+      }
+      if ("sourcePartition".equals(parameter.getString("key"))) {
+        String sourceId = parameter.getString("value");
+        future = future.compose(x ->
+            new SourcePartitions(storage).addSource(new SourceId(sourceId)));
+      }
+    }
+    return future;
   }
 }
@@ -0,0 +1,107 @@
+package com.indexdata.reservoir.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.Tuple;
+import java.util.function.Supplier;
+
+/**
+ * Total number of entries of a result set and how precise it is.
+ *
+ * <p>The counting method is selected per request:
+ * <ul>
+ *   <li>{@code exact}: COUNT over the full result set.</li>
+ *   <li>{@code estimate}: cluster counters when the result set is all clusters; otherwise
+ *   the row estimate of the query planner.</li>
+ *   <li>{@code capped}: exact up to the cap; beyond that the count is the cap and the
+ *   precision is {@code minimum}.</li>
+ *   <li>{@code none}: no counting.</li>
+ * </ul>
+ * @param count number of entries
+ * @param precision one of {@link #EXACT}, {@link #ESTIMATE}, {@link #MINIMUM}
+ */
+public record ResultCount(long count, String precision) {
+  public static final String NONE = "none";
+  public static final String EXACT = "exact";
+  public static final String ESTIMATE = "estimate";
+  public static final String CAPPED = "capped";
+  public static final String MINIMUM = "minimum";
+
+  private static volatile int cap = 10000;
+
+  public static void setCap(int cap) {
+    ResultCount.cap = cap;
+  }
+
+  public static int getCap() {
+    return cap;
+  }
+
+  /**
+   * Check counting method.
+   * @param method method; null for none
+   * @return method, {@link #NONE} if null
+   * @throws IllegalArgumentException if method is unknown
+   */
+  public static String method(String method) {
+    if (method == null) {
+      return NONE;
+    }
+    switch (method) {
+      case NONE, EXACT, ESTIMATE, CAPPED:
+        return method;
+      default:
+        throw new IllegalArgumentException("Bad count: " + method);
+    }
+  }
+
+  /**
+   * Count result set.
+   * @param client SQL client
+   * @param method counting method as returned by {@link #method(String)}
+   * @param distinct column counted distinct; null for counting all rows
+   * @param fromWhere FROM clause content including WHERE
+   * @param tuple parameters for fromWhere
+   * @param counters cluster count for estimate; null if not applicable to result set
+   * @return async result with count; null for method none
+   */
+  public static Future<ResultCount> count(SqlClient client, String method, String distinct,
+      String fromWhere, Tuple tuple, Supplier<Future<Long>> counters) {
+
+    String select = distinct != null ? "DISTINCT " + distinct : "1";
+    switch (method) {
+      case EXACT:
+        return client.preparedQuery("SELECT COUNT("
+                + (distinct != null ? "DISTINCT " + distinct : "*") + ") FROM " + fromWhere)
+            .execute(tuple)
+            .map(rowSet -> new ResultCount(rowSet.iterator().next().getLong(0), EXACT));
+      case CAPPED:
+        int limit = cap;
+        return client.preparedQuery("SELECT COUNT(*) FROM (SELECT " + select
+                + " FROM " + fromWhere + " LIMIT " + (limit + 1) + ") AS capped")
+            .execute(tuple)
+            .map(rowSet -> {
+              long count = rowSet.iterator().next().getLong(0);
+              return count > limit
+                  ? new ResultCount(limit, MINIMUM) : new ResultCount(count, EXACT);
+            });
+      case ESTIMATE:
+        if (counters != null) {
+          return counters.get().map(count -> new ResultCount(count, ESTIMATE));
+        }
+        return client.preparedQuery("EXPLAIN (FORMAT JSON) SELECT " + select
+                + " FROM " + fromWhere)
+            .execute(tuple)
+            .map(rowSet -> new ResultCount(
+                planRows(rowSet.iterator().next().getValue(0)), ESTIMATE));
+      default:
+        return Future.succeededFuture(null);
+    }
+  }
+
+  static long planRows(Object value) {
+    JsonArray plan = value instanceof JsonArray array ? array : new JsonArray(value.toString());
+    return plan.getJsonObject(0).getJsonObject("Plan").getLong("Plan Rows");
+  }
+}
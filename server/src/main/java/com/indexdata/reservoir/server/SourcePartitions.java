@@ -0,0 +1,243 @@
+package com.indexdata.reservoir.server;
+
+import com.indexdata.reservoir.util.SourceId;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Partitions of a partitioned global_records table.
+ *
+ * <p>global_records is partitioned by list of source_id. Sources without a partition of
+ * their own go to the default partition, which is hash partitioned by source_id. A source
+ * may be given a partition of its own, which is partitioned by list of source_version:
+ * versions that had no records when ingest of them started get a partition each, and other
+ * versions go to the default partition of the source. A source or source version with a
+ * partition is deleted by truncating or dropping the partition.
+ *
+ * <p>Unique keys of a partitioned table must include all partition keys, so the primary
+ * key is (id, source_id, source_version). A partitioned table can not be referenced by a
+ * foreign key on record id alone, so cluster_records has no foreign key to it. All deletes
+ * of global records must delete cluster records explicitly, see
+ * {@link Storage#deleteRecords(String)}.
+ */
+class SourcePartitions {
+  static final String DEFAULT_PARTITION = "global_records_default";
+
+  private static final Logger log = LogManager.getLogger(SourcePartitions.class);
+  private static final Pattern SOURCE_ID = Pattern.compile("source_id\\s*=\\s*'([^']*)'");
+  private static final Pattern SOURCE_VERSION = Pattern.compile("source_version\\s*=\\s*(\\d+)");
+
+  private final Storage storage;
+
+  /**
+   * Records of a source or source version.
+   * @param sourceId source identifier
+   * @param sourceVersion source version; null for all versions
+   */
+  record Selection(SourceId sourceId, Integer sourceVersion) { }
+
+  SourcePartitions(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Get SQL for creating the default partitions of a new global_records table.
+   * @param storage storage
+   * @param partitions number of hash partitions for sources without a partition
+   * @return SQL statements
+   */
+  static List<String> createDefault(Storage storage, int partitions) {
+    String defaultTable = qualified(storage, DEFAULT_PARTITION);
+    List<String> statements = new ArrayList<>();
+    statements.add("CREATE TABLE IF NOT EXISTS " + defaultTable
+        + " PARTITION OF " + storage.getGlobalRecordTable()
+        + " DEFAULT PARTITION BY HASH (source_id)");
+    for (int i = 0; i < partitions; i++) {
+      statements.add("CREATE TABLE IF NOT EXISTS " + qualified(storage, DEFAULT_PARTITION + "_" + i)
+          + " PARTITION OF " + defaultTable
+          + " FOR VALUES WITH (MODULUS " + partitions + ", REMAINDER " + i + ")");
+    }
+    return statements;
+  }
+
+  static String qualified(Storage storage, String name) {
+    return storage.getPool().getSchema() + ".\"" + name + "\"";
+  }
+
+  /**
+   * Get name of the partition of a source.
+   *
+   * <p>Letters and digits are kept and other characters are written as {@code _} followed
+   * by two hex digits, so that names of sources do not clash.
+   * @param sourceId source identifier
+   * @return table name without schema
+   */
+  static String sourcePartition(SourceId sourceId) {
+    StringBuilder name = new StringBuilder("gr_");
+    for (char c : sourceId.toString().toCharArray()) {
+      if (Character.isLetterOrDigit(c)) {
+        name.append(Character.toLowerCase(c));
+      } else {
+        name.append(String.format("_%02x", (int) c));
+      }
+    }
+    return name.toString();
+  }
+
+  static String versionPartition(SourceId sourceId, int sourceVersion) {
+    return sourcePartition(sourceId) + "_v" + sourceVersion;
+  }
+
+  static String sourceDefaultPartition(SourceId sourceId) {
+    return sourcePartition(sourceId) + "_default";
+  }
+
+  /**
+   * Get records selected by SQL of a CQL query, if a source or source version.
+   * @param sqlWhere SQL WHERE clause for global_records
+   * @return selection; null if the clause selects anything else
+   */
+  static Selection selection(String sqlWhere) {
+    if (sqlWhere == null) {
+      return null;
+    }
+    String sourceId = null;
+    Integer sourceVersion = null;
+    // anything but the two terms joined by AND is rejected, so parentheses do not matter
+    for (String term : sqlWhere.replace("(", "").replace(")", "").split("(?i) and ")) {
+      String t = term.trim();
+      Matcher m;
+      if (sourceId == null && (m = SOURCE_ID.matcher(t)).matches()) {
+        sourceId = m.group(1);
+      } else if (sourceVersion == null && (m = SOURCE_VERSION.matcher(t)).matches()) {
+        sourceVersion = Integer.valueOf(m.group(1));
+      } else {
+        return null;
+      }
+    }
+    if (sourceId == null) {
+      return null;
+    }
+    try {
+      SourceId id = new SourceId(sourceId);
+      // source identifiers are stored in upper case; others match nothing
+      return id.toString().equals(sourceId) ? new Selection(id, sourceVersion) : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get partition with exactly the records of a selection.
+   * @param selection source or source version
+   * @return async result with qualified table name; null if there is no such partition
+   */
+  Future<String> partitionOf(Selection selection) {
+    String table = qualified(storage, selection.sourceVersion() == null
+        ? sourcePartition(selection.sourceId())
+        : versionPartition(selection.sourceId(), selection.sourceVersion()));
+    return exists(table).map(exists -> exists ? table : null);
+  }
+
+  private Future<Boolean> exists(String table) {
+    return storage.getPool().preparedQuery("SELECT to_regclass($1) IS NOT NULL")
+        .execute(Tuple.of(table))
+        .map(rowSet -> rowSet.iterator().next().getBoolean(0));
+  }
+
+  /**
+   * Give source a partition of its own.
+   *
+   * <p>Records of the source are moved from the default partition. Does nothing if the
+   * source already has a partition.
+   * @param sourceId source identifier
+   * @return async result
+   */
+  Future<Void> addSource(SourceId sourceId) {
+    String globalRecordTable = storage.getGlobalRecordTable();
+    String table = qualified(storage, sourcePartition(sourceId));
+    String defaultTable = qualified(storage, DEFAULT_PARTITION);
+    String literal = "'" + sourceId + "'";
+    return storage.getPool().preparedQuery("SELECT relkind = 'p' FROM pg_class"
+            + " WHERE oid = to_regclass($1)")
+        .execute(Tuple.of(globalRecordTable))
+        .compose(rowSet -> {
+          Row row = rowSet.size() == 0 ? null : rowSet.iterator().next();
+          if (row == null || !row.getBoolean(0)) {
+            return Future.failedFuture(globalRecordTable + " is not partitioned");
+          }
+          return exists(table);
+        })
+        .compose(exists -> {
+          if (exists) {
+            return Future.succeededFuture();
+          }
+          return storage.getPool().withTransaction(conn -> conn.query("CREATE TABLE " + table
+                  + " (LIKE " + globalRecordTable + " INCLUDING DEFAULTS)"
+                  + " PARTITION BY LIST (source_version)").execute()
+              .compose(x -> conn.query("CREATE TABLE "
+                  + qualified(storage, sourceDefaultPartition(sourceId))
+                  + " PARTITION OF " + table + " DEFAULT").execute())
+              .compose(x -> conn.query("INSERT INTO " + table + " SELECT * FROM " + defaultTable
+                  + " WHERE source_id = " + literal).execute())
+              .compose(x -> conn.query("DELETE FROM " + defaultTable
+                  + " WHERE source_id = " + literal).execute())
+              .compose(x -> conn.query("ALTER TABLE " + globalRecordTable
+                  + " ATTACH PARTITION " + table + " FOR VALUES IN (" + literal + ")").execute()))
+              .onSuccess(x -> log.info("Created partition {}", table))
+              .mapEmpty();
+        });
+  }
+
+  /**
+   * Give source version a partition of its own if it has no records yet.
+   *
+   * <p>Called before ingest of a source version. Nothing is done for sources without a
+   * partition. Failure is logged only; records then go to the default partition of the
+   * source.
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @return async result; always succeeds
+   */
+  Future<Void> prepareVersion(SourceId sourceId, int sourceVersion) {
+    String sourceTable = qualified(storage, sourcePartition(sourceId));
+    String table = qualified(storage, versionPartition(sourceId, sourceVersion));
+    return storage.getPool().preparedQuery("SELECT to_regclass($1) IS NOT NULL,"
+            + " to_regclass($2) IS NOT NULL")
+        .execute(Tuple.of(sourceTable, table))
+        .compose(rowSet -> {
+          Row row = rowSet.iterator().next();
+          if (!row.getBoolean(0) || row.getBoolean(1)) {
+            return Future.succeededFuture();
+          }
+          return storage.getPool().preparedQuery("SELECT 1 FROM "
+                  + qualified(storage, sourceDefaultPartition(sourceId))
+                  + " WHERE source_version = $1 LIMIT 1")
+              .execute(Tuple.of(sourceVersion))
+              .compose(rows -> {
+                if (rows.size() > 0) {
+                  return Future.succeededFuture();
+                }
+                return storage.getPool().query("CREATE TABLE IF NOT EXISTS " + table
+                        + " PARTITION OF " + sourceTable
+                        + " FOR VALUES IN (" + sourceVersion + ")")
+                    .execute()
+                    .onSuccess(x -> log.info("Created partition {}", table))
+                    .mapEmpty();
+              });
+        })
+        .<Void>mapEmpty()
+        .recover(e -> {
+          log.warn("No partition for {} version {}: {}", sourceId, sourceVersion,
+              e.getMessage());
+          return Future.succeededFuture();
+        });
+  }
+}
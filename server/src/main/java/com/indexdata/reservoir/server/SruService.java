@@ -18,6 +18,8 @@ public class SruService {
   private static final String RECORD_SCHEMA_MARCXML = "marcxml";
   private static final String NAMESPACE_SRU_DIAGNOSTIC = "http://docs.oasis-open.org/ns/search-ws/diagnostic";
   private static final String NAMESPACE_SRU_RESPONSE = "http://docs.oasis-open.org/ns/search-ws/sruResponse";
+  private static final String RESULT_COUNT_PRECISION =
+      "info:srw/vocabulary/resultCountPrecision/1/";
 
   private SruService() { }
 
@@ -79,7 +81,8 @@ public class SruService {
           }
           return terms.iterator().next();
         }, sql ->
-            "(" + sql + " AND " + Storage.CLUSTER_VALUES_TABLE + ".match_key_config_id = '"
+            "(" + Storage.matchValueSql(sql) + " AND " + Storage.CLUSTER_VALUES_TABLE
+            + ".match_key_config_id = '"
             + matchConfig.getId() + "')"
         ));
         return null;
@@ -129,10 +132,16 @@ public class SruService {
 
     int startRecord;
     int maximumRecords;
+    String countMethod;
     try {
       startRecord = Integer.parseInt(Util.getQueryParameter(ctx, "startRecord", "1"));
       maximumRecords = Integer.parseInt(Util.getQueryParameter(ctx, "maximumRecords", "10"));
-    } catch (NumberFormatException e) {
+      countMethod = ResultCount.method(
+          Util.getQueryParameter(ctx, "x-count", ResultCount.EXACT));
+      if (ResultCount.NONE.equals(countMethod)) {
+        throw new IllegalArgumentException("Bad count: " + countMethod);
+      }
+    } catch (IllegalArgumentException e) {
       returnDiagnostics(response, "6", "Unsupported parameter value", e.getMessage());
       return Future.succeededFuture();
     }
@@ -155,15 +164,21 @@ public class SruService {
         if (pgCqlQuery == null) {
           return Future.succeededFuture();
         }
-        return storage.getTotalRecords(ctx, pgCqlQuery)
-            .compose(totalRecords -> {
-              response.write("  <numberOfRecords>" + totalRecords + "</numberOfRecords>\n");
-              if (totalRecords > 0) {
-                return response.write("  <records>\n")
+        return storage.getTotalRecords(ctx, pgCqlQuery, countMethod)
+            .compose(total -> {
+              response.write("  <numberOfRecords>" + total.count() + "</numberOfRecords>\n");
+              Future<Void> future = Future.succeededFuture();
+              // an estimate of 0 does not mean there are no records
+              if (total.count() > 0 || !ResultCount.EXACT.equals(total.precision())) {
+                future = response.write("  <records>\n")
                   .compose(x -> getRecords(ctx, storage, pgCqlQuery, startRecord, maximumRecords))
                   .compose(x -> response.write("  </records>\n"));
               }
-              return Future.succeededFuture();
+              if (!ResultCount.EXACT.equals(total.precision())) {
+                future = future.compose(x -> response.write("  <resultCountPrecision>"
+                    + RESULT_COUNT_PRECISION + total.precision() + "</resultCountPrecision>\n"));
+              }
+              return future;
             }, e -> {
               returnDiagnostics(response, "47", "Cannot process query", e.getMessage());
               return Future.succeededFuture();
@@ -1,19 +1,19 @@
 package com.indexdata.reservoir.server;
 
-import com.indexdata.reservoir.module.ModuleCache;
 import com.indexdata.reservoir.module.ModuleExecutable;
 import com.indexdata.reservoir.module.ModuleInvocation;
 import com.indexdata.reservoir.server.entity.ClusterBuilder;
 import com.indexdata.reservoir.server.entity.CodeModuleEntity;
 import com.indexdata.reservoir.server.entity.MatchKeyConfig;
 import com.indexdata.reservoir.server.metrics.IngestMetrics;
-import com.indexdata.reservoir.server.metrics.IngestMetricsNop;
+import com.indexdata.reservoir.util.PayloadCodec;
 import com.indexdata.reservoir.util.ReadStreamConsumer;
 import com.indexdata.reservoir.util.SourceId;
 import com.indexdata.reservoir.util.readstream.LargeJsonReadStream;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -24,21 +24,31 @@ import io.vertx.sqlclient.RowSet;
 import io.vertx.sqlclient.RowStream;
 import io.vertx.sqlclient.SqlConnection;
 import io.vertx.sqlclient.Tuple;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.tlib.postgres.PgCqlQuery;
@@ -52,13 +62,20 @@ public class Storage {
   public static final String CLUSTER_META_TABLE = "cluster_meta";
   public static final String CLUSTER_RECORDS_TABLE = "cluster_records";
   public static final String CLUSTER_VALUES_TABLE = "cluster_values";
+  public static final String CLUSTER_COUNTS_TABLE = "cluster_counts";
   public static final String MODULE_TABLE = "module";
   public static final String OAI_CONFIG_TABLE = "oai_config";
   public static final String OAI_PMH_CLIENTS_TABLE = "oai_pmh_clients";
+  public static final String MATCH_KEY_INIT_TABLE = "match_key_init";
+  public static final String RECORD_JOBS_TABLE = "record_jobs";
 
   private static final Logger log = LogManager.getLogger(Storage.class);
   private static final String CREATE_IF_NO_EXISTS = "CREATE TABLE IF NOT EXISTS ";
+  private static final String TOUCH_CLUSTERS_TOO_BROAD =
+      "query too broad, must at least contain 'matchkeyId' and 'sourceId'";
   private static final int MATCHVALUE_MAX_LENGTH = 600; // < 2704 / 4
+  static final long CLUSTER_COUNTS_COMPACT_MS = 60000L;
+  private static final Pattern CQL_EXACT_MATCH = Pattern.compile("(\\S+) = ('(?:[^']|'')*')");
 
   final TenantPgPool pool;
   final String globalRecordTable;
@@ -66,12 +83,24 @@ public class Storage {
   final String clusterRecordTable;
   final String clusterValueTable;
   final String clusterMetaTable;
+  final String clusterCountTable;
   final String moduleTable;
   final String oaiConfigTable;
   final String oaiPmhClientTable;
+  final String matchKeyInitTable;
+  final String recordJobTable;
   final Vertx vertx;
   private final String tenant;
+  final MatchValueCache matchValueCache;
   static int sqlStreamFetchSize = 50;
+  // deflate level for payloads written; 0 stores them as JSONB
+  private static int payloadCompression = 0;
+  // hash partitions of global_records for new tenants; 0 for no partitioning
+  private static int sourcePartitions = 0;
+  // cluster values indexed by digest rather than by value
+  private static boolean matchValueHash = false;
+  // tenants with cluster counter rows added by this instance since they were compacted
+  private static final Set<String> clusterCountTenants = ConcurrentHashMap.newKeySet();
 
   /**
    * Create storage service for tenant.
@@ -89,9 +118,13 @@ public class Storage {
     this.clusterRecordTable = pool.getSchema() + "." + CLUSTER_RECORDS_TABLE;
     this.clusterValueTable = pool.getSchema() + "." + CLUSTER_VALUES_TABLE;
     this.clusterMetaTable = pool.getSchema() + "." + CLUSTER_META_TABLE;
+    this.clusterCountTable = pool.getSchema() + "." + CLUSTER_COUNTS_TABLE;
     this.moduleTable = pool.getSchema() + "." + MODULE_TABLE;
     this.oaiConfigTable = pool.getSchema() + "." + OAI_CONFIG_TABLE;
     this.oaiPmhClientTable = pool.getSchema() + "." + OAI_PMH_CLIENTS_TABLE;
+    this.matchKeyInitTable = pool.getSchema() + "." + MATCH_KEY_INIT_TABLE;
+    this.recordJobTable = pool.getSchema() + "." + RECORD_JOBS_TABLE;
+    this.matchValueCache = MatchValueCache.get(tenant);
   }
 
   static String getPoolKey(HttpMethod method) {
@@ -125,6 +158,10 @@ public class Storage {
     return clusterValueTable;
   }
 
+  public String getClusterCountTable() {
+    return clusterCountTable;
+  }
+
   public String getModuleTable() {
     return moduleTable;
   }
@@ -133,6 +170,14 @@ public class Storage {
     return oaiPmhClientTable;
   }
 
+  public String getMatchKeyInitTable() {
+    return matchKeyInitTable;
+  }
+
+  public String getRecordJobTable() {
+    return recordJobTable;
+  }
+
   public String getTenant() {
     return tenant;
   }
@@ -142,22 +187,55 @@ public class Storage {
    * @return async result.
    */
   public Future<Void> init() {
+    return pool.preparedQuery("SELECT relkind = 'p' FROM pg_class WHERE oid = to_regclass($1)")
+        .execute(Tuple.of(globalRecordTable))
+        .compose(rowSet -> {
+          boolean create = rowSet.size() == 0;
+          boolean partitioned = create ? sourcePartitions > 0
+              : rowSet.iterator().next().getBoolean(0);
+          if (!create && sourcePartitions > 0 && !partitioned) {
+            log.warn("{} is not partitioned; only new tenants are", globalRecordTable);
+          }
+          return init(partitioned)
+              .compose(x -> create && partitioned
+                  ? pool.execute(SourcePartitions.createDefault(this, sourcePartitions))
+                  : Future.succeededFuture());
+        })
+        .mapEmpty()
+        .compose(x -> resolveCodeModuleTable(vertx))
+        .compose(x -> configChanged());
+  }
+
+  private Future<Void> init(boolean partitioned) {
     return pool.execute(List.of(
             "SET search_path TO " + pool.getSchema(),
             CREATE_IF_NO_EXISTS + globalRecordTable
-                + "(id uuid NOT NULL PRIMARY KEY,"
+                + "(id uuid NOT NULL,"
                 + " local_id VARCHAR NOT NULL,"
                 + " source_id VARCHAR NOT NULL,"
                 + " source_version integer DEFAULT 1,"
-                + " payload JSONB NOT NULL"
-                + ")",
+                + " payload JSONB NOT NULL,"
+                // unique keys of a partitioned table must include the partition keys,
+                // also source_version by which a source partition is partitioned
+                + (partitioned
+                    ? " PRIMARY KEY (id, source_id, source_version))"
+                    + " PARTITION BY LIST (source_id)"
+                    : " PRIMARY KEY (id))"),
             "DROP INDEX IF EXISTS idx_local_id",
             "ALTER TABLE " + globalRecordTable + " ADD COLUMN IF NOT EXISTS"
                 + " source_version integer DEFAULT 1",
+            "ALTER TABLE " + globalRecordTable + " ADD COLUMN IF NOT EXISTS"
+                + " payload_hash bytea",
+            // payload is NULL when stored in payload_compressed
+            "ALTER TABLE " + globalRecordTable + " ADD COLUMN IF NOT EXISTS"
+                + " payload_compressed bytea",
+            "ALTER TABLE " + globalRecordTable + " ALTER COLUMN payload DROP NOT NULL",
             "CREATE UNIQUE INDEX IF NOT EXISTS idx_local_source ON " + globalRecordTable
                 + " (local_id, source_id, source_version)",
             "CREATE INDEX IF NOT EXISTS idx_source ON " + globalRecordTable
                 + " (source_id, source_version)",
+            "CREATE INDEX IF NOT EXISTS idx_source_id ON " + globalRecordTable
+                + " (source_id, id)",
             CREATE_IF_NO_EXISTS + matchKeyConfigTable
                 + "(id VARCHAR NOT NULL PRIMARY KEY,"
                 + " matcher VARCHAR, "
@@ -185,22 +263,44 @@ public class Storage {
                 + " match_key_config_id VARCHAR NOT NULL,"
                 + " cluster_id uuid NOT NULL,"
                 + " FOREIGN KEY(match_key_config_id) REFERENCES " + matchKeyConfigTable
-                + " ON DELETE CASCADE,"
-                + " FOREIGN KEY(record_id) REFERENCES " + globalRecordTable + " ON DELETE CASCADE)",
+                + " ON DELETE CASCADE"
+                + (partitioned ? ")" : ", FOREIGN KEY(record_id) REFERENCES " + globalRecordTable
+                    + " ON DELETE CASCADE)"),
+            "ALTER TABLE " + clusterRecordTable + " ADD COLUMN IF NOT EXISTS"
+                + " match_values VARCHAR[]",
             "CREATE UNIQUE INDEX IF NOT EXISTS cluster_record_record_matchkey_idx ON "
                 + clusterRecordTable + "(record_id, match_key_config_id)",
             "CREATE INDEX IF NOT EXISTS cluster_record_cluster_idx ON "
                 + clusterRecordTable + "(cluster_id)",
+            "CREATE INDEX IF NOT EXISTS cluster_record_matchkey_cluster_idx ON "
+                + clusterRecordTable + "(match_key_config_id, cluster_id)",
             CREATE_IF_NO_EXISTS + clusterValueTable
                 + "(cluster_id uuid NOT NULL,"
                 + " match_key_config_id VARCHAR NOT NULL,"
                 + " match_value VARCHAR NOT NULL,"
                 + " FOREIGN KEY(match_key_config_id) REFERENCES " + matchKeyConfigTable
                 + " ON DELETE CASCADE)",
-            "CREATE UNIQUE INDEX IF NOT EXISTS cluster_value_value_idx ON "
-                + clusterValueTable + "(match_key_config_id, match_value)",
+            // unique index on the value or its digest; new index created before old dropped
+            matchValueHash
+                ? "CREATE UNIQUE INDEX IF NOT EXISTS cluster_value_hash_idx ON "
+                    + clusterValueTable + "(match_key_config_id, " + matchHash("match_value") + ")"
+                : createMatchValueIndex(),
+            "DROP INDEX IF EXISTS "
+                + (matchValueHash ? "cluster_value_value_idx" : "cluster_value_hash_idx"),
             "CREATE INDEX IF NOT EXISTS cluster_value_cluster_idx ON "
                 + clusterValueTable + "(cluster_id)",
+            CREATE_IF_NO_EXISTS + clusterCountTable
+                + "(match_key_config_id VARCHAR NOT NULL,"
+                + " clusters BIGINT NOT NULL,"
+                + " FOREIGN KEY(match_key_config_id) REFERENCES " + matchKeyConfigTable
+                + " ON DELETE CASCADE)",
+            "CREATE INDEX IF NOT EXISTS cluster_count_matchkey_idx ON "
+                + clusterCountTable + "(match_key_config_id)",
+            // counters for clusters created before the counters were introduced
+            "INSERT INTO " + clusterCountTable + " (match_key_config_id, clusters)"
+                + " SELECT match_key_config_id, COUNT(*) FROM " + clusterMetaTable
+                + " WHERE NOT EXISTS (SELECT 1 FROM " + clusterCountTable + ")"
+                + " GROUP BY match_key_config_id",
             CREATE_IF_NO_EXISTS + moduleTable
                 + "(id VARCHAR NOT NULL PRIMARY KEY,"
                 + " type VARCHAR,"
@@ -216,26 +316,297 @@ public class Storage {
                 + " config JSONB NOT NULL)",
             CREATE_IF_NO_EXISTS + oaiPmhClientTable
                 + "(id VARCHAR NOT NULL PRIMARY KEY,"
-                + " config JSONB, job JSONB, stop BOOLEAN, owner UUID)"
+                + " config JSONB, job JSONB, stop BOOLEAN, owner UUID)",
+            "ALTER TABLE " + oaiPmhClientTable + " ADD COLUMN IF NOT EXISTS"
+                + " lease TIMESTAMPTZ",
+            CREATE_IF_NO_EXISTS + matchKeyInitTable
+                + "(id VARCHAR NOT NULL PRIMARY KEY,"
+                + " job JSONB,"
+                + " FOREIGN KEY(id) REFERENCES " + matchKeyConfigTable
+                + " ON DELETE CASCADE)",
+            CREATE_IF_NO_EXISTS + recordJobTable
+                + "(id UUID NOT NULL PRIMARY KEY,"
+                + " job JSONB NOT NULL, sql_where VARCHAR, stop BOOLEAN, owner UUID)"
         )
       )
-      .mapEmpty()
-      .compose(x -> resolveCodeModuleTable(vertx));
+      .mapEmpty();
   }
 
-  private Future<Boolean> upsertGlobalRecord(String localIdentifier, SourceId sourceId,
-      int sourceVersion, JsonObject payload, List<MatcherResult> matcherResults,
-      IngestMetrics ingestMetrics) {
-    return upsertGlobalRecord(matcherResults.size(), localIdentifier, sourceId,
-        sourceVersion, payload, matcherResults, ingestMetrics);
+  /**
+   * Set compression of payloads written.
+   *
+   * <p>Payloads written with compression are stored in the payload_compressed column
+   * as encoded by {@link PayloadCodec}, and payload is NULL. Records written before keep
+   * their format until written again or converted with {@link #convertPayloads}.
+   * @param level deflate level 1 to 9; 0 for no compression
+   */
+  public static void setPayloadCompression(int level) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("payload compression must be 0 to 9");
+    }
+    payloadCompression = level;
   }
 
-  private Future<Boolean> upsertGlobalRecord(int retryCount, String localIdentifier,
-      SourceId sourceId, int sourceVersion, JsonObject payload, List<MatcherResult> matcherResults,
-      IngestMetrics ingestMetrics) {
+  /**
+   * Set partitioning of global_records for tenants created from now on.
+   *
+   * <p>With partitioning, global_records is partitioned by source, and sources without a
+   * partition of their own share the given number of hash partitions. See
+   * {@link SourcePartitions}. The global_records table of existing tenants is not changed.
+   * @param partitions number of hash partitions; 0 for no partitioning
+   */
+  public static void setSourcePartitions(int partitions) {
+    if (partitions < 0) {
+      throw new IllegalArgumentException("source partitions must not be negative");
+    }
+    sourcePartitions = partitions;
+  }
+
+  /**
+   * Set whether cluster values are indexed by a digest of the match value.
+   *
+   * <p>The unique index of cluster_values is then on the 16 byte MD5 digest of the match
+   * value instead of the value itself, which keeps the index small for long match values.
+   * Match values are no longer truncated, since they need not fit in an index entry. The
+   * readable value is still stored. The index of a tenant is switched at tenant init;
+   * switching back to the value truncates long values stored meanwhile.
+   * @param hash true for digest; false for value
+   */
+  public static void setMatchValueHash(boolean hash) {
+    matchValueHash = hash;
+  }
+
+  /**
+   * Get SQL for creating the unique index on match values.
+   *
+   * <p>Values stored while the index was on the digest are not truncated. They are
+   * truncated when the index is created, in cluster_values and in cluster_records. If
+   * values of different clusters would then be the same, the clusters would have to be
+   * merged; the index is not created, and tenant init fails.
+   * @return SQL statement
+   */
+  private String createMatchValueIndex() {
+    String truncated = "left(match_value, " + MATCHVALUE_MAX_LENGTH + ")";
+    return "DO $$ DECLARE keys VARCHAR; BEGIN"
+        + " IF to_regclass('" + pool.getSchema() + ".cluster_value_value_idx') IS NULL THEN"
+        + " SELECT string_agg(DISTINCT match_key_config_id, ', ') INTO keys"
+        + " FROM (SELECT match_key_config_id FROM " + clusterValueTable
+        + " GROUP BY match_key_config_id, " + truncated + " HAVING COUNT(*) > 1) AS c;"
+        + " IF keys IS NOT NULL THEN"
+        + " RAISE EXCEPTION 'Can not set match.value.hash=false: match values of match keys %"
+        + " are the same when truncated to " + MATCHVALUE_MAX_LENGTH + " characters', keys;"
+        + " END IF;"
+        + " UPDATE " + clusterValueTable + " SET match_value = " + truncated
+        + " WHERE length(match_value) > " + MATCHVALUE_MAX_LENGTH + ";"
+        + " UPDATE " + clusterRecordTable + " SET match_values ="
+        + " ARRAY(SELECT DISTINCT left(v, " + MATCHVALUE_MAX_LENGTH + ")"
+        + " FROM unnest(match_values) AS v)"
+        + " WHERE EXISTS (SELECT 1 FROM unnest(match_values) AS v"
+        + " WHERE length(v) > " + MATCHVALUE_MAX_LENGTH + ");"
+        + " CREATE UNIQUE INDEX cluster_value_value_idx ON " + clusterValueTable
+        + " (match_key_config_id, match_value);"
+        + " END IF; END $$";
+  }
+
+  /**
+   * Get SQL expression for the digest of a match value as used in the index.
+   * @param value SQL expression of type VARCHAR
+   * @return SQL expression
+   */
+  static String matchHash(String value) {
+    return "decode(md5(" + value + "), 'hex')";
+  }
+
+  /**
+   * Get SQL condition for match value lookup.
+   *
+   * <p>The condition includes the digest when cluster values are indexed by digest, so
+   * that the index is used.
+   * @param column match value column
+   * @param value SQL expression with the value to look for
+   * @return SQL condition
+   */
+  static String matchValueEquals(String column, String value) {
+    String sql = column + " = " + value;
+    if (!matchValueHash) {
+      return sql;
+    }
+    return "(" + matchHash(column) + " = " + matchHash(value + "::varchar") + " AND " + sql + ")";
+  }
+
+  /**
+   * Get SQL condition for match value lookup of several values.
+   * @param column match value column
+   * @param values SQL expression with the array of values to look for
+   * @return SQL condition
+   */
+  static String matchValueIn(String column, String values) {
+    String sql = column + " = ANY(" + values + ")";
+    if (!matchValueHash) {
+      return sql;
+    }
+    return "(" + matchHash(column) + " = ANY(ARRAY(SELECT " + matchHash("mv")
+        + " FROM unnest(" + values + "::varchar[]) AS mv)) AND " + sql + ")";
+  }
+
+  /**
+   * Make SQL of a CQL match value search use the digest.
+   * @param sql SQL for CQL term; an exact match is of the form {@code column = 'literal'}
+   * @return SQL with digest condition for exact match; unmodified sql otherwise
+   */
+  static String matchValueSql(String sql) {
+    Matcher m = CQL_EXACT_MATCH.matcher(sql);
+    return m.matches() ? matchValueEquals(m.group(1), m.group(2)) : sql;
+  }
+
+  /**
+   * Get payload for the payload column.
+   * @param payload payload to write
+   * @return payload; null if payload is to be stored compressed
+   */
+  static JsonObject payloadJson(JsonObject payload) {
+    return payloadCompression == 0 ? payload : null;
+  }
+
+  /**
+   * Get payload for the payload_compressed column.
+   * @param payload payload to write
+   * @return encoded payload; null if payload is to be stored as JSONB
+   */
+  static Buffer payloadCompressed(JsonObject payload) {
+    return payloadCompression == 0 ? null : PayloadCodec.encode(payload, payloadCompression);
+  }
+
+  /**
+   * Convert stored payloads to the format used for writing.
+   *
+   * <p>Records are converted in transactions of a batch of records each, so that ingest
+   * may go on while converting. Batches are taken in order of record identifier, each
+   * starting after the last one of the previous batch. Records locked by ingest are
+   * skipped; ingest writes them in the current format anyway.
+   * @param batchSize number of records per transaction
+   * @return async result with number of records converted
+   */
+  public Future<Long> convertPayloads(int batchSize) {
+    return convertPayloads(batchSize, 0L, new UUID(0L, 0L));
+  }
+
+  private Future<Long> convertPayloads(int batchSize, long total, UUID after) {
+    boolean compress = payloadCompression != 0;
+    String other = compress ? "payload" : "payload_compressed";
+    AtomicReference<UUID> last = new AtomicReference<>();
+    return pool.withTransaction(conn -> conn.preparedQuery("SELECT id, payload,"
+                + " payload_compressed FROM " + globalRecordTable
+                + " WHERE id > $1 AND " + other + " IS NOT NULL"
+                + " ORDER BY id LIMIT $2 FOR UPDATE SKIP LOCKED")
+            .execute(Tuple.of(after, batchSize))
+            .compose(rowSet -> vertx.executeBlocking(() -> {
+              List<UUID> ids = new ArrayList<>();
+              List<Object> payloads = new ArrayList<>();
+              for (Row row : rowSet) {
+                ids.add(row.getUUID("id"));
+                last.set(row.getUUID("id"));
+                if (compress) {
+                  payloads.add(payloadCompressed(row.getJsonObject("payload")));
+                } else {
+                  payloads.add(PayloadCodec.decode(row.getBuffer("payload_compressed"))
+                      .encode());
+                }
+              }
+              return Tuple.of(ids.toArray(new UUID[0]), compress
+                  ? payloads.toArray(new Buffer[0]) : payloads.toArray(new String[0]));
+            }, false))
+            .compose(tuple -> conn.preparedQuery("UPDATE " + globalRecordTable + " AS g"
+                    + (compress
+                    ? " SET payload = NULL, payload_compressed = u.p"
+                    + " FROM unnest($1::uuid[], $2::bytea[]) AS u(id, p)"
+                    : " SET payload = u.p::jsonb, payload_compressed = NULL"
+                    + " FROM unnest($1::uuid[], $2::text[]) AS u(id, p)")
+                    + " WHERE g.id = u.id")
+                .execute(tuple)))
+        .compose(rowSet -> {
+          if (rowSet.rowCount() == 0) {
+            return Future.succeededFuture(total);
+          }
+          long converted = total + rowSet.rowCount();
+          log.info("Payloads converted: {}", converted);
+          return convertPayloads(batchSize, converted, last.get());
+        });
+  }
+
+  /**
+   * Compute digest of payload and the matchers it is ingested with.
+   *
+   * <p>The matchers are included so that a record is matched again when a match key or
+   * its module changes. The digest is taken over the JSON encoding, so the same content
+   * with members in another order gives another digest. That only costs a write, since a
+   * record from the same source is produced the same way each time.
+   * @param payload payload JSON object
+   * @param ingestMatchers match key configurations in use
+   * @return SHA-256 digest
+   */
+  static Buffer payloadHash(JsonObject payload, List<IngestMatcher> ingestMatchers) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(payload.toBuffer().getBytes());
+      // matchers are in no particular order
+      List<IngestMatcher> sorted = new ArrayList<>(ingestMatchers);
+      sorted.sort(Comparator.comparing(m -> m.matchKeyId,
+          Comparator.nullsFirst(Comparator.naturalOrder())));
+      for (IngestMatcher ingestMatcher : sorted) {
+        md.update((byte) 0);
+        if (ingestMatcher.fingerprint != null) {
+          md.update(ingestMatcher.fingerprint.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      return Buffer.buffer(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get key of the advisory lock of a source version.
+   *
+   * <p>Regular ingest takes the lock shared in each transaction that writes records, see
+   * {@link #lockSourceVersion}. A bulk load holds it exclusively for the whole load, see
+   * {@link BulkIngest}.
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @return lock key, to be hashed with hashtext
+   */
+  String sourceVersionLockKey(SourceId sourceId, int sourceVersion) {
+    return globalRecordTable + "/" + sourceId + "/" + sourceVersion;
+  }
+
+  /**
+   * Take advisory lock of source version shared until the end of the transaction.
+   * @param conn connection in transaction
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @return async result; completes when a bulk load of the source version is done
+   */
+  Future<Void> lockSourceVersion(SqlConnection conn, SourceId sourceId, int sourceVersion) {
+    return conn.preparedQuery("SELECT pg_advisory_xact_lock_shared(hashtext($1))")
+        .execute(Tuple.of(sourceVersionLockKey(sourceId, sourceVersion)))
+        .mapEmpty();
+  }
+
+  private Future<IngestResult> upsertGlobalRecord(JsonObject globalRecord,
+      String localIdentifier, SourceId sourceId, int sourceVersion, JsonObject payload,
+      Buffer payloadHash, List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics) {
+    return upsertGlobalRecord(ingestMatchers.size(), globalRecord, localIdentifier, sourceId,
+        sourceVersion, payload, payloadHash, ingestMatchers, ingestMetrics);
+  }
+
+  private Future<IngestResult> upsertGlobalRecord(int retryCount, JsonObject globalRecord,
+      String localIdentifier, SourceId sourceId, int sourceVersion, JsonObject payload,
+      Buffer payloadHash, List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics) {
+    MatchValueCache.Updates cacheUpdates = new MatchValueCache.Updates();
     return pool.withTransaction(conn ->
-            upsertGlobalRecord(conn, localIdentifier, sourceId, sourceVersion,
-                payload, matcherResults, ingestMetrics))
+            upsertGlobalRecord(conn, globalRecord, localIdentifier, sourceId, sourceVersion,
+                payload, payloadHash, ingestMatchers, ingestMetrics, cacheUpdates))
+        .onSuccess(x -> applyMatchValues(cacheUpdates))
         // addValuesToCluster may fail if for same new match key for parallel operations
         // we recover just once for that. 2nd will find the new value for the one that
         // succeeded.
@@ -243,27 +614,74 @@ public class Storage {
           if (retryCount == 0) {
             return Future.failedFuture(e);
           }
-          return upsertGlobalRecord(retryCount - 1, localIdentifier, sourceId, sourceVersion,
-              payload, matcherResults, ingestMetrics);
+          return upsertGlobalRecord(retryCount - 1, globalRecord, localIdentifier, sourceId,
+              sourceVersion, payload, payloadHash, ingestMatchers, ingestMetrics);
         });
   }
 
-  Future<Boolean> upsertGlobalRecord(SqlConnection conn, String localIdentifier,
-      SourceId sourceId, int sourceVersion, JsonObject payload, List<MatcherResult> matcherResults,
-      IngestMetrics ingestMetrics) {
+  /**
+   * Insert or update global record and its match values unless the payload is as stored.
+   *
+   * <p>The payload hash is compared by the upsert itself, so the outcome holds in the
+   * transaction. Matchers are only run for records that are written.
+   * @param conn connection in transaction
+   * @param globalRecord global record JSON object, as given to matchers
+   * @param localIdentifier local identifier
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param payload payload of record
+   * @param payloadHash hash of payload and matchers, see {@link #payloadHash}
+   * @param ingestMatchers match key configurations in use
+   * @param ingestMetrics ingest metrics collector
+   * @param cacheUpdates match value cache updates to apply on commit
+   * @return async result with INSERTED, UPDATED or UNCHANGED
+   */
+  @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
+  Future<IngestResult> upsertGlobalRecord(SqlConnection conn, JsonObject globalRecord,
+      String localIdentifier, SourceId sourceId, int sourceVersion, JsonObject payload,
+      Buffer payloadHash, List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics,
+      MatchValueCache.Updates cacheUpdates) {
     UUID startId = UUID.randomUUID();
-    return conn.preparedQuery(
-            "INSERT INTO " + globalRecordTable
-                + " (id, local_id, source_id, source_version, payload)"
-                + " VALUES ($1, $2, $3, $4, $5)"
-                + " ON CONFLICT (local_id, source_id, source_version) DO UPDATE "
-                + " SET payload = $5"
-                + " RETURNING id"
-        )
-        .execute(Tuple.of(startId, localIdentifier, sourceId.toString(), sourceVersion, payload))
-        .map(rowSet -> rowSet.iterator().next().getUUID("id"))
-        .compose(id -> updateMatchKeyValues(conn, id, matcherResults, ingestMetrics)
-            .map(x -> id.equals(startId)));
+    return lockSourceVersion(conn, sourceId, sourceVersion)
+        .compose(x -> conn.preparedQuery(
+                "INSERT INTO " + globalRecordTable + " AS g"
+                    + " (id, local_id, source_id, source_version, payload, payload_hash,"
+                    + " payload_compressed)"
+                    + " VALUES ($1, $2, $3, $4, $5, $6, $7)"
+                    + " ON CONFLICT (local_id, source_id, source_version) DO UPDATE "
+                    + " SET payload = $5, payload_hash = $6, payload_compressed = $7"
+                    + " WHERE g.payload_hash IS DISTINCT FROM EXCLUDED.payload_hash"
+                    + " RETURNING id"
+            )
+            .execute(Tuple.of(startId, localIdentifier, sourceId.toString(), sourceVersion,
+                payloadJson(payload), payloadHash, payloadCompressed(payload))))
+        .compose(rowSet -> {
+          if (rowSet.size() == 0) {
+            return Future.succeededFuture(IngestResult.UNCHANGED);
+          }
+          UUID id = rowSet.iterator().next().getUUID("id");
+          boolean inserted = id.equals(startId);
+          return runMatchers(ingestMatchers, ingestMetrics, globalRecord)
+              .compose(results -> updateMatchKeyValues(conn, id, inserted, results,
+                  cacheUpdates))
+              .map(inserted ? IngestResult.INSERTED : IngestResult.UPDATED);
+        });
+  }
+
+  /**
+   * Get SQL for deleting global records with their cluster records.
+   *
+   * <p>The foreign key of cluster_records deletes them too, but a partitioned global_records
+   * has no such foreign key. Every delete of global records must therefore use this or
+   * delete the cluster records itself, as done when a partition is truncated or dropped;
+   * otherwise cluster records of deleted records are left behind.
+   * @param sqlWhere SQL WHERE clause for global records
+   * @return SQL statement
+   */
+  String deleteRecords(String sqlWhere) {
+    return "WITH d AS (DELETE FROM " + globalRecordTable + " WHERE " + sqlWhere
+        + " RETURNING id) DELETE FROM " + clusterRecordTable
+        + " WHERE record_id IN (SELECT id FROM d)";
   }
 
   Future<Void> deleteGlobalRecord(String localIdentifier, SourceId sourceId, int sourceVersion) {
@@ -276,8 +694,8 @@ public class Storage {
         conn.preparedQuery(q)
           .execute(Tuple.of(localIdentifier, sourceId.toString(), sourceVersion,
               LocalDateTime.now(ZoneOffset.UTC)))
-          .compose(x -> conn.preparedQuery("DELETE FROM " + globalRecordTable
-                  + " WHERE local_id = $1 AND source_id = $2 and source_version = $3")
+          .compose(x -> conn.preparedQuery(deleteRecords(
+                  "local_id = $1 AND source_id = $2 and source_version = $3"))
           .execute(Tuple.of(localIdentifier, sourceId.toString(), sourceVersion))
           .mapEmpty()));
   }
@@ -290,9 +708,9 @@ public class Storage {
    * @param globalRecord global record JSON object
    * @param ingestMatchers match key configurations in use
    * @param ingestMetrics ingest metrics collector
-   * @return async result with TRUE=inserted, FALSE=updated, null=deleted
+   * @return async result with outcome
    */
-  Future<Boolean> ingestGlobalRecord(Vertx vertx,
+  Future<IngestResult> ingestGlobalRecord(Vertx vertx,
       SourceId sourceId, int sourceVersion, JsonObject globalRecord,
       List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics) {
 
@@ -304,7 +722,7 @@ public class Storage {
         );
   }
 
-  private Future<Boolean> ingestGlobalRecord2(Vertx vertx,
+  private Future<IngestResult> ingestGlobalRecord2(Vertx vertx,
       SourceId sourceId, int sourceVersion, JsonObject globalRecord,
       List<IngestMatcher> ingestMatchers, IngestMetrics ingestMetrics) {
 
@@ -317,7 +735,7 @@ public class Storage {
       return deleteGlobalRecord(localIdentifier, sourceId, sourceVersion)
         .map(x -> {
           ingestMetrics.incrementRecordsDeleted();
-          return null;
+          return IngestResult.DELETED;
         });
     }
     final JsonObject payload = globalRecord.getJsonObject(ClusterBuilder.PAYLOAD_LABEL);
@@ -329,26 +747,331 @@ public class Storage {
       ingestMetrics.incrementRecordsIgnored();
       return Future.failedFuture("sourceId required");
     }
+    Buffer payloadHash = payloadHash(payload, ingestMatchers);
+    return upsertGlobalRecord(globalRecord, localIdentifier, sourceId, sourceVersion,
+        payload, payloadHash, ingestMatchers, ingestMetrics)
+        .onSuccess(result -> {
+          if (result == IngestResult.INSERTED) {
+            ingestMetrics.incrementRecordsInserted();
+          } else if (result == IngestResult.UPDATED) {
+            ingestMetrics.incrementRecordsUpdated();
+          } else {
+            ingestMetrics.incrementRecordsUnchanged();
+          }
+        });
+  }
+
+  Future<List<MatcherResult>> runMatchers(List<IngestMatcher> ingestMatchers,
+      IngestMetrics ingestMetrics, JsonObject globalRecord) {
     List<Future<MatcherResult>> futures = new ArrayList<>();
     for (IngestMatcher ingestMatcher : ingestMatchers) {
       futures.add(runMatcher(ingestMatcher, ingestMetrics, globalRecord));
     }
-    return Future.all(futures).compose(cf -> {
+    return Future.all(futures).map(cf -> {
       List<MatcherResult> results = new ArrayList<>(cf.size());
       for (int i = 0; i < cf.size(); i++) {
         results.add((MatcherResult) cf.resultAt(i));
       }
-      return upsertGlobalRecord(localIdentifier, sourceId, sourceVersion,
-          payload, results, ingestMetrics)
-        .map(inserted -> {
-          if (inserted) {
-            ingestMetrics.incrementRecordsInserted();
-          } else {
-            ingestMetrics.incrementRecordsUpdated();
+      return results;
+    });
+  }
+
+  static class BatchRecord {
+    final String localId;
+    final JsonObject payload; // null for delete
+    final Buffer payloadHash; // null for delete
+    final List<MatcherResult> matcherResults;
+    UUID globalId;
+    boolean inserted;
+
+    BatchRecord(String localId, JsonObject payload, Buffer payloadHash,
+        List<MatcherResult> matcherResults) {
+      this.localId = localId;
+      this.payload = payload;
+      this.payloadHash = payloadHash;
+      this.matcherResults = matcherResults;
+    }
+  }
+
+  /**
+   * Insert/update/delete global records in one transaction.
+   *
+   * <p>The batch fails as a whole if one of the records fails.
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param globalRecords global record JSON objects
+   * @param ingestMatchers match key configurations in use
+   * @param ingestMetrics ingest metrics collector
+   * @return async result with outcome for each record
+   */
+  Future<List<IngestResult>> ingestGlobalRecords(SourceId sourceId, int sourceVersion,
+      List<JsonObject> globalRecords, List<IngestMatcher> ingestMatchers,
+      IngestMetrics ingestMetrics) {
+
+    long startTime = System.nanoTime();
+    return ingestGlobalRecords2(sourceId, sourceVersion, globalRecords,
+        ingestMatchers, ingestMetrics)
+        .onComplete(x -> {
+          long perRecord = (System.nanoTime() - startTime) / Math.max(1, globalRecords.size());
+          for (int i = 0; i < globalRecords.size(); i++) {
+            ingestMetrics.recordStoring(perRecord, TimeUnit.NANOSECONDS);
           }
-          return inserted;
         });
-    });
+  }
+
+  private Future<List<IngestResult>> ingestGlobalRecords2(SourceId sourceId, int sourceVersion,
+      List<JsonObject> globalRecords, List<IngestMatcher> ingestMatchers,
+      IngestMetrics ingestMetrics) {
+
+    List<String> localIds = new ArrayList<>(globalRecords.size());
+    for (JsonObject globalRecord : globalRecords) {
+      String localId = globalRecord.getString(ClusterBuilder.LOCAL_ID_LABEL);
+      if (localId == null) {
+        ingestMetrics.incrementRecordsIgnored();
+        return Future.failedFuture("localId required");
+      }
+      localIds.add(localId);
+      if (Boolean.TRUE.equals(globalRecord.getBoolean("delete"))) {
+        continue;
+      }
+      if (globalRecord.getJsonObject(ClusterBuilder.PAYLOAD_LABEL) == null) {
+        ingestMetrics.incrementRecordsIgnored();
+        return Future.failedFuture("payload required");
+      }
+      if (sourceId == null) {
+        ingestMetrics.incrementRecordsIgnored();
+        return Future.failedFuture("sourceId required");
+      }
+    }
+    return storedPayloadHashes(sourceId, sourceVersion, localIds)
+        .compose(storedHashes -> {
+          int size = globalRecords.size();
+          Buffer[] hashes = new Buffer[size];
+          List<Future<List<MatcherResult>>> futures = new ArrayList<>(size);
+          // a repeated local identifier is stored, even if its payload is as stored
+          Set<String> seen = new HashSet<>();
+          for (int i = 0; i < size; i++) {
+            JsonObject globalRecord = globalRecords.get(i);
+            boolean first = seen.add(localIds.get(i));
+            if (Boolean.TRUE.equals(globalRecord.getBoolean("delete"))) {
+              futures.add(Future.succeededFuture(Collections.emptyList()));
+              continue;
+            }
+            hashes[i] = payloadHash(globalRecord.getJsonObject(ClusterBuilder.PAYLOAD_LABEL),
+                ingestMatchers);
+            if (first && hashes[i].equals(storedHashes.get(localIds.get(i)))) {
+              futures.add(Future.succeededFuture(null)); // unchanged
+              continue;
+            }
+            futures.add(runMatchers(ingestMatchers, ingestMetrics, globalRecord));
+          }
+          return Future.all(futures).compose(cf -> {
+            List<BatchRecord> batchRecords = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+              List<MatcherResult> matcherResults = cf.resultAt(i);
+              JsonObject payload = hashes[i] == null
+                  ? null : globalRecords.get(i).getJsonObject(ClusterBuilder.PAYLOAD_LABEL);
+              batchRecords.add(matcherResults == null
+                  ? null : new BatchRecord(localIds.get(i), payload, hashes[i], matcherResults));
+            }
+            List<BatchRecord> upserts = new ArrayList<>(batchRecords);
+            upserts.removeIf(Objects::isNull);
+            return upsertGlobalRecords(ingestMatchers.size(), sourceId, sourceVersion, upserts)
+                .map(x -> {
+                  List<IngestResult> results = new ArrayList<>(size);
+                  for (BatchRecord batchRecord : batchRecords) {
+                    if (batchRecord == null) {
+                      ingestMetrics.incrementRecordsUnchanged();
+                      results.add(IngestResult.UNCHANGED);
+                    } else if (batchRecord.payload == null) {
+                      ingestMetrics.incrementRecordsDeleted();
+                      results.add(IngestResult.DELETED);
+                    } else if (batchRecord.inserted) {
+                      ingestMetrics.incrementRecordsInserted();
+                      results.add(IngestResult.INSERTED);
+                    } else {
+                      ingestMetrics.incrementRecordsUpdated();
+                      results.add(IngestResult.UPDATED);
+                    }
+                  }
+                  return results;
+                });
+          });
+        });
+  }
+
+  /**
+   * Get payload digests of stored records.
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param localIds local identifiers
+   * @return async result with digest for each local identifier that has one
+   */
+  Future<Map<String, Buffer>> storedPayloadHashes(SourceId sourceId, int sourceVersion,
+      List<String> localIds) {
+    if (sourceId == null || localIds.isEmpty()) {
+      return Future.succeededFuture(Collections.emptyMap());
+    }
+    return pool.preparedQuery("SELECT local_id, payload_hash FROM " + globalRecordTable
+            + " WHERE local_id = ANY($1) AND source_id = $2 AND source_version = $3"
+            + " AND payload_hash IS NOT NULL")
+        .execute(Tuple.of(localIds.toArray(new String[0]), sourceId.toString(), sourceVersion))
+        .map(rowSet -> {
+          Map<String, Buffer> hashes = new HashMap<>();
+          rowSet.forEach(row -> hashes.put(row.getString("local_id"),
+              row.getBuffer("payload_hash")));
+          return hashes;
+        });
+  }
+
+  private Future<Void> upsertGlobalRecords(int retryCount, SourceId sourceId, int sourceVersion,
+      List<BatchRecord> batchRecords) {
+    if (batchRecords.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    MatchValueCache.Updates cacheUpdates = new MatchValueCache.Updates();
+    return pool.withTransaction(conn ->
+            upsertGlobalRecords(conn, sourceId, sourceVersion, batchRecords, cacheUpdates))
+        .onSuccess(x -> applyMatchValues(cacheUpdates))
+        // concurrent batches may insert the same new match values; a retry will see them
+        .recover(e -> {
+          if (retryCount == 0) {
+            return Future.failedFuture(e);
+          }
+          return upsertGlobalRecords(retryCount - 1, sourceId, sourceVersion, batchRecords);
+        });
+  }
+
+  Future<Void> upsertGlobalRecords(SqlConnection conn, SourceId sourceId, int sourceVersion,
+      List<BatchRecord> batchRecords, MatchValueCache.Updates cacheUpdates) {
+    Future<Void> future = lockSourceVersion(conn, sourceId, sourceVersion);
+    for (List<BatchRecord> segment : segments(batchRecords)) {
+      future = future.compose(x -> upsertSegment(conn, sourceId, sourceVersion, segment,
+          cacheUpdates));
+    }
+    return future;
+  }
+
+  /**
+   * Split batch where a local identifier repeats.
+   *
+   * <p>A multi-row insert can not touch the same row twice.
+   * @param batchRecords records in batch
+   * @return segments, each with unique local identifiers
+   */
+  static List<List<BatchRecord>> segments(List<BatchRecord> batchRecords) {
+    List<List<BatchRecord>> segments = new ArrayList<>();
+    Set<String> localIds = new HashSet<>();
+    int start = 0;
+    for (int i = 0; i < batchRecords.size(); i++) {
+      if (!localIds.add(batchRecords.get(i).localId)) {
+        segments.add(batchRecords.subList(start, i));
+        localIds.clear();
+        localIds.add(batchRecords.get(i).localId);
+        start = i;
+      }
+    }
+    segments.add(batchRecords.subList(start, batchRecords.size()));
+    return segments;
+  }
+
+  private Future<Void> upsertSegment(SqlConnection conn, SourceId sourceId, int sourceVersion,
+      List<BatchRecord> batchRecords, MatchValueCache.Updates cacheUpdates) {
+    List<String> deletes = new ArrayList<>();
+    List<BatchRecord> upserts = new ArrayList<>();
+    for (BatchRecord batchRecord : batchRecords) {
+      if (batchRecord.payload == null) {
+        deletes.add(batchRecord.localId);
+      } else {
+        upserts.add(batchRecord);
+      }
+    }
+    return deleteGlobalRecordsByLocalIds(conn, deletes, sourceId, sourceVersion)
+        .compose(x -> insertGlobalRecords(conn, upserts, sourceId, sourceVersion))
+        .compose(x -> {
+          ClusterBatchUpdater updater = new ClusterBatchUpdater(this, conn, cacheUpdates);
+          for (BatchRecord batchRecord : upserts) {
+            batchRecord.matcherResults.forEach(r -> updater.add(batchRecord.globalId, r));
+          }
+          return updater.execute();
+        });
+  }
+
+  Future<Void> deleteGlobalRecordsByLocalIds(SqlConnection conn, List<String> localIds,
+      SourceId sourceId, int sourceVersion) {
+    if (localIds.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    String[] ids = localIds.toArray(new String[0]);
+    String q = "UPDATE " + clusterMetaTable + " AS m"
+        + " SET datestamp = $4"
+        + " FROM " + globalRecordTable + ", " + clusterRecordTable + " AS r"
+        + " WHERE m.cluster_id = r.cluster_id AND r.record_id = id"
+        + " AND local_id = ANY($1) AND source_id = $2 and source_version = $3";
+    return conn.preparedQuery(q)
+        .execute(Tuple.of(ids, sourceId.toString(), sourceVersion,
+            LocalDateTime.now(ZoneOffset.UTC)))
+        .compose(x -> conn.preparedQuery(deleteRecords(
+                "local_id = ANY($1) AND source_id = $2 and source_version = $3"))
+            .execute(Tuple.of(ids, sourceId.toString(), sourceVersion)))
+        .mapEmpty();
+  }
+
+  /**
+   * Insert or update records of a batch.
+   *
+   * <p>Columns are bound as arrays to unnest(), so the number of bind parameters does not
+   * grow with the batch size. Sets global identifier and inserted flag of each record.
+   * @param conn connection in transaction
+   * @param batchRecords records with payload and unique local identifiers
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @return async result
+   */
+  Future<Void> insertGlobalRecords(SqlConnection conn, List<BatchRecord> batchRecords,
+      SourceId sourceId, int sourceVersion) {
+    if (batchRecords.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    UUID[] ids = new UUID[batchRecords.size()];
+    String[] localIds = new String[batchRecords.size()];
+    String[] payloads = new String[batchRecords.size()];
+    Buffer[] payloadHashes = new Buffer[batchRecords.size()];
+    Buffer[] compressed = new Buffer[batchRecords.size()];
+    Map<String, BatchRecord> byLocalId = new HashMap<>();
+    for (int i = 0; i < batchRecords.size(); i++) {
+      BatchRecord batchRecord = batchRecords.get(i);
+      batchRecord.globalId = UUID.randomUUID();
+      ids[i] = batchRecord.globalId;
+      localIds[i] = batchRecord.localId;
+      JsonObject payload = payloadJson(batchRecord.payload);
+      payloads[i] = payload == null ? null : payload.encode();
+      payloadHashes[i] = batchRecord.payloadHash;
+      compressed[i] = payloadCompressed(batchRecord.payload);
+      byLocalId.put(batchRecord.localId, batchRecord);
+    }
+    return conn.preparedQuery("INSERT INTO " + globalRecordTable
+            + " (id, local_id, source_id, source_version, payload, payload_hash,"
+            + " payload_compressed)"
+            + " SELECT u.id, u.local_id, $1, $2, u.payload::jsonb, u.payload_hash,"
+            + " u.payload_compressed"
+            + " FROM unnest($3::uuid[], $4::varchar[], $5::text[], $6::bytea[], $7::bytea[])"
+            + " AS u(id, local_id, payload, payload_hash, payload_compressed)"
+            + " ON CONFLICT (local_id, source_id, source_version) DO UPDATE"
+            + " SET payload = EXCLUDED.payload, payload_hash = EXCLUDED.payload_hash,"
+            + " payload_compressed = EXCLUDED.payload_compressed"
+            + " RETURNING id, local_id")
+        .execute(Tuple.of(sourceId.toString(), sourceVersion, ids, localIds, payloads,
+            payloadHashes, compressed))
+        .map(rowSet -> {
+          rowSet.forEach(row -> {
+            BatchRecord batchRecord = byLocalId.get(row.getString("local_id"));
+            UUID id = row.getUUID("id");
+            batchRecord.inserted = id.equals(batchRecord.globalId);
+            batchRecord.globalId = id;
+          });
+          return null;
+        });
   }
 
   Future<MatcherResult> runMatcher(IngestMatcher ingestMatcher, IngestMetrics ingestMetrics,
@@ -363,8 +1086,10 @@ public class Storage {
       }
       return ingestMatcher.moduleExecutable.executeAsCollection(globalRecord)
           .map(values -> {
-            values.forEach(k -> result.keys.add(k.length() > MATCHVALUE_MAX_LENGTH
-                ? k.substring(0, MATCHVALUE_MAX_LENGTH) : k));
+            // digests have no length limit; value index entries do
+            values.forEach(k -> result.keys.add(
+                !matchValueHash && k.length() > MATCHVALUE_MAX_LENGTH
+                    ? k.substring(0, MATCHVALUE_MAX_LENGTH) : k));
             ingestMetrics.recordMatcher(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
             return result;
           });
@@ -372,16 +1097,24 @@ public class Storage {
     return Future.succeededFuture(result);
   }
 
-  Future<Void> updateMatchKeyValues(SqlConnection conn, UUID globalId,
-      List<MatcherResult> matcherResults, IngestMetrics ingestMetrics) {
-    List<Future<Void>> futures = new ArrayList<>();
-    for (MatcherResult matcherResult : matcherResults) {
-      futures.add(updateClusterForRecord(conn, globalId, matcherResult));
-    }
-    return Future.all(futures).mapEmpty();
+  Future<Void> updateMatchKeyValues(SqlConnection conn, UUID globalId, boolean inserted,
+      List<MatcherResult> matcherResults, MatchValueCache.Updates cacheUpdates) {
+    Future<MatchValueDiff> diffFuture = inserted
+        ? Future.succeededFuture(MatchValueDiff.empty(this))
+        : MatchValueDiff.load(this, conn, List.of(globalId));
+    return diffFuture.compose(diff -> {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (MatcherResult matcherResult : matcherResults) {
+        if (diff.changed(globalId, matcherResult)) {
+          futures.add(updateClusterForRecord(conn, globalId, matcherResult, cacheUpdates));
+        }
+      }
+      return Future.all(futures).compose(x -> diff.execute(conn, cacheUpdates));
+    });
   }
 
-  Future<IngestMatcher> createIngestMatcher(MatchKeyConfig matchKeyConfig, Vertx vertx) {
+  Future<IngestMatcher> createIngestMatcher(ConfigSnapshot snapshot,
+      MatchKeyConfig matchKeyConfig, Vertx vertx) {
     IngestMatcher ingestMatcher = new IngestMatcher();
 
     String argsType = matchKeyConfig.getArgs();
@@ -391,25 +1124,24 @@ public class Storage {
     String matcherProp = matchKeyConfig.getMatcher();
     if (matcherProp != null) {
       ModuleInvocation invocation = new ModuleInvocation(matcherProp);
-      return selectCodeModuleEntity(invocation.getModuleName())
-          .compose(entity -> {
-            if (entity == null) {
+      return snapshot.getExecutable(vertx, invocation)
+          .compose(executable -> {
+            if (executable == null) {
               return Future.failedFuture(
                   "Module '" + invocation.getModuleName()
                       + "' does not exist for '" + invocation + "'");
             }
-            return ModuleCache.getInstance().lookup(tenant, entity)
-              .compose(module -> {
-                ingestMatcher.moduleExecutable = new ModuleExecutable(module, invocation, vertx);
-                return Future.succeededFuture(ingestMatcher);
-              });
+            ingestMatcher.moduleExecutable = executable;
+            ingestMatcher.fingerprint = matchKeyConfig.toJson().encode()
+                + snapshot.getModule(invocation.getModuleName()).asJson().encode();
+            return Future.succeededFuture(ingestMatcher);
           });
     }
     return Future.failedFuture("match key config must include 'matcher'");
   }
 
-  Future<List<IngestMatcher>> createIngestMatchers(List<MatchKeyConfig> matchKeyConfigs,
-      Vertx vertx) {
+  Future<List<IngestMatcher>> createIngestMatchers(ConfigSnapshot snapshot,
+      List<MatchKeyConfig> matchKeyConfigs, Vertx vertx) {
     List<Future<IngestMatcher>> futures = new ArrayList<>();
     for (int i = 0; i < matchKeyConfigs.size(); i++) {
       MatchKeyConfig matchKeyConfig = matchKeyConfigs.get(i);
@@ -417,7 +1149,7 @@ public class Storage {
       if ("manual".equals(update)) {
         continue;
       }
-      futures.add(createIngestMatcher(matchKeyConfig, vertx));
+      futures.add(createIngestMatcher(snapshot, matchKeyConfig, vertx));
     }
     return Future.all(futures).map(composite -> {
       List<IngestMatcher> ingestMatchers = new ArrayList<>();
@@ -429,8 +1161,9 @@ public class Storage {
   }
 
   Future<List<IngestMatcher>> availableIngestMatchers(Vertx vertx) {
-    return getAvailableMatchConfigs()
-       .compose(matchKeyConfigs -> createIngestMatchers(matchKeyConfigs, vertx));
+    return configSnapshot()
+        .compose(snapshot -> snapshot.getIngestMatchers(
+            matchKeyConfigs -> createIngestMatchers(snapshot, matchKeyConfigs, vertx)));
   }
 
   Future<Set<UUID>> updateClusterValues(SqlConnection conn, UUID newClusterId,
@@ -440,26 +1173,35 @@ public class Storage {
     List<Object> tupleList = new ArrayList<>();
     tupleList.add(matcherResult.matchKeyId);
     Set<UUID> clustersFound = new HashSet<>();
+    if (matcherResult.keys.contains("")) {
+      return Future.succeededFuture(clustersFound);
+    }
+    Set<String> foundKeys = new HashSet<>();
     int no = 2;
     for (String key : matcherResult.keys) {
-      if (key.isEmpty()) {
-        return Future.succeededFuture(clustersFound);
+      UUID cached = matchValueCache.lookup(matcherResult.matchKeyId, key);
+      if (cached != null) {
+        foundKeys.add(key);
+        clustersFound.add(cached);
+        continue;
       }
       if (no > 2) {
         q.append(" OR ");
       }
-      q.append("match_value = $" + no++);
+      q.append(matchValueEquals("match_value", "$" + no++));
       tupleList.add(key);
     }
     q.append(")");
-    Set<String> foundKeys = new HashSet<>();
-    return conn.preparedQuery(q.toString())
-        .execute(Tuple.from(tupleList))
+    Future<RowSet<Row>> future = no == 2 ? Future.succeededFuture()
+        : conn.preparedQuery(q.toString()).execute(Tuple.from(tupleList));
+    return future
         .map(rowSet -> {
-          rowSet.forEach(row -> {
-            foundKeys.add(row.getString("match_value"));
-            clustersFound.add(row.getUUID("cluster_id"));
-          });
+          if (rowSet != null) {
+            rowSet.forEach(row -> {
+              foundKeys.add(row.getString("match_value"));
+              clustersFound.add(row.getUUID("cluster_id"));
+            });
+          }
           if (clustersFound.isEmpty()) {
             return newClusterId;
           } else {
@@ -472,25 +1214,47 @@ public class Storage {
         .map(clustersFound);
   }
 
-  Future<Integer> touchClusters(PgCqlQuery query) {
-    String where = query.getWhereClause();
-    if (where == null
+  private static boolean touchClustersTooBroad(String where) {
+    return where == null
         || !where.contains("global_records.source_id")
-        || !where.contains("cluster_meta.match_key_config_id")) {
-      return Future.failedFuture(
-        "query too broad, must at least contain 'matchkeyId' and 'sourceId'");
-    }
-    String q = "UPDATE " + clusterMetaTable
+        || !where.contains("cluster_meta.match_key_config_id");
+  }
+
+  String touchClustersSql(String where) {
+    return "UPDATE " + clusterMetaTable
         + " SET datestamp = $1"
         + " FROM " + globalRecordTable + ", " + clusterRecordTable
         + " WHERE cluster_meta.cluster_id = cluster_records.cluster_id"
         + " AND cluster_records.record_id = global_records.id"
         + " AND " + where;
-    return pool.preparedQuery(q)
+  }
+
+  Future<Integer> touchClusters(PgCqlQuery query) {
+    String where = query.getWhereClause();
+    if (touchClustersTooBroad(where)) {
+      return Future.failedFuture(TOUCH_CLUSTERS_TOO_BROAD);
+    }
+    return pool.preparedQuery(touchClustersSql(where))
         .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC)))
         .map(RowSet<Row>::rowCount);
   }
 
+  /**
+   * Update cluster timestamps in the background.
+   *
+   * <p>See {@link RecordJob}.
+   * @param query CQL query as given
+   * @param pgCqlQuery the parsed query
+   * @return async result with job
+   */
+  Future<JsonObject> touchClustersJob(String query, PgCqlQuery pgCqlQuery) {
+    String where = pgCqlQuery.getWhereClause();
+    if (touchClustersTooBroad(where)) {
+      return Future.failedFuture(TOUCH_CLUSTERS_TOO_BROAD);
+    }
+    return RecordJob.create(this, RecordJob.TYPE_TOUCH_CLUSTERS, query, where);
+  }
+
   Future<Void> removeClusterRecord(SqlConnection conn, UUID globalId, MatcherResult matcherResult) {
     String q = "UPDATE " + clusterMetaTable
         + " SET datestamp = $1"
@@ -507,7 +1271,7 @@ public class Storage {
   }
 
   Future<Void> updateClusterForRecord(SqlConnection conn, UUID globalId,
-      MatcherResult matcherResult) {
+      MatcherResult matcherResult, MatchValueCache.Updates cacheUpdates) {
     if (matcherResult.keys.isEmpty()) {
       return removeClusterRecord(conn, globalId, matcherResult);
     }
@@ -524,16 +1288,25 @@ public class Storage {
               return Future.succeededFuture(clusterId); // exactly one already
             }
             // multiple clusters: merge remaining with this one
+            Set<UUID> merged = new HashSet<>(clustersFound);
+            merged.remove(clusterId);
+            cacheUpdates.removeClusters(merged);
             return mergeClusters(conn, clusterId, iterator).map(clusterId);
           });
         })
-        .compose(clusterId ->
-            conn.preparedQuery("INSERT INTO " + clusterRecordTable
-                    + " (record_id, match_key_config_id, cluster_id) VALUES ($1, $2, $3)"
-                    + " ON CONFLICT (record_id, match_key_config_id)"
-                    + " DO UPDATE SET record_id = $1, match_key_config_id = $2, cluster_id = $3")
-                .execute(Tuple.of(globalId, matcherResult.matchKeyId, clusterId))
-        )
+        .compose(clusterId -> {
+          if (!matcherResult.keys.contains("")) {
+            matcherResult.keys.forEach(key ->
+                cacheUpdates.put(matcherResult.matchKeyId, key, clusterId));
+          }
+          return conn.preparedQuery("INSERT INTO " + clusterRecordTable
+                  + " (record_id, match_key_config_id, cluster_id, match_values)"
+                  + " VALUES ($1, $2, $3, $4)"
+                  + " ON CONFLICT (record_id, match_key_config_id)"
+                  + " DO UPDATE SET cluster_id = $3, match_values = $4")
+              .execute(Tuple.of(globalId, matcherResult.matchKeyId, clusterId,
+                  matcherResult.keys.toArray(new String[0])));
+        })
         .mapEmpty();
   }
 
@@ -566,12 +1339,78 @@ public class Storage {
   }
 
   Future<UUID> createMetaEntry(SqlConnection conn, UUID clusterId, String matchKeyConfigId) {
-    return conn.preparedQuery("INSERT INTO " + clusterMetaTable
-            + " (cluster_id, datestamp, match_key_config_id) VALUES ($1, $2, $3)")
+    return conn.preparedQuery("WITH meta AS (INSERT INTO " + clusterMetaTable
+            + " (cluster_id, datestamp, match_key_config_id) VALUES ($1, $2, $3)"
+            + " RETURNING match_key_config_id)"
+            + " INSERT INTO " + clusterCountTable + " (match_key_config_id, clusters)"
+            + " SELECT match_key_config_id, 1 FROM meta")
         .execute(Tuple.of(clusterId, LocalDateTime.now(ZoneOffset.UTC), matchKeyConfigId))
+        .onSuccess(x -> clusterCountsAdded())
         .map(clusterId);
   }
 
+  /**
+   * Get number of clusters from the cluster counters.
+   *
+   * <p>The counters are rows of deltas added as clusters are created, and they are never
+   * decremented. They count cluster_meta rows, so clusters emptied by merges or record
+   * removal are included, and the number is an upper bound of non-empty clusters.
+   * @param matchKeyId match key; null for all match keys
+   * @return async result with number of clusters
+   */
+  public Future<Long> getClusterCount(String matchKeyId) {
+    String q = "SELECT COALESCE(SUM(clusters), 0) FROM " + clusterCountTable;
+    Tuple tuple = Tuple.tuple();
+    if (matchKeyId != null) {
+      q = q + " WHERE match_key_config_id = $1";
+      tuple.addString(matchKeyId);
+    }
+    return pool.preparedQuery(q)
+        .execute(tuple)
+        .map(rowSet -> rowSet.iterator().next().getLong(0));
+  }
+
+  /**
+   * Note that cluster counter rows were added for the tenant of this storage.
+   */
+  void clusterCountsAdded() {
+    clusterCountTenants.add(tenant);
+  }
+
+  /**
+   * Sum up cluster counter rows into one per match key.
+   *
+   * <p>Done for tenants that this instance has added counter rows to since the last call.
+   * Called periodically, every {@link #CLUSTER_COUNTS_COMPACT_MS} milliseconds. Failures
+   * are logged; the tenant is compacted again after its next counter rows.
+   * @param vertx Vert.x handle
+   * @return async result; does not fail
+   */
+  static Future<Void> compactClusterCounts(Vertx vertx) {
+    List<Future<Void>> futures = new ArrayList<>();
+    Iterator<String> iterator = clusterCountTenants.iterator();
+    while (iterator.hasNext()) {
+      String tenant = iterator.next();
+      iterator.remove();
+      futures.add(new Storage(vertx, tenant, HttpMethod.POST).compactClusterCounts()
+          .recover(e -> {
+            log.warn("compact cluster counts of {} failed: {}", tenant, e.getMessage());
+            return Future.succeededFuture();
+          }));
+    }
+    return Future.all(futures).mapEmpty();
+  }
+
+  Future<Void> compactClusterCounts() {
+    return pool.query("WITH deltas AS (DELETE FROM " + clusterCountTable
+            + " RETURNING match_key_config_id, clusters)"
+            + " INSERT INTO " + clusterCountTable + " (match_key_config_id, clusters)"
+            + " SELECT match_key_config_id, SUM(clusters) FROM deltas"
+            + " GROUP BY match_key_config_id")
+        .execute()
+        .mapEmpty();
+  }
+
   Future<Void> updateMetaEntries(SqlConnection conn, Set<UUID> clusters) {
     Iterator<UUID> iterator = clusters.iterator();
     StringBuilder setClause = new StringBuilder("UPDATE " + clusterMetaTable
@@ -619,7 +1458,9 @@ public class Storage {
   public Future<Void> updateGlobalRecords(Vertx vertx, LargeJsonReadStream request) {
     return availableIngestMatchers(vertx)
       .compose(ingestMatchers -> {
-        return new ReadStreamConsumer<JsonObject, Void>()
+        return new ReadStreamConsumer<JsonObject, Void>(() -> IngestLimits.get(this, "records",
+            String.valueOf(request.topLevelObject().getString(ClusterBuilder.SOURCE_ID_LABEL)),
+            5, 1))
           .consume(request, r -> {
             JsonObject topRecord = request.topLevelObject();
             SourceId sourceId = new SourceId(topRecord.getString(ClusterBuilder.SOURCE_ID_LABEL));
@@ -639,25 +1480,141 @@ public class Storage {
    * @return async result with list of configurations
    */
   public Future<List<MatchKeyConfig>> getAvailableMatchConfigs() {
-    return pool.query("SELECT * FROM " + matchKeyConfigTable)
-        .execute()
-        .map(res -> {
+    return configSnapshot().map(ConfigSnapshot::getMatchKeyConfigs);
+  }
+
+  /**
+   * Get configuration snapshot of tenant.
+   * @return async result with snapshot
+   */
+  Future<ConfigSnapshot> configSnapshot() {
+    // a lagging read replica could bring back the configuration that was just dropped
+    TenantPgPool writePool = TenantPgPool.pool(vertx, tenant, "write");
+    return ConfigSnapshot.get(vertx, tenant, () -> Future.all(
+            writePool.query("SELECT * FROM " + matchKeyConfigTable).execute(),
+            writePool.query("SELECT * FROM " + moduleTable).execute(),
+            selectOaiConfig(writePool))
+        .map(all -> {
           List<MatchKeyConfig> matchKeyConfigs = new ArrayList<>();
-          res.forEach(row -> matchKeyConfigs.add(matchKeyConfigFromRow(row)));
-          return matchKeyConfigs;
+          RowSet<Row> matchKeyRows = all.resultAt(0);
+          matchKeyRows.forEach(row -> matchKeyConfigs.add(matchKeyConfigFromRow(row)));
+          Map<String, CodeModuleEntity> modules = new HashMap<>();
+          RowSet<Row> moduleRows = all.resultAt(1);
+          moduleRows.forEach(row -> {
+            CodeModuleEntity module = new CodeModuleEntity.CodeModuleBuilder(row).build();
+            modules.put(module.getId(), module);
+          });
+          return new ConfigSnapshot(tenant, matchKeyConfigs, modules, all.resultAt(2));
+        }));
+  }
+
+  /**
+   * Drop configuration snapshot of tenant on this and other server instances.
+   *
+   * <p>To be called after a configuration write has committed. Failure to notify other
+   * instances is logged, but does not fail the write.
+   * @return async result
+   */
+  Future<Void> configChanged() {
+    ConfigSnapshot.invalidate(tenant);
+    return pool.preparedQuery("SELECT pg_notify($1, $2)")
+        .execute(Tuple.of(ConfigSnapshot.CHANNEL, tenant))
+        .<Void>mapEmpty()
+        .recover(e -> {
+          log.warn("Configuration change not notified: {}", e.getMessage());
+          return Future.succeededFuture();
+        });
+  }
+
+  /**
+   * Apply match value cache changes of a committed transaction.
+   *
+   * <p>Other server instances are told to clear their cache of the tenant if the
+   * transaction merged clusters or removed values.
+   * @param cacheUpdates changes made by the transaction
+   */
+  void applyMatchValues(MatchValueCache.Updates cacheUpdates) {
+    matchValueCache.apply(cacheUpdates);
+    if (cacheUpdates.hasRemovals()) {
+      matchValuesChanged();
+    }
+  }
+
+  /**
+   * Tell other server instances to clear their match value cache of the tenant.
+   *
+   * <p>Failure to notify is logged, but does not fail the write.
+   * @return async result
+   */
+  Future<Void> matchValuesChanged() {
+    if (!matchValueCache.isEnabled()) {
+      return Future.succeededFuture();
+    }
+    return pool.preparedQuery("SELECT pg_notify($1, $2)")
+        .execute(Tuple.of(MatchValueCache.CHANNEL, MatchValueCache.notification(tenant)))
+        .<Void>mapEmpty()
+        .recover(e -> {
+          log.warn("Match value change not notified: {}", e.getMessage());
+          return Future.succeededFuture();
         });
   }
 
   /**
    * Delete global records and update timestamp.
+   *
+   * <p>If the records are those of a source or source version with a partition of its own,
+   * the partition is truncated or dropped rather than deleting rows.
    * @param sqlWhere SQL WHERE clause
    * @return async result
    */
   public Future<Void> deleteGlobalRecords(String sqlWhere) {
+    SourcePartitions.Selection selection = SourcePartitions.selection(sqlWhere);
+    Future<String> partition = selection == null ? Future.succeededFuture()
+        : new SourcePartitions(this).partitionOf(selection);
+    return partition.compose(table -> pool.withTransaction(conn ->
+        conn.preparedQuery(touchClustersOfRecords(sqlWhere, null))
+            .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC)))
+            .compose(rowSet -> {
+              log.info("Number of meta records updated = {}", rowSet.rowCount());
+              if (table == null) {
+                return conn.query(deleteRecords(sqlWhere == null ? "TRUE" : sqlWhere)).execute();
+              }
+              // the partition has exactly the records to delete
+              return conn.query("DELETE FROM " + clusterRecordTable
+                      + " WHERE record_id IN (SELECT id FROM " + table + ")").execute()
+                  .compose(x -> conn.query((selection.sourceVersion() == null
+                      ? "TRUNCATE " : "DROP TABLE ") + table).execute())
+                  .onSuccess(x -> log.info("Records deleted with partition {}", table));
+            })
+            .mapEmpty()));
+  }
+
+  /**
+   * Delete global records in the background.
+   *
+   * <p>See {@link RecordJob}.
+   * @param query CQL query as given
+   * @param sqlWhere SQL WHERE clause
+   * @return async result with job
+   */
+  Future<JsonObject> deleteGlobalRecordsJob(String query, String sqlWhere) {
+    return RecordJob.create(this, RecordJob.TYPE_DELETE_RECORDS, query, sqlWhere);
+  }
+
+  /**
+   * Get SQL for updating timestamp of clusters with global records that are deleted.
+   * @param sqlWhere SQL WHERE clause of the records; null for all
+   * @param chunk further condition for the records, not applied to other versions; null for none
+   * @return SQL statement with timestamp as first parameter
+   */
+  String touchClustersOfRecords(String sqlWhere, String chunk) {
     String q = "UPDATE " + clusterMetaTable + " AS m"
         + " SET datestamp = $1"
         + " FROM " + globalRecordTable + ", " + clusterRecordTable + " AS r"
         + " WHERE m.cluster_id = r.cluster_id AND r.record_id = id";
+    if (chunk != null) {
+      q = q + " AND " + chunk;
+    }
     if (sqlWhere != null) {
       q = q + " AND " + sqlWhere;
       if (sqlWhere.contains("source_version=")) {
@@ -670,17 +1627,7 @@ public class Storage {
             + " AND " + sqlWhere.replace("source_version=", "source_version!=") + ")";
       }
     }
-    return pool.preparedQuery(q)
-        .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC)))
-        .compose(rowSet -> {
-          log.info("Number of meta records updated = {}", rowSet.rowCount());
-          String from = globalRecordTable;
-          if (sqlWhere != null) {
-            from = from + " WHERE " + sqlWhere;
-          }
-          return pool.query("DELETE FROM " + from).execute();
-        })
-        .mapEmpty();
+    return q;
   }
 
   /**
@@ -691,11 +1638,8 @@ public class Storage {
    * @return async result
    */
   public Future<Void> getGlobalRecords(RoutingContext ctx, String sqlWhere, String sqlOrderBy) {
-    String from = globalRecordTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "items",
+    return streamResult(ctx, new Keyset("id", UUID::fromString), false, Tuple.tuple(),
+        globalRecordTable, sqlWhere, sqlOrderBy, "items", null,
         row -> Future.succeededFuture(ClusterBuilder.encodeRecord(row)));
   }
 
@@ -753,13 +1697,14 @@ public class Storage {
     }
     String from = clusterRecordTable
         + joinClusterValue
-        + joinGlobal
-        + " WHERE " + clusterRecordTable + ".match_key_config_id = $1";
+        + joinGlobal;
+    String where = clusterRecordTable + ".match_key_config_id = $1";
     if (sqlWhere != null) {
-      from = from + " AND (" + sqlWhere + ")";
+      where = where + " AND (" + sqlWhere + ")";
     }
-    return streamResult(ctx, clusterRecordTable + ".cluster_id", Tuple.of(matchKeyId),
-        from, sqlOrderBy, "items",
+    return streamResult(ctx, new Keyset(clusterRecordTable + ".cluster_id", UUID::fromString),
+        true, Tuple.of(matchKeyId), from, where, sqlOrderBy, "items",
+        sqlWhere == null ? () -> getClusterCount(matchKeyId) : null,
         row -> getClusterById(row.getUUID("cluster_id")));
   }
 
@@ -798,7 +1743,7 @@ public class Storage {
           matchKey.getUpdate(),
           matchKey.getArgs(),
           matchKey.getCql()))
-        .mapEmpty();
+        .compose(x -> configChanged());
   }
 
   /**
@@ -820,7 +1765,7 @@ public class Storage {
           matchKey.getUpdate(),
           matchKey.getArgs(),
           matchKey.getCql()))
-        .map(res -> res.rowCount() > 0);
+        .compose(res -> configChanged().map(res.rowCount() > 0));
   }
 
   static MatchKeyConfig matchKeyConfigFromRow(Row row) {
@@ -869,7 +1814,10 @@ public class Storage {
         connection.preparedQuery(
                 "DELETE FROM " + matchKeyConfigTable + " WHERE id = $1")
             .execute(Tuple.of(id))
-            .map(res -> res.rowCount() > 0));
+            .map(res -> res.rowCount() > 0))
+        .onSuccess(x -> matchValueCache.invalidateMatchKey(id))
+        .compose(deleted -> configChanged().map(deleted))
+        .compose(deleted -> matchValuesChanged().map(deleted));
   }
 
   /**
@@ -880,70 +1828,57 @@ public class Storage {
    * @return async result
    */
   public Future<Void> getMatchKeyConfigs(RoutingContext ctx, String sqlWhere, String sqlOrderBy) {
-    String from = matchKeyConfigTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "matchKeys",
+    return streamResult(ctx, new Keyset("id", key -> key), false, Tuple.tuple(),
+        matchKeyConfigTable, sqlWhere, sqlOrderBy, "matchKeys", null,
         row -> Future.succeededFuture(matchKeyConfigFromRow(row).toJson()));
   }
 
-  Future<JsonObject> recalculateMatchKeyValueTable(SqlConnection connection,
-      IngestMatcher ingestMatcher) {
-    String query = "SELECT * FROM " + globalRecordTable;
-    AtomicInteger totalRecords = new AtomicInteger();
-    IngestMetrics ingestMetrics = new IngestMetricsNop();
-    return connection.prepare(query).compose(pq ->
-        connection.begin().compose(tx -> {
-          RowStream<Row> stream = pq.createStream(sqlStreamFetchSize);
-          Promise<JsonObject> promise = Promise.promise();
-          stream.handler(row -> {
-            stream.pause();
-            totalRecords.incrementAndGet();
-            UUID globalId = row.getUUID("id");
-            JsonObject globalRecord = ClusterBuilder.encodeRecord(row);
-            runMatcher(ingestMatcher, ingestMetrics, globalRecord)
-                .compose(matcherResult ->
-                    updateClusterForRecord(connection, globalId, matcherResult))
-                .onFailure(e -> log.error(e.getMessage(), e))
-                .onComplete(e -> stream.resume());
-          });
-          stream.endHandler(end -> {
-            tx.commit();
-            promise.complete(new JsonObject().put("totalRecords", totalRecords.get()));
-          });
-          stream.exceptionHandler(e -> {
-            log.error(e.getMessage(), e);
-            tx.commit();
-            promise.fail(e);
-          });
-          return promise.future();
+  /**
+   * Initialize match key (populate clusters).
+   *
+   * <p>See {@link MatchKeyInitializer}; the records are processed in as many partitions
+   * as half the connections of the pool.
+   * @param vertx Vert.x handle
+   * @param id match key id (user specified)
+   * @param resume whether to continue the previous initialization of this match key
+   * @return statistics; null if match key is not found
+   */
+  public Future<JsonObject> initializeMatchKey(Vertx vertx, String id, boolean resume) {
+    matchValueCache.invalidateMatchKey(id);
+    return pool.preparedQuery(
+            "SELECT * FROM " + matchKeyConfigTable + " WHERE id = $1")
+        .execute(Tuple.of(id))
+        .compose(res -> {
+          RowIterator<Row> iterator = res.iterator();
+          if (!iterator.hasNext()) {
+            return Future.succeededFuture();
+          }
+          Row row = iterator.next();
+          MatchKeyConfig matchKeyConfig = matchKeyConfigFromRow(row);
+          int partitions = pool.getPoolOptions().getMaxSize() / 2;
+          return configSnapshot()
+              .compose(snapshot -> createIngestMatcher(snapshot, matchKeyConfig, vertx))
+              .compose(matcher -> new MatchKeyInitializer(this, matcher, partitions)
+                  .run(resume));
         })
-    );
+        .onComplete(x -> {
+          matchValueCache.invalidateMatchKey(id);
+          matchValuesChanged();
+        });
   }
 
   /**
-   * Initialize match key (populate clusters).
-   * @param vertx Vert.x handle
+   * Get status of match key initialization.
    * @param id match key id (user specified)
-   * @return statistics
+   * @return status; null if match key is not found
    */
-  public Future<JsonObject> initializeMatchKey(Vertx vertx, String id) {
-    return pool.withConnection(connection ->
-        connection.preparedQuery(
-                "SELECT * FROM " + matchKeyConfigTable + " WHERE id = $1")
-            .execute(Tuple.of(id))
-            .compose(res -> {
-              RowIterator<Row> iterator = res.iterator();
-              if (!iterator.hasNext()) {
-                return Future.succeededFuture();
-              }
-              Row row = iterator.next();
-              MatchKeyConfig matchKeyConfig = matchKeyConfigFromRow(row);
-              return createIngestMatcher(matchKeyConfig, vertx)
-                .compose(matcher -> recalculateMatchKeyValueTable(connection, matcher));
-            })
-    );
+  public Future<JsonObject> getInitializeMatchKeyStatus(String id) {
+    return selectMatchKeyConfig(id).compose(conf -> {
+      if (conf == null) {
+        return Future.succeededFuture();
+      }
+      return MatchKeyInitializer.getStatus(this, id);
+    });
   }
 
   class StatsTrack {
@@ -1043,7 +1978,7 @@ public class Storage {
             "INSERT INTO " + moduleTable + " (id, type, url, function, script)"
                 + " VALUES ($1, $2, $3, $4, $5)")
         .execute(module.asTuple())
-        .mapEmpty();
+        .compose(x -> configChanged());
   }
 
   /**
@@ -1057,7 +1992,7 @@ public class Storage {
             "UPDATE " + moduleTable
                 + " SET type = $2, url = $3, function = $4, script = $5 WHERE id = $1")
         .execute(module.asTuple())
-        .map(res -> res.rowCount() > 0);
+        .compose(res -> configChanged().map(res.rowCount() > 0));
   }
 
   /**
@@ -1103,7 +2038,8 @@ public class Storage {
         connection.preparedQuery(
                 "DELETE FROM " + moduleTable + " WHERE id = $1")
             .execute(Tuple.of(id))
-            .map(res -> res.rowCount() > 0));
+            .map(res -> res.rowCount() > 0))
+        .compose(deleted -> configChanged().map(deleted));
   }
 
   Future<Void> resolveCodeModuleTable(Vertx vertx) {
@@ -1141,11 +2077,8 @@ public class Storage {
    */
   public Future<Void> selectCodeModuleEntities(RoutingContext ctx,
       String sqlWhere, String sqlOrderBy) {
-    String from = moduleTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "modules",
+    return streamResult(ctx, new Keyset("id", key -> key), false, Tuple.tuple(),
+        moduleTable, sqlWhere, sqlOrderBy, "modules", null,
         row -> Future.succeededFuture(CodeModuleEntity.CodeModuleBuilder.asJson(row)));
   }
 
@@ -1163,7 +2096,7 @@ public class Storage {
       "INSERT INTO " + oaiConfigTable + " (id, config)"
           + " VALUES ($1, $2) ON CONFLICT(id) DO UPDATE SET config = $2")
       .execute(Tuple.of("1", config))
-      .mapEmpty();
+      .compose(x -> configChanged().map(true));
   }
 
   /**
@@ -1171,9 +2104,13 @@ public class Storage {
    * @return OAI config
    */
   public Future<JsonObject> selectOaiConfig() {
+    return selectOaiConfig(pool);
+  }
+
+  private Future<JsonObject> selectOaiConfig(TenantPgPool sqlPool) {
     String sql = "SELECT * FROM " + oaiConfigTable + " WHERE id = '1'";
 
-    return pool.preparedQuery(sql)
+    return sqlPool.preparedQuery(sql)
         .execute()
         .map(res -> {
           RowIterator<Row> iterator = res.iterator();
@@ -1191,7 +2128,8 @@ public class Storage {
    */
   public Future<Void> deleteOaiConfig() {
     return pool.preparedQuery("DELETE FROM " + oaiConfigTable + " WHERE id = $1")
-        .execute(Tuple.of("1")).mapEmpty();
+        .execute(Tuple.of("1"))
+        .compose(x -> configChanged());
   }
 
   // end oai config
@@ -1206,54 +2144,41 @@ public class Storage {
     return n;
   }
 
-  static void resultFooter(RoutingContext ctx, RowSet<Row> rowSet, List<String[]> facets,
-      String diagnostic) {
+  static void resultFooter(RoutingContext ctx, ResultCount total, String diagnostic,
+      String next) {
 
     JsonObject resultInfo = new JsonObject();
-    JsonArray facetArray = new JsonArray();
-    if (rowSet != null) {
-      int pos = 0;
-      Row row = rowSet.iterator().next();
-      int count = row.getInteger(pos);
-      for (String [] facetEntry : facets) {
-        pos++;
-        JsonObject facetObj = null;
-        final String facetType = facetEntry[0];
-        final String facetValue = facetEntry[1];
-        for (int i = 0; i < facetArray.size(); i++) {
-          facetObj = facetArray.getJsonObject(i);
-          if (facetType.equals(facetObj.getString("type"))) {
-            break;
-          }
-          facetObj = null;
-        }
-        if (facetObj == null) {
-          facetObj = new JsonObject();
-          facetObj.put("type", facetType);
-          facetObj.put("facetValues", new JsonArray());
-          facetArray.add(facetObj);
-        }
-        JsonArray facetValues = facetObj.getJsonArray("facetValues");
-        facetValues.add(new JsonObject()
-            .put("value", facetValue)
-            .put("count", row.getInteger(pos)));
-      }
-      resultInfo.put("totalRecords", count);
+    if (total != null) {
+      resultInfo.put("totalRecords", total.count());
+      resultInfo.put("totalRecordsPrecision", total.precision());
     }
     JsonArray diagnostics = new JsonArray();
     if (diagnostic != null) {
       diagnostics.add(new JsonObject().put("message", diagnostic));
     }
     resultInfo.put("diagnostics", diagnostics);
-    resultInfo.put("facets", facetArray);
+    resultInfo.put("facets", new JsonArray());
+    if (next != null) {
+      resultInfo.put("next", next);
+    }
     ctx.response().write("], \"resultInfo\": " + resultInfo.encode() + "}");
     ctx.response().end();
   }
 
-  @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
+  /**
+   * Key for cursor paging: a unique column and how to convert its value from the token.
+   * @param column column, possibly qualified with table name
+   * @param parser converts key value in token to SQL parameter
+   */
+  record Keyset(String column, Function<String, Object> parser) {
+    String name() {
+      return column.substring(column.lastIndexOf('.') + 1);
+    }
+  }
+
   Future<Void> streamResult(RoutingContext ctx, SqlConnection sqlConnection,
-      String query, String cnt, Tuple tuple, String property, List<String[]> facets,
-      Function<Row, Future<JsonObject>> handler) {
+      String query, Tuple tuple, Function<SqlConnection, Future<ResultCount>> counter,
+      String property, Function<Row, Future<JsonObject>> handler, Supplier<String> next) {
 
     return sqlConnection.prepare(query)
         .compose(pq ->
@@ -1279,20 +2204,17 @@ public class Storage {
                 });
               });
               stream.endHandler(end -> {
-                Future<RowSet<Row>> cntFuture = cnt != null
-                    ? sqlConnection.preparedQuery(cnt).execute(tuple)
-                    : Future.succeededFuture(null);
-                cntFuture
-                    .onSuccess(cntRes -> resultFooter(ctx, cntRes, facets, null))
+                counter.apply(sqlConnection)
+                    .onSuccess(total -> resultFooter(ctx, total, null, next.get()))
                     .onFailure(f -> {
                       log.error(f.getMessage(), f);
-                      resultFooter(ctx, null, facets, f.getMessage());
+                      resultFooter(ctx, null, f.getMessage(), null);
                     })
                     .eventually(() -> tx.commit().compose(y -> sqlConnection.close()));
               });
               stream.exceptionHandler(e -> {
                 log.error("stream error", e);
-                resultFooter(ctx, null, facets, e.getMessage());
+                resultFooter(ctx, null, e.getMessage(), null);
                 tx.commit().compose(y -> sqlConnection.close());
               });
               return Future.succeededFuture();
@@ -1300,72 +2222,108 @@ public class Storage {
         );
   }
 
-  Future<Void> streamResult(RoutingContext ctx, String distinct,  String from,
-      String orderByClause, String property, Function<Row, Future<JsonObject>> handler) {
-
-    return streamResult(ctx, distinct, distinct, Tuple.tuple(), List.of(from),
-        Collections.emptyList(), orderByClause, property, handler);
-  }
-
-  Future<Void> streamResult(RoutingContext ctx, String distinct,
-      Tuple tuple, String from, String orderByClause, String property,
-      Function<Row, Future<JsonObject>> handler) {
-
-    return streamResult(ctx, distinct, distinct, tuple, List.of(from),
-        Collections.emptyList(), orderByClause, property, handler);
-  }
-
+  /**
+   * Stream result in offset mode or cursor (keyset) mode.
+   *
+   * <p>Offset mode, the default, is controlled by query parameters offset and limit and
+   * allows sorting. Cursor mode is used when query parameter cursor is given: {@code *}
+   * for the first page, else the token from resultInfo.next of the previous page. Pages are
+   * in order of the keyset column, each page starting after the last key of the previous
+   * one, so that deep pages are as fast as the first one.
+   *
+   * <p>The total is computed with the method given by query parameter count; see
+   * {@link ResultCount}.
+   */
   @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
-  Future<Void> streamResult(RoutingContext ctx, String distinctMain,
-      String distinctCount, Tuple tuple, List<String> fromList, List<String[]> facets,
-      String orderByClause, String property, Function<Row, Future<JsonObject>> handler) {
+  Future<Void> streamResult(RoutingContext ctx, Keyset keyset, boolean distinct,
+      Tuple tuple, String from, String sqlWhere, String orderByClause, String property,
+      Supplier<Future<Long>> counters, Function<Row, Future<JsonObject>> handler) {
 
     Integer offset = Integer.parseInt(Util.getQueryParameter(ctx, "offset", "0"));
     Integer limit = Integer.parseInt(Util.getQueryParameter(ctx, "limit", "10"));
-    String count = Util.getQueryParameter(ctx, "count");
-    String query = "SELECT " + (distinctMain != null ? "DISTINCT ON (" + distinctMain + ")" : "")
-        + " * FROM " + fromList.get(0)
-        + (orderByClause == null ?  "" : " ORDER BY " + orderByClause)
-        + " LIMIT " + limit + " OFFSET " + offset;
-    boolean exact = "exact".equals(count);
-    log.info("query={}", query);
-    StringBuilder countQuery = new StringBuilder("SELECT");
-    if (exact) {
-      int pos = 0;
-      for (String from : fromList) {
-        if (pos > 0) {
-          countQuery.append(",\n");
+    String count = ResultCount.method(Util.getQueryParameter(ctx, "count"));
+    String cursor = Util.getQueryParameter(ctx, "cursor");
+    String fromWhere = from + (sqlWhere == null ? "" : " WHERE " + sqlWhere);
+    String distinctOn = distinct ? "DISTINCT ON (" + keyset.column() + ")" : "";
+    String query;
+    Tuple queryTuple = tuple;
+    Function<Row, Future<JsonObject>> rowHandler = handler;
+    Supplier<String> next = () -> null;
+    if (cursor == null) {
+      query = "SELECT " + distinctOn + " * FROM " + fromWhere
+          + (orderByClause == null ?  "" : " ORDER BY " + orderByClause)
+          + " LIMIT " + limit + " OFFSET " + offset;
+    } else {
+      if (orderByClause != null) {
+        return Future.failedFuture("cursor can not be combined with sortby");
+      }
+      String where = sqlWhere;
+      if (!cursor.isEmpty() && !"*".equals(cursor)) {
+        Object key;
+        try {
+          CursorToken token = new CursorToken(cursor);
+          if (!keyset.name().equals(token.getColumn())) {
+            return Future.failedFuture("Bad cursor");
+          }
+          key = keyset.parser().apply(token.getKey());
+        } catch (IllegalArgumentException e) {
+          return Future.failedFuture("Bad cursor");
+        }
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < tuple.size(); i++) {
+          values.add(tuple.getValue(i));
         }
-        countQuery.append("(SELECT COUNT("
-            + (distinctCount != null ? "DISTINCT " + distinctCount : "*")
-            + ") FROM " + from + ") AS cnt" + pos);
-        pos++;
+        values.add(key);
+        queryTuple = Tuple.from(values);
+        where = (sqlWhere == null ? "" : "(" + sqlWhere + ") AND ")
+            + keyset.column() + " > $" + values.size();
       }
-      log.info("cnt={}", countQuery);
+      query = "SELECT " + distinctOn + " * FROM " + from + (where == null ? "" : " WHERE " + where)
+          + " ORDER BY " + keyset.column()
+          + " LIMIT " + limit;
+      AtomicInteger rows = new AtomicInteger();
+      AtomicReference<Object> lastKey = new AtomicReference<>();
+      rowHandler = row -> {
+        rows.incrementAndGet();
+        lastKey.set(row.getValue(keyset.name()));
+        return handler.apply(row);
+      };
+      next = () -> rows.get() < limit || lastKey.get() == null ? null
+          : new CursorToken(keyset.name(), lastKey.get().toString()).encode();
     }
-    String countQueryString = exact ? countQuery.toString() : null;
+    log.info("query={}", query);
+    Function<SqlConnection, Future<ResultCount>> counter = conn -> ResultCount.count(conn,
+        count, distinct ? keyset.column() : null, fromWhere, tuple, counters);
+    final Tuple finalQueryTuple = queryTuple;
+    final Function<Row, Future<JsonObject>> finalRowHandler = rowHandler;
+    final Supplier<String> finalNext = next;
     return pool.getConnection()
-        .compose(sqlConnection -> streamResult(ctx, sqlConnection, query, countQueryString,
-            tuple, property, facets, handler)
+        .compose(sqlConnection -> streamResult(ctx, sqlConnection, query, finalQueryTuple,
+            counter, property, finalRowHandler, finalNext)
             .onFailure(x -> sqlConnection.close()));
   }
 
   Future<ModuleExecutable> getTransformer(RoutingContext ctx, String transformerProp) {
+    return configSnapshot().compose(snapshot -> getTransformer(ctx, snapshot, transformerProp));
+  }
+
+  static Future<ModuleExecutable> getTransformer(RoutingContext ctx, ConfigSnapshot snapshot,
+      String transformerProp) {
     ModuleInvocation invocation = new ModuleInvocation(transformerProp);
-    return selectCodeModuleEntity(invocation.getModuleName())
-        .compose(entity -> {
-          if (entity == null) {
+    return snapshot.getExecutable(ctx.vertx(), invocation)
+        .compose(executable -> {
+          if (executable == null) {
             return Future.failedFuture("Transformer module '"
               + invocation.getModuleName() + "' not found");
           }
-          return ModuleCache.getInstance().lookup(Tenant.get(ctx), entity)
-              .<ModuleExecutable>map(mod -> new ModuleExecutable(mod, invocation, ctx.vertx()));
+          return Future.succeededFuture(executable);
         });
   }
 
   Future<ModuleExecutable> getTransformerOai(RoutingContext ctx) {
-    return selectOaiConfig()
-        .compose(oaiCfg -> {
+    return configSnapshot()
+        .compose(snapshot -> {
+          JsonObject oaiCfg = snapshot.getOaiConfig();
           if (oaiCfg == null) {
             return Future.succeededFuture(null);
           }
@@ -1373,7 +2331,7 @@ public class Storage {
           if (transformerProp == null) {
             return Future.succeededFuture(null);
           }
-          return getTransformer(ctx, transformerProp);
+          return getTransformer(ctx, snapshot, transformerProp);
         });
   }
 
@@ -1391,20 +2349,18 @@ public class Storage {
       });
   }
 
-  Future<Integer> getTotalRecords(RoutingContext ctx, PgCqlQuery pgCqlQuery) {
+  Future<ResultCount> getTotalRecords(RoutingContext ctx, PgCqlQuery pgCqlQuery,
+      String method) {
     return getSqlFromCluster(ctx, pgCqlQuery)
-      .compose(where -> {
-        String sqlQuery = "SELECT COUNT(DISTINCT "
-            + Storage.CLUSTER_META_TABLE + ".cluster_id) FROM " + where;
-        return getPool()
-            .withConnection(conn -> conn.query(sqlQuery)
-                .execute()
-                .map(res -> res.iterator().next().getInteger(0)));
-      });
+      .compose(where -> getPool()
+          .withConnection(conn -> ResultCount.count(conn, method,
+              Storage.CLUSTER_META_TABLE + ".cluster_id", where, Tuple.tuple(),
+              // all clusters when there is no WHERE clause
+              where.equals(getClusterMetaTable()) ? () -> getClusterCount(null) : null)));
   }
 
   Future<Void> getMarcxmlRecords(RoutingContext ctx, PgCqlQuery pgCqlQuery,
-      int offset, int limit, Function<String, Future<Void>> handler) {
+      int offset, int limit, Function<Buffer, Future<Void>> handler) {
     return getSqlFromCluster(ctx, pgCqlQuery)
       .compose(where -> {
         String sqlQuery = "SELECT DISTINCT ON ("
@@ -1416,27 +2372,27 @@ public class Storage {
   }
 
   private Future<Void> getMarcxmlRecords(RoutingContext ctx, String sqlQuery,
-      Function<String, Future<Void>> handler) {
+      Function<Buffer, Future<Void>> handler) {
     return getTransformerOai(ctx).compose(transformer -> {
       log.info("SQL Query: {}", sqlQuery);
       return getPool()
           .withConnection(conn -> conn.query(sqlQuery)
               .execute()
               .compose(res -> {
-                RowIterator<Row> iterator = res.iterator();
+                List<ClusterRecordItem> items = new ArrayList<>(res.size());
+                res.forEach(row -> items.add(new ClusterRecordItem(row)));
+                return ClusterRecordItem.populateClusters(this, conn, items, true);
+              })
+              .compose(clusters -> {
                 Future<Void> future = Future.succeededFuture();
-                while (iterator.hasNext()) {
-                  Row row = iterator.next();
-                  future = future.compose(x -> {
-                    ClusterRecordItem cr = new ClusterRecordItem(row);
-                    return cr.populateCluster(this, conn, true)
-                      .compose(cb -> ClusterMarcXml.getClusterMarcXml(cb, transformer, ctx.vertx())
-                      .compose(marcxml -> handler.apply(marcxml)));
-                  });
+                for (ClusterBuilder cb : clusters) {
+                  future = future.compose(x ->
+                      ClusterMarcXml.getClusterMarcXml(cb, transformer, ctx.vertx())
+                      .compose(handler::apply));
                 }
                 return future;
-              }
-        ));
+              })
+        );
     });
   }
 
@@ -1,14 +1,17 @@
 package com.indexdata.reservoir.server;
 
 import com.indexdata.reservoir.server.metrics.IngestMetrics;
+import com.indexdata.reservoir.util.AdaptiveLimit;
 import com.indexdata.reservoir.util.readstream.MappingReadStream;
 import com.indexdata.reservoir.util.readstream.MarcJsonToIngestMapper;
 import com.indexdata.reservoir.util.readstream.MarcToJsonParser;
 import com.indexdata.reservoir.util.readstream.MarcXmlParserToJson;
+import com.indexdata.reservoir.util.readstream.ParallelParser;
 import com.indexdata.reservoir.util.readstream.XmlFixer;
 import com.indexdata.reservoir.util.readstream.XmlParser;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
@@ -24,6 +27,15 @@ import org.folio.okapi.common.HttpResponse;
 public class UploadService {
 
   private static final Logger log = LogManager.getLogger(UploadService.class);
+  private static int parseThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Set number of chunks of an upload that are parsed at a time on worker threads.
+   * @param threads number of chunks; 0 for parsing on the event loop
+   */
+  public static void setParseThreads(int threads) {
+    parseThreads = threads;
+  }
 
   private Future<IngestStats> uploadPayloadStream(ReadStream<JsonObject> upload,
       IngestWriteStream ingestWriteStream) {
@@ -82,21 +94,24 @@ public class UploadService {
         return promise.future(); // a null pointer is returned
       }
       Storage storage = new Storage(ctx);
-      int queueSize = storage.pool.getPoolOptions().getMaxSize() * 10;
-      log.info("{} uploading. {} queueSize: {} tenant: {}",
+      // start with room for two batches per connection
+      AdaptiveLimit limit = IngestLimits.get(storage, "upload", params.sourceId.toString(),
+          storage.pool.getPoolOptions().getMaxSize() * 2 * Math.max(5, params.getBatchSize()),
+          params.getBatchSize());
+      log.info("{} uploading. {} limit: {} tenant: {}",
           params.getSummary(fileName), params.getDetails(contentType),
-          queueSize, storage.getTenant());
+          limit.getLimit(), storage.getTenant());
       var ingestWriteStream = new IngestWriteStream(
           ctx.vertx(), storage, params, fileName, contentType);
-      ingestWriteStream.setWriteQueueMaxSize(queueSize);
-      return uploadContent(readStream, ingestWriteStream, contentType, params.xmlFixing,
-          params.ingestMetrics);
+      ingestWriteStream.setLimit(limit);
+      return uploadContent(ctx.vertx(), readStream, ingestWriteStream, contentType,
+          params.xmlFixing, params.ingestMetrics);
     } catch (Exception e) {
       return Future.failedFuture(e);
     }
   }
 
-  private Future<IngestStats> uploadContent(ReadStream<Buffer> request,
+  private Future<IngestStats> uploadContent(Vertx vertx, ReadStream<Buffer> request,
       IngestWriteStream ingestWriteStream, String contentType, boolean xmlFixing,
       IngestMetrics ingestMetrics) {
     ReadStream<JsonObject> parser;
@@ -108,10 +123,15 @@ public class UploadService {
 
     switch (contentType) {
       case "application/octet-stream", "application/marc" ->
-          parser = new MarcToJsonParser(request);
-      case "application/xml", "text/xml" ->
-          parser = new MarcXmlParserToJson(
-              XmlParser.newParser(xmlFixing ? new XmlFixer(request) : request));
+          parser = parseThreads > 0
+              ? ParallelParser.marcToJson(vertx, request, parseThreads)
+              : new MarcToJsonParser(request);
+      case "application/xml", "text/xml" -> {
+        ReadStream<Buffer> xml = xmlFixing ? new XmlFixer(request) : request;
+        parser = parseThreads > 0
+            ? ParallelParser.marcXmlToJson(vertx, xml, parseThreads)
+            : new MarcXmlParserToJson(XmlParser.newParser(xml));
+      }
       default -> {
         return Future.failedFuture("Unsupported content-type: " + contentType);
       }
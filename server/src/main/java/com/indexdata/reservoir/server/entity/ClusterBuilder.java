@@ -1,5 +1,7 @@
 package com.indexdata.reservoir.server.entity;
 
+import com.indexdata.reservoir.util.PayloadCodec;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.sqlclient.Row;
@@ -110,6 +112,15 @@ public class ClusterBuilder {
   public ClusterBuilder matchValues(RowSet<Row> rows) {
     JsonArray matchValues = new JsonArray();
     rows.forEach(row -> matchValues.add(row.getString("match_value")));
+    return matchValues(matchValues);
+  }
+
+  /**
+   * Set matchValues.
+   * @param matchValues match values
+   * @return this
+   */
+  public ClusterBuilder matchValues(JsonArray matchValues) {
     clusterJson.put(MATCH_VALUES_LABEL, matchValues);
     return this;
   }
@@ -120,15 +131,25 @@ public class ClusterBuilder {
 
   /**
    * Encodes a single global record row as JSON.
+   *
+   * <p>The payload is taken from the payload column or, if stored compressed, decoded
+   * from the payload_compressed column.
    * @param row global record row
    * @return JSON encoding
    */
   public static JsonObject encodeRecord(Row row) {
+    JsonObject payload = row.getJsonObject("payload");
+    if (payload == null) {
+      Buffer compressed = row.getBuffer("payload_compressed");
+      if (compressed != null) {
+        payload = PayloadCodec.decode(compressed);
+      }
+    }
     return new JsonObject()
       .put(GLOBAL_ID_LABEL, row.getUUID("id"))
       .put(LOCAL_ID_LABEL, row.getString("local_id"))
       .put(SOURCE_ID_LABEL, row.getString("source_id"))
       .put(SOURCE_VERSION_LABEL, row.getInteger("source_version"))
-      .put(PAYLOAD_LABEL, row.getJsonObject("payload"));
+      .put(PAYLOAD_LABEL, payload);
   }
 }
@@ -32,6 +32,8 @@ public class OaiPmhStatus {
 
   private Long totalUpdated;
 
+  private Long totalUnchanged;
+
   Long totalRecords;
 
   Integer totalRequests;
@@ -234,4 +236,12 @@ public class OaiPmhStatus {
   public void setTotalUpdated(Long totalUpdated) {
     this.totalUpdated = totalUpdated;
   }
+
+  public Long getTotalUnchanged() {
+    return totalUnchanged;
+  }
+
+  public void setTotalUnchanged(Long totalUnchanged) {
+    this.totalUnchanged = totalUnchanged;
+  }
 }
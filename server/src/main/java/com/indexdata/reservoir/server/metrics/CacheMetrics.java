@@ -0,0 +1,24 @@
+package com.indexdata.reservoir.server.metrics;
+
+import io.vertx.micrometer.backends.BackendRegistries;
+
+public interface CacheMetrics {
+  void incrementHits();
+
+  void incrementMisses();
+
+  void incrementEvictions();
+
+  /**
+   * Create CacheMetrics instance and use default backend if available.
+   * @param cache cache name
+   * @param tenant tenant of the cache
+   * @return metrics instance
+   */
+  static CacheMetrics create(String cache, String tenant) {
+    if (BackendRegistries.getDefaultNow() != null) {
+      return new CacheMetricsMicrometer(cache, tenant);
+    }
+    return new CacheMetricsNop();
+  }
+}
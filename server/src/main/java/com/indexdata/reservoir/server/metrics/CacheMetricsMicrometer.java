@@ -0,0 +1,50 @@
+package com.indexdata.reservoir.server.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+public class CacheMetricsMicrometer implements CacheMetrics {
+  static MeterRegistry registry = BackendRegistries.getDefaultNow();
+
+  final Counter hitsTotal;
+  final Counter missesTotal;
+  final Counter evictionsTotal;
+
+  CacheMetricsMicrometer(String cache, String tenant) {
+    hitsTotal = createCounter(cache, tenant, "hit");
+    missesTotal = createCounter(cache, tenant, "miss");
+    evictionsTotal = createCounter(cache, tenant, "eviction");
+  }
+
+  /** create counter for cache and tenant with result.
+   * This is public, so we can use it for tests.
+   * @param cache cache tag for counter
+   * @param tenant tenant tag for counter
+   * @param result result tag for counter
+   * @return created counter
+   */
+  public static Counter createCounter(String cache, String tenant, String result) {
+    return Counter.builder("reservoir_cache_operations_total")
+      .description("Total number of reservoir cache lookups and evictions")
+      .tag("cache", cache)
+      .tag("tenant", tenant)
+      .tag("result", result)
+      .register(registry);
+  }
+
+  @Override
+  public void incrementHits() {
+    hitsTotal.increment();
+  }
+
+  @Override
+  public void incrementMisses() {
+    missesTotal.increment();
+  }
+
+  @Override
+  public void incrementEvictions() {
+    evictionsTotal.increment();
+  }
+}
@@ -0,0 +1,15 @@
+package com.indexdata.reservoir.server.metrics;
+
+public class CacheMetricsNop implements CacheMetrics {
+  @Override
+  public void incrementHits() {
+  }
+
+  @Override
+  public void incrementMisses() {
+  }
+
+  @Override
+  public void incrementEvictions() {
+  }
+}
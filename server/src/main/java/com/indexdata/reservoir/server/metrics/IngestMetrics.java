@@ -15,6 +15,8 @@ public interface IngestMetrics {
 
   void incrementRecordsUpdated();
 
+  void incrementRecordsUnchanged();
+
   void recordMatcher(long amount, TimeUnit unit);
 
   void recordStoring(long amount, TimeUnit unit);
@@ -17,6 +17,7 @@ public class IngestMetricsMicrometer implements IngestMetrics {
   static ConcurrentHashMap<String, Counter> recordsInsertedMap = new ConcurrentHashMap<>();
   static ConcurrentHashMap<String, Counter> recordsDeletedMap = new ConcurrentHashMap<>();
   static ConcurrentHashMap<String, Counter> recordsUpdatedMap = new ConcurrentHashMap<>();
+  static ConcurrentHashMap<String, Counter> recordsUnchangedMap = new ConcurrentHashMap<>();
   static ConcurrentHashMap<String, Timer> timerMatcherMap = new ConcurrentHashMap<>();
   static ConcurrentHashMap<String, Timer> timerStoringMap = new ConcurrentHashMap<>();
   static ConcurrentHashMap<String, Timer> timerParsingMap = new ConcurrentHashMap<>();
@@ -25,6 +26,7 @@ public class IngestMetricsMicrometer implements IngestMetrics {
   Counter recordsInsertedTotal;
   Counter recordsDeletedTotal;
   Counter recordsUpdatedTotal;
+  Counter recordsUnchangedTotal;
   Timer timerMatcher;
   Timer timerStoring;
   Timer timerParsing;
@@ -82,6 +84,7 @@ public class IngestMetricsMicrometer implements IngestMetrics {
     recordsInsertedTotal = getCounter(recordsInsertedMap, sourceId, "inserted");
     recordsDeletedTotal = getCounter(recordsDeletedMap, sourceId, "deleted");
     recordsUpdatedTotal = getCounter(recordsUpdatedMap, sourceId, "updated");
+    recordsUnchangedTotal = getCounter(recordsUnchangedMap, sourceId, "unchanged");
     timerMatcher = getTimer(timerMatcherMap, sourceId, "matcher");
     timerStoring = getTimer(timerStoringMap, sourceId, "storing");
     timerParsing = getTimer(timerParsingMap, sourceId, "parsing");
@@ -108,6 +111,11 @@ public class IngestMetricsMicrometer implements IngestMetrics {
     recordsUpdatedTotal.increment();
   }
 
+  @Override
+  public void incrementRecordsUnchanged() {
+    recordsUnchangedTotal.increment();
+  }
+
   @Override
   public void recordMatcher(long amount, TimeUnit unit) {
     timerMatcher.record(amount, unit);
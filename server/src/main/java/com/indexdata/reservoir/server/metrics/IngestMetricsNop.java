@@ -21,6 +21,9 @@ public class IngestMetricsNop implements IngestMetrics {
   public void incrementRecordsUpdated() {
   }
 
+  public void incrementRecordsUnchanged() {
+  }
+
   public void recordMatcher(long amount, TimeUnit unit) {
   }
 
@@ -0,0 +1,44 @@
+package com.indexdata.reservoir.server.metrics;
+
+import com.indexdata.reservoir.util.AdaptiveLimit;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+public final class LimitMetrics {
+  private LimitMetrics() {
+    throw new UnsupportedOperationException("LimitMetrics");
+  }
+
+  /**
+   * Register gauges for limit if a metrics backend is available.
+   *
+   * <p>Gauges only keep a weak reference to the limit, so the caller must keep it.
+   * @param pipeline pipeline name
+   * @param tenant tenant of the pipeline
+   * @param source source identifier
+   * @param batchSize records stored together by the pipeline
+   * @param limit limit of records in flight
+   */
+  public static void register(String pipeline, String tenant, String source, int batchSize,
+      AdaptiveLimit limit) {
+    MeterRegistry registry = BackendRegistries.getDefaultNow();
+    if (registry == null) {
+      return;
+    }
+    Gauge.builder("reservoir_ingest_limit", limit, AdaptiveLimit::getLimit)
+        .description("Current limit of reservoir records being stored")
+        .tag("pipeline", pipeline)
+        .tag("tenant", tenant)
+        .tag("source", source)
+        .tag("batchSize", Integer.toString(batchSize))
+        .register(registry);
+    Gauge.builder("reservoir_ingest_latency_seconds", limit, l -> l.getLatency() / 1e9)
+        .description("Smoothed time for storing a reservoir record, including waiting")
+        .tag("pipeline", pipeline)
+        .tag("tenant", tenant)
+        .tag("source", source)
+        .tag("batchSize", Integer.toString(batchSize))
+        .register(registry);
+  }
+}
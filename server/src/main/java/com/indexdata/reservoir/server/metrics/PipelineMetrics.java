@@ -0,0 +1,24 @@
+package com.indexdata.reservoir.server.metrics;
+
+import io.vertx.micrometer.backends.BackendRegistries;
+
+public interface PipelineMetrics {
+  /**
+   * Adjust number of records in flight.
+   * @param delta records added (positive) or completed (negative)
+   */
+  void addInFlight(int delta);
+
+  /**
+   * Create PipelineMetrics instance and use default backend if available.
+   * @param pipeline pipeline name
+   * @param tenant tenant of the pipeline
+   * @return metrics instance
+   */
+  static PipelineMetrics create(String pipeline, String tenant) {
+    if (BackendRegistries.getDefaultNow() != null) {
+      return new PipelineMetricsMicrometer(pipeline, tenant);
+    }
+    return new PipelineMetricsNop();
+  }
+}
@@ -0,0 +1,37 @@
+package com.indexdata.reservoir.server.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineMetricsMicrometer implements PipelineMetrics {
+  static MeterRegistry registry = BackendRegistries.getDefaultNow();
+
+  // gauges only keep a weak reference to their value
+  static ConcurrentHashMap<String, AtomicInteger> inFlightMap = new ConcurrentHashMap<>();
+
+  final AtomicInteger inFlight;
+
+  PipelineMetricsMicrometer(String pipeline, String tenant) {
+    inFlight = inFlightMap.computeIfAbsent(pipeline + "_" + tenant, id -> {
+      AtomicInteger value = new AtomicInteger();
+      createGauge(pipeline, tenant, value);
+      return value;
+    });
+  }
+
+  private static Gauge createGauge(String pipeline, String tenant, AtomicInteger value) {
+    return Gauge.builder("reservoir_pipeline_records_in_flight", value, AtomicInteger::get)
+      .description("Number of reservoir records being produced by a pipeline")
+      .tag("pipeline", pipeline)
+      .tag("tenant", tenant)
+      .register(registry);
+  }
+
+  @Override
+  public void addInFlight(int delta) {
+    inFlight.addAndGet(delta);
+  }
+}
@@ -0,0 +1,7 @@
+package com.indexdata.reservoir.server.metrics;
+
+public class PipelineMetricsNop implements PipelineMetrics {
+  @Override
+  public void addInFlight(int delta) {
+  }
+}
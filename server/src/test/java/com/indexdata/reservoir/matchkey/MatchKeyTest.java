@@ -0,0 +1,104 @@
+package com.indexdata.reservoir.matchkey;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+import org.folio.okapi.testing.UtilityClassTester;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the Java match keys against the assertions used for the JavaScript versions.
+ */
+public class MatchKeyTest {
+  static final Path JS_DIR = Path.of("../js");
+
+  @Test
+  public void isUtilityClass() {
+    UtilityClassTester.assertUtilityClass(GoldRush.class);
+    UtilityClassTester.assertUtilityClass(DeepDish.class);
+    UtilityClassTester.assertUtilityClass(KeyText.class);
+  }
+
+  static int checkAssertions(String assertionsFile, Function<JsonObject, String> matchkey)
+      throws IOException {
+    JsonObject assertions = new JsonObject(Files.readString(JS_DIR.resolve(assertionsFile)));
+    int checked = 0;
+    for (String file : assertions.fieldNames()) {
+      JsonObject marc;
+      try {
+        marc = new JsonObject(Files.readString(JS_DIR.resolve(file)));
+      } catch (DecodeException e) {
+        continue; // JSON parse errors are reported by the JavaScript runtime
+      }
+      String key;
+      try {
+        key = matchkey.apply(new JsonObject().put("marc", marc));
+      } catch (IllegalArgumentException e) {
+        key = e.getMessage();
+      }
+      assertThat(file, key, is(assertions.getString(file)));
+      checked++;
+    }
+    return checked;
+  }
+
+  @Test
+  public void goldrush2021() throws IOException {
+    assertThat(checkAssertions("test/assertions-goldrush2021.json",
+        GoldRush::matchkey2021), is(7));
+  }
+
+  @Test
+  public void goldrush2024() throws IOException {
+    assertThat(checkAssertions("test/assertions-goldrush2024.json",
+        GoldRush::matchkey2024), is(7));
+  }
+
+  @Test
+  public void deepdish() throws IOException {
+    Function<JsonObject, String> f = x -> new JsonArray(DeepDish.matchkeys(x)).encode();
+    assertThat(checkAssertions("test/assertions-deepdish.json", f), is(6));
+    assertThat(checkAssertions("test/assertions-deepdish-goldrush2024.json", f), is(7));
+  }
+
+  @Test
+  public void missingFields() {
+    JsonObject payload = new JsonObject().put("marc", new JsonObject());
+    Exception e = Assert.assertThrows(IllegalArgumentException.class,
+        () -> GoldRush.matchkey2024(payload));
+    assertThat(e.getMessage(), is("MARC fields array is missing."));
+    e = Assert.assertThrows(IllegalArgumentException.class,
+        () -> DeepDish.matchkeys(new JsonObject()));
+    assertThat(e.getMessage(), is("MARC record is missing."));
+  }
+
+  @Test
+  public void minimalRecord() {
+    JsonObject payload = new JsonObject()
+        .put("marc", new JsonObject().put("fields", new JsonArray()));
+    assertThat(GoldRush.matchkey2024(payload).length(), is(148));
+    assertThat(DeepDish.matchkeys(payload), is(List.of(GoldRush.matchkey2024(payload))));
+  }
+
+  @Test
+  public void unaccent() {
+    assertThat(KeyText.normalizeAndUnaccent("Thée, Mïne å"), is("Thee, Mine a"));
+    assertThat(KeyText.normalizeAndUnaccent(null), is((String) null));
+  }
+
+  @Test
+  public void standardNum() {
+    assertThat(DeepDish.doStandardNum("020", "978-0-8052-4116-7 :"), is("020_080524116"));
+    assertThat(DeepDish.doStandardNum("020", ""), is("020_"));
+    assertThat(DeepDish.doStandardNum("022", "0003-9187"), is("022_00039187"));
+  }
+}
@@ -10,18 +10,23 @@ import com.indexdata.reservoir.module.ModuleInvocation;
 import com.indexdata.reservoir.server.entity.ClusterBuilder;
 import com.indexdata.reservoir.server.entity.CodeModuleEntity.CodeModuleBuilder;
 
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import org.graalvm.polyglot.PolyglotException;
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -556,6 +561,86 @@ public class ModuleTest {
       }));
   }
 
+  @Test
+  public void testJsMatchkeyModuleParallel(TestContext context) {
+    JsonObject config = new JsonObject()
+      .put("id", "matchkey-isbn")
+      .put("type", "javascript")
+      .put("url", HOSTPORT + "/lib/matchkey-isbn.mjs")
+      .put("function", "matchkey");
+
+    new CodeModuleBuilder(config).resolve(vertx)
+      .compose(entity -> ModuleCache.getInstance().lookup(TENANT, entity))
+      .compose(m -> {
+        ModuleExecutable executable =
+            new ModuleExecutable(m, new ModuleInvocation("matchkey-isbn"), vertx);
+        List<Future<Collection<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+          JsonObject payload = new JsonObject()
+              .put("identifiers", new JsonArray()
+                  .add(new JsonObject().put("isbn", Integer.toString(i))));
+          futures.add(executable.executeAsCollection(payload));
+        }
+        return Future.all(futures);
+      })
+      .onComplete(context.asyncAssertSuccess(cf -> {
+        for (int i = 0; i < 100; i++) {
+          Collection<String> result = cf.resultAt(i);
+          assertThat(result, is(Set.of(Integer.toString(i))));
+        }
+      }));
+  }
+
+  @Test
+  public void testJsMatchkeyModulePurged(TestContext context) {
+    JsonObject config = new JsonObject()
+      .put("id", "matchkey-isbn")
+      .put("type", "javascript")
+      .put("url", HOSTPORT + "/lib/matchkey-isbn.mjs")
+      .put("function", "matchkey");
+
+    new CodeModuleBuilder(config).resolve(vertx)
+      .compose(entity -> ModuleCache.getInstance().lookup(TENANT, entity))
+      .map(m -> {
+        ModuleCache.getInstance().purge(TENANT, "matchkey-isbn");
+        return m.executeAsCollection(null, new JsonObject());
+      })
+      .onComplete(context.asyncAssertFailure(e ->
+        assertThat(e.getMessage(), is("uninitialized"))));
+  }
+
+  @Test
+  public void testJavaMatchkeyModule(TestContext context) {
+    JsonObject payload = new JsonObject()
+        .put("marc", new JsonObject()
+            .put("fields", new JsonArray()
+                .add(new JsonObject().put("020", new JsonObject()
+                    .put("subfields", new JsonArray()
+                        .add(new JsonObject().put("a", "0805241167 :")))))));
+
+    JsonObject config = new JsonObject()
+      .put("id", "java-matchkeys")
+      .put("type", "java");
+
+    new CodeModuleBuilder(config).resolve(vertx)
+      .compose(entity -> ModuleCache.getInstance().lookup(TENANT, entity))
+      .onComplete(context.asyncAssertSuccess(m -> {
+        Collection<String> keys = m.executeAsCollection("deepdish", payload);
+        assertThat(keys.size(), is(2));
+        assertThat(keys.contains("020_080524116"), is(true));
+        assertThat(m.executeAsCollection("goldrush2024", payload).size(), is(1));
+        assertThat(m.executeAsCollection("goldrush", payload).size(), is(1));
+        Exception e = Assert.assertThrows(IllegalArgumentException.class,
+            () -> m.executeAsCollection("foo", payload));
+        assertThat(e.getMessage(), is("Module java-matchkeys does not include function foo"));
+        e = Assert.assertThrows(IllegalArgumentException.class,
+            () -> m.executeAsCollection(null, payload));
+        assertThat(e.getMessage(),
+            is("Java modules require 'function' defined in config or by caller"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> m.execute("deepdish", payload));
+      }));
+  }
+
   @Test
   public void testJsMatchkeyModuleNoFunction(TestContext context) {
     JsonObject config = new JsonObject()
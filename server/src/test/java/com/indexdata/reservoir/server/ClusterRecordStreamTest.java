@@ -0,0 +1,153 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.indexdata.reservoir.server.metrics.PipelineMetricsNop;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+import io.vertx.sqlclient.Row;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ClusterRecordStreamTest {
+
+  static class Response implements WriteStream<Buffer> {
+    final List<String> written = new ArrayList<>();
+    boolean full;
+    Handler<Void> drainHandler;
+
+    @Override
+    public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+      return this;
+    }
+
+    @Override
+    public Future<Void> write(Buffer data) {
+      written.add(data.toString());
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public Future<Void> end() {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+      return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+      return full;
+    }
+
+    @Override
+    public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+      drainHandler = handler;
+      return this;
+    }
+  }
+
+  static List<Row> page(int size) {
+    return Collections.nCopies(size, null);
+  }
+
+  @Test
+  public void ordered() {
+    Response response = new Response();
+    Map<Integer, Promise<Buffer>> promises = new HashMap<>();
+    ClusterRecordStream stream = new ClusterRecordStream(null, response, rows -> {
+      Promise<Buffer> promise = Promise.promise();
+      promises.put(rows.size(), promise);
+      return promise.future();
+    }, new PipelineMetricsNop());
+    stream.setWriteQueueMaxSize(3);
+    List<String> drained = new ArrayList<>();
+    stream.drainHandler(x -> drained.add("drain"));
+
+    stream.write(page(1));
+    stream.write(page(2));
+    assertThat(stream.writeQueueFull(), is(false));
+    stream.write(page(3));
+    assertThat(stream.writeQueueFull(), is(true));
+
+    promises.get(3).complete(Buffer.buffer("3"));
+    promises.get(2).complete(Buffer.buffer("2"));
+    assertThat(response.written, empty());
+    assertThat(drained, empty());
+    promises.get(1).complete(Buffer.buffer("1"));
+    assertThat(response.written, contains("1", "2", "3"));
+    assertThat(drained, contains("drain"));
+
+    Future<Void> end = stream.end();
+    assertThat(end.succeeded(), is(true));
+  }
+
+  @Test
+  public void endWaitsForPending() {
+    Response response = new Response();
+    Promise<Buffer> promise = Promise.promise();
+    ClusterRecordStream stream = new ClusterRecordStream(null, response,
+        rows -> rows.size() == 1 ? promise.future() : Future.succeededFuture(Buffer.buffer("2")),
+        new PipelineMetricsNop());
+    stream.write(page(1));
+    stream.write(page(2));
+    Future<Void> end = stream.end();
+    assertThat(end.isComplete(), is(false));
+    promise.complete(Buffer.buffer("1"));
+    assertThat(end.succeeded(), is(true));
+    assertThat(response.written, contains("1", "2"));
+  }
+
+  @Test
+  public void responseFull() {
+    Response response = new Response();
+    ClusterRecordStream stream = new ClusterRecordStream(null, response,
+        rows -> Future.succeededFuture(Buffer.buffer("x")), new PipelineMetricsNop());
+    List<String> drained = new ArrayList<>();
+    stream.drainHandler(x -> drained.add("drain"));
+    stream.write(page(1));
+    response.full = true;
+    assertThat(stream.writeQueueFull(), is(true));
+    response.full = false;
+    response.drainHandler.handle(null);
+    assertThat(drained, contains("drain"));
+  }
+
+  @Test
+  public void responseDrainHandlerOnlyWithDrainHandler() {
+    Response response = new Response();
+    Handler<Void> own = x -> { };
+    response.drainHandler(own);
+    ClusterRecordStream stream = new ClusterRecordStream(null, response,
+        rows -> Future.succeededFuture(Buffer.buffer("x")), new PipelineMetricsNop());
+    // not replaced until the stream is given a drain handler
+    assertThat(response.drainHandler, is(own));
+    stream.write(page(1));
+    response.full = true;
+    assertThat(stream.writeQueueFull(), is(true));
+    response.full = false;
+    assertThat(response.written, contains("x"));
+
+    List<String> drained = new ArrayList<>();
+    stream.drainHandler(x -> drained.add("drain"));
+    assertThat(response.drainHandler, is(not(own)));
+    response.drainHandler.handle(null);
+    assertThat(drained, contains("drain"));
+    stream.drainHandler(null);
+    assertThat(response.drainHandler, is(nullValue()));
+  }
+}
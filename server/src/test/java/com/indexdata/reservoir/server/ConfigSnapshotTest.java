@@ -0,0 +1,77 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import io.vertx.core.Future;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConfigSnapshotTest {
+
+  static ConfigSnapshot snapshot() {
+    return new ConfigSnapshot("t", List.of(), Map.of(), null);
+  }
+
+  @After
+  public void after() {
+    ConfigSnapshot.invalidateAll();
+  }
+
+  @Test
+  public void cached() {
+    AtomicInteger loads = new AtomicInteger();
+    ConfigSnapshot first = ConfigSnapshot.cached("t", () -> {
+      loads.incrementAndGet();
+      return Future.succeededFuture(snapshot());
+    }).result();
+    ConfigSnapshot second = ConfigSnapshot.cached("t", () -> {
+      loads.incrementAndGet();
+      return Future.succeededFuture(snapshot());
+    }).result();
+    assertThat(second, sameInstance(first));
+    assertThat(loads.get(), is(1));
+
+    ConfigSnapshot.invalidate("t");
+    ConfigSnapshot third = ConfigSnapshot.cached("t", () -> {
+      loads.incrementAndGet();
+      return Future.succeededFuture(snapshot());
+    }).result();
+    assertThat(third == first, is(false));
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void failedLoadNotKept() {
+    Future<ConfigSnapshot> failed = ConfigSnapshot.cached("t",
+        () -> Future.failedFuture("down"));
+    assertThat(failed.failed(), is(true));
+    Future<ConfigSnapshot> loaded = ConfigSnapshot.cached("t",
+        () -> Future.succeededFuture(snapshot()));
+    assertThat(loaded.succeeded(), is(true));
+  }
+
+  @Test
+  public void ingestMatchers() {
+    ConfigSnapshot snapshot = snapshot();
+    AtomicInteger creates = new AtomicInteger();
+    Future<List<IngestMatcher>> failed = snapshot.getIngestMatchers(configs -> {
+      creates.incrementAndGet();
+      return Future.failedFuture("no module");
+    });
+    assertThat(failed.failed(), is(true));
+    List<IngestMatcher> matchers = snapshot.getIngestMatchers(configs -> {
+      creates.incrementAndGet();
+      return Future.succeededFuture(List.of());
+    }).result();
+    assertThat(snapshot.getIngestMatchers(configs -> {
+      creates.incrementAndGet();
+      return Future.succeededFuture(List.of());
+    }).result(), sameInstance(matchers));
+    assertThat(creates.get(), is(2));
+  }
+}
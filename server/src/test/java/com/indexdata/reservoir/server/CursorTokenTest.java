@@ -0,0 +1,30 @@
+package com.indexdata.reservoir.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.UUID;
+
+public class CursorTokenTest {
+
+  @Test
+  public void testEncodeDecode() {
+    String key = UUID.randomUUID().toString();
+    CursorToken token = new CursorToken("cluster_id", key);
+    CursorToken token2 = new CursorToken(token.encode());
+    Assert.assertEquals("cluster_id", token2.getColumn());
+    Assert.assertEquals(key, token2.getKey());
+  }
+
+  @Test
+  public void testKeyWithSpace() {
+    CursorToken token = new CursorToken(new CursorToken("id", "my key/+").encode());
+    Assert.assertEquals("id", token.getColumn());
+    Assert.assertEquals("my key/+", token.getKey());
+  }
+
+  @Test
+  public void testBad() {
+    Assert.assertThrows(IllegalArgumentException.class, () -> new CursorToken("%%"));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new CursorToken("aWQ"));
+  }
+}
@@ -0,0 +1,27 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import com.indexdata.reservoir.util.AdaptiveLimit;
+import org.junit.Test;
+
+public class IngestLimitsTest {
+
+  @Test
+  public void batchSizes() {
+    AdaptiveLimit small = IngestLimits.get("oai", "t1", "S-1", 10, 4, 2);
+    assertThat(small.getMinLimit(), is(4));
+    assertThat(IngestLimits.get("oai", "t1", "S-1", 10, 4, 2), is(sameInstance(small)));
+
+    // later ingest of same source with larger batches
+    AdaptiveLimit large = IngestLimits.get("oai", "t1", "S-1", 10, 400, 100);
+    assertThat(large, is(not(sameInstance(small))));
+    assertThat(large.getMinLimit(), is(200));
+    assertThat(large.getLimit(), greaterThanOrEqualTo(100));
+    assertThat(large.getMaxLimit(), is(4000));
+  }
+}
@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -49,12 +50,14 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
+import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.Tuple;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.awaitility.Awaitility;
 import org.folio.okapi.common.ModuleVersionReporter;
 import org.folio.okapi.common.XOkapiHeaders;
+import org.folio.tlib.postgres.TenantPgPool;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Assert;
@@ -97,6 +100,9 @@ public class MainVerticleTest extends TestBase {
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_2)
         .delete("/reservoir/pmh-clients/" + PMH_CLIENT_ID);
+    mockPages.clear();
+    mockPageFailures.clear();
+    mockPageRequests.clear();
   }
 
   public class SruVerify {
@@ -106,6 +112,7 @@ public class MainVerticleTest extends TestBase {
     int numberOfRecords = 0;
     int numberOfRecordsReturned = 0;
     int numberOfRecordSchemas = 0;
+    String resultCountPrecision;
     String response;
 
     public SruVerify(String s) throws XMLStreamException {
@@ -129,6 +136,9 @@ public class MainVerticleTest extends TestBase {
               if (event == XMLStreamConstants.CHARACTERS) {
                 numberOfRecords = Integer.parseInt(xmlStreamReader.getText());
               }
+            } else if ("resultCountPrecision".equals(elem)) {
+              resultCountPrecision = xmlStreamReader.getElementText();
+              level--;
             } else if ("diagnostic".equals(elem)) {
               if (level < 3) {
                 throw new IllegalStateException("diagnostic not at level 3");
@@ -993,6 +1003,708 @@ public class MainVerticleTest extends TestBase {
         .then().statusCode(200);
   }
 
+  static Future<Long> countPayloadsCompressed(Storage storage) {
+    return storage.getPool().query("SELECT COUNT(*) FROM " + storage.getGlobalRecordTable()
+            + " WHERE payload IS NULL AND payload_compressed IS NOT NULL")
+        .execute()
+        .map(rowSet -> rowSet.iterator().next().getLong(0));
+  }
+
+  void verifyPayloads(JsonArray records) {
+    for (int i = 0; i < records.size(); i++) {
+      JsonObject rec = records.getJsonObject(i);
+      String res = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("query", "localId=" + rec.getString("localId"))
+          .get("/reservoir/records")
+          .then().statusCode(200)
+          .body("items", hasSize(1))
+          .extract().body().asString();
+      assertThat(new JsonObject(res).getJsonArray("items").getJsonObject(0)
+          .getJsonObject("payload"), is(rec.getJsonObject("payload")));
+    }
+  }
+
+  @Test
+  public void testPayloadCompression(TestContext context) {
+    JsonArray records = new JsonArray();
+    for (int i = 0; i < 3; i++) {
+      records.add(new JsonObject()
+          .put("localId", "C" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject()
+                  .put("leader", "00914naa  2200337   450 ")
+                  .put("fields", new JsonArray()
+                      .add(new JsonObject().put("001", "C" + i))
+                      .add(new JsonObject().put("245", new JsonObject()
+                          .put("subfields", new JsonArray()
+                              .add(new JsonObject().put("a", "Tïtle " + i)))
+                          .put("ind1", "1").put("ind2", "0")))))
+              .put("inventory", new JsonObject().put("isbn", Integer.toString(i)))));
+    }
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.PUT);
+    Storage.setPayloadCompression(6);
+    try {
+      ingestRecords(records, SOURCE_ID_1);
+      verifyPayloads(records);
+      Async async = context.async();
+      countPayloadsCompressed(storage)
+          .onComplete(context.asyncAssertSuccess(count -> {
+            assertThat(count, is(3L));
+            async.complete();
+          }));
+      async.await();
+    } finally {
+      Storage.setPayloadCompression(0);
+    }
+    // convert back to JSONB
+    Async async = context.async();
+    storage.convertPayloads(2)
+        .compose(converted -> {
+          assertThat(converted, is(3L));
+          return countPayloadsCompressed(storage);
+        })
+        .onComplete(context.asyncAssertSuccess(count -> {
+          assertThat(count, is(0L));
+          async.complete();
+        }));
+    async.await();
+    verifyPayloads(records);
+  }
+
+  static Future<List<String>> clusterValueIndexes(Storage storage) {
+    return storage.getPool().preparedQuery("SELECT c.relname FROM pg_index AS i"
+            + " JOIN pg_class AS c ON c.oid = i.indexrelid"
+            + " WHERE i.indrelid = $1::regclass ORDER BY c.relname")
+        .execute(Tuple.of(storage.getClusterValuesTable()))
+        .map(rowSet -> {
+          List<String> names = new ArrayList<>();
+          rowSet.forEach(row -> names.add(row.getString(0)));
+          return names;
+        });
+  }
+
+  void switchMatchValueHash(TestContext context, Storage storage, boolean hash) {
+    Storage.setMatchValueHash(hash);
+    Async async = context.async();
+    storage.init()
+        .compose(x -> clusterValueIndexes(storage))
+        .onComplete(context.asyncAssertSuccess(names -> {
+          assertThat(names, is(List.of("cluster_value_cluster_idx",
+              hash ? "cluster_value_hash_idx" : "cluster_value_value_idx")));
+          async.complete();
+        }));
+    async.await();
+  }
+
+  @Test
+  public void testMatchValueHash(TestContext context) {
+    // values that are the same when truncated
+    String prefix = "9".repeat(700);
+    JsonArray records = new JsonArray();
+    for (String localId : List.of("H1", "H2", "H3")) {
+      String isbn = prefix + (localId.equals("H2") ? "2" : "1");
+      records.add(new JsonObject()
+          .put("localId", localId)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(isbn)))));
+    }
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.PUT);
+    switchMatchValueHash(context, storage, true);
+    try {
+      createIsbnMatchKey();
+      ingestRecords(records, SOURCE_ID_1);
+
+      String s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .contentType("application/json")
+          .body("items", hasSize(2))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("H1", "H3"), List.of("H2")));
+
+      s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("query", "matchValue=" + prefix + "2")
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .contentType("application/json")
+          .body("items", hasSize(1))
+          .body("items[0].matchValues", is(List.of(prefix + "2")))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("H2")));
+
+      // remove H2 from its cluster, which deletes its value
+      ingestRecords(new JsonArray().add(records.getJsonObject(1).copy()
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(prefix + "1"))))),
+          SOURCE_ID_1);
+      s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .contentType("application/json")
+          .body("items", hasSize(1))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("H1", "H2", "H3")));
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("query", "matchValue=" + prefix + "2")
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(0));
+
+      // back to the value index: the stored value is truncated and still matches
+      switchMatchValueHash(context, storage, false);
+      ingestRecords(new JsonArray().add(records.getJsonObject(0).copy().put("localId", "H4")),
+          SOURCE_ID_1);
+      s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .contentType("application/json")
+          .body("items", hasSize(1))
+          .body("items[0].matchValues", is(List.of("9".repeat(600))))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("H1", "H2", "H3", "H4")));
+    } finally {
+      switchMatchValueHash(context, storage, false);
+    }
+  }
+
+  @Test
+  public void testMatchValueHashSwitchRefused(TestContext context) {
+    // values of different clusters that are the same when truncated
+    String prefix = "9".repeat(700);
+    JsonArray records = new JsonArray();
+    for (String localId : List.of("H1", "H2")) {
+      records.add(new JsonObject()
+          .put("localId", localId)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(prefix + localId)))));
+    }
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.PUT);
+    switchMatchValueHash(context, storage, true);
+    try {
+      createIsbnMatchKey();
+      ingestRecords(records, SOURCE_ID_1);
+
+      Storage.setMatchValueHash(false);
+      Async async = context.async();
+      storage.init()
+          .onComplete(context.asyncAssertFailure(e -> {
+            assertThat(e.getMessage(), containsString("Can not set match.value.hash=false:"
+                + " match values of match keys isbn are the same when truncated"));
+            async.complete();
+          }));
+      async.await();
+      Async async2 = context.async();
+      clusterValueIndexes(storage)
+          .onComplete(context.asyncAssertSuccess(names -> {
+            assertThat(names, is(List.of("cluster_value_cluster_idx", "cluster_value_hash_idx")));
+            async2.complete();
+          }));
+      async2.await();
+    } finally {
+      // without the clusters the switch goes through
+      deleteIsbnMatchKey();
+      switchMatchValueHash(context, storage, false);
+    }
+  }
+
+  static Future<List<String>> partitions(Storage storage, String table) {
+    return storage.getPool().preparedQuery("SELECT c.relname FROM pg_inherits AS i"
+            + " JOIN pg_class AS c ON c.oid = i.inhrelid"
+            + " WHERE i.inhparent = to_regclass($1) ORDER BY c.relname")
+        .execute(Tuple.of(table))
+        .map(rowSet -> {
+          List<String> names = new ArrayList<>();
+          rowSet.forEach(row -> names.add(row.getString(0)));
+          return names;
+        });
+  }
+
+  static void ingestRecords(String tenant, JsonArray records, String sourceId,
+      int sourceVersion) {
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject()
+            .put("sourceId", sourceId)
+            .put("sourceVersion", sourceVersion)
+            .put("records", records).encode())
+        .put("/reservoir/records")
+        .then().statusCode(200);
+  }
+
+  static JsonArray records(String... localIds) {
+    JsonArray records = new JsonArray();
+    for (String localId : localIds) {
+      records.add(new JsonObject()
+          .put("localId", localId)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))));
+    }
+    return records;
+  }
+
+  static void verifyRecordCount(String tenant, String query, int count) {
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .param("query", query)
+        .get("/reservoir/records")
+        .then().statusCode(200)
+        .body("items", hasSize(count));
+  }
+
+  static void deleteRecords(String tenant, String query) {
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .param("query", query)
+        .delete("/reservoir/records")
+        .then().statusCode(204);
+  }
+
+  static long clusterRecordCount(TestContext context, Storage storage) {
+    Async async = context.async();
+    List<Long> count = new ArrayList<>();
+    storage.getPool().query("SELECT COUNT(*) FROM " + storage.getClusterRecordTable())
+        .execute()
+        .onComplete(context.asyncAssertSuccess(rowSet -> {
+          count.add(rowSet.iterator().next().getLong(0));
+          async.complete();
+        }));
+    async.await();
+    return count.get(0);
+  }
+
+  static void createLeaderMatchKey(String tenant) {
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject()
+            .put("id", "leader-matcher")
+            .put("type", "jsonpath")
+            .put("script", "$.marc.leader").encode())
+        .post("/reservoir/config/modules")
+        .then().statusCode(201);
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject()
+            .put("id", "leader")
+            .put("matcher", "leader-matcher")
+            .put("update", "ingest").encode())
+        .post("/reservoir/config/matchkeys")
+        .then().statusCode(201);
+  }
+
+  @Test
+  public void testSourcePartitions(TestContext context) {
+    String tenant = "tenant3";
+    Storage.setSourcePartitions(2);
+    try {
+      Async async = context.async();
+      webClient.postAbs(OKAPI_URL + "/_/proxy/tenants")
+          .sendJsonObject(new JsonObject().put("id", tenant))
+          .expecting(HttpResponseExpectation.SC_CREATED)
+          .compose(x -> webClient.postAbs(OKAPI_URL + "/_/proxy/tenants/" + tenant
+                  + "/install?tenantParameters=sourcePartition%3DSRC-P")
+              .sendJson(new JsonArray().add(new JsonObject()
+                  .put("id", MODULE_PREFIX)
+                  .put("action", "enable")))
+              .expecting(HttpResponseExpectation.SC_OK))
+          .onComplete(context.asyncAssertSuccess(x -> async.complete()));
+      async.await();
+    } finally {
+      Storage.setSourcePartitions(0);
+    }
+    Storage storage = new Storage(vertx, tenant, HttpMethod.PUT);
+    String sourceTable = SourcePartitions.qualified(storage, "gr_src_2dp");
+    // no foreign key from cluster_records: every delete must remove cluster records
+    createLeaderMatchKey(tenant);
+
+    ingestRecords(tenant, records("P1", "P2", "P3"), "SRC-P", 1);
+    ingestRecords(tenant, records("P1"), "SRC-P", 2);
+    ingestRecords(tenant, records("Q1"), "SRC-Q", 1);
+    ingestRecords(tenant, records("R1", "R2"), "SRC-R", 1);
+    verifyRecordCount(tenant, "sourceId=SRC-P", 4);
+    verifyRecordCount(tenant, "sourceId=SRC-Q", 1);
+    assertThat(clusterRecordCount(context, storage), is(7L));
+
+    // single record deleted by ingest
+    ingestRecords(tenant, new JsonArray().add(new JsonObject()
+        .put("localId", "P3").put("delete", true)), "SRC-P", 1);
+    verifyRecordCount(tenant, "sourceId=SRC-P", 3);
+    assertThat(clusterRecordCount(context, storage), is(6L));
+
+    Async async1 = context.async();
+    partitions(storage, storage.getGlobalRecordTable())
+        .compose(names -> {
+          assertThat(names, is(List.of("global_records_default", "gr_src_2dp")));
+          return partitions(storage, sourceTable);
+        })
+        .onComplete(context.asyncAssertSuccess(names -> {
+          assertThat(names, is(List.of("gr_src_2dp_default", "gr_src_2dp_v1", "gr_src_2dp_v2")));
+          async1.complete();
+        }));
+    async1.await();
+
+    // source version with partition: dropped
+    deleteRecords(tenant, "sourceId=SRC-P and sourceVersion=1");
+    verifyRecordCount(tenant, "sourceId=SRC-P", 1);
+    assertThat(clusterRecordCount(context, storage), is(4L));
+    Async async2 = context.async();
+    partitions(storage, sourceTable)
+        .onComplete(context.asyncAssertSuccess(names -> {
+          assertThat(names, is(List.of("gr_src_2dp_default", "gr_src_2dp_v2")));
+          async2.complete();
+        }));
+    async2.await();
+
+    // source with partition: truncated
+    deleteRecords(tenant, "sourceId=SRC-P");
+    verifyRecordCount(tenant, "sourceId=SRC-P", 0);
+    verifyRecordCount(tenant, "sourceId=SRC-Q", 1);
+    assertThat(clusterRecordCount(context, storage), is(3L));
+
+    // source without partition: rows deleted
+    deleteRecords(tenant, "sourceId=SRC-Q");
+    verifyRecordCount(tenant, "sourceId=SRC-Q", 0);
+    assertThat(clusterRecordCount(context, storage), is(2L));
+
+    // background job on a partition whose records were ingested after the last chunk
+    ingestRecords(tenant, records("P5"), "SRC-P", 2);
+    assertThat(clusterRecordCount(context, storage), is(3L));
+    UUID partitionJobId = UUID.randomUUID();
+    JsonObject partitionJob = new JsonObject()
+        .put("id", partitionJobId.toString())
+        .put("type", RecordJob.TYPE_DELETE_RECORDS)
+        .put("status", RecordJob.STATUS_RUNNING)
+        .put("started", MatchKeyInitializer.now())
+        .put("last", new UUID(-1L, -1L).toString())
+        .put("processed", 0L)
+        .put("clusters", 0L);
+    Async async3 = context.async();
+    storage.getPool().preparedQuery("INSERT INTO " + storage.getRecordJobTable()
+            + " (id, job, sql_where, stop, owner) VALUES ($1, $2, $3, FALSE, $4)")
+        .execute(Tuple.of(partitionJobId, partitionJob, "source_id = 'SRC-P'",
+            UUID.randomUUID()))
+        .onComplete(context.asyncAssertSuccess(x -> async3.complete()));
+    async3.await();
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .post("/reservoir/jobs/" + partitionJobId + "/start")
+        .then().statusCode(204);
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> "done".equals(RestAssured.given()
+            .header(XOkapiHeaders.TENANT, tenant)
+            .get("/reservoir/jobs/" + partitionJobId)
+            .then().statusCode(200)
+            .extract().path("status")));
+    verifyRecordCount(tenant, "sourceId=SRC-P", 0);
+    assertThat(clusterRecordCount(context, storage), is(2L));
+
+    // deleted by background job
+    String jobId = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .queryParam("query", "sourceId=SRC-R")
+        .queryParam("async", "true")
+        .delete("/reservoir/records")
+        .then().statusCode(202)
+        .extract().path("id");
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> "done".equals(RestAssured.given()
+            .header(XOkapiHeaders.TENANT, tenant)
+            .get("/reservoir/jobs/" + jobId)
+            .then().statusCode(200)
+            .extract().path("status")));
+    verifyRecordCount(tenant, "sourceId=SRC-R", 0);
+    assertThat(clusterRecordCount(context, storage), is(0L));
+
+    Async async4 = context.async();
+    webClient.postAbs(OKAPI_URL + "/_/proxy/tenants/" + tenant + "/install?purge=true")
+        .sendJson(new JsonArray().add(new JsonObject()
+            .put("id", MODULE_PREFIX)
+            .put("action", "disable")))
+        .expecting(HttpResponseExpectation.SC_OK)
+        .onComplete(context.asyncAssertSuccess(x -> async4.complete()));
+    async4.await();
+  }
+
+  static JsonObject recordJob(String id) {
+    return new JsonObject(RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/jobs/" + id)
+        .then().statusCode(200)
+        .contentType("application/json")
+        .extract().body().asString());
+  }
+
+  static void awaitRecordJob(String id) {
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> !"running".equals(recordJob(id).getString("status")));
+  }
+
+  @Test
+  public void testRecordJobs() {
+    createIsbnMatchKey();
+    RecordJob.setChunkSize(2);
+    try {
+      JsonArray records = new JsonArray();
+      for (int i = 0; i < 5; i++) {
+        records.add(new JsonObject()
+            .put("localId", "J" + i)
+            .put("payload", new JsonObject()
+                .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+                .put("inventory", new JsonObject().put("isbn", new JsonArray().add("J" + i)))));
+      }
+      ingestRecords(records, SOURCE_ID_1);
+      ingestRecords(records, SOURCE_ID_2);
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .queryParam("query", "matchkeyId=isbn")
+          .queryParam("async", "true")
+          .post("/reservoir/clusters/touch")
+          .then()
+          .statusCode(400)
+          .body(is("query too broad, must at least contain 'matchkeyId' and 'sourceId'"));
+
+      String query = "matchkeyId=isbn AND sourceId=" + SOURCE_ID_1;
+      String touchId = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .queryParam("query", query)
+          .queryParam("async", "true")
+          .post("/reservoir/clusters/touch")
+          .then()
+          .statusCode(202)
+          .contentType("application/json")
+          .body("type", is("touchClusters"))
+          .body("query", is(query))
+          .body("status", is("running"))
+          .extract().path("id");
+      awaitRecordJob(touchId);
+      JsonObject job = recordJob(touchId);
+      assertThat(job.getString("status"), is("done"));
+      assertThat(job.getLong("processed"), is(5L));
+      // each cluster has one record of the source
+      assertThat(job.getLong("clusters"), is(5L));
+
+      String deleteId = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .queryParam("query", "sourceId=" + SOURCE_ID_1)
+          .queryParam("async", "true")
+          .delete("/reservoir/records")
+          .then()
+          .statusCode(202)
+          .contentType("application/json")
+          .body("type", is("deleteRecords"))
+          .extract().path("id");
+      awaitRecordJob(deleteId);
+      job = recordJob(deleteId);
+      assertThat(job.getString("status"), is("done"));
+      assertThat(job.getLong("processed"), is(5L));
+      verifyRecordCount(TENANT_1, "sourceId=" + SOURCE_ID_1, 0);
+      verifyRecordCount(TENANT_1, "sourceId=" + SOURCE_ID_2, 5);
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .header("Content-Type", "application/json")
+          .param("matchkeyid", "isbn")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(5))
+          .body("items[0].records", hasSize(1));
+
+      // a job done can not be resumed; stopping it does nothing
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .post("/reservoir/jobs/" + deleteId + "/start")
+          .then().statusCode(400)
+          .body(is("Job " + deleteId + " is done"));
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .post("/reservoir/jobs/" + deleteId + "/stop")
+          .then().statusCode(204);
+      assertThat(recordJob(deleteId).getString("status"), is("done"));
+
+      // stopped before or after the job completes, depending on timing
+      String stopId = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .queryParam("query", "sourceId=" + SOURCE_ID_2)
+          .queryParam("async", "true")
+          .delete("/reservoir/records")
+          .then()
+          .statusCode(202)
+          .extract().path("id");
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .post("/reservoir/jobs/" + stopId + "/stop")
+          .then().statusCode(204);
+      awaitRecordJob(stopId);
+      String status = recordJob(stopId).getString("status");
+      assertThat(status, anyOf(is("stopped"), is("done")));
+      if (status.equals("stopped")) {
+        RestAssured.given()
+            .header(XOkapiHeaders.TENANT, TENANT_1)
+            .post("/reservoir/jobs/" + stopId + "/start")
+            .then().statusCode(204);
+        awaitRecordJob(stopId);
+      }
+      job = recordJob(stopId);
+      assertThat(job.getString("status"), is("done"));
+      assertThat(job.getLong("processed"), is(5L));
+      verifyRecordCount(TENANT_1, "sourceId=" + SOURCE_ID_2, 0);
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .get("/reservoir/jobs")
+          .then().statusCode(200)
+          .contentType("application/json")
+          .body("items.id", Matchers.hasItems(touchId, deleteId, stopId));
+
+      for (String id : List.of(touchId, deleteId, stopId)) {
+        RestAssured.given()
+            .header(XOkapiHeaders.TENANT, TENANT_1)
+            .delete("/reservoir/jobs/" + id)
+            .then().statusCode(204);
+      }
+      String unknown = UUID.randomUUID().toString();
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .get("/reservoir/jobs/" + touchId)
+          .then().statusCode(404)
+          .body(is("Job " + touchId + " not found"));
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .delete("/reservoir/jobs/" + unknown)
+          .then().statusCode(404);
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .post("/reservoir/jobs/" + unknown + "/start")
+          .then().statusCode(404);
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .post("/reservoir/jobs/" + unknown + "/stop")
+          .then().statusCode(404);
+    } finally {
+      RecordJob.setChunkSize(1000);
+    }
+  }
+
+  @Test
+  public void testRecordJobTouchDistinct() {
+    createIsbnMatchKey();
+    createIssnMatchKey();
+    RecordJob.setChunkSize(2);
+    try {
+      JsonArray records = new JsonArray();
+      for (int i = 0; i < 3; i++) {
+        records.add(new JsonObject()
+            .put("localId", "T" + i)
+            .put("payload", new JsonObject()
+                .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+                .put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("T" + i))
+                    .put("issn", new JsonArray().add("T" + i)))));
+      }
+      ingestRecords(records, SOURCE_ID_1);
+
+      // each record is in a cluster of both match keys
+      String query = "(matchkeyId=isbn OR matchkeyId=issn) AND sourceId=" + SOURCE_ID_1;
+      String touchId = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .queryParam("query", query)
+          .queryParam("async", "true")
+          .post("/reservoir/clusters/touch")
+          .then()
+          .statusCode(202)
+          .extract().path("id");
+      awaitRecordJob(touchId);
+      JsonObject job = recordJob(touchId);
+      assertThat(job.getString("status"), is("done"));
+      assertThat(job.getLong("processed"), is(3L));
+      assertThat(job.getLong("clusters"), is(6L));
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .delete("/reservoir/jobs/" + touchId)
+          .then().statusCode(204);
+    } finally {
+      RecordJob.setChunkSize(1000);
+    }
+  }
+
+  static Future<Void> orphanRecordJob(Storage storage, UUID id, String sqlWhere) {
+    // status running, but no run of it since its server went away
+    JsonObject job = new JsonObject()
+        .put("id", id.toString())
+        .put("type", RecordJob.TYPE_DELETE_RECORDS)
+        .put("status", RecordJob.STATUS_RUNNING)
+        .put("started", MatchKeyInitializer.now())
+        .put("last", new UUID(0L, 0L).toString())
+        .put("processed", 0L)
+        .put("clusters", 0L);
+    return storage.getPool().preparedQuery("INSERT INTO " + storage.getRecordJobTable()
+            + " (id, job, sql_where, stop, owner) VALUES ($1, $2, $3, FALSE, $4)")
+        .execute(Tuple.of(id, job, sqlWhere, UUID.randomUUID()))
+        .mapEmpty();
+  }
+
+  @Test
+  public void testRecordJobServerGone(TestContext context) {
+    ingestRecords(records("G1", "G2"), SOURCE_ID_1);
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    UUID deleteId = UUID.randomUUID();
+    UUID stopId = UUID.randomUUID();
+    String sqlWhere = "source_id = '" + SOURCE_ID_1 + "'";
+    Async async = context.async();
+    orphanRecordJob(storage, deleteId, sqlWhere)
+        .compose(x -> orphanRecordJob(storage, stopId, sqlWhere))
+        .onComplete(context.asyncAssertSuccess(x -> async.complete()));
+    async.await();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/reservoir/jobs/" + deleteId)
+        .then().statusCode(204);
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/jobs/" + deleteId)
+        .then().statusCode(404);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .post("/reservoir/jobs/" + stopId + "/stop")
+        .then().statusCode(204);
+    assertThat(recordJob(stopId.toString()).getString("status"), is("stopped"));
+    verifyRecordCount(TENANT_1, "sourceId=" + SOURCE_ID_1, 2);
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .post("/reservoir/jobs/" + stopId + "/start")
+        .then().statusCode(204);
+    awaitRecordJob(stopId.toString());
+    JsonObject job = recordJob(stopId.toString());
+    assertThat(job.getString("status"), is("done"));
+    assertThat(job.getLong("processed"), is(2L));
+    verifyRecordCount(TENANT_1, "sourceId=" + SOURCE_ID_1, 0);
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/reservoir/jobs/" + stopId)
+        .then().statusCode(204);
+  }
+
   @Test
   public void testMatchKeysIngest() {
     JsonObject matchKey = createIsbnMatchKey();
@@ -1883,6 +2595,16 @@ public class MainVerticleTest extends TestBase {
         .extract().body().asString();
     verifyClusterResponse(s, List.of(List.of("S101"), List.of("S102")));
 
+    // isbn 1 no longer in use, so removed from the cluster of S101
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/config/matchkeys/isbn/stats")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("clustersTotal", is(2))
+        .body("matchValuesPerCluster.1", is(1))
+        .body("matchValuesPerCluster.2", is(1));
+
     log.info("phase 3: S101 from 4 to 3");
     records1 = new JsonArray()
         .add(new JsonObject()
@@ -2033,6 +2755,94 @@ public class MainVerticleTest extends TestBase {
         .then().statusCode(204);
   }
 
+  List<String> getAllByCursor(String path, String matchKeyId, String idProperty) {
+    List<String> ids = new ArrayList<>();
+    String cursor = "*";
+    while (cursor != null) {
+      JsonObject page = new JsonObject(RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("limit", 10)
+          .param("cursor", cursor)
+          .param("count", "exact")
+          .queryParams(matchKeyId == null ? Map.of() : Map.of("matchkeyid", matchKeyId))
+          .get(path)
+          .then().statusCode(200)
+          .body("resultInfo.totalRecords", is(25))
+          .extract().body().asString());
+      JsonArray items = page.getJsonArray("items");
+      for (int i = 0; i < items.size(); i++) {
+        ids.add(items.getJsonObject(i).getString(idProperty));
+      }
+      cursor = page.getJsonObject("resultInfo").getString("next");
+      Assert.assertTrue(cursor == null || items.size() == 10);
+    }
+    return ids;
+  }
+
+  @Test
+  public void testCursor() {
+    createIsbnMatchKey();
+    JsonArray records1 = new JsonArray();
+    for (int i = 0; i < 25; i++) {
+      records1.add(new JsonObject()
+          .put("localId", "S" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  0101   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(Integer.toString(i))))
+          ));
+    }
+    ingestRecords(records1, SOURCE_ID_1);
+
+    List<String> ids = getAllByCursor("/reservoir/records", null, "globalId");
+    assertThat(ids, hasSize(25));
+    assertThat(new HashSet<>(ids), hasSize(25));
+    List<String> sorted = new ArrayList<>(ids);
+    sorted.sort(null);
+    Assert.assertEquals(sorted, ids);
+
+    ids = getAllByCursor("/reservoir/clusters", "isbn", "clusterId");
+    assertThat(new HashSet<>(ids), hasSize(25));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", "*")
+        .param("query", "cql.allRecords=1 sortby localId")
+        .get("/reservoir/records")
+        .then().statusCode(400)
+        .body(is("cursor can not be combined with sortby"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", new CursorToken("cluster_id", UUID.randomUUID().toString()).encode())
+        .get("/reservoir/records")
+        .then().statusCode(400)
+        .body(is("Bad cursor"));
+
+    // not base64
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", "!bad")
+        .get("/reservoir/records")
+        .then().statusCode(400)
+        .body(is("Bad cursor"));
+
+    // key not a UUID
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", new CursorToken("id", "x").encode())
+        .get("/reservoir/records")
+        .then().statusCode(400)
+        .body(is("Bad cursor"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", new CursorToken("cluster_id", "x").encode())
+        .param("matchkeyid", "isbn")
+        .get("/reservoir/clusters")
+        .then().statusCode(400)
+        .body(is("Bad cursor"));
+  }
+
   @Test
   public void testEmptyMatchKeys() {
     JsonObject matchKey = createIsbnMatchKey();
@@ -2145,6 +2955,28 @@ public class MainVerticleTest extends TestBase {
         .body("totalRecords", is(2))
     ;
 
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("status", is("done"))
+        .body("totalRecords", is(2));
+
+    // nothing left to do
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("resume", "true")
+        .put("/reservoir/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("totalRecords", is(2));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/config/matchkeys/foo/initialize")
+        .then().statusCode(404);
+
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
         .header("Content-Type", "application/json")
@@ -2167,6 +2999,42 @@ public class MainVerticleTest extends TestBase {
         .extract().body().asString();
   }
 
+  @Test
+  public void testMatchKeysInitRunning(TestContext context) {
+    JsonObject matchKey = createIssnMatchKey("manual");
+    String id = matchKey.getString("id");
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.PUT);
+
+    // another initialization holds the lock
+    Async async = context.async();
+    storage.getPool().withTransaction(conn -> conn.preparedQuery(
+                "SELECT pg_advisory_xact_lock(hashtext($1))")
+            .execute(Tuple.of(MatchKeyInitializer.lockKey(storage, id)))
+            .compose(x -> storage.initializeMatchKey(vertx, id, false)))
+        .onComplete(context.asyncAssertFailure(e -> {
+          assertThat(e.getMessage(), is("Initialization of match key '" + id
+              + "' already running"));
+          async.complete();
+        }));
+    async.await();
+
+    // lock released when transaction ends
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .put("/reservoir/config/matchkeys/" + id + "/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("totalRecords", is(0));
+
+    // session lock of the run is not left on the pooled connection
+    storage.getPool().preparedQuery("SELECT COUNT(*) FROM pg_locks"
+            + " WHERE locktype = 'advisory' AND objsubid = 1"
+            + " AND objid = (hashtext($1)::bigint & 4294967295)::oid")
+        .execute(Tuple.of(MatchKeyInitializer.lockKey(storage, id)))
+        .onComplete(context.asyncAssertSuccess(rowSet ->
+            context.assertEquals(0L, rowSet.iterator().next().getLong(0))));
+  }
+
   @Test
   public void testMatchKeysManual() {
     JsonObject matchKey = createIsbnMatchKey("manual");
@@ -3033,6 +3901,141 @@ public class MainVerticleTest extends TestBase {
     assertThat(sruVerify.errors.get(0), is("Unsupported parameter value"));
   }
 
+  @Test
+  public void testCompactClusterCounts(TestContext context) {
+    createIsbnMatchKey();
+    for (int i = 0; i < 3; i++) {
+      // one record per request gives a counter row each
+      ingestRecords(new JsonArray().add(new JsonObject()
+          .put("localId", "C" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  0101   450 "))
+              .put("inventory", new JsonObject()
+                  .put("isbn", new JsonArray().add(Integer.toString(i)))))), SOURCE_ID_1);
+    }
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    Storage.compactClusterCounts(vertx)
+        .compose(x -> storage.getPool().query("SELECT COUNT(*), SUM(clusters) FROM "
+            + storage.getClusterCountTable()).execute())
+        .onComplete(context.asyncAssertSuccess(rowSet -> {
+          Row row = rowSet.iterator().next();
+          context.assertEquals(1L, row.getLong(0));
+          context.assertEquals(3L, row.getLong(1));
+        }));
+  }
+
+  @Test
+  public void testCounts() throws XMLStreamException {
+    createIsbnMatchKey();
+    JsonArray records1 = new JsonArray();
+    for (int i = 0; i < 3; i++) {
+      records1.add(new JsonObject()
+          .put("localId", "S" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  0101   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(Integer.toString(i))))
+          ));
+    }
+    ingestRecords(records1, SOURCE_ID_1);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .param("count", "estimate")
+        .get("/reservoir/clusters")
+        .then().statusCode(200)
+        .body("items", hasSize(3))
+        .body("resultInfo.totalRecords", is(3))
+        .body("resultInfo.totalRecordsPrecision", is("estimate"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "localId=S1")
+        .param("count", "estimate")
+        .get("/reservoir/records")
+        .then().statusCode(200)
+        .body("items", hasSize(1))
+        .body("resultInfo.totalRecords", greaterThanOrEqualTo(0))
+        .body("resultInfo.totalRecordsPrecision", is("estimate"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("count", "capped")
+        .get("/reservoir/records")
+        .then().statusCode(200)
+        .body("resultInfo.totalRecords", is(3))
+        .body("resultInfo.totalRecordsPrecision", is("exact"));
+
+    int cap = ResultCount.getCap();
+    ResultCount.setCap(2);
+    try {
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .param("count", "capped")
+          .get("/reservoir/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(3))
+          .body("resultInfo.totalRecords", is(2))
+          .body("resultInfo.totalRecordsPrecision", is("minimum"));
+    } finally {
+      ResultCount.setCap(cap);
+    }
+
+    String s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "cql.allRecords=1")
+        .param("x-count", "estimate")
+        .get("/reservoir/sru")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    SruVerify sruVerify = new SruVerify(s);
+    assertThat(sruVerify.errors, hasSize(0));
+    assertThat(sruVerify.numberOfRecords, is(3));
+    assertThat(sruVerify.numberOfRecordsReturned, is(3));
+    assertThat(sruVerify.resultCountPrecision,
+        is("info:srw/vocabulary/resultCountPrecision/1/estimate"));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "isbn=1")
+        .param("x-count", "estimate")
+        .get("/reservoir/sru")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    sruVerify = new SruVerify(s);
+    assertThat(sruVerify.errors, hasSize(0));
+    assertThat(sruVerify.numberOfRecordsReturned, is(1));
+    assertThat(sruVerify.resultCountPrecision,
+        is("info:srw/vocabulary/resultCountPrecision/1/estimate"));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "cql.allRecords=1")
+        .param("x-count", "capped")
+        .get("/reservoir/sru")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    sruVerify = new SruVerify(s);
+    assertThat(sruVerify.numberOfRecords, is(3));
+    assertThat(sruVerify.resultCountPrecision, is(nullValue()));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "cql.allRecords=1")
+        .param("x-count", "none")
+        .get("/reservoir/sru")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    sruVerify = new SruVerify(s);
+    assertThat(sruVerify.errors, hasSize(1));
+    assertThat(sruVerify.errors.get(0), is("Unsupported parameter value"));
+  }
+
   @Test
   @java.lang.SuppressWarnings("squid:S5961") // Test methods should not contain too many assertions
   public void testOaiSimple() throws XMLStreamException, IOException, SAXException {
@@ -3603,6 +4606,23 @@ public class MainVerticleTest extends TestBase {
         .extract().body().asString();
     verifyOaiResponse(s, "ListRecords", identifiers, 0, null);
 
+    // same payloads: clusters not touched
+    ingestRecords(records1, SOURCE_ID_1);
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("verb", "ListRecords")
+        .param("from", time3)
+        .param("metadataPrefix", "marcxml")
+        .get("/reservoir/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    verifyOaiResponse(s, "ListRecords", identifiers, 0, null);
+
+    for (int i = 0; i < records1.size(); i++) {
+      records1.getJsonObject(i).getJsonObject("payload").getJsonObject("marc")
+          .put("leader", "00914naa  2200337   451 ");
+    }
     ingestRecords(records1, SOURCE_ID_1);
     s = RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
@@ -3732,6 +4752,37 @@ public class MainVerticleTest extends TestBase {
     Assert.assertEquals(10, identifiers.size());
   }
 
+  @Test
+  public void testOaiListRecordsPages() throws XMLStreamException, IOException, SAXException {
+    createIsbnMatchKey();
+
+    // more than one page of clusters hydrated together
+    int total = OaiService.PAGE_SIZE * 2 + 50;
+    JsonArray records1 = new JsonArray();
+    for (int i = 0; i < total; i++) {
+      records1.add(new JsonObject()
+          .put("localId", "S" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  0101   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add(Integer.toString(i))))
+          ));
+    }
+    ingestRecords(records1, SOURCE_ID_1);
+
+    for (String verb : List.of("ListRecords", "ListIdentifiers")) {
+      List<String> identifiers = new LinkedList<>();
+      String s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("verb", verb)
+          .get("/reservoir/oai")
+          .then().statusCode(200)
+          .contentType("text/xml")
+          .extract().body().asString();
+      Assert.assertNull(verifyOaiResponse(s, verb, identifiers, total, null));
+      Assert.assertEquals(total, new HashSet<>(identifiers).size());
+    }
+  }
+
   @Test
   public void testOaiResumptionToken2(TestContext context) {
     createIsbnMatchKey();
@@ -5298,4 +6349,330 @@ public class MainVerticleTest extends TestBase {
         .body("items[0].config.sourceId", is(SOURCE_ID_1));
   }
 
+  static String oaiPage(String resumptionToken, String... identifiers) {
+    StringBuilder page = new StringBuilder("""
+        <?xml version="1.0"?>
+        <OAI-PMH xmlns="http://www.openarchives.org/OAI/2.0/">
+          <responseDate>2022-06-09T09:54:45Z</responseDate>
+          <request verb="ListRecords">https://localhost/mock/oai-pages</request>
+          <ListRecords>
+        """);
+    for (String identifier : identifiers) {
+      page.append("<record><header><identifier>").append(identifier)
+          .append("</identifier><datestamp>2022-05-03</datestamp></header><metadata>")
+          .append("<record xmlns=\"http://www.loc.gov/MARC21/slim\">")
+          .append("<leader>00914naa  2200337   450 </leader>")
+          .append("<controlfield tag=\"001\">").append(identifier).append("</controlfield>")
+          .append("</record></metadata></record>\n");
+    }
+    if (resumptionToken != null) {
+      page.append("<resumptionToken>").append(resumptionToken).append("</resumptionToken>");
+    }
+    page.append("</ListRecords>\n</OAI-PMH>\n");
+    return page.toString();
+  }
+
+  void createPagesClient() {
+    JsonObject oaiPmhClient = new JsonObject()
+        .put("url", MOCK_URL + "/mock/oai-pages")
+        .put("sourceId", SOURCE_ID_1)
+        .put("waitRetries", 0)
+        .put("numberRetries", 1)
+        .put("id", PMH_CLIENT_ID);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(oaiPmhClient.encode())
+        .post("/reservoir/pmh-clients")
+        .then().statusCode(201);
+  }
+
+  @Test
+  public void oaiPmhClientPrefetchRetry() {
+    createIsbnMatchKey();
+    createPagesClient();
+    mockPages.put("", oaiPage("t2", "R1"));
+    mockPages.put("t2", oaiPage(null, "R2"));
+    // prefetch of second page fails; retried when the page is due
+    mockPageFailures.put("t2", 1);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .post("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/start")
+        .then().statusCode(204);
+
+    Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> harvestCompleted(TENANT_1, PMH_CLIENT_ID));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/status")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items[0].status", is("idle"))
+        .body("items[0].error", is(nullValue()))
+        .body("items[0].totalRecords", is(2))
+        .body("items[0].totalRequests", is(3))
+        .body("items[0].config.resumptionToken", is(nullValue()));
+    assertThat(mockPageRequests, is(List.of("", "t2", "t2")));
+  }
+
+  @Test
+  public void oaiPmhClientPrefetchRestart() {
+    createIsbnMatchKey();
+    createPagesClient();
+    // second page not available
+    mockPages.put("", oaiPage("t2", "R1"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .post("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/start")
+        .then().statusCode(204);
+
+    Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> harvestCompleted(TENANT_1, PMH_CLIENT_ID));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/status")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items[0].status", is("idle"))
+        .body("items[0].error", containsString("HTTP status 400: bad resumptionToken t2"))
+        .body("items[0].totalRecords", is(1))
+        .body("items[0].config.resumptionToken", is("t2"));
+    assertThat(mockPageRequests, is(List.of("", "t2")));
+
+    // restart continues from the checkpointed resumption token
+    mockPages.put("t2", oaiPage(null, "R2"));
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .post("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/start")
+        .then().statusCode(204);
+
+    Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> harvestCompleted(TENANT_1, PMH_CLIENT_ID));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/status")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items[0].status", is("idle"))
+        .body("items[0].error", is(nullValue()))
+        .body("items[0].totalRecords", is(2))
+        .body("items[0].config.resumptionToken", is(nullValue()));
+    assertThat(mockPageRequests, is(List.of("", "t2", "t2")));
+  }
+
+  @Test
+  public void oaiPmhClientPrefetchDiscardedOnStop(TestContext context) {
+    createIsbnMatchKey();
+    createPagesClient();
+    mockPages.put("", oaiPage("t2", "R1"));
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    OaiPmhClientService service = new OaiPmhClientService(vertx);
+    UUID owner = UUID.randomUUID();
+    List<String> files = new ArrayList<>();
+    Async async = context.async();
+    storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+            + " SET stop = TRUE, owner = $2 WHERE id = $1")
+        .execute(Tuple.of(PMH_CLIENT_ID, owner))
+        .compose(x -> OaiPmhClientService.getJob(storage, PMH_CLIENT_ID))
+        .compose(job -> service.fetchPage(job.getConfig()).map(page -> {
+          files.add(page.file);
+          // the page was fetched ahead, but the job is stopped before it is ingested
+          service.oaiHarvestLoop(vertx, storage, PMH_CLIENT_ID, job, owner, 0,
+              Future.succeededFuture(page));
+          return null;
+        }))
+        .onComplete(context.asyncAssertSuccess(x -> async.complete()));
+    async.await();
+
+    assertThat(files.get(0), is(Matchers.notNullValue()));
+    Awaitility.await().atMost(Duration.ofSeconds(2))
+        .until(() -> !vertx.fileSystem().existsBlocking(files.get(0)));
+    assertThat(mockPageRequests, is(List.of("")));
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/reservoir/pmh-clients/" + PMH_CLIENT_ID + "/status")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items[0].status", is("idle"))
+        .body("items[0].totalRecords", is(0))
+        .body("items[0].totalRequests", is(0));
+  }
+
+  /**
+   * Make job runnable without claiming it.
+   * @param lease SQL expression for lease; null for none
+   */
+  static Future<Void> runnableJob(Storage storage, String lease) {
+    return OaiPmhClientService.getJob(storage, PMH_CLIENT_ID)
+        .compose(job -> OaiPmhClientService.startJob(storage, PMH_CLIENT_ID, job))
+        .compose(x -> lease == null ? Future.succeededFuture()
+            : storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+                    + " SET lease = " + lease + " WHERE id = $1")
+                .execute(Tuple.of(PMH_CLIENT_ID))
+                .mapEmpty());
+  }
+
+  static Future<UUID> jobOwner(Storage storage) {
+    return new OaiPmhClientService(vertx).getStopOwner(storage, PMH_CLIENT_ID)
+        .map(row -> row.getUUID("owner"));
+  }
+
+  @Test
+  public void oaiPmhClientClaimCompeting(TestContext context) {
+    createIsbnMatchKey();
+    createPagesClient();
+    mockPages.put("", oaiPage(null, "R1"));
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    OaiPmhClientService service1 = new OaiPmhClientService(vertx);
+    OaiPmhClientService service2 = new OaiPmhClientService(vertx);
+    runnableJob(storage, null)
+        .compose(x -> Future.all(service1.claimJobs(storage), service2.claimJobs(storage)))
+        .onComplete(context.asyncAssertSuccess(cf -> {
+          // exactly one of the instances gets the job
+          assertThat(cf.<Integer>resultAt(0) + cf.<Integer>resultAt(1), is(1));
+        }));
+
+    Awaitility.await().atMost(Duration.ofSeconds(3))
+        .until(() -> harvestCompleted(TENANT_1, PMH_CLIENT_ID));
+    assertThat(mockPageRequests, is(List.of("")));
+  }
+
+  @Test
+  public void oaiPmhClientClaimExpiredLease(TestContext context) {
+    createIsbnMatchKey();
+    createPagesClient();
+    mockPages.put("", oaiPage(null, "R1"));
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    OaiPmhClientService service = new OaiPmhClientService(vertx);
+    List<UUID> owners = new ArrayList<>();
+    Async async = context.async();
+    // job owned by another instance with a valid lease
+    runnableJob(storage, "now() + interval '1 minute'")
+        .compose(x -> service.claimJobs(storage))
+        .compose(claimed -> {
+          context.assertEquals(0, claimed);
+          return jobOwner(storage);
+        })
+        .compose(owner -> {
+          owners.add(owner);
+          // that instance is gone and the lease expires
+          return storage.getPool().preparedQuery("UPDATE " + storage.getOaiPmhClientTable()
+                  + " SET lease = now() - interval '1 second' WHERE id = $1")
+              .execute(Tuple.of(PMH_CLIENT_ID));
+        })
+        .compose(x -> service.claimJobs(storage))
+        .onComplete(context.asyncAssertSuccess(claimed -> {
+          context.assertEquals(1, claimed);
+          context.assertEquals(1, service.running.size());
+          context.assertFalse(service.running.containsKey(owners.get(0)));
+          async.complete();
+        }));
+    async.await();
+
+    Awaitility.await().atMost(Duration.ofSeconds(3))
+        .until(() -> harvestCompleted(TENANT_1, PMH_CLIENT_ID));
+    assertThat(mockPageRequests, is(List.of("")));
+  }
+
+  @Test
+  public void oaiPmhClientSaveRunLostClaim(TestContext context) {
+    createPagesClient();
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    UUID stale = UUID.randomUUID();
+    runnableJob(storage, "now() + interval '1 minute'")
+        .compose(x -> OaiPmhClientService.getJob(storage, PMH_CLIENT_ID))
+        .compose(job -> {
+          // a run that lost its claim must not save its resumption token or idle status
+          job.getConfig().put("resumptionToken", "stale");
+          job.setStatusIdle();
+          return OaiPmhClientService.saveRun(storage, PMH_CLIENT_ID, job, stale);
+        })
+        .compose(saved -> {
+          context.assertFalse(saved);
+          return OaiPmhClientService.getJob(storage, PMH_CLIENT_ID);
+        })
+        .compose(job -> {
+          context.assertNull(job.getConfig().getString("resumptionToken"));
+          context.assertEquals("running", job.getStatus());
+          job.getConfig().put("resumptionToken", "t2");
+          return jobOwner(storage)
+              .compose(owner -> OaiPmhClientService.saveRun(storage, PMH_CLIENT_ID, job, owner));
+        })
+        .compose(saved -> {
+          context.assertTrue(saved);
+          return OaiPmhClientService.getJob(storage, PMH_CLIENT_ID);
+        })
+        .onComplete(context.asyncAssertSuccess(job ->
+            context.assertEquals("t2", job.getConfig().getString("resumptionToken"))));
+  }
+
+  @Test
+  public void oaiPmhClientRenewLeases(TestContext context) {
+    createPagesClient();
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    OaiPmhClientService service = new OaiPmhClientService(vertx);
+    UUID gone = UUID.randomUUID();
+    runnableJob(storage, "now() + interval '1 second'")
+        .compose(x -> jobOwner(storage))
+        .compose(owner -> {
+          service.running.put(owner, TENANT_1);
+          // claimed by another instance meanwhile
+          service.running.put(gone, TENANT_1);
+          // other tenants are renewed with their own storage
+          service.running.put(UUID.randomUUID(), TENANT_2);
+          return service.renewLeases(storage)
+              .compose(x -> storage.getPool().preparedQuery("SELECT lease > now()"
+                      + " + interval '30 seconds' FROM " + storage.getOaiPmhClientTable()
+                      + " WHERE id = $1")
+                  .execute(Tuple.of(PMH_CLIENT_ID)))
+              .map(rowSet -> {
+                context.assertTrue(rowSet.iterator().next().getBoolean(0));
+                context.assertTrue(service.running.containsKey(owner));
+                context.assertFalse(service.running.containsKey(gone));
+                context.assertEquals(2, service.running.size());
+                return null;
+              });
+        })
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void oaiPmhClientScheduleJobs(TestContext context) {
+    createPagesClient();
+
+    Storage storage = new Storage(vertx, TENANT_1, HttpMethod.POST);
+    OaiPmhClientService service = new OaiPmhClientService(vertx);
+    // the lease of the job of the tenant is renewed after the scan of tenant schemas
+    runnableJob(storage, "now() + interval '1 second'")
+        .compose(x -> jobOwner(storage))
+        .compose(owner -> {
+          service.running.put(owner, TENANT_1);
+          return service.scheduleJobs(TenantPgPool.pool(vertx, "x", "write"));
+        })
+        .compose(x -> storage.getPool().preparedQuery("SELECT lease > now()"
+                + " + interval '30 seconds' FROM " + storage.getOaiPmhClientTable()
+                + " WHERE id = $1")
+            .execute(Tuple.of(PMH_CLIENT_ID)))
+        .onComplete(context.asyncAssertSuccess(rowSet ->
+            context.assertTrue(rowSet.iterator().next().getBoolean(0))));
+  }
+
+  @Test
+  public void oaiPmhClientCancelSchedule() {
+    OaiPmhClientService service = new OaiPmhClientService(vertx);
+    long timer = service.scheduleJobs();
+    service.cancelSchedule();
+    // already cancelled
+    Assert.assertFalse(vertx.cancelTimer(timer));
+    service.cancelSchedule();
+  }
+
 }
@@ -0,0 +1,131 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+import java.util.UUID;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class MatchValueCacheTest {
+
+  @AfterClass
+  public static void afterClass() {
+    MatchValueCache.setMaxSize(0);
+  }
+
+  @Test
+  public void disabled() {
+    MatchValueCache cache = new MatchValueCache("t1", 0);
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", UUID.randomUUID());
+    cache.apply(updates);
+    assertThat(cache.lookup("isbn", "1"), is(nullValue()));
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void lookupAndEvict() {
+    MatchValueCache cache = new MatchValueCache("t1", 2);
+    UUID c1 = UUID.randomUUID();
+    UUID c2 = UUID.randomUUID();
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", c1);
+    updates.put("isbn", "2", c2);
+    cache.apply(updates);
+    assertThat(cache.lookup("isbn", "1"), is(c1));
+    assertThat(cache.lookup("issn", "1"), is(nullValue()));
+
+    updates = new MatchValueCache.Updates();
+    updates.put("isbn", "3", c2);
+    cache.apply(updates);
+    assertThat(cache.size(), is(2));
+    // "2" least recently used
+    assertThat(cache.lookup("isbn", "2"), is(nullValue()));
+    assertThat(cache.lookup("isbn", "1"), is(c1));
+    assertThat(cache.lookup("isbn", "3"), is(c2));
+  }
+
+  @Test
+  public void removeClusters() {
+    MatchValueCache cache = new MatchValueCache("t1", 10);
+    UUID c1 = UUID.randomUUID();
+    UUID c2 = UUID.randomUUID();
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", c1);
+    updates.put("isbn", "2", c2);
+    cache.apply(updates);
+
+    // c2 merged into c1
+    updates = new MatchValueCache.Updates();
+    updates.removeClusters(List.of(c2));
+    updates.put("isbn", "3", c1);
+    cache.apply(updates);
+    assertThat(cache.lookup("isbn", "1"), is(c1));
+    assertThat(cache.lookup("isbn", "2"), is(nullValue()));
+    assertThat(cache.lookup("isbn", "3"), is(c1));
+  }
+
+  @Test
+  public void invalidateMatchKey() {
+    MatchValueCache cache = new MatchValueCache("t1", 10);
+    UUID c1 = UUID.randomUUID();
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", c1);
+    updates.put("isbn2", "1", c1);
+    cache.apply(updates);
+    cache.invalidateMatchKey("isbn");
+    assertThat(cache.lookup("isbn", "1"), is(nullValue()));
+    assertThat(cache.lookup("isbn2", "1"), is(c1));
+  }
+
+  @Test
+  public void notified() {
+    MatchValueCache.setMaxSize(5);
+    MatchValueCache cache = MatchValueCache.get("t1");
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", UUID.randomUUID());
+    updates.removeClusters(List.of(UUID.randomUUID()));
+    assertThat(updates.hasRemovals(), is(true));
+    cache.apply(updates);
+
+    // sent by this instance: changes applied already
+    MatchValueCache.notified(MatchValueCache.notification("t1"));
+    assertThat(cache.size(), is(1));
+    MatchValueCache.notified(UUID.randomUUID() + " t2");
+    assertThat(cache.size(), is(1));
+    MatchValueCache.notified("bad");
+    assertThat(cache.size(), is(1));
+    // sent by another instance
+    MatchValueCache.notified(UUID.randomUUID() + " t1");
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void suspend() {
+    MatchValueCache cache = new MatchValueCache("t1", 10);
+    UUID c1 = UUID.randomUUID();
+    MatchValueCache.Updates updates = new MatchValueCache.Updates();
+    updates.put("isbn", "1", c1);
+    assertThat(updates.hasRemovals(), is(false));
+    try {
+      MatchValueCache.suspend(true);
+      cache.apply(updates);
+      assertThat(cache.lookup("isbn", "1"), is(nullValue()));
+    } finally {
+      MatchValueCache.suspend(false);
+    }
+    cache.apply(updates);
+    assertThat(cache.lookup("isbn", "1"), is(c1));
+  }
+
+  @Test
+  public void getByTenant() {
+    MatchValueCache.setMaxSize(5);
+    MatchValueCache cache = MatchValueCache.get("t1");
+    assertThat(MatchValueCache.get("t1") == cache, is(true));
+    assertThat(MatchValueCache.get("t2") == cache, is(false));
+  }
+}
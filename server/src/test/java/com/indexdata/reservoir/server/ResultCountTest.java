@@ -0,0 +1,27 @@
+package com.indexdata.reservoir.server;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultCountTest {
+
+  @Test
+  public void method() {
+    Assert.assertEquals(ResultCount.NONE, ResultCount.method(null));
+    Assert.assertEquals(ResultCount.EXACT, ResultCount.method("exact"));
+    Assert.assertEquals(ResultCount.ESTIMATE, ResultCount.method("estimate"));
+    Assert.assertEquals(ResultCount.CAPPED, ResultCount.method("capped"));
+    Assert.assertEquals("Bad count: minimum", Assert.assertThrows(IllegalArgumentException.class,
+        () -> ResultCount.method("minimum")).getMessage());
+  }
+
+  @Test
+  public void planRows() {
+    JsonArray plan = new JsonArray().add(new JsonObject()
+        .put("Plan", new JsonObject().put("Node Type", "Seq Scan").put("Plan Rows", 1234)));
+    Assert.assertEquals(1234L, ResultCount.planRows(plan));
+    Assert.assertEquals(1234L, ResultCount.planRows(plan.encode()));
+  }
+}
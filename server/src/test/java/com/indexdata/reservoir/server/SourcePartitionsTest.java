@@ -0,0 +1,47 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.indexdata.reservoir.util.SourceId;
+import org.junit.Test;
+
+public class SourcePartitionsTest {
+
+  @Test
+  public void names() {
+    SourceId sourceId = new SourceId("Lib-1:a/B");
+    assertThat(SourcePartitions.sourcePartition(sourceId), is("gr_lib_2d1_3aa_2fb"));
+    assertThat(SourcePartitions.versionPartition(sourceId, 12), is("gr_lib_2d1_3aa_2fb_v12"));
+    assertThat(SourcePartitions.sourceDefaultPartition(sourceId),
+        is("gr_lib_2d1_3aa_2fb_default"));
+    // longest source identifier fits in a PostgreSQL identifier
+    sourceId = new SourceId("----------------");
+    assertThat(SourcePartitions.versionPartition(sourceId, Integer.MAX_VALUE).length(), is(63));
+  }
+
+  static String selection(String sqlWhere) {
+    SourcePartitions.Selection selection = SourcePartitions.selection(sqlWhere);
+    return selection.sourceId() + "/" + selection.sourceVersion();
+  }
+
+  @Test
+  public void selection() {
+    assertThat(selection("source_id = 'S-1'"), is("S-1/null"));
+    assertThat(selection("(source_id = 'S-1' AND source_version=2)"), is("S-1/2"));
+    assertThat(selection("source_version=2 and source_id='S-1'"), is("S-1/2"));
+    assertThat(SourcePartitions.selection(null), is(nullValue()));
+    assertThat(SourcePartitions.selection("source_version=2"), is(nullValue()));
+    // stored in upper case, so matches nothing
+    assertThat(SourcePartitions.selection("source_id = 's-1'"), is(nullValue()));
+    assertThat(SourcePartitions.selection("source_id = 'S-1' OR source_id = 'S-2'"),
+        is(nullValue()));
+    assertThat(SourcePartitions.selection("source_id = 'S-1' AND local_id = 'a'"),
+        is(nullValue()));
+    assertThat(SourcePartitions.selection("source_id = 'S-1' AND source_id = 'S-2'"),
+        is(nullValue()));
+    assertThat(SourcePartitions.selection("source_id = 'S-1' AND NOT source_version=2"),
+        is(nullValue()));
+  }
+}
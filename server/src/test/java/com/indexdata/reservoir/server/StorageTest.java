@@ -0,0 +1,74 @@
+package com.indexdata.reservoir.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class StorageTest {
+
+  static IngestMatcher matcher(String matchKeyId) {
+    IngestMatcher ingestMatcher = new IngestMatcher();
+    ingestMatcher.matchKeyId = matchKeyId;
+    ingestMatcher.fingerprint = matchKeyId + " config";
+    return ingestMatcher;
+  }
+
+  @Test
+  public void payloadHash() {
+    JsonObject payload = new JsonObject().put("marc", new JsonObject().put("leader", "a"));
+    List<IngestMatcher> matchers = List.of(matcher("isbn"));
+
+    assertThat(Storage.payloadHash(payload, matchers).length(), is(32));
+    assertThat(Storage.payloadHash(payload.copy(), List.of(matcher("isbn"))),
+        is(Storage.payloadHash(payload, matchers)));
+    assertThat(Storage.payloadHash(new JsonObject().put("marc", new JsonObject()
+            .put("leader", "b")), matchers),
+        is(not(Storage.payloadHash(payload, matchers))));
+    assertThat(Storage.payloadHash(payload, List.of(matcher("issn"))),
+        is(not(Storage.payloadHash(payload, matchers))));
+    assertThat(Storage.payloadHash(payload, List.of()),
+        is(not(Storage.payloadHash(payload, matchers))));
+  }
+
+  @Test
+  public void payloadHashMatcherOrder() {
+    JsonObject payload = new JsonObject().put("marc", new JsonObject().put("leader", "a"));
+    List<IngestMatcher> matchers = new ArrayList<>(List.of(matcher("isbn"), matcher("issn"),
+        matcher("title")));
+    Buffer hash = Storage.payloadHash(payload, matchers);
+    for (int i = 0; i < 10; i++) {
+      Collections.shuffle(matchers, new Random(i));
+      assertThat(Storage.payloadHash(payload, matchers), is(hash));
+    }
+    assertThat(Storage.payloadHash(payload, matchers.subList(0, 2)), is(not(hash)));
+  }
+
+  @Test
+  public void matchValueSql() {
+    String exact = "cluster_values.match_value = 'a''b'";
+    String masked = "cluster_values.match_value LIKE 'a%'";
+    assertThat(Storage.matchValueSql(exact), is(exact));
+    assertThat(Storage.matchValueIn("v.match_value", "$2"), is("v.match_value = ANY($2)"));
+    Storage.setMatchValueHash(true);
+    try {
+      assertThat(Storage.matchValueSql(exact),
+          is("(decode(md5(cluster_values.match_value), 'hex') = decode(md5('a''b'::varchar), 'hex')"
+              + " AND " + exact + ")"));
+      assertThat(Storage.matchValueSql(masked), is(masked));
+      assertThat(Storage.matchValueSql(exact + " OR x = 'c'"), is(exact + " OR x = 'c'"));
+      assertThat(Storage.matchValueIn("v.match_value", "$2"),
+          is("(decode(md5(v.match_value), 'hex') = ANY(ARRAY(SELECT decode(md5(mv), 'hex')"
+              + " FROM unnest($2::varchar[]) AS mv)) AND v.match_value = ANY($2))"));
+    } finally {
+      Storage.setMatchValueHash(false);
+    }
+  }
+}
@@ -28,6 +28,10 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.tlib.postgres.testing.TenantPgPoolContainer;
@@ -62,6 +66,15 @@ public class TestBase {
 
   protected static Validator oaiSchemaValidator;
 
+  // responses of /mock/oai-pages by resumption token; "" for the first page
+  protected static final Map<String, String> mockPages = new ConcurrentHashMap<>();
+
+  // number of 503 responses before a page is returned, by resumption token
+  protected static final Map<String, Integer> mockPageFailures = new ConcurrentHashMap<>();
+
+  // resumption tokens of requests made to /mock/oai-pages
+  protected static final List<String> mockPageRequests = new CopyOnWriteArrayList<>();
+
   public static PostgreSQLContainer postgresSQLContainer;
 
   @AfterClass
@@ -178,6 +191,25 @@ public class TestBase {
       c.response().putHeader("Content-Type", mockContentType);
       c.response().end(mockBody);
     }));
+    router.get("/mock/oai-pages").handler(c -> {
+      String resumptionToken = c.request().getParam("resumptionToken", "");
+      mockPageRequests.add(resumptionToken);
+      int failures = mockPageFailures.getOrDefault(resumptionToken, 0);
+      String page = mockPages.get(resumptionToken);
+      if (failures > 0) {
+        mockPageFailures.put(resumptionToken, failures - 1);
+        c.response().setStatusCode(503);
+        c.response().putHeader("Content-Type", "text/plain");
+        c.response().end("unavailable");
+      } else if (page == null) {
+        c.response().setStatusCode(400);
+        c.response().putHeader("Content-Type", "text/plain");
+        c.response().end("bad resumptionToken " + resumptionToken);
+      } else {
+        c.response().putHeader("Content-Type", "text/xml");
+        c.response().end(page);
+      }
+    });
     HttpServer httpServer = vertx.createHttpServer().requestHandler(router);
     f = f.compose(e -> httpServer.listen(MOCK_PORT)
         .mapEmpty());
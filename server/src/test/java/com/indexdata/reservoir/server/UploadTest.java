@@ -358,7 +358,8 @@ public class UploadTest extends TestBase {
             assertThat(responseBody.getJsonObject("marc3.xml").getInteger("processed"), is(3));
             assertThat(responseBody.getJsonObject("marc3.xml").getInteger("ignored"), is(0));
             assertThat(responseBody.getJsonObject("marc3.xml").getInteger("inserted"), is(0));
-            assertThat(responseBody.getJsonObject("marc3.xml").getInteger("updated"), is(3));
+            assertThat(responseBody.getJsonObject("marc3.xml").getInteger("updated"), is(0));
+            assertThat(responseBody.getJsonObject("marc3.xml").getInteger("unchanged"), is(3));
             assertThat(responseBody.getJsonObject("marc3.xml").getInteger("deleted"), is(0));
             return webClient.getAbs(OKAPI_URL + "/reservoir/records")
                 .addQueryParam("query", "sourceId = SOURCE-5")
@@ -374,6 +375,140 @@ public class UploadTest extends TestBase {
         .onComplete(context.asyncAssertSuccess());
   }
 
+  @Test
+  public void uploadMarcXmlBatch(TestContext context) {
+    MultipartForm requestForm1 = MultipartForm.create()
+        .binaryFileUpload("records", "marc3.xml", marc3xmlBuffer,  "text/xml");
+    MultipartForm requestForm2 = MultipartForm.create()
+        .binaryFileUpload("records", "marc1-delete.xml", marc1xmlBuffer,  "text/xml");
+
+    // upload 3 new records in batches of 2
+    webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+        .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+        .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-6" + "\"]")
+        .addQueryParam("sourceId", "SOURCE-6")
+        .addQueryParam("batchSize", "2")
+        .sendMultipartForm(requestForm1)
+        .expecting(HttpResponseExpectation.SC_OK)
+        .compose(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("processed"), is(3));
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("inserted"), is(3));
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("updated"), is(0));
+          return webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+              .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+              .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-6" + "\"]")
+              .addQueryParam("sourceId", "SOURCE-6")
+              .addQueryParam("batchSize", "2")
+              .sendMultipartForm(requestForm1)
+              .expecting(HttpResponseExpectation.SC_OK);
+        })
+        .compose(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("inserted"), is(0));
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("updated"), is(0));
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("unchanged"), is(3));
+          return webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+              .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+              .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-6" + "\"]")
+              .addQueryParam("sourceId", "SOURCE-6")
+              .addQueryParam("batchSize", "2")
+              .sendMultipartForm(requestForm2)
+              .expecting(HttpResponseExpectation.SC_OK);
+        })
+        .compose(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonObject("marc1-delete.xml").getInteger("deleted"), is(1));
+          return webClient.getAbs(OKAPI_URL + "/reservoir/records")
+              .addQueryParam("query", "sourceId = SOURCE-6")
+              .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+              .send()
+              .expecting(HttpResponseExpectation.SC_OK);
+        })
+        .map(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonArray("items").size(), is(2));
+          return null;
+        })
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void uploadMarcXmlBulk(TestContext context) {
+    MultipartForm requestForm1 = MultipartForm.create()
+        .binaryFileUpload("records", "marc3.xml", marc3xmlBuffer,  "text/xml");
+
+    // new source: bulk load
+    webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+        .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+        .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-7" + "\"]")
+        .addQueryParam("sourceId", "SOURCE-7")
+        .addQueryParam("bulk", "true")
+        .sendMultipartForm(requestForm1)
+        .expecting(HttpResponseExpectation.SC_OK)
+        .compose(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("inserted"), is(3));
+          assertThat(responseBody.getJsonObject("marc3.xml").getBoolean("bulk"), is(true));
+          // records exist now: regular ingest
+          return webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+              .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+              .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-7" + "\"]")
+              .addQueryParam("sourceId", "SOURCE-7")
+              .addQueryParam("bulk", "true")
+              .sendMultipartForm(requestForm1)
+              .expecting(HttpResponseExpectation.SC_OK);
+        })
+        .compose(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("updated"), is(0));
+          assertThat(responseBody.getJsonObject("marc3.xml").getInteger("unchanged"), is(3));
+          assertThat(responseBody.getJsonObject("marc3.xml").containsKey("bulk"), is(false));
+          return webClient.getAbs(OKAPI_URL + "/reservoir/records")
+              .addQueryParam("query", "sourceId = SOURCE-7")
+              .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+              .send()
+              .expecting(HttpResponseExpectation.SC_OK);
+        })
+        .map(res -> {
+          JsonObject responseBody = res.bodyAsJsonObject();
+          assertThat(responseBody.getJsonArray("items").size(), is(3));
+          return null;
+        })
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void uploadBadBatchSize(TestContext context) {
+    MultipartForm requestForm = MultipartForm.create()
+        .binaryFileUpload("records", "marc3.xml", marc3xmlBuffer,  "text/xml");
+
+    webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+        .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+        .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-6" + "\"]")
+        .addQueryParam("sourceId", "SOURCE-6")
+        .addQueryParam("batchSize", "0")
+        .sendMultipartForm(requestForm)
+        .expecting(HttpResponseExpectation.SC_BAD_REQUEST)
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void uploadMalformedBatchSize(TestContext context) {
+    MultipartForm requestForm = MultipartForm.create()
+        .binaryFileUpload("records", "marc3.xml", marc3xmlBuffer,  "text/xml");
+
+    webClient.postAbs(OKAPI_URL + "/reservoir/upload")
+        .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+        .putHeader(XOkapiHeaders.PERMISSIONS, "[\"" + PERM_PREFIX + "." + "SOURCE-6" + "\"]")
+        .addQueryParam("sourceId", "SOURCE-6")
+        .addQueryParam("batchSize", "x")
+        .sendMultipartForm(requestForm)
+        .expecting(HttpResponseExpectation.SC_BAD_REQUEST)
+        .onComplete(context.asyncAssertSuccess(res ->
+            assertThat(res.bodyAsString(), is("malformed 'batchSize': x"))));
+  }
+
   @Test
   public void uploadMarcXmlNoId(TestContext context) {
     MultipartForm requestForm1 = MultipartForm.create()
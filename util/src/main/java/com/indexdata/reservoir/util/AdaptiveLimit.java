@@ -0,0 +1,102 @@
+package com.indexdata.reservoir.util;
+
+/**
+ * Limit of operations in flight that adapts to observed latency.
+ *
+ * <p>Additive increase, multiplicative decrease: while the smoothed latency stays within
+ * {@link #TOLERANCE} times the baseline, the limit grows by one for each limit's worth of
+ * completed operations, provided at least half of the limit is in use. When the smoothed
+ * latency exceeds that, the limit is multiplied by {@link #BACKOFF}, at most once per
+ * limit's worth of operations. The baseline is the lowest smoothed latency seen; it drifts
+ * slowly towards the current latency so that it follows a lasting change in load.
+ * Latency should be measured from the point where an operation is admitted, so that
+ * waiting for a database connection is included.
+ */
+public class AdaptiveLimit {
+  static final double TOLERANCE = 2.0;
+  static final double BACKOFF = 0.9;
+  static final double SMOOTHING = 0.1;
+  static final double DRIFT = 0.001;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private double limit;
+  private double latency = -1.0;
+  private double baseline = -1.0;
+  private int sinceDecrease;
+
+  /**
+   * Create limit.
+   * @param initial initial limit
+   * @param minLimit lowest limit
+   * @param maxLimit highest limit
+   */
+  public AdaptiveLimit(int initial, int minLimit, int maxLimit) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("Bad limits " + minLimit + ".." + maxLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = Math.clamp(initial, minLimit, maxLimit);
+  }
+
+  /**
+   * Create limit that does not adapt.
+   * @param limit the limit
+   * @return fixed limit
+   */
+  public static AdaptiveLimit fixed(int limit) {
+    return new AdaptiveLimit(limit, limit, limit);
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  /**
+   * Get smoothed latency.
+   * @return latency in nanoseconds; 0 if no operation has completed
+   */
+  public synchronized double getLatency() {
+    return Math.max(0.0, latency);
+  }
+
+  /**
+   * Record completed operation.
+   * @param latencyNanos time from admission to completion in nanoseconds
+   * @param inFlight number of operations in flight, including this one
+   */
+  public synchronized void record(long latencyNanos, int inFlight) {
+    if (minLimit == maxLimit) {
+      return;
+    }
+    if (latency < 0.0) {
+      latency = latencyNanos;
+      baseline = latencyNanos;
+      return;
+    }
+    latency += (latencyNanos - latency) * SMOOTHING;
+    if (latency < baseline) {
+      baseline = latency;
+    } else {
+      baseline += (latency - baseline) * DRIFT;
+    }
+    sinceDecrease++;
+    if (latency > baseline * TOLERANCE) {
+      if (sinceDecrease >= limit) {
+        limit = Math.max(minLimit, limit * BACKOFF);
+        sinceDecrease = 0;
+      }
+    } else if (inFlight * 2 >= limit) {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+  }
+}
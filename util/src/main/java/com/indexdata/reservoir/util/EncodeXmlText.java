@@ -1,11 +1,35 @@
 package com.indexdata.reservoir.util;
 
+import io.vertx.core.buffer.Buffer;
+import java.nio.charset.StandardCharsets;
+
 public final class EncodeXmlText {
 
   private EncodeXmlText() { }
 
   private static final String REPLACEMENT_CHAR = "&#xFFFD;";
 
+  private static final byte[] REPLACEMENT_BYTES =
+      REPLACEMENT_CHAR.getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  // escape sequence for each ASCII character; null if written as is
+  private static final byte[][] ASCII_ESCAPES = new byte[0x80][];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      if (c != '\t' && c != '\r' && c != '\n') {
+        ASCII_ESCAPES[c] = REPLACEMENT_BYTES;
+      }
+    }
+    ASCII_ESCAPES['&'] = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    ASCII_ESCAPES['>'] = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    ASCII_ESCAPES['<'] = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    ASCII_ESCAPES['\''] = "&apos;".getBytes(StandardCharsets.US_ASCII);
+    ASCII_ESCAPES['\"'] = "&quot;".getBytes(StandardCharsets.US_ASCII);
+  }
+
   /**
    * Encode encode XML string.
    * @param s string
@@ -55,4 +79,40 @@ public final class EncodeXmlText {
     }
     return sb.toString();
   }
+
+  /**
+   * Encode XML string and append it to buffer.
+   *
+   * <p>Same encoding as {@link #encodeXmlText(String)}. The result is ASCII, so it is
+   * written byte by byte without an intermediate string.
+   * @param buffer buffer to append to
+   * @param s string
+   * @return buffer
+   */
+  public static Buffer appendXmlText(Buffer buffer, String s) {
+    int len = s.length();
+    for (int i = 0; i < len;) {
+      int c = s.codePointAt(i);
+      if (c < 0x80) { // ASCII
+        byte[] escape = ASCII_ESCAPES[c];
+        if (escape == null) {
+          buffer.appendByte((byte) c);
+        } else {
+          buffer.appendBytes(escape);
+        }
+      } else if ((c >= 0xd800 && c <= 0xdfff) || c == 0xfffe || c == 0xffff) {
+        // illegal XML character even if escaped, replace
+        buffer.appendBytes(REPLACEMENT_BYTES);
+      } else {
+        //legal unicode if escaped
+        buffer.appendByte((byte) '&').appendByte((byte) '#').appendByte((byte) 'x');
+        for (int shift = (31 - Integer.numberOfLeadingZeros(c)) & ~3; shift >= 0; shift -= 4) {
+          buffer.appendByte(HEX_DIGITS[(c >> shift) & 0xf]);
+        }
+        buffer.appendByte((byte) ';');
+      }
+      i += c <= 0xffff ? 1 : 2;
+    }
+    return buffer;
+  }
 }
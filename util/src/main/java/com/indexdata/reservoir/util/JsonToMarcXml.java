@@ -1,6 +1,6 @@
 package com.indexdata.reservoir.util;
 
-import static com.indexdata.reservoir.util.EncodeXmlText.encodeXmlText;
+import static com.indexdata.reservoir.util.EncodeXmlText.appendXmlText;
 import static com.indexdata.reservoir.util.MarcConstants.CODE_LABEL;
 import static com.indexdata.reservoir.util.MarcConstants.CONTROLFIELD_LABEL;
 import static com.indexdata.reservoir.util.MarcConstants.DATAFIELD_LABEL;
@@ -11,69 +11,110 @@ import static com.indexdata.reservoir.util.MarcConstants.SUBFIELDS_LABEL;
 import static com.indexdata.reservoir.util.MarcConstants.SUBFIELD_LABEL;
 import static com.indexdata.reservoir.util.MarcConstants.TAG_LABEL;
 
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * MARC-in-JSON to MARCXML conversion.
  */
 public final class JsonToMarcXml {
 
+  private static final int MAX_INDICATORS = 9; // ISO 2709 allows more than 2 indicators
+
+  private static final byte[] RECORD_BEGIN =
+      ascii("<" + RECORD_LABEL + " xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+  private static final byte[] RECORD_END = ascii("</" + RECORD_LABEL + ">");
+  private static final byte[] LEADER_BEGIN = ascii("  <" + LEADER_LABEL + ">");
+  private static final byte[] LEADER_END = ascii("</" + LEADER_LABEL + ">\n");
+  private static final byte[] CONTROLFIELD_BEGIN =
+      ascii("  <" + CONTROLFIELD_LABEL + " " + TAG_LABEL + "=\"");
+  private static final byte[] CONTROLFIELD_END = ascii("</" + CONTROLFIELD_LABEL + ">\n");
+  private static final byte[] DATAFIELD_BEGIN =
+      ascii("  <" + DATAFIELD_LABEL + " " + TAG_LABEL + "=\"");
+  private static final byte[] DATAFIELD_END = ascii("  </" + DATAFIELD_LABEL + ">\n");
+  private static final byte[] SUBFIELD_BEGIN =
+      ascii("    <" + SUBFIELD_LABEL + " " + CODE_LABEL + "=\"");
+  private static final byte[] SUBFIELD_END = ascii("</" + SUBFIELD_LABEL + ">\n");
+  private static final byte[] TAG_END = ascii("\">");
+  private static final byte[] ATTRIBUTES_END = ascii("\">\n");
+  private static final String[] INDICATOR_KEYS = new String[MAX_INDICATORS + 1];
+  private static final byte[][] INDICATOR_BEGIN = new byte[MAX_INDICATORS + 1][];
+
+  static {
+    for (int j = 1; j <= MAX_INDICATORS; j++) {
+      INDICATOR_KEYS[j] = "ind" + j;
+      INDICATOR_BEGIN[j] = ascii("\" ind" + j + "=\"");
+    }
+  }
+
   private JsonToMarcXml() { }
 
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
   /** Convert MARC-in-JSON to MARCXML.
    *
    * @param obj MARC-in-JSON object
    * @return XML with record root element
    */
   public static String convert(JsonObject obj) {
-    StringBuilder s = new StringBuilder();
-    s.append("<" + RECORD_LABEL + " xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+    return write(Buffer.buffer(), obj).toString(StandardCharsets.US_ASCII);
+  }
+
+  /** Write MARC-in-JSON as MARCXML to buffer.
+   *
+   * <p>Non-ASCII characters are written as character references, so the output
+   * is ASCII and also valid UTF-8.
+   *
+   * @param buffer buffer to append to
+   * @param obj MARC-in-JSON object
+   * @return buffer
+   */
+  public static Buffer write(Buffer buffer, JsonObject obj) {
+    buffer.appendBytes(RECORD_BEGIN);
     String leader = obj.getString(LEADER_LABEL);
     if (leader != null) {
-      s.append("  <" + LEADER_LABEL + ">" + encodeXmlText(leader) + "</" + LEADER_LABEL + ">\n");
+      appendXmlText(buffer.appendBytes(LEADER_BEGIN), leader).appendBytes(LEADER_END);
     }
     JsonArray fields = obj.getJsonArray(FIELDS_LABEL);
     if (fields !=  null) {
       for (int i = 0; i < fields.size(); i++) {
-        JsonObject control = fields.getJsonObject(i);
-        control.fieldNames().forEach(f -> {
-          Object fieldValue = control.getValue(f);
-          if (fieldValue instanceof String string) {
-            s.append("  <" + CONTROLFIELD_LABEL + " " + TAG_LABEL + "=\"");
-            s.append(encodeXmlText(f));
-            s.append("\">");
-            s.append(encodeXmlText(string));
-            s.append("</" + CONTROLFIELD_LABEL + ">\n");
-          }
-          if (fieldValue instanceof JsonObject fieldObject) {
-            s.append("  <" + DATAFIELD_LABEL + " " + TAG_LABEL + "=\"");
-            s.append(encodeXmlText(f));
-            for (int j = 1; j <= 9; j++) { // ISO 2709 allows more than 2 indicators
-              String indicatorValue = fieldObject.getString("ind" + j);
-              if (indicatorValue != null) {
-                s.append("\" ind" + j + "=\"");
-                s.append(encodeXmlText(indicatorValue));
-              }
-            }
-            s.append("\">\n");
-            JsonArray subfields = fieldObject.getJsonArray(SUBFIELDS_LABEL);
-            for (int j = 0; j < subfields.size(); j++) {
-              JsonObject subfieldObject = subfields.getJsonObject(j);
-              subfieldObject.fieldNames().forEach(sub -> {
-                s.append("    <" + SUBFIELD_LABEL);
-                s.append(" " + CODE_LABEL + "=\"" + encodeXmlText(sub) + "\">");
-                s.append(encodeXmlText(subfieldObject.getString(sub)));
-                s.append("</" + SUBFIELD_LABEL + ">\n");
-              });
-            }
-            s.append("  </" + DATAFIELD_LABEL + ">\n");
-          }
-        });
+        for (Map.Entry<String, Object> field : fields.getJsonObject(i)) {
+          writeField(buffer, field.getKey(), field.getValue());
+        }
+      }
+    }
+    return buffer.appendBytes(RECORD_END);
+  }
+
+  private static void writeField(Buffer buffer, String tag, Object fieldValue) {
+    if (fieldValue instanceof String string) {
+      appendXmlText(buffer.appendBytes(CONTROLFIELD_BEGIN), tag).appendBytes(TAG_END);
+      appendXmlText(buffer, string).appendBytes(CONTROLFIELD_END);
+    }
+    if (fieldValue instanceof JsonObject fieldObject) {
+      appendXmlText(buffer.appendBytes(DATAFIELD_BEGIN), tag);
+      for (int j = 1; j <= MAX_INDICATORS; j++) {
+        String indicatorValue = fieldObject.getString(INDICATOR_KEYS[j]);
+        if (indicatorValue != null) {
+          appendXmlText(buffer.appendBytes(INDICATOR_BEGIN[j]), indicatorValue);
+        }
+      }
+      buffer.appendBytes(ATTRIBUTES_END);
+      JsonArray subfields = fieldObject.getJsonArray(SUBFIELDS_LABEL);
+      for (int j = 0; j < subfields.size(); j++) {
+        JsonObject subfieldObject = subfields.getJsonObject(j);
+        for (String sub : subfieldObject.fieldNames()) {
+          appendXmlText(buffer.appendBytes(SUBFIELD_BEGIN), sub).appendBytes(TAG_END);
+          appendXmlText(buffer, subfieldObject.getString(sub)).appendBytes(SUBFIELD_END);
+        }
       }
+      buffer.appendBytes(DATAFIELD_END);
     }
-    s.append("</record>");
-    return s.toString();
   }
 
 }
@@ -0,0 +1,109 @@
+package com.indexdata.reservoir.util;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of record payloads.
+ *
+ * <p>The payload is encoded as JSON and compressed with deflate. Records are small, so most
+ * of what deflate could learn from a record is the JSON structure repeated in every record;
+ * a preset dictionary with typical MARC-in-JSON content provides that up front. The first
+ * byte of the encoding identifies the format, so that the dictionary or algorithm can be
+ * changed later while stored payloads remain readable. The dictionary of a format must
+ * never change.
+ */
+public final class PayloadCodec {
+
+  /** Deflate with dictionary 1. */
+  static final byte FORMAT_DEFLATE_1 = 1;
+
+  // content found in most MARC-in-JSON records
+  private static final byte[] DICTIONARY_1 = ("{\"marc\":{\"leader\":\"00000nam a2200000 a 4500\","
+      + "\"fields\":[{\"001\":\"\"},{\"003\":\"OCoLC\"},{\"005\":\"20\"},{\"008\":\"\"},"
+      + "{\"035\":{\"subfields\":[{\"a\":\"(OCoLC)\"}],\"ind1\":\" \",\"ind2\":\" \"}},"
+      + "{\"040\":{\"subfields\":[{\"a\":\"DLC\"},{\"b\":\"eng\"},{\"c\":\"DLC\"},"
+      + "{\"d\":\"\"}],\"ind1\":\" \",\"ind2\":\" \"}},"
+      + "{\"100\":{\"subfields\":[{\"a\":\"\"},{\"d\":\"\"}],\"ind1\":\"1\",\"ind2\":\" \"}},"
+      + "{\"245\":{\"subfields\":[{\"a\":\"\"},{\"b\":\"\"},{\"c\":\"\"}],"
+      + "\"ind1\":\"1\",\"ind2\":\"0\"}},"
+      + "{\"264\":{\"subfields\":[{\"a\":\"\"},{\"b\":\"\"},{\"c\":\"\"}],"
+      + "\"ind1\":\" \",\"ind2\":\"1\"}},"
+      + "{\"300\":{\"subfields\":[{\"a\":\"\"},{\"c\":\"cm\"}],\"ind1\":\" \",\"ind2\":\" \"}},"
+      + "{\"650\":{\"subfields\":[{\"a\":\"\"},{\"x\":\"\"}],\"ind1\":\" \",\"ind2\":\"0\"}},"
+      + "{\"700\":{\"subfields\":[{\"a\":\"\"}],\"ind1\":\"1\",\"ind2\":\" \"}},"
+      + "{\"856\":{\"subfields\":[{\"u\":\"https://\"}],\"ind1\":\"4\",\"ind2\":\"0\"}},"
+      + "{\"020\":{\"subfields\":[{\"a\":\"\"}],\"ind1\":\" \",\"ind2\":\" \"}},"
+      + "{\"999\":{\"subfields\":[{\"a\":\"\"}],\"ind1\":\" \",\"ind2\":\" \"}}]}}")
+      .getBytes(StandardCharsets.UTF_8);
+
+  private PayloadCodec() { }
+
+  /**
+   * Encode payload.
+   * @param payload payload
+   * @param level deflate compression level, 1 to 9
+   * @return encoded payload
+   */
+  public static Buffer encode(JsonObject payload, int level) {
+    byte[] in = payload.toBuffer().getBytes();
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setDictionary(DICTIONARY_1);
+      deflater.setInput(in);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 2 + 16);
+      out.write(FORMAT_DEFLATE_1);
+      byte[] chunk = new byte[Math.max(64, in.length / 2)];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(chunk);
+        out.write(chunk, 0, n);
+      }
+      return Buffer.buffer(out.toByteArray());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decode payload.
+   * @param encoded payload as returned by {@link #encode}
+   * @return payload
+   * @throws DecodeException if the encoding is unknown or corrupt
+   */
+  public static JsonObject decode(Buffer encoded) {
+    if (encoded.length() == 0 || encoded.getByte(0) != FORMAT_DEFLATE_1) {
+      throw new DecodeException("Unknown payload format");
+    }
+    byte[] in = encoded.getBytes(1, encoded.length());
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(in);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(in.length * 4);
+      byte[] chunk = new byte[Math.max(256, in.length * 4)];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(DICTIONARY_1);
+          } else if (!inflater.finished()) {
+            throw new DecodeException("Truncated payload");
+          }
+        }
+        out.write(chunk, 0, n);
+      }
+      return new JsonObject(Buffer.buffer(out.toByteArray()));
+    } catch (DataFormatException | IllegalArgumentException e) {
+      // IllegalArgumentException if dictionary does not match
+      throw new DecodeException("Corrupt payload: " + e.getMessage(), e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
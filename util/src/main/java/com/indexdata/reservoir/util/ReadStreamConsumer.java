@@ -8,20 +8,31 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ReadStreamConsumer<T, U> {
   private Promise<U> promise = Promise.promise();
   private List<Throwable> errors = new ArrayList<>();
   private AtomicInteger ongoing = new AtomicInteger();
   private AtomicBoolean completed = new AtomicBoolean();
-  private final int maxConcurrent;
+  private AtomicBoolean paused = new AtomicBoolean();
+  private final Supplier<AdaptiveLimit> limitSupplier;
+  private AdaptiveLimit limit;
 
   public ReadStreamConsumer(int maxConcurrent) {
-    this.maxConcurrent = maxConcurrent;
+    this(() -> AdaptiveLimit.fixed(maxConcurrent));
   }
 
   public ReadStreamConsumer() {
-    this.maxConcurrent = 5;
+    this(5);
+  }
+
+  /**
+   * Create consumer with a limit of items in flight.
+   * @param limitSupplier provides the limit when the first item arrives
+   */
+  public ReadStreamConsumer(Supplier<AdaptiveLimit> limitSupplier) {
+    this.limitSupplier = limitSupplier;
   }
 
   /**
@@ -34,12 +45,17 @@ public class ReadStreamConsumer<T, U> {
     stream
         .pause()
         .handler(r -> {
-          if (ongoing.incrementAndGet() == maxConcurrent) {
+          if (limit == null) {
+            limit = limitSupplier.get();
+          }
+          if (ongoing.incrementAndGet() >= limit.getLimit() && paused.compareAndSet(false, true)) {
             stream.pause();
           }
+          long started = System.nanoTime();
           consumer.apply(r)
               .onComplete(x -> {
-                if (ongoing.getAndDecrement() == maxConcurrent) {
+                limit.record(System.nanoTime() - started, ongoing.getAndDecrement());
+                if (ongoing.get() < limit.getLimit() && paused.compareAndSet(true, false)) {
                   stream.resume();
                 }
                 if (x.failed() && errors.isEmpty()) {
@@ -0,0 +1,252 @@
+package com.indexdata.reservoir.util.readstream;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+
+/**
+ * Decodes ISO2709 records to MARC-in-JSON, reading directory and fields from the buffer.
+ *
+ * <p>Handles records in UTF-8 (leader position 9 is {@code a}) that are well-formed: numeric
+ * leader lengths, directory entries within the record, fields ending with a field terminator,
+ * valid UTF-8, and indicators and subfield codes that are digits, lowercase letters or
+ * blank. Other records, such as MARC-8 records, are read with the marc4j permissive reader,
+ * which converts MARC-8 and recovers from structural errors. The result is the same as
+ * with {@link MarcToJsonObjectMapper}: control fields first, then data fields.
+ */
+final class Iso2709Decoder {
+  static final byte RECORD_TERMINATOR = 0x1d;
+  static final byte FIELD_TERMINATOR = 0x1e;
+  static final byte SUBFIELD_DELIMITER = 0x1f;
+  static final int LEADER_LENGTH = 24;
+
+  private Iso2709Decoder() { }
+
+  /**
+   * Decode records.
+   * @param buffer buffer with records
+   * @param offset offset of first record
+   * @param end offset after last record
+   * @param records decoded records are added here
+   */
+  static void decode(Buffer buffer, int offset, int end, List<JsonObject> records) {
+    int pos = offset;
+    while (pos < end) {
+      int length = end - pos >= LEADER_LENGTH ? number(buffer, pos, 5) : -1;
+      if (length < LEADER_LENGTH || length > end - pos
+          || buffer.getByte(pos + length - 1) != RECORD_TERMINATOR) {
+        // leave it to marc4j to make sense of the rest
+        marc4j(buffer, pos, end, records);
+        return;
+      }
+      JsonObject record = decode(buffer, pos, length);
+      if (record == null) {
+        marc4j(buffer, pos, pos + length, records);
+      } else {
+        records.add(record);
+      }
+      pos += length;
+    }
+  }
+
+  /**
+   * Decode one record.
+   * @param buffer buffer with record
+   * @param offset offset of record
+   * @param length length of record, including record terminator
+   * @return record; null if not handled by this decoder
+   */
+  static JsonObject decode(Buffer buffer, int offset, int length) {
+    if (buffer.getByte(offset + 9) != 'a'
+        || number(buffer, offset + 10, 2) < 0
+        || !ascii(buffer, offset, offset + LEADER_LENGTH)) {
+      return null;
+    }
+    int base = number(buffer, offset + 12, 5);
+    if (base <= LEADER_LENGTH || base > length - 1
+        || (base - LEADER_LENGTH - 1) % 12 != 0
+        || buffer.getByte(offset + base - 1) != FIELD_TERMINATOR) {
+      return null;
+    }
+    JsonArray controlFields = new JsonArray();
+    JsonArray dataFields = new JsonArray();
+    int dataEnd = offset + length - 1;
+    for (int entry = offset + LEADER_LENGTH; entry < offset + base - 1; entry += 12) {
+      int fieldLength = number(buffer, entry + 3, 4);
+      int fieldStart = number(buffer, entry + 7, 5);
+      if (fieldLength < 1 || fieldStart < 0 || !ascii(buffer, entry, entry + 3)) {
+        return null;
+      }
+      int start = offset + base + fieldStart;
+      int end = start + fieldLength - 1; // excluding field terminator
+      if (end >= dataEnd || buffer.getByte(end) != FIELD_TERMINATOR) {
+        return null;
+      }
+      String tag = buffer.getString(entry, entry + 3);
+      if (isControlField(buffer, entry)) {
+        JsonObject field = controlField(buffer, start, end, tag);
+        if (field == null) {
+          return null;
+        }
+        controlFields.add(field);
+      } else {
+        JsonObject field = dataField(buffer, start, end, tag);
+        if (field == null) {
+          return null;
+        }
+        dataFields.add(field);
+      }
+    }
+    JsonObject out = new JsonObject();
+    out.put("leader", buffer.getString(offset, offset + LEADER_LENGTH));
+    out.put("fields", controlFields.addAll(dataFields));
+    return out;
+  }
+
+  private static JsonObject controlField(Buffer buffer, int start, int end, String tag) {
+    for (int i = start; i < end; i++) {
+      if (buffer.getByte(i) == SUBFIELD_DELIMITER) {
+        return null;
+      }
+    }
+    String data = utf8(buffer, start, end);
+    if (data == null) {
+      return null;
+    }
+    return new JsonObject().put(tag, escape(data));
+  }
+
+  private static JsonObject dataField(Buffer buffer, int start, int end, String tag) {
+    if (end - start < 2
+        || !isCode(buffer.getByte(start), true) || !isCode(buffer.getByte(start + 1), true)) {
+      return null;
+    }
+    JsonArray subfields = new JsonArray();
+    int pos = start + 2;
+    while (pos < end) {
+      if (buffer.getByte(pos) != SUBFIELD_DELIMITER || pos + 1 >= end
+          || !isCode(buffer.getByte(pos + 1), false)) {
+        return null;
+      }
+      int dataStart = pos + 2;
+      pos = dataStart;
+      while (pos < end && buffer.getByte(pos) != SUBFIELD_DELIMITER) {
+        pos++;
+      }
+      String data = utf8(buffer, dataStart, pos);
+      if (data == null) {
+        return null;
+      }
+      subfields.add(new JsonObject()
+          .put(String.valueOf((char) buffer.getByte(dataStart - 1)), escape(data)));
+    }
+    JsonObject tagObject = new JsonObject()
+        .put("subfields", subfields)
+        .put("ind1", String.valueOf((char) buffer.getByte(start)))
+        .put("ind2", String.valueOf((char) buffer.getByte(start + 1)));
+    return new JsonObject().put(tag, tagObject);
+  }
+
+  private static boolean isControlField(Buffer buffer, int tag) {
+    byte b = buffer.getByte(tag + 2);
+    return buffer.getByte(tag) == '0' && buffer.getByte(tag + 1) == '0' && b >= '0' && b <= '9';
+  }
+
+  private static boolean isCode(byte b, boolean indicator) {
+    return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (indicator && b == ' ');
+  }
+
+  private static boolean ascii(Buffer buffer, int start, int end) {
+    for (int i = start; i < end; i++) {
+      byte b = buffer.getByte(i);
+      if (b < 0x20 || b > 0x7e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parse decimal number.
+   * @return number; -1 if not all digits
+   */
+  static int number(Buffer buffer, int offset, int digits) {
+    int n = 0;
+    for (int i = offset; i < offset + digits; i++) {
+      byte b = buffer.getByte(i);
+      if (b < '0' || b > '9') {
+        return -1;
+      }
+      n = n * 10 + b - '0';
+    }
+    return n;
+  }
+
+  /**
+   * Decode UTF-8.
+   * @return string; null if not valid UTF-8
+   */
+  static String utf8(Buffer buffer, int start, int end) {
+    int i = start;
+    while (i < end) {
+      int b = buffer.getByte(i) & 0xff;
+      int more;
+      int min = 0x80;
+      int max = 0xbf;
+      if (b < 0x80) {
+        i++;
+        continue;
+      } else if (b >= 0xc2 && b <= 0xdf) {
+        more = 1;
+      } else if (b >= 0xe0 && b <= 0xef) {
+        more = 2;
+        if (b == 0xe0) {
+          min = 0xa0;
+        } else if (b == 0xed) {
+          max = 0x9f;
+        }
+      } else if (b >= 0xf0 && b <= 0xf4) {
+        more = 3;
+        if (b == 0xf0) {
+          min = 0x90;
+        } else if (b == 0xf4) {
+          max = 0x8f;
+        }
+      } else {
+        return null;
+      }
+      if (i + more >= end) {
+        return null;
+      }
+      int c = buffer.getByte(i + 1) & 0xff;
+      if (c < min || c > max) {
+        return null;
+      }
+      for (int j = 2; j <= more; j++) {
+        c = buffer.getByte(i + j) & 0xff;
+        if (c < 0x80 || c > 0xbf) {
+          return null;
+        }
+      }
+      i += more + 1;
+    }
+    return buffer.getString(start, end, "UTF-8");
+  }
+
+  private static String escape(String in) {
+    //NUL is valid in JSON but not in PG's JSONB
+    return in.replace("\0", "");
+  }
+
+  private static void marc4j(Buffer buffer, int start, int end, List<JsonObject> records) {
+    MarcReader marcReader = new MarcPermissiveStreamReader(
+        new ByteArrayInputStream(buffer.getBytes(start, end)), true, true);
+    while (marcReader.hasNext()) {
+      records.add(MarcToJsonObjectMapper.convert(marcReader.next()));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.indexdata.reservoir.util.readstream;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Maps ISO2709 input to MARC-in-JSON records with {@link Iso2709Decoder}.
+ */
+public class Iso2709Mapper implements Mapper<Buffer, JsonObject> {
+  // consumed input is only cut off the pending buffer once it is this large
+  private static final int COMPACT_SIZE = 64 * 1024;
+
+  private Buffer pendingBuffer = Buffer.buffer();
+  private int offset;
+  private boolean ended;
+  private final Deque<JsonObject> records = new ArrayDeque<>();
+
+  @Override
+  public JsonObject poll() {
+    if (records.isEmpty()) {
+      int sz = 0;
+      while (true) {
+        int add = Marc4jMapper.parseMarcBuffer(pendingBuffer, offset + sz, ended);
+        if (add == 0) {
+          break;
+        }
+        sz += add;
+      }
+      if (sz > 0) {
+        List<JsonObject> decoded = new ArrayList<>();
+        Iso2709Decoder.decode(pendingBuffer, offset, offset + sz, decoded);
+        records.addAll(decoded);
+        offset += sz;
+        if (offset >= COMPACT_SIZE) {
+          pendingBuffer = pendingBuffer.getBuffer(offset, pendingBuffer.length());
+          offset = 0;
+        }
+      }
+    }
+    return records.poll();
+  }
+
+  @Override
+  public void push(Buffer buffer) {
+    pendingBuffer.appendBuffer(buffer);
+  }
+
+  @Override
+  public void end() {
+    ended = true;
+  }
+}
@@ -0,0 +1,51 @@
+package com.indexdata.reservoir.util.readstream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Cuts ISO2709 input into chunks of whole records, using the record length of the leader.
+ */
+class MarcChunker implements Mapper<Buffer, Buffer> {
+  private final int chunkSize;
+  private Buffer pendingBuffer = Buffer.buffer();
+  private boolean ended;
+
+  /**
+   * Create chunker.
+   * @param chunkSize chunks are at least this size, except for the last one
+   */
+  MarcChunker(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public void push(Buffer buffer) {
+    pendingBuffer.appendBuffer(buffer);
+  }
+
+  @Override
+  public Buffer poll() {
+    if (!ended && pendingBuffer.length() < chunkSize) {
+      return null;
+    }
+    int sz = 0;
+    while (sz < chunkSize) {
+      int add = Marc4jMapper.parseMarcBuffer(pendingBuffer, sz, ended);
+      if (add == 0) {
+        break;
+      }
+      sz += add;
+    }
+    if (sz == 0) {
+      return null;
+    }
+    Buffer chunk = pendingBuffer.slice(0, sz);
+    pendingBuffer = pendingBuffer.getBuffer(sz, pendingBuffer.length());
+    return chunk;
+  }
+
+  @Override
+  public void end() {
+    ended = true;
+  }
+}
@@ -31,7 +31,7 @@ public class MarcToJsonObjectMapper implements Mapper<Record, JsonObject> {
     // no special end marker (whole items)
   }
 
-  private JsonObject convert(Record in) {
+  static JsonObject convert(Record in) {
     JsonObject out = new JsonObject();
     out.put("leader", escape(in.getLeader().toString()));
     JsonArray fields = new JsonArray();
@@ -0,0 +1,53 @@
+package com.indexdata.reservoir.util.readstream;
+
+import com.indexdata.reservoir.util.XmlMetadataParserMarcInJson;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Converts events of a MARCXML collection to MARC-in-JSON records.
+ */
+class MarcXmlCollection {
+  private int level;
+  private final XmlMetadataParserMarcInJson parserMarcInJson = new XmlMetadataParserMarcInJson();
+
+  /**
+   * Handle current event of parser.
+   * @param xmlStreamReader parser
+   * @return record if event is the end of a record; null otherwise
+   * @throws DecodeException if not a MARCXML collection
+   */
+  JsonObject handle(XMLStreamReader xmlStreamReader) {
+    int e = xmlStreamReader.getEventType();
+    if (XMLStreamConstants.START_ELEMENT == e) {
+      level++;
+      String elem = xmlStreamReader.getLocalName();
+      if (level < 2) {
+        if (!"collection".equals(elem)) {
+          throw new DecodeException("Expected <collection> as root tag. Got " + elem);
+        }
+      } else { // skip collection, but supply record and below
+        if (level == 2) {
+          if (!"record".equals(elem)) {
+            throw new DecodeException("Expected <record> as 2nd-level. Got " + elem);
+          }
+          parserMarcInJson.init();
+        }
+        parserMarcInJson.handle(xmlStreamReader);
+      }
+    } else if (XMLStreamConstants.END_ELEMENT == e) {
+      level--;
+      if (level >= 1) { // in record and below
+        parserMarcInJson.handle(xmlStreamReader);
+      }
+      if (level == 1) { // record end
+        return parserMarcInJson.result();
+      }
+    } else if (level >= 2) { // pass c-data and stuff when in collection/record .
+      parserMarcInJson.handle(xmlStreamReader);
+    }
+    return null;
+  }
+}
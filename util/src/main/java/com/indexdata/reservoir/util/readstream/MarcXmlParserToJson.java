@@ -1,11 +1,8 @@
 package com.indexdata.reservoir.util.readstream;
 
-import com.indexdata.reservoir.util.XmlMetadataParserMarcInJson;
 import io.vertx.core.Handler;
-import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.streams.ReadStream;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamReader;
 
 /**
@@ -18,10 +15,9 @@ public class MarcXmlParserToJson implements ReadStream<JsonObject>, Handler<XMLS
   private Handler<Throwable> exceptionHandler;
   private Handler<JsonObject> eventHandler;
   private Handler<Void> endHandler;
-  private int level;
 
   private boolean ended;
-  final XmlMetadataParserMarcInJson parserMarcInJson = new XmlMetadataParserMarcInJson();
+  private final MarcXmlCollection collection = new MarcXmlCollection();
 
   /**
    * Creates stream conversion from MARCXML collection to MARC-in-JSON.
@@ -47,41 +43,17 @@ public class MarcXmlParserToJson implements ReadStream<JsonObject>, Handler<XMLS
   @Override
   public void handle(XMLStreamReader xmlStreamReader) {
     try {
-      int e = xmlStreamReader.getEventType();
-      if (XMLStreamConstants.START_ELEMENT == e) {
-        level++;
-        String elem = xmlStreamReader.getLocalName();
-        if (level < 2) {
-          if (!"collection".equals(elem)) {
-            throw new DecodeException("Expected <collection> as root tag. Got " + elem);
-          }
-        } else { // skip collection, but supply record and below
-          if (level == 2) {
-            if (!"record".equals(elem)) {
-              throw new DecodeException("Expected <record> as 2nd-level. Got " + elem);
-            }
-            parserMarcInJson.init();
-          }
-          parserMarcInJson.handle(xmlStreamReader);
+      JsonObject result = collection.handle(xmlStreamReader);
+      if (result != null) {
+        if (demand == 0L) {
+          stream.pause();
+        } else if (demand != Long.MAX_VALUE) {
+          --demand;
+          stream.resume();
         }
-      } else if (XMLStreamConstants.END_ELEMENT == e) {
-        level--;
-        if (level >= 1) { // in record and below
-          parserMarcInJson.handle(xmlStreamReader);
+        if (eventHandler != null) {
+          eventHandler.handle(result);
         }
-        if (level == 1) { // record end
-          if (demand == 0L) {
-            stream.pause();
-          } else if (demand != Long.MAX_VALUE) {
-            --demand;
-            stream.resume();
-          }
-          if (eventHandler != null) {
-            eventHandler.handle(parserMarcInJson.result());
-          }
-        }
-      } else if (level >= 2) { // pass c-data and stuff when in collection/record .
-        parserMarcInJson.handle(xmlStreamReader);
       }
     } catch (Exception ex) {
       if (exceptionHandler != null) {
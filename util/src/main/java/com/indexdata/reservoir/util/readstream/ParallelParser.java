@@ -0,0 +1,268 @@
+package com.indexdata.reservoir.util.readstream;
+
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses a stream in chunks on worker threads.
+ *
+ * <p>The input is cut into chunks of whole records on the event loop, which is cheap. The
+ * chunks are parsed with {@link Vertx#executeBlocking} so that several chunks are parsed in
+ * parallel and the event loop is free to serve other requests. Records are emitted in
+ * input order. The input is paused while the given number of chunks are being parsed or
+ * waiting to be emitted, so at most that many chunks are held in memory.
+ *
+ * @param <T> record type
+ */
+public class ParallelParser<T> implements ReadStream<T> {
+
+  /** Default size of chunks. */
+  public static final int CHUNK_SIZE = 256 * 1024;
+
+  private static final XMLInputFactory xmlInputFactory = new InputFactoryImpl();
+
+  /**
+   * Parser of one chunk.
+   * @param <T> record type
+   */
+  @FunctionalInterface
+  public interface ChunkParser<T> {
+    /**
+     * Parse chunk; called on a worker thread.
+     * @param chunk chunk from the chunker
+     * @return records in order
+     * @throws Exception on parse errors
+     */
+    List<T> parse(Buffer chunk) throws Exception;
+  }
+
+  private final Vertx vertx;
+  private final ReadStream<Buffer> stream;
+  private final Mapper<Buffer, Buffer> chunker;
+  private final ChunkParser<T> chunkParser;
+  private final int parallel;
+  private final Deque<Future<List<T>>> pending = new ArrayDeque<>();
+  private Iterator<T> current = Collections.emptyIterator();
+  private long demand = Long.MAX_VALUE;
+  private boolean streamEnded;
+  private boolean ended;
+  private boolean emitting;
+  private Handler<T> eventHandler;
+  private Handler<Void> endHandler;
+  private Handler<Throwable> exceptionHandler;
+
+  /**
+   * Create parser.
+   * @param vertx Vert.x for worker threads
+   * @param stream input
+   * @param chunker cuts input into chunks of whole records
+   * @param chunkParser parses chunk
+   * @param parallel number of chunks parsed at a time
+   */
+  public ParallelParser(Vertx vertx, ReadStream<Buffer> stream, Mapper<Buffer, Buffer> chunker,
+      ChunkParser<T> chunkParser, int parallel) {
+    if (parallel < 1) {
+      throw new IllegalArgumentException("parallel must be at least 1");
+    }
+    this.vertx = vertx;
+    this.stream = stream;
+    this.chunker = chunker;
+    this.chunkParser = chunkParser;
+    this.parallel = parallel;
+    stream.handler(buffer -> {
+      chunker.push(buffer);
+      checkPending();
+    });
+    stream.endHandler(v -> {
+      streamEnded = true;
+      chunker.end();
+      checkPending();
+    });
+    stream.exceptionHandler(this::fail);
+  }
+
+  /**
+   * Create parser for ISO2709 that produces MARC-in-JSON.
+   * @param vertx Vert.x
+   * @param stream input
+   * @param parallel number of chunks parsed at a time
+   * @return parser
+   */
+  public static ParallelParser<JsonObject> marcToJson(Vertx vertx, ReadStream<Buffer> stream,
+      int parallel) {
+    return new ParallelParser<>(vertx, stream, new MarcChunker(CHUNK_SIZE),
+        ParallelParser::parseMarc, parallel);
+  }
+
+  /**
+   * Create parser for MARCXML collection that produces MARC-in-JSON.
+   * @param vertx Vert.x
+   * @param stream input
+   * @param parallel number of chunks parsed at a time
+   * @return parser
+   */
+  public static ParallelParser<JsonObject> marcXmlToJson(Vertx vertx, ReadStream<Buffer> stream,
+      int parallel) {
+    return new ParallelParser<>(vertx, stream, new XmlChunker(CHUNK_SIZE),
+        ParallelParser::parseMarcXml, parallel);
+  }
+
+  static List<JsonObject> parseMarc(Buffer chunk) {
+    List<JsonObject> records = new ArrayList<>();
+    Iso2709Decoder.decode(chunk, 0, chunk.length(), records);
+    return records;
+  }
+
+  static List<JsonObject> parseMarcXml(Buffer chunk) throws Exception {
+    List<JsonObject> records = new ArrayList<>();
+    MarcXmlCollection collection = new MarcXmlCollection();
+    XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(
+        new ByteArrayInputStream(chunk.getBytes()));
+    try {
+      while (xmlStreamReader.hasNext()) {
+        xmlStreamReader.next();
+        JsonObject result = collection.handle(xmlStreamReader);
+        if (result != null) {
+          records.add(result);
+        }
+      }
+    } finally {
+      xmlStreamReader.close();
+    }
+    return records;
+  }
+
+  @Override
+  public ReadStream<T> exceptionHandler(Handler<Throwable> handler) {
+    exceptionHandler = handler;
+    return this;
+  }
+
+  @Override
+  public ReadStream<T> handler(Handler<T> handler) {
+    eventHandler = handler;
+    return this;
+  }
+
+  @Override
+  public ReadStream<T> pause() {
+    demand = 0L;
+    return this;
+  }
+
+  @Override
+  public ReadStream<T> resume() {
+    return fetch(Long.MAX_VALUE);
+  }
+
+  @Override
+  public ReadStream<T> fetch(long l) {
+    demand += l;
+    if (demand < 0L) {
+      demand = Long.MAX_VALUE;
+    }
+    checkPending();
+    return this;
+  }
+
+  @Override
+  public ReadStream<T> endHandler(Handler<Void> handler) {
+    if (!ended) {
+      endHandler = handler;
+    }
+    return this;
+  }
+
+  private void submit() {
+    while (pending.size() < parallel) {
+      Buffer chunk = chunker.poll();
+      if (chunk == null) {
+        break;
+      }
+      Future<List<T>> future = vertx.executeBlocking(() -> chunkParser.parse(chunk), false);
+      pending.add(future);
+      future.onComplete(x -> checkPending());
+    }
+    if (pending.size() < parallel) {
+      stream.resume();
+    } else {
+      stream.pause();
+    }
+  }
+
+  private void checkPending() {
+    if (emitting || ended) {
+      return;
+    }
+    emitting = true;
+    try {
+      submit();
+      while (demand > 0L) {
+        if (current.hasNext()) {
+          if (demand != Long.MAX_VALUE) {
+            --demand;
+          }
+          T t = current.next();
+          if (eventHandler != null) {
+            eventHandler.handle(t);
+          }
+        } else if (!pending.isEmpty() && pending.peek().isComplete()) {
+          Future<List<T>> future = pending.remove();
+          if (future.failed()) {
+            emitting = false;
+            fail(future.cause());
+            return;
+          }
+          current = future.result().iterator();
+          submit();
+        } else {
+          break;
+        }
+      }
+      if (streamEnded && pending.isEmpty() && !current.hasNext()) {
+        end();
+      }
+    } catch (Exception e) {
+      emitting = false;
+      fail(e);
+    } finally {
+      emitting = false;
+    }
+  }
+
+  private void end() {
+    ended = true;
+    Handler<Void> handler = endHandler;
+    endHandler = null;
+    if (handler != null) {
+      handler.handle(null);
+    }
+  }
+
+  private void fail(Throwable e) {
+    // unregister so no more errors may be raised
+    stream.handler(null);
+    pending.clear();
+    current = Collections.emptyIterator();
+    if (exceptionHandler != null) {
+      exceptionHandler.handle(e);
+    }
+    if (!ended) {
+      end();
+    }
+  }
+}
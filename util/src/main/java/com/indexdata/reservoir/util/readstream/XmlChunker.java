@@ -0,0 +1,206 @@
+package com.indexdata.reservoir.util.readstream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Cuts an XML collection into documents of whole records.
+ *
+ * <p>Each chunk is the input up to and including the start tag of the root element, followed
+ * by records and the end tag of the root element, so it can be parsed on its own. Records
+ * are found by their end tag {@code </record>}, with or without a namespace prefix; that
+ * text must not occur in comments or CDATA sections. The input must use an encoding where
+ * markup is ASCII, such as UTF-8. Input that starts with a UTF-16 byte order mark, or has an
+ * empty root element, is passed on as one chunk.
+ */
+class XmlChunker implements Mapper<Buffer, Buffer> {
+  private final int chunkSize;
+  private Buffer pendingBuffer = Buffer.buffer();
+  private boolean ended;
+  private boolean done;
+  private boolean noSplit;
+  // input up to and including root start tag
+  private Buffer head;
+  private Buffer rootEnd;
+  // offset in pendingBuffer from where to look for record end tags
+  private int scanOffset;
+  // offset in pendingBuffer just after last record end tag
+  private int recordsEnd;
+
+  /**
+   * Create chunker.
+   * @param chunkSize chunks hold records of at least this size, except for the last one
+   */
+  XmlChunker(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public void push(Buffer buffer) {
+    pendingBuffer.appendBuffer(buffer);
+  }
+
+  @Override
+  public void end() {
+    ended = true;
+  }
+
+  @Override
+  public Buffer poll() {
+    if (done) {
+      return null;
+    }
+    if (head == null && !noSplit) {
+      findRoot();
+    }
+    if (head != null) {
+      scanRecords();
+      if (recordsEnd >= chunkSize && !ended) {
+        Buffer chunk = head.copy()
+            .appendBuffer(pendingBuffer, 0, recordsEnd)
+            .appendBuffer(rootEnd);
+        pendingBuffer = pendingBuffer.getBuffer(recordsEnd, pendingBuffer.length());
+        scanOffset -= recordsEnd;
+        recordsEnd = 0;
+        return chunk;
+      }
+    }
+    if (!ended) {
+      return null;
+    }
+    done = true;
+    if (head == null) {
+      return pendingBuffer.length() == 0 ? null : pendingBuffer;
+    }
+    return head.appendBuffer(pendingBuffer);
+  }
+
+  private void findRoot() {
+    int length = pendingBuffer.length();
+    if (length >= 2) {
+      int b0 = pendingBuffer.getByte(0) & 0xff;
+      int b1 = pendingBuffer.getByte(1) & 0xff;
+      if ((b0 == 0xfe && b1 == 0xff) || (b0 == 0xff && b1 == 0xfe)) {
+        noSplit = true;
+        return;
+      }
+    }
+    int i = 0;
+    while (i < length) {
+      if (pendingBuffer.getByte(i) != '<') {
+        i++;
+        continue;
+      }
+      if (i + 1 >= length) {
+        return;
+      }
+      byte next = pendingBuffer.getByte(i + 1);
+      int end;
+      if (next == '?') {
+        end = indexOf("?>", i + 2);
+      } else if (next == '!') {
+        end = startsWith("<!--", i) ? indexOf("-->", i + 4) : indexOf(">", i + 2);
+      } else {
+        end = tagEnd(i + 1);
+        if (end < 0) {
+          return;
+        }
+        if (pendingBuffer.getByte(end - 2) == '/') {
+          noSplit = true;
+          return;
+        }
+        int nameEnd = i + 1;
+        while (nameEnd < end - 1 && !isNameEnd(pendingBuffer.getByte(nameEnd))) {
+          nameEnd++;
+        }
+        rootEnd = Buffer.buffer("</")
+            .appendBuffer(pendingBuffer, i + 1, nameEnd - i - 1)
+            .appendString(">");
+        head = pendingBuffer.getBuffer(0, end);
+        pendingBuffer = pendingBuffer.getBuffer(end, length);
+        return;
+      }
+      if (end < 0) {
+        return;
+      }
+      i = end;
+    }
+  }
+
+  private void scanRecords() {
+    int length = pendingBuffer.length();
+    while (true) {
+      int nameStart = indexOf("</", scanOffset);
+      if (nameStart < 0) {
+        scanOffset = Math.max(scanOffset, length - 1);
+        return;
+      }
+      int end = tagEnd(nameStart);
+      if (end < 0) {
+        scanOffset = nameStart - 2;
+        return;
+      }
+      int nameEnd = nameStart;
+      while (nameEnd < end - 1 && !isNameEnd(pendingBuffer.getByte(nameEnd))) {
+        nameEnd++;
+      }
+      String name = pendingBuffer.getString(nameStart, nameEnd);
+      if ("record".equals(name.substring(name.indexOf(':') + 1))) {
+        recordsEnd = end;
+      }
+      scanOffset = end;
+    }
+  }
+
+  private static boolean isNameEnd(byte b) {
+    return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  /**
+   * Find end of tag, skipping quoted attribute values.
+   * @param offset offset after the opening less-than sign
+   * @return offset just after the greater-than sign; -1 if incomplete
+   */
+  private int tagEnd(int offset) {
+    byte quote = 0;
+    for (int i = offset; i < pendingBuffer.length(); i++) {
+      byte b = pendingBuffer.getByte(i);
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private boolean startsWith(String s, int offset) {
+    if (offset + s.length() > pendingBuffer.length()) {
+      return false;
+    }
+    for (int j = 0; j < s.length(); j++) {
+      if (pendingBuffer.getByte(offset + j) != s.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find ASCII string.
+   * @param s string to find
+   * @param offset where to start looking
+   * @return offset just after the string; -1 if not found
+   */
+  private int indexOf(String s, int offset) {
+    for (int i = offset; i + s.length() <= pendingBuffer.length(); i++) {
+      if (startsWith(s, i)) {
+        return i + s.length();
+      }
+    }
+    return -1;
+  }
+}
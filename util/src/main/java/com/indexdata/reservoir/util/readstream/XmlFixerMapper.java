@@ -3,6 +3,11 @@ package com.indexdata.reservoir.util.readstream;
 import io.vertx.core.buffer.Buffer;
 import java.util.List;
 
+/**
+ * Replaces invalid UTF-8 sequences, control characters and bad entities in XML.
+ *
+ * <p>Input without anything to fix is passed on as the same buffer, without copying.
+ */
 public class XmlFixerMapper implements Mapper<Buffer, Buffer> {
 
   private static final String REPLACEMENT_CHAR = "&#xFFFD;";
@@ -16,6 +21,9 @@ public class XmlFixerMapper implements Mapper<Buffer, Buffer> {
 
   Buffer result;
 
+  // result is the pushed buffer itself; it must be copied before appending to it
+  private boolean resultShared;
+
   Buffer pending = null;
 
   private int numberOfFixes = 0;
@@ -134,6 +142,9 @@ public class XmlFixerMapper implements Mapper<Buffer, Buffer> {
     Buffer input;
     if (result == null) {
       result = Buffer.buffer();
+    } else if (resultShared) {
+      result = result.copy();
+      resultShared = false;
     }
     // In most cases pending is null; especially for large buffers
     if (pending == null) {
@@ -167,7 +178,13 @@ public class XmlFixerMapper implements Mapper<Buffer, Buffer> {
       }
     }
     checkSkipSequence(input);
-    result.appendBuffer(input, tail, front - tail);
+    if (tail == 0 && result.length() == 0) {
+      // nothing fixed: pass the input on as is
+      result = input;
+      resultShared = true;
+    } else {
+      result.appendBuffer(input, tail, front - tail);
+    }
     pending = null;
   }
 
@@ -265,6 +282,7 @@ public class XmlFixerMapper implements Mapper<Buffer, Buffer> {
     }
     Buffer ret = result;
     result = null;
+    resultShared = false;
     return ret;
   }
 
@@ -1,32 +1,53 @@
 package com.indexdata.reservoir.util.readstream;
 
-import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncByteBufferFeeder;
 import com.fasterxml.aalto.AsyncXMLInputFactory;
 import com.fasterxml.aalto.AsyncXMLStreamReader;
 import com.fasterxml.aalto.stax.InputFactoryImpl;
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.buffer.BufferInternal;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
 /**
  * Stream mapper based on <a href="https://github.com/FasterXML/aalto-xml">Aalto XML</a>.
+ *
+ * <p>The parser reads the memory of the pushed buffers through {@link ByteBuffer} views, so
+ * the input is not copied. Buffers must not be modified after they are pushed.
  */
 public class XmlMapper
     implements Mapper<Buffer, XMLStreamReader> {
-  private final AsyncXMLStreamReader<AsyncByteArrayFeeder> parser;
+  private final AsyncXMLStreamReader<AsyncByteBufferFeeder> parser;
+
+  // a buffer may consist of several components; they are fed one at a time
+  private final Deque<ByteBuffer> input = new ArrayDeque<>();
 
   private boolean ended;
 
   XmlMapper() {
     AsyncXMLInputFactory factory = new InputFactoryImpl();
-    parser = factory.createAsyncForByteArray();
+    parser = factory.createAsyncForByteBuffer();
   }
 
   @Override
   public XMLStreamReader poll() {
     try {
-      if (parser.hasNext() && parser.next() != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
-        return parser;
+      while (true) {
+        if (parser.hasNext() && parser.next() != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+          return parser;
+        }
+        ByteBuffer next = input.poll();
+        if (next == null) {
+          break;
+        }
+        parser.getInputFeeder().feedInput(next);
+        if (input.isEmpty() && ended) {
+          parser.getInputFeeder().endOfInput();
+        }
       }
       // even though we have told the parse of endOfInput, it still does not throw an
       // error when on incomplete input, so we have to make that check ourselves.
@@ -42,16 +63,36 @@ public class XmlMapper
   @Override
   public void end() {
     ended = true;
-    parser.getInputFeeder().endOfInput();
+    if (input.isEmpty()) {
+      parser.getInputFeeder().endOfInput();
+    }
   }
 
   @Override
   public void push(Buffer buffer) {
-    byte[] bytes = buffer.getBytes();
-    try {
-      parser.getInputFeeder().feedInput(bytes, 0, bytes.length);
-    } catch (XMLStreamException e) {
-      throw new XmlMapperException(e);
+    if (buffer.length() == 0) {
+      return;
+    }
+    ByteBuffer[] components;
+    if (buffer instanceof BufferInternal bufferInternal) {
+      ByteBuf byteBuf = bufferInternal.getByteBuf();
+      components = byteBuf.nioBuffers(byteBuf.readerIndex(), byteBuf.readableBytes());
+    } else {
+      components = new ByteBuffer[] { ByteBuffer.wrap(buffer.getBytes()) };
+    }
+    boolean feed = input.isEmpty();
+    for (ByteBuffer component : components) {
+      if (component.hasRemaining()) {
+        input.add(component);
+      }
+    }
+    if (feed && !input.isEmpty()) {
+      try {
+        // throws if the parser has not consumed previous input yet
+        parser.getInputFeeder().feedInput(input.remove());
+      } catch (XMLStreamException e) {
+        throw new XmlMapperException(e);
+      }
     }
   }
 
@@ -0,0 +1,77 @@
+package com.indexdata.reservoir.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+  @Test
+  public void badLimits() {
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(1, 0, 1));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(1, 2, 1));
+  }
+
+  @Test
+  public void initialClamped() {
+    assertThat(new AdaptiveLimit(1, 2, 10).getLimit(), is(2));
+    assertThat(new AdaptiveLimit(20, 2, 10).getLimit(), is(10));
+  }
+
+  @Test
+  public void fixed() {
+    AdaptiveLimit limit = AdaptiveLimit.fixed(5);
+    for (int i = 0; i < 100; i++) {
+      limit.record(1000L * (i + 1), 5);
+    }
+    assertThat(limit.getLimit(), is(5));
+  }
+
+  @Test
+  public void increaseWhenUsed() {
+    AdaptiveLimit limit = new AdaptiveLimit(4, 2, 100);
+    for (int i = 0; i < 1000; i++) {
+      limit.record(1000L, limit.getLimit());
+    }
+    assertThat(limit.getLimit(), is(greaterThan(20)));
+    for (int i = 0; i < 10000; i++) {
+      limit.record(1000L, limit.getLimit());
+    }
+    assertThat(limit.getLimit(), is(100));
+  }
+
+  @Test
+  public void noIncreaseWhenIdle() {
+    AdaptiveLimit limit = new AdaptiveLimit(10, 2, 100);
+    for (int i = 0; i < 1000; i++) {
+      limit.record(1000L, 1);
+    }
+    assertThat(limit.getLimit(), is(10));
+  }
+
+  @Test
+  public void decreaseOnLatency() {
+    AdaptiveLimit limit = new AdaptiveLimit(50, 2, 100);
+    for (int i = 0; i < 10; i++) {
+      limit.record(1000L, 1);
+    }
+    for (int i = 0; i < 100; i++) {
+      limit.record(10000L, 50);
+    }
+    assertThat(limit.getLimit(), is(lessThan(50)));
+    assertThat(limit.getLatency(), is(greaterThan(2000.0)));
+    for (int i = 0; i < 400; i++) {
+      limit.record(100000L, 50);
+    }
+    assertThat(limit.getLimit(), is(2));
+    // baseline follows a lasting change in latency
+    for (int i = 0; i < 10000; i++) {
+      limit.record(100000L, 50);
+    }
+    assertThat(limit.getLimit(), is(greaterThan(2)));
+  }
+}
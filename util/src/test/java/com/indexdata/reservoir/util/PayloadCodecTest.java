@@ -0,0 +1,77 @@
+package com.indexdata.reservoir.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadCodecTest {
+
+  static JsonObject payload() {
+    JsonArray fields = new JsonArray()
+        .add(new JsonObject().put("001", "123"))
+        .add(new JsonObject().put("008", "070529s9999    xx            000 0 und d"));
+    for (int i = 0; i < 10; i++) {
+      fields.add(new JsonObject().put("650", new JsonObject()
+          .put("subfields", new JsonArray()
+              .add(new JsonObject().put("a", "Subject " + i))
+              .add(new JsonObject().put("x", "Hïstory")))
+          .put("ind1", " ")
+          .put("ind2", "0")));
+    }
+    return new JsonObject()
+        .put("marc", new JsonObject()
+            .put("leader", "00914naa  2200337   450 ")
+            .put("fields", fields));
+  }
+
+  @Test
+  public void roundTrip() {
+    JsonObject payload = payload();
+    for (int level = 1; level <= 9; level++) {
+      Buffer encoded = PayloadCodec.encode(payload, level);
+      assertThat(encoded.length(), lessThan(payload.encode().length() / 3));
+      assertThat(PayloadCodec.decode(encoded), is(payload));
+    }
+  }
+
+  @Test
+  public void empty() {
+    JsonObject payload = new JsonObject();
+    assertThat(PayloadCodec.decode(PayloadCodec.encode(payload, 1)), is(payload));
+  }
+
+  @Test
+  public void unknownFormat() {
+    Buffer encoded = PayloadCodec.encode(payload(), 6);
+    encoded.setByte(0, (byte) 2);
+    DecodeException e = Assert.assertThrows(DecodeException.class,
+        () -> PayloadCodec.decode(encoded));
+    assertThat(e.getMessage(), is("Unknown payload format"));
+    Assert.assertThrows(DecodeException.class, () -> PayloadCodec.decode(Buffer.buffer()));
+  }
+
+  @Test
+  public void truncated() {
+    Buffer encoded = PayloadCodec.encode(payload(), 6);
+    Buffer truncated = encoded.getBuffer(0, encoded.length() / 2);
+    DecodeException e = Assert.assertThrows(DecodeException.class,
+        () -> PayloadCodec.decode(truncated));
+    assertThat(e.getMessage(), is("Truncated payload"));
+  }
+
+  @Test
+  public void corrupt() {
+    Buffer encoded = PayloadCodec.encode(payload(), 6);
+    for (int i = 3; i < encoded.length(); i++) {
+      encoded.setByte(i, (byte) 0xff);
+    }
+    Assert.assertThrows(DecodeException.class, () -> PayloadCodec.decode(encoded));
+  }
+}
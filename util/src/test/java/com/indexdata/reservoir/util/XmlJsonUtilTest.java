@@ -1,5 +1,6 @@
 package com.indexdata.reservoir.util;
 
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -234,6 +235,24 @@ public class XmlJsonUtilTest {
     Assert.assertEquals(MARCXML_BAD_CHAR_SAMPLE, got);
   }
 
+  @Test
+  public void writeJsonToMarcXml() {
+    Buffer buffer = Buffer.buffer("<collection>");
+    JsonToMarcXml.write(buffer, MARCJSON1_SAMPLE);
+    JsonToMarcXml.write(buffer, MARCJSON_BAD_CHAR_SAMPLE);
+    Assert.assertEquals("<collection>" + MARCXML1_SAMPLE + MARCXML_BAD_CHAR_SAMPLE,
+        buffer.toString());
+  }
+
+  @Test
+  public void appendXmlText() {
+    for (String s : List.of("", "a&b<c>'\"", "\u0001\t\n\r\u001f", "\u00e9\u4e2d\ud83d\ude00",
+        "\ud800x\udfff", "\ufffe\uffff\u0080\u07ff\u0800\ud7ff")) {
+      Assert.assertEquals(EncodeXmlText.encodeXmlText(s),
+          EncodeXmlText.appendXmlText(Buffer.buffer(), s).toString());
+    }
+  }
+
   @Test
   public void convertJsonToMarcXmlStream() throws XMLStreamException {
     XMLInputFactory factory = XMLInputFactory.newInstance();
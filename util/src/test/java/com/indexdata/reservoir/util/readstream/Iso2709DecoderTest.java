@@ -0,0 +1,147 @@
+package com.indexdata.reservoir.util.readstream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.marc4j.marc.Record;
+
+public class Iso2709DecoderTest {
+
+  static Buffer resource(String name) throws IOException {
+    try (InputStream in = Iso2709DecoderTest.class.getClassLoader().getResourceAsStream(name)) {
+      return Buffer.buffer(in.readAllBytes());
+    }
+  }
+
+  static List<JsonObject> marc4j(Buffer buffer) {
+    Marc4jMapper mapper = new Marc4jMapper();
+    mapper.push(buffer);
+    mapper.end();
+    List<JsonObject> records = new ArrayList<>();
+    Record record;
+    while ((record = mapper.poll()) != null) {
+      records.add(MarcToJsonObjectMapper.convert(record));
+    }
+    return records;
+  }
+
+  static List<JsonObject> decode(Buffer buffer) {
+    List<JsonObject> records = new ArrayList<>();
+    Iso2709Decoder.decode(buffer, 0, buffer.length(), records);
+    return records;
+  }
+
+  /**
+   * Make ISO2709 record.
+   * @param leader9 character coding scheme
+   * @param fields tag followed by field data, without field terminator
+   * @return record
+   */
+  static Buffer record(char leader9, String... fields) {
+    Buffer directory = Buffer.buffer();
+    Buffer data = Buffer.buffer();
+    for (int i = 0; i < fields.length; i += 2) {
+      Buffer field = Buffer.buffer(fields[i + 1]).appendByte(Iso2709Decoder.FIELD_TERMINATOR);
+      directory.appendString(fields[i])
+          .appendString(String.format("%04d%05d", field.length(), data.length()));
+      data.appendBuffer(field);
+    }
+    directory.appendByte(Iso2709Decoder.FIELD_TERMINATOR);
+    int base = Iso2709Decoder.LEADER_LENGTH + directory.length();
+    int length = base + data.length() + 1;
+    return Buffer.buffer(String.format("%05dnam %c22%05d   4500", length, leader9, base))
+        .appendBuffer(directory)
+        .appendBuffer(data)
+        .appendByte(Iso2709Decoder.RECORD_TERMINATOR);
+  }
+
+  @Test
+  public void sameAsMarc4j() throws IOException {
+    for (String name : List.of("marc3.marc", "mfhd.marc", "mfhd-no-parent.marc")) {
+      Buffer buffer = resource(name);
+      assertThat(name, decode(buffer), is(marc4j(buffer)));
+    }
+  }
+
+  @Test
+  public void utf8() {
+    Buffer buffer = record('a', "245", "10\u001faKøbenhavn – 😀",
+        "001", "id1", "100", "1 \u001faName\u001fd1900-");
+    JsonObject record = Iso2709Decoder.decode(buffer, 0, buffer.length());
+    assertThat(record.getString("leader"), is(buffer.getString(0, 24)));
+    JsonArray fields = record.getJsonArray("fields");
+    assertThat(fields.getJsonObject(0).getString("001"), is("id1"));
+    JsonObject f245 = fields.getJsonObject(1).getJsonObject("245");
+    assertThat(f245.getString("ind1"), is("1"));
+    assertThat(f245.getString("ind2"), is("0"));
+    assertThat(f245.getJsonArray("subfields").getJsonObject(0).getString("a"),
+        is("København – 😀"));
+    assertThat(fields.getJsonObject(2).getJsonObject("100").getJsonArray("subfields")
+        .getJsonObject(1).getString("d"), is("1900-"));
+    assertThat(List.of(record), is(marc4j(buffer)));
+  }
+
+  @Test
+  public void nulRemoved() {
+    Buffer buffer = record('a', "001", "a\u0000b", "245", "00\u001fac\u0000d");
+    JsonObject record = Iso2709Decoder.decode(buffer, 0, buffer.length());
+    assertThat(record.encode(), is(marc4j(buffer).get(0).encode()));
+  }
+
+  @Test
+  public void notHandled() {
+    // MARC-8
+    Buffer buffer = record(' ', "001", "1");
+    assertThat(Iso2709Decoder.decode(buffer, 0, buffer.length()), is(nullValue()));
+    // invalid UTF-8
+    buffer = record('a', "001", "1", "245", "00\u001fa~");
+    buffer.setByte(buffer.length() - 3, (byte) 0xff);
+    assertThat(Iso2709Decoder.decode(buffer, 0, buffer.length()), is(nullValue()));
+    // uppercase subfield code
+    buffer = record('a', "245", "00\u001fAx");
+    assertThat(Iso2709Decoder.decode(buffer, 0, buffer.length()), is(nullValue()));
+    // control field with subfield
+    buffer = record('a', "001", "\u001fax");
+    assertThat(Iso2709Decoder.decode(buffer, 0, buffer.length()), is(nullValue()));
+  }
+
+  @Test
+  public void fallbackPerRecord() {
+    Buffer buffer = record('a', "001", "1")
+        .appendBuffer(record('a', "001", "2", "245", "00\u001fAx"))
+        .appendBuffer(record('a', "001", "3"));
+    List<JsonObject> records = decode(buffer);
+    assertThat(records, hasSize(3));
+    assertThat(records, is(marc4j(buffer)));
+  }
+
+  @Test
+  public void mapper() throws IOException {
+    Buffer buffer = resource("marc3.marc").appendBuffer(resource("mfhd-no-parent.marc"));
+    Iso2709Mapper mapper = new Iso2709Mapper();
+    List<JsonObject> records = new ArrayList<>();
+    for (int i = 0; i < buffer.length(); i += 100) {
+      mapper.push(buffer.getBuffer(i, Math.min(i + 100, buffer.length())));
+      JsonObject record;
+      while ((record = mapper.poll()) != null) {
+        records.add(record);
+      }
+    }
+    mapper.end();
+    JsonObject record;
+    while ((record = mapper.poll()) != null) {
+      records.add(record);
+    }
+    assertThat(records, is(marc4j(buffer)));
+  }
+}
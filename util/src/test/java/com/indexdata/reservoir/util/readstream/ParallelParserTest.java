@@ -0,0 +1,169 @@
+package com.indexdata.reservoir.util.readstream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class ParallelParserTest {
+  Vertx vertx;
+
+  @Before
+  public void before() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void after(TestContext context) {
+    vertx.close().onComplete(context.asyncAssertSuccess());
+  }
+
+  static Future<List<String>> getIds(ReadStream<JsonObject> parser) {
+    List<String> ids = new ArrayList<>();
+    Promise<List<String>> promise = Promise.promise();
+    parser.handler(r -> ids.add(r.getJsonArray("fields").getJsonObject(0).getString("001")));
+    parser.endHandler(e -> promise.tryComplete(ids));
+    parser.exceptionHandler(promise::tryFail);
+    parser.resume();
+    return promise.future();
+  }
+
+  Future<List<String>> getIds(String fname, Mapper<Buffer, Buffer> chunker,
+      ParallelParser.ChunkParser<JsonObject> chunkParser) {
+    return vertx.fileSystem().open(fname, new OpenOptions())
+        .compose(file -> getIds(new ParallelParser<>(vertx, file, chunker, chunkParser, 2)));
+  }
+
+  @Test
+  public void marc(TestContext context) {
+    getIds("marc3.marc", new MarcChunker(1), ParallelParser::parseMarc)
+        .onComplete(context.asyncAssertSuccess(ids ->
+            assertThat(ids, contains("   73209622 //r823", "   11224466 ", "   77123332 "))));
+  }
+
+  @Test
+  public void marcOneChunk(TestContext context) {
+    vertx.fileSystem().open("marc3.marc", new OpenOptions())
+        .compose(file -> getIds(ParallelParser.marcToJson(vertx, file, 4)))
+        .onComplete(context.asyncAssertSuccess(ids ->
+            assertThat(ids, contains("   73209622 //r823", "   11224466 ", "   77123332 "))));
+  }
+
+  @Test
+  public void marcXml(TestContext context) {
+    getIds("marc3.xml", new XmlChunker(1), ParallelParser::parseMarcXml)
+        .onComplete(context.asyncAssertSuccess(ids ->
+            assertThat(ids, contains("   73209622 //r823", "   11224466 ", "   77123332 "))));
+  }
+
+  @Test
+  public void marcXmlOneChunk(TestContext context) {
+    vertx.fileSystem().open("marc3.xml", new OpenOptions())
+        .compose(file -> getIds(ParallelParser.marcXmlToJson(vertx, file, 1)))
+        .onComplete(context.asyncAssertSuccess(ids ->
+            assertThat(ids, contains("   73209622 //r823", "   11224466 ", "   77123332 "))));
+  }
+
+  @Test
+  public void marcXmlPrefix(TestContext context) {
+    String rec = "<marc:record><marc:controlfield tag=\"001\">%s</marc:controlfield>"
+        + "</marc:record>\n";
+    Buffer buffer = Buffer.buffer("<?xml version=\"1.0\"?>\n<!-- <record> -->\n"
+        + "<marc:collection xmlns:marc=\"http://www.loc.gov/MARC21/slim\" a=\"x>y\">\n");
+    for (int i = 0; i < 10; i++) {
+      buffer.appendString(String.format(rec, i));
+    }
+    buffer.appendString("</marc:collection>\n");
+    // chunks of 3 records
+    MemoryReadStream rs = new MemoryReadStream(buffer, vertx);
+    getIds(new ParallelParser<>(vertx, rs, new XmlChunker(200), ParallelParser::parseMarcXml, 3))
+        .onComplete(context.asyncAssertSuccess(ids ->
+            assertThat(ids, contains("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"))));
+    rs.run();
+  }
+
+  @Test
+  public void marcXmlNoCollection(TestContext context) {
+    MemoryReadStream rs = new MemoryReadStream(Buffer.buffer("<x/>"), vertx);
+    getIds(ParallelParser.marcXmlToJson(vertx, rs, 2))
+        .onComplete(context.asyncAssertFailure(e ->
+            assertThat(e.getMessage(), is("Expected <collection> as root tag. Got x"))));
+    rs.run();
+  }
+
+  @Test
+  public void marcXmlIncomplete(TestContext context) {
+    MemoryReadStream rs = new MemoryReadStream(Buffer.buffer("<collection><record>"), vertx);
+    getIds(ParallelParser.marcXmlToJson(vertx, rs, 2))
+        .onComplete(context.asyncAssertFailure());
+    rs.run();
+  }
+
+  @Test
+  public void badMarc(TestContext context) {
+    MemoryReadStream rs = new MemoryReadStream(Buffer.buffer("00010xxxxxxxxxxxxxxxxxxxxxxxxx"),
+        vertx);
+    getIds(ParallelParser.marcToJson(vertx, rs, 2))
+        .onComplete(context.asyncAssertFailure(e ->
+            assertThat(e.getMessage(), is("Bad MARC length"))));
+    rs.run();
+  }
+
+  @Test
+  public void exceptionInHandler(TestContext context) {
+    vertx.fileSystem().open("marc3.marc", new OpenOptions())
+        .compose(file -> {
+          ReadStream<JsonObject> parser = ParallelParser.marcToJson(vertx, file, 2);
+          Promise<Void> promise = Promise.promise();
+          parser.handler(r -> {
+            throw new RuntimeException("handler exception");
+          });
+          parser.exceptionHandler(promise::tryFail);
+          parser.endHandler(promise::tryComplete);
+          return promise.future();
+        })
+        .onComplete(context.asyncAssertFailure(e ->
+            assertThat(e.getMessage(), is("handler exception"))));
+  }
+
+  @Test
+  public void pauseFetch(TestContext context) {
+    MemoryReadStream stream = new MemoryReadStream(Buffer.buffer("<collection>"),
+        Buffer.buffer("<record><controlfield tag=\"001\">1</controlfield></record>"),
+        Buffer.buffer("\n"), Buffer.buffer("</collection>"), 1000, vertx);
+    ReadStream<JsonObject> parser = new ParallelParser<>(vertx, stream, new XmlChunker(1000),
+        ParallelParser::parseMarcXml, 2);
+    parser.pause();
+    List<JsonObject> records = new ArrayList<>();
+    Promise<Void> promise = Promise.promise();
+    parser.exceptionHandler(promise::tryFail);
+    parser.endHandler(promise::tryComplete);
+    parser.handler(r -> {
+      records.add(r);
+      if (records.size() % 100 == 0) {
+        parser.pause();
+        vertx.setTimer(1, x -> parser.fetch(100));
+      }
+    });
+    parser.fetch(100);
+    stream.run();
+    promise.future().onComplete(context.asyncAssertSuccess(x ->
+        assertThat(records.size(), is(1000))));
+  }
+}
@@ -3,6 +3,7 @@ package com.indexdata.reservoir.util.readstream;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 import io.vertx.core.buffer.Buffer;
 import org.junit.Test;
@@ -49,6 +50,25 @@ public class XmlFixerMapperTest {
     checkEnd(xmlFixerMapper);
   }
 
+  @Test
+  public void testGoodNoCopy() {
+    XmlFixerMapper xmlFixerMapper = new XmlFixerMapper();
+
+    Buffer good1 = Buffer.buffer("<good>");
+    xmlFixerMapper.push(good1);
+    assertThat(xmlFixerMapper.poll(), is(sameInstance(good1)));
+
+    // not polled in between; first buffer must be left alone
+    Buffer good2 = Buffer.buffer("</good>");
+    xmlFixerMapper.push(good1);
+    xmlFixerMapper.push(good2);
+    assertThat(xmlFixerMapper.poll().toString(), is("<good></good>"));
+    assertThat(good1.toString(), is("<good>"));
+    assertThat(xmlFixerMapper.getNumberOfFixes(), is(0));
+
+    checkEnd(xmlFixerMapper);
+  }
+
   @Test
   public void testSingleCharBad() {
     fixerTest(Buffer.buffer("\t\r\n\f \nJerzy Borzęcki."),
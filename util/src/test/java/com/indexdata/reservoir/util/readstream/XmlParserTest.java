@@ -9,11 +9,13 @@ import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 
+import io.netty.buffer.Unpooled;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.file.OpenOptions;
+import io.vertx.core.internal.buffer.BufferInternal;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import java.util.ArrayList;
@@ -268,4 +270,20 @@ public class XmlParserTest {
     XmlMapperException e = Assert.assertThrows(XmlMapperException.class, () -> xmlMapper.poll());
     assertThat(e.getMessage(), containsString("Unexpected character '<'"));
   }
+
+  @Test
+  public void testComposite() {
+    XmlMapper xmlMapper = new XmlMapper();
+    xmlMapper.push(BufferInternal.buffer(Unpooled.wrappedBuffer(
+        Unpooled.copiedBuffer("<foo>".getBytes()), Unpooled.copiedBuffer("x</foo>".getBytes()))));
+    xmlMapper.end();
+    List<Integer> events = new ArrayList<>();
+    XMLStreamReader poll;
+    while ((poll = xmlMapper.poll()) != null) {
+      events.add(poll.getEventType());
+    }
+    assertThat(events, contains(XMLStreamConstants.START_DOCUMENT,
+        XMLStreamConstants.START_ELEMENT, XMLStreamConstants.CHARACTERS,
+        XMLStreamConstants.END_ELEMENT, XMLStreamConstants.END_DOCUMENT));
+  }
 }